@@ -0,0 +1,91 @@
+package com.sixtyfour.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import com.sixtyfour.Basic;
+import com.sixtyfour.Loader;
+import com.sixtyfour.Logger;
+import com.sixtyfour.cbmnative.PlatformProvider;
+import com.sixtyfour.cbmnative.javascript.PlatformJs;
+import com.sixtyfour.cbmnative.mos6502.c64.Platform64;
+import com.sixtyfour.cbmnative.mos6502.vic20.Platform20;
+import com.sixtyfour.cbmnative.mos6502.x16.PlatformX16;
+import com.sixtyfour.cbmnative.powerscript.PlatformPs;
+import com.sixtyfour.plugins.impl.ConsoleOutputChannel;
+
+/**
+ * Helper methods for the benchmarks. All programs are loaded from
+ * src/test/resources, so the benchmarks have to be run from the project's root
+ * directory.
+ * 
+ * @author EgonOlsen
+ *
+ */
+class BenchmarkSupport {
+
+	static final String RESOURCES = "src/test/resources/";
+
+	/**
+	 * Loads a program from the test resources.
+	 * 
+	 * @param name the file name relative to src/test/resources
+	 * @return the program
+	 */
+	static String[] loadProgram(String name) {
+		return Loader.loadProgram(RESOURCES + name);
+	}
+
+	/**
+	 * Creates a Basic instance for a program whose output will be discarded.
+	 * 
+	 * @param code the program
+	 * @return the Basic instance
+	 */
+	static Basic createSilentBasic(String[] code) {
+		Basic basic = new Basic(code);
+		basic.setOutputChannel(new ConsoleOutputChannel() {
+			@Override
+			public void systemPrint(int id, String txt) {
+				//
+			}
+
+			@Override
+			public void systemPrintln(int id, String txt) {
+				//
+			}
+		});
+		return basic;
+	}
+
+	/**
+	 * Discards all log output, so that the compiler's logging doesn't end up in
+	 * the measurements.
+	 */
+	static void disableLogging() {
+		Logger.setPrintStream(new PrintStream(OutputStream.nullOutputStream()));
+	}
+
+	/**
+	 * Returns the platform for a name.
+	 * 
+	 * @param name the name, i.e. C64, VIC20, X16, JS or PS
+	 * @return the platform
+	 */
+	static PlatformProvider getPlatform(String name) {
+		switch (name) {
+		case "C64":
+			return new Platform64();
+		case "VIC20":
+			return new Platform20();
+		case "X16":
+			return new PlatformX16();
+		case "JS":
+			return new PlatformJs();
+		case "PS":
+			return new PlatformPs();
+		default:
+			throw new RuntimeException("Unknown platform: " + name);
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.sixtyfour.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sixtyfour.Basic;
+import com.sixtyfour.cbmnative.NativeCompiler;
+import com.sixtyfour.config.CompilerConfig;
+import com.sixtyfour.config.MemoryConfig;
+
+/**
+ * Measures the complete native compiler pipeline from the BASIC source code to
+ * the target platform's code, including all optimizations.
+ * 
+ * @author EgonOlsen
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompilerBenchmark {
+
+	@Param({ "C64", "VIC20", "X16", "JS", "PS" })
+	public String platform;
+
+	@Param({ "basic/prime.bas", "transform/benchmark2.bas" })
+	public String program;
+
+	private String[] code;
+
+	@Setup
+	public void setup() {
+		BenchmarkSupport.disableLogging();
+		code = BenchmarkSupport.loadProgram(program);
+	}
+
+	@Benchmark
+	public List<String> compile() {
+		Basic basic = new Basic(code);
+		return NativeCompiler.getCompiler().compile(new CompilerConfig(), basic, new MemoryConfig(),
+				BenchmarkSupport.getPlatform(platform));
+	}
+}
@@ -0,0 +1,60 @@
+package com.sixtyfour.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sixtyfour.Loader;
+import com.sixtyfour.compression.Compressor;
+import com.sixtyfour.compression.MatchStrategy;
+
+/**
+ * Measures the compressor with different window sizes and strategies.
+ * 
+ * @author EgonOlsen
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressorBenchmark {
+
+	@Param({ "32", "128" })
+	public int windowSize;
+
+	@Param({ "WINDOW", "LAZY", "OPTIMAL" })
+	public MatchStrategy strategy;
+
+	private byte[] data;
+	private byte[] compressed;
+
+	@Setup
+	public void setup() {
+		BenchmarkSupport.disableLogging();
+		data = Loader.loadBlob(BenchmarkSupport.RESOURCES + "compressor/test.txt");
+		compressed = Compressor.compress(data, windowSize, true, strategy);
+	}
+
+	@Benchmark
+	public byte[] compress() {
+		return Compressor.compress(data, windowSize, true, strategy);
+	}
+
+	@Benchmark
+	public byte[] decompress() {
+		return Compressor.decompress(compressed);
+	}
+}
@@ -0,0 +1,67 @@
+package com.sixtyfour.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sixtyfour.Assembler;
+import com.sixtyfour.config.CompilerConfig;
+import com.sixtyfour.system.Cpu;
+
+/**
+ * Measures the assembler and the 6502 emulation. The program will be assembled
+ * once in setup() for the cpu benchmark, so that only Cpu.execute() will be
+ * measured there.
+ * 
+ * @author EgonOlsen
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CpuBenchmark {
+
+	@Param({ "asm/selfmodify.asm", "asm/fastcopy.asm" })
+	public String program;
+
+	private String[] code;
+	private CompilerConfig config;
+	private Assembler compiled;
+
+	@Setup
+	public void setup() {
+		BenchmarkSupport.disableLogging();
+		code = BenchmarkSupport.loadProgram(program);
+		config = new CompilerConfig();
+		compiled = new Assembler(code);
+		compiled.compile(config);
+	}
+
+	@Benchmark
+	public Assembler assembleAndRun() {
+		Assembler asm = new Assembler(code);
+		asm.run(config);
+		return asm;
+	}
+
+	@Benchmark
+	public Cpu execute() {
+		Cpu cpu = compiled.getCpu();
+		cpu.reset();
+		cpu.execute(compiled.getProgram());
+		return cpu;
+	}
+}
@@ -0,0 +1,60 @@
+package com.sixtyfour.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sixtyfour.Basic;
+import com.sixtyfour.config.CompilerConfig;
+
+/**
+ * Measures the BASIC interpreter by running complete programs with Basic.run().
+ * Parsing is part of the measurement, because Basic.run() does it as well. Each
+ * program runs in the default and in the linked execution mode.
+ * 
+ * @author EgonOlsen
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+
+	@Param({ "basic/prime.bas", "basic/prime2.bas", "basic/go_to.bas", "basic/onstuff.bas", "basic/beer.bas",
+			"basic/array.bas", "basic/jitlines.bas", "transform/benchmark2.bas" })
+	public String program;
+
+	@Param({ "false", "true" })
+	public boolean linked;
+
+	private String[] code;
+	private CompilerConfig config;
+
+	@Setup
+	public void setup() {
+		BenchmarkSupport.disableLogging();
+		code = BenchmarkSupport.loadProgram(program);
+		config = new CompilerConfig();
+	}
+
+	@Benchmark
+	public Basic run() {
+		Basic basic = BenchmarkSupport.createSilentBasic(code);
+		basic.setLinked(linked);
+		basic.run(config);
+		return basic;
+	}
+}
@@ -0,0 +1,70 @@
+package com.sixtyfour.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sixtyfour.Basic;
+import com.sixtyfour.cbmnative.NativeCompiler;
+import com.sixtyfour.cbmnative.PlatformProvider;
+import com.sixtyfour.cbmnative.Transformer;
+import com.sixtyfour.cbmnative.mos6502.Optimizer6502;
+import com.sixtyfour.config.CompilerConfig;
+import com.sixtyfour.config.MemoryConfig;
+
+/**
+ * Measures the 6502 peephole optimizer alone. The unoptimized assembly code
+ * will be created once in setup() in the same way as the NativeCompiler does
+ * it.
+ * 
+ * @author EgonOlsen
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OptimizerBenchmark {
+
+	@Param({ "basic/prime.bas", "transform/benchmark2.bas" })
+	public String program;
+
+	private CompilerConfig config;
+	private PlatformProvider platform;
+	private List<String> code;
+
+	@Setup
+	public void setup() {
+		BenchmarkSupport.disableLogging();
+		config = new CompilerConfig();
+		platform = BenchmarkSupport.getPlatform("C64");
+		platform.overrideConfig(config);
+		MemoryConfig memConfig = new MemoryConfig();
+		Basic basic = new Basic(BenchmarkSupport.loadProgram(program));
+		basic.compile(config);
+		List<String> mCode = NativeCompiler.getCompiler().compileToPseudoCode(config, basic);
+		Transformer tf = platform.getTransformer();
+		tf.setVariableStart(memConfig.getVariableStart());
+		code = tf.transform(config, memConfig, basic.getMachine(), platform, mCode);
+	}
+
+	@Benchmark
+	public List<String> optimize() {
+		// The optimizer modifies its input, so it has to work on a copy
+		return new Optimizer6502().optimize(config, platform, new ArrayList<>(code), null);
+	}
+}
@@ -0,0 +1,60 @@
+package com.sixtyfour.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sixtyfour.Basic;
+import com.sixtyfour.cbmnative.NativeCompiler;
+import com.sixtyfour.cbmnative.PseudoCpu;
+import com.sixtyfour.config.CompilerConfig;
+
+/**
+ * Measures the execution of intermediate code on the PseudoCpu. The program
+ * will be compiled into intermediate code once in setup().
+ * 
+ * @author EgonOlsen
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PseudoCpuBenchmark {
+
+	@Param({ "basic/prime.bas", "basic/prime2.bas" })
+	public String program;
+
+	private CompilerConfig config;
+	private Basic basic;
+	private List<String> code;
+
+	@Setup
+	public void setup() {
+		BenchmarkSupport.disableLogging();
+		config = new CompilerConfig();
+		basic = BenchmarkSupport.createSilentBasic(BenchmarkSupport.loadProgram(program));
+		basic.compile(config);
+		code = NativeCompiler.getCompiler().compileToPseudoCode(config, basic);
+	}
+
+	@Benchmark
+	public PseudoCpu execute() {
+		PseudoCpu cpu = new PseudoCpu();
+		cpu.execute(config, basic.getMachine(), code);
+		return cpu;
+	}
+}
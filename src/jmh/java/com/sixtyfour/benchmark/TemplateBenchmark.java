@@ -0,0 +1,79 @@
+package com.sixtyfour.benchmark;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sixtyfour.config.CompilerConfig;
+import com.sixtyfour.templating.Template;
+import com.sixtyfour.templating.TemplateFactory;
+import com.sixtyfour.templating.TemplateManager;
+import com.sixtyfour.templating.TemplatePool;
+
+/**
+ * Measures the renders per second of templates across multiple threads, either
+ * with instances taken from a TemplatePool or with the per-thread instances of
+ * the TemplateManager. The number of threads can be changed with JMH's -t
+ * option.
+ *
+ * @author EgonOlsen
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class TemplateBenchmark {
+
+	@Param({ "templates/simplehtml.cbm", "mixed/mixedhtml.cbm" })
+	public String template;
+
+	@Param({ "pool", "manager" })
+	public String mode;
+
+	private TemplatePool pool;
+	private String path;
+	private Map<String, Object> vars;
+
+	@Setup
+	public void setup() throws IOException {
+		BenchmarkSupport.disableLogging();
+		path = BenchmarkSupport.RESOURCES + template;
+		try (FileInputStream input = new FileInputStream(path)) {
+			pool = new TemplatePool(TemplateFactory.getCompiledTemplate(new CompilerConfig(), input, path),
+					Runtime.getRuntime().availableProcessors() * 2);
+		}
+		vars = new HashMap<String, Object>();
+		vars.put("CN", 10);
+		vars.put("NA$", "Test");
+		vars.put("TT$", "At least better than PHP!");
+	}
+
+	@Benchmark
+	public String render() {
+		if (mode.equals("pool")) {
+			return pool.render(vars);
+		}
+		Template tmpl = TemplateManager.getInstance().getTemplate(path);
+		tmpl.setVariables(vars);
+		return tmpl.process();
+	}
+}
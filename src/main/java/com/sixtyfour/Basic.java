@@ -12,9 +12,11 @@ import com.sixtyfour.cbmnative.PCode;
 import com.sixtyfour.config.CompilerConfig;
 import com.sixtyfour.config.LoopMode;
 import com.sixtyfour.config.MemoryConfig;
+import com.sixtyfour.elements.Variable;
 import com.sixtyfour.elements.commands.Assignment;
 import com.sixtyfour.elements.commands.Command;
 import com.sixtyfour.elements.commands.CommandList;
+import com.sixtyfour.elements.commands.Data;
 import com.sixtyfour.elements.commands.For;
 import com.sixtyfour.elements.commands.Let;
 import com.sixtyfour.elements.commands.Next;
@@ -32,7 +34,9 @@ import com.sixtyfour.plugins.OutputChannel;
 import com.sixtyfour.plugins.SystemCallListener;
 import com.sixtyfour.system.BasicProgramCounter;
 import com.sixtyfour.system.Cpu;
+import com.sixtyfour.system.LinkedProgram;
 import com.sixtyfour.system.Machine;
+import com.sixtyfour.util.CompiledLine;
 import com.sixtyfour.util.Jit;
 import com.sixtyfour.util.VarUtils;
 
@@ -77,6 +81,27 @@ public class Basic implements ProgramExecutor {
 
 	private CodeEnhancer codeEnhancer;
 
+	/** Should the program be executed in linked mode? */
+	private boolean linked = false;
+
+	/** The linked program, if linked mode is enabled */
+	private LinkedProgram linkedProgram = null;
+
+	/** The maximum number of lines in a region compiled by the JIT */
+	private static final int MAX_REGION_SIZE = 50;
+
+	/** Should compile() reuse lines that haven't changed since the last run? */
+	private boolean incremental = false;
+
+	/** The lines parsed by the last incremental compile by their text */
+	private Map<String, ParsedLine> parsedLines = new HashMap<>();
+
+	/** The machine's reset count at the time of the last incremental compile */
+	private int parsedResetCount = -1;
+
+	/** The configuration of the last incremental compile */
+	private String parsedConfig = null;
+
 	/**
 	 * Instantiates a new instance for a BASIC program. No
 	 * interpretation/compilation will take place at this stage.
@@ -132,27 +157,24 @@ public class Basic implements ProgramExecutor {
 
 	/**
 	 * Enables an experimental JIT-compiler with a default compile threshold of 0.
-	 * This works only if the application runs on a JDK installation. It won't work
-	 * with a JRE. A JIT might help to improve performance for complex calculations.
-	 * If your program doesn't do these, it might not even kick in or the additional
-	 * overhead might slow your program down. Keep in mind that compiling the code
-	 * by the JIT takes some time as well. If the JIT compiler kicks in, you'll see
-	 * some console output about it.
+	 * The JIT generates bytecode directly in memory, so it works with a JRE as
+	 * well. A JIT might help to improve performance for complex calculations. If
+	 * your program doesn't do these, it might not even kick in. In addition, lines
+	 * (and FOR...NEXT loops) that are executed often will be compiled as a whole.
+	 * If the JIT compiler kicks in, you'll see some console output about it.
 	 */
 	public void enableJit() {
 		machine.setJit(new Jit());
 	}
 
 	/**
-	 * Enables an experimental JIT-compiler with a given compile threshold. This
-	 * works only if the application runs on a JDK installation. It won't work with
-	 * a JRE. One might have to play around with the threshold to find a value which
-	 * actually speed up the application. If the threshold is <=0, then the JIT
-	 * compiler will try to auto-detect when to compile. A JIT might help to improve
-	 * performance for complex calculations. If your program doesn't do these, it
-	 * might not even kick in or the additional overhead might slow your program
-	 * down. Keep in mind that compiling the code by the JIT takes some time as
-	 * well. If the JIT compiler kicks in, you'll see some console output about it.
+	 * Enables an experimental JIT-compiler with a given compile threshold. The
+	 * threshold is the number of expressions that will be collected before they
+	 * get compiled in one go. If the threshold is <=0, then the JIT compiler will
+	 * compile each expression right away. A JIT might help to improve performance
+	 * for complex calculations. If your program doesn't do these, it might not even
+	 * kick in. If the JIT compiler kicks in, you'll see some console output about
+	 * it.
 	 * 
 	 * @param compileThreshold the compile threshold
 	 */
@@ -170,7 +192,7 @@ public class Basic implements ProgramExecutor {
 	 * 
 	 * @param extension the extension instance to add
 	 */
-	public static void registerExtension(BasicExtension extension) {
+	public static synchronized void registerExtension(BasicExtension extension) {
 		String name = extension.getClass().getName();
 		if (!addedExtensions.containsKey(name)) {
 			addedExtensions.put(name, extension);
@@ -204,7 +226,7 @@ public class Basic implements ProgramExecutor {
 	 * 
 	 * @return the active extensions
 	 */
-	public static List<BasicExtension> getExtensions() {
+	public static synchronized List<BasicExtension> getExtensions() {
 		if (addedExtensions.size() == 0) {
 			return new ArrayList<BasicExtension>();
 		}
@@ -237,6 +259,34 @@ public class Basic implements ProgramExecutor {
 	 */
 	public void setMachine(Machine machine) {
 		this.machine = machine;
+		parsedLines.clear();
+	}
+
+	/**
+	 * Sets new code. The code will be compiled on the next call of compile() or
+	 * run().
+	 * 
+	 * @param code the basic code, one line per array element
+	 */
+	public void setCode(String[] code) {
+		this.code = Arrays.copyOf(code, code.length);
+		compiled = false;
+	}
+
+	/**
+	 * Enables or disables incremental compilation. If enabled, compile() keeps the
+	 * parsed lines and reuses them in the next compile, if their text hasn't
+	 * changed. Lines that contain DATA (or inline assembly) will always be parsed
+	 * again. The machine's variables will only be soft cleared in this mode, i.e.
+	 * they keep their instances but their values will be reset. This is meant for
+	 * running a program that is being edited over and over again. It's disabled
+	 * by default.
+	 * 
+	 * @param incremental enable it?
+	 */
+	public void setIncrementalCompilation(boolean incremental) {
+		this.incremental = incremental;
+		parsedLines.clear();
 	}
 
 	/**
@@ -250,6 +300,16 @@ public class Basic implements ProgramExecutor {
 		return machine.getCpu();
 	}
 
+	/**
+	 * Returns the number of lines of the compiled program. Unlike getPCode(), this
+	 * has no side effects.
+	 * 
+	 * @return the number of lines
+	 */
+	public int getLineCount() {
+		return lineNumbers.size();
+	}
+
 	/**
 	 * Returns the compiled program wrapped into a PCode instance. This method isn't
 	 * needed for normal usage.
@@ -257,6 +317,8 @@ public class Basic implements ProgramExecutor {
 	 * @return the PCode instance
 	 */
 	public PCode getPCode() {
+		// The native compiler modifies the lines, so they can't be reused anymore.
+		parsedLines.clear();
 		return new PCode(lineNumbers, lines);
 	}
 
@@ -348,8 +410,13 @@ public class Basic implements ProgramExecutor {
 	 */
 	public void compile(CompilerConfig config, boolean resetMachine) {
 		long start = System.nanoTime();
+		String signature = incremental ? getConfigSignature(config) : null;
+		boolean reuse = incremental && machine.getResetCount() == parsedResetCount
+				&& signature.equals(parsedConfig);
+		Map<String, ParsedLine> previous = reuse ? parsedLines : new HashMap<>();
+		parsedLines = new HashMap<>();
 		if (resetMachine) {
-			machine.resetMemory();
+			machine.resetMemory(reuse);
 		}
 		machine.clearCommandList();
 
@@ -361,6 +428,7 @@ public class Basic implements ProgramExecutor {
 
 		Line cl = null;
 		int lastLineNumber = -1;
+		int reused = 0;
 		lines.clear();
 		lineNumbers.clear();
 		for (String line : code) {
@@ -378,11 +446,33 @@ public class Basic implements ProgramExecutor {
 				}
 				lastLineNumber = cl.getNumber();
 				int lineCnt = lineNumbers.size();
+
+				ParsedLine parsed = previous.get(line);
+				if (parsed != null) {
+					cl = parsed.line;
+				}
 				cl.setCount(lineCnt);
 
 				lines.put(cl.getNumber(), cl);
 				lineNumbers.add(cl.getNumber());
 
+				if (parsed != null) {
+					parsedLines.put(line, parsed);
+					for (Command command : cl.getCommands()) {
+						command.setLineCnt(lineCnt);
+						machine.addCommand(command);
+					}
+					for (int i = 0; i < parsed.vars.size(); i++) {
+						machine.trackVariableUsage(parsed.vars.get(i), parsed.assignments.get(i));
+					}
+					reused++;
+					continue;
+				}
+				if (incremental) {
+					parsed = new ParsedLine(cl);
+					machine.setUsageRecorder(parsed::track);
+				}
+
 				boolean looseEnding = cl.getLine().trim().endsWith(":");
 				if (looseEnding) {
 					cl.addDummyRemark();
@@ -428,20 +518,63 @@ public class Basic implements ProgramExecutor {
 						break;
 					}
 				}
+				if (parsed != null && isReusable(config, cl)) {
+					parsedLines.put(line, parsed);
+				}
 			} catch (Throwable t) {
 				String msg = t.getMessage();
 				String err = "Error in line " + (cl != null ? cl.getNumber() : "??")
 						+ (msg != null ? (": " + msg) : "");
 				machine.getOutputChannel().systemPrintln(0, err);
 				throw t;
+			} finally {
+				machine.setUsageRecorder(null);
 			}
 		}
 
 		modifyDelayLoops(config);
 
+		if (incremental) {
+			parsedResetCount = machine.getResetCount();
+			parsedConfig = signature;
+		}
+
 		compiled = true;
 		Logger.log(machine.getCommandList().size() + " commands compiled in: " + (System.nanoTime() - start) / 1000000L
-				+ "ms");
+				+ "ms" + (reused > 0 ? (" (" + reused + " lines reused)") : ""));
+	}
+
+	/**
+	 * Returns true, if a parsed line can be reused by the next incremental
+	 * compile. Lines that store DATA or track variables used by inline assembly
+	 * modify the machine while being parsed, so they have to be parsed again.
+	 * 
+	 * @param config the compiler configuration
+	 * @param line   the line
+	 * @return can it?
+	 */
+	private boolean isReusable(CompilerConfig config, Line line) {
+		for (Command command : line.getCommands()) {
+			if (command instanceof Data || (config.isInlineAssembly() && command instanceof Rem)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a string that contains all the configuration settings that have an
+	 * influence on parsing a line. If this changes, parsed lines can't be reused.
+	 * 
+	 * @param config the compiler configuration
+	 * @return the signature
+	 */
+	private String getConfigSignature(CompilerConfig config) {
+		return config.isNonDecimalNumbersAware() + "/" + config.getLoopMode() + "/" + config.isInlineAssembly() + "/"
+				+ config.isPrintSizeOptimization() + "/" + config.isFloatOptimizations() + "/"
+				+ config.isConstantFolding() + "/" + config.isConstantPropagation() + "/"
+				+ config.isDeadStoreElimination() + "/" + config.isDeadStoreEliminationOfStrings() + "/"
+				+ config.isEnhancedInstructionSet() + "/" + addedExtensions.size();
 	}
 
 	/**
@@ -697,6 +830,28 @@ public class Basic implements ProgramExecutor {
 		this.codeEnhancer = codeEnhancer;
 	}
 
+	/**
+	 * Returns true, if the program will be executed in linked mode.
+	 * 
+	 * @return is it?
+	 */
+	public boolean isLinked() {
+		return linked;
+	}
+
+	/**
+	 * Enables/disables the linked execution mode. In linked mode, all commands of
+	 * the program will be flattened into one array before execution and jump
+	 * targets will be resolved into offsets into that array. This avoids the line
+	 * lookups of the default mode and might help to speed up programs that jump
+	 * around a lot. Default is false.
+	 * 
+	 * @param linked linked mode or not?
+	 */
+	public void setLinked(boolean linked) {
+		this.linked = linked;
+	}
+
 	/**
 	*/
 	private void runInternal(CompilerConfig config) {
@@ -705,7 +860,11 @@ public class Basic implements ProgramExecutor {
 			String cmd = codeEnhancer.getFirstCommand();
 			executeSingleCommand(config, cmd);
 		}
-		execute(config, 0, 0);
+		if (linked) {
+			executeLinked(config);
+		} else {
+			execute(config, 0, 0);
+		}
 		if (codeEnhancer != null) {
 			String cmd = codeEnhancer.getLastCommand();
 			executeSingleCommand(config, cmd);
@@ -727,6 +886,10 @@ public class Basic implements ProgramExecutor {
 		if (tracer != null) {
 			tracer.start(this);
 		}
+		// Compiled lines bypass the tracer and the line number output, so they are
+		// used only if neither of these is active.
+		Jit jit = tracer == null && !printLineNumbers ? machine.getJit() : null;
+		Line entered = null;
 		try {
 			do {
 				num = lineNumbers.get(lineCnt);
@@ -749,13 +912,49 @@ public class Basic implements ProgramExecutor {
 						}
 					}
 
-					Command command = line.getCommands().get(i);
-					machine.setCurrentCommand(command);
-					BasicProgramCounter pc = command.execute(config, machine);
-					if (tracer != null) {
-						tracer.commandExecuted(this, command, num, i);
+					Command command = null;
+					BasicProgramCounter pc = null;
+					if (jit != null && line != entered) {
+						entered = line;
+						CompiledLine compiled = line.getCompiledLine();
+						if (compiled == null && line.incrementExecutionCount() == jit.getLineThreshold()) {
+							compiled = compileRegion(jit, line);
+						}
+						if (compiled != null) {
+							int exit;
+							try {
+								exit = compiled.execute(config, machine, i);
+							} catch (Throwable t) {
+								num = compiled.getCurrentLine().getNumber();
+								throw t;
+							}
+							if (exit == -1) {
+								// The execution reached the end of the region
+								line = compiled.getLastLine();
+								lineCnt = line.getCount();
+								num = line.getNumber();
+								entered = line;
+								break;
+							}
+							command = compiled.getCommand(exit);
+							pc = compiled.getProgramCounter();
+							line = compiled.getLine(exit);
+							i = compiled.getPosition(exit);
+							lineCnt = line.getCount();
+							num = line.getNumber();
+							entered = line;
+						}
+					}
+
+					if (command == null) {
+						command = line.getCommands().get(i);
+						machine.setCurrentCommand(command);
+						pc = command.execute(config, machine);
+						if (tracer != null) {
+							tracer.commandExecuted(this, command, num, i);
+						}
+						machine.setCurrentCommand(null);
 					}
-					machine.setCurrentCommand(null);
 					if (pc != null) {
 						if (pc.isEnd() || pc.isStop()) {
 							lineCnt = lines.size();
@@ -778,6 +977,7 @@ public class Basic implements ProgramExecutor {
 								lineCnt = pc.getLineCnt();
 								num = lineNumbers.get(lineCnt);
 								line = lines.get(num);
+								entered = null;
 								i = pc.getLinePos();
 								if (i >= line.getCommands().size() - 1) {
 									lineCnt++;
@@ -789,6 +989,7 @@ public class Basic implements ProgramExecutor {
 								// Line number is known (GOTO/GOSUB/RUN w/ line)
 								num = pc.getLineNumber();
 								line = lines.get(num);
+								entered = null;
 								i = -1;
 								if (line == null) {
 									throw new RuntimeException("Undef'd statement error: " + command);
@@ -817,6 +1018,181 @@ public class Basic implements ProgramExecutor {
 		running = false;
 	}
 
+	/**
+	 * Compiles the region that starts with the given line. If the line contains a
+	 * FOR, the region extends to the line that contains the NEXT which closes this
+	 * loop. Otherwise, it's just the line itself.
+	 * 
+	 * @param jit  the JIT compiler
+	 * @param line the line
+	 * @return the compiled region or null, if it can't be compiled
+	 */
+	private CompiledLine compileRegion(Jit jit, Line line) {
+		List<Line> region = new ArrayList<Line>();
+		region.add(line);
+		List<Command> commands = line.getCommands();
+		int start = 0;
+		while (start < commands.size() && !(commands.get(start) instanceof For)) {
+			start++;
+		}
+		if (start < commands.size()) {
+			List<String> loops = new ArrayList<>();
+			boolean found = closeLoops(commands, start, loops);
+			for (int cnt = line.getCount() + 1; !found && cnt < lineNumbers.size()
+					&& region.size() < MAX_REGION_SIZE; cnt++) {
+				Line next = lines.get(lineNumbers.get(cnt));
+				region.add(next);
+				found = closeLoops(next.getCommands(), 0, loops);
+			}
+			if (!found) {
+				region.subList(1, region.size()).clear();
+			}
+		}
+		CompiledLine compiled = jit.compileLines(region, machine);
+		if (compiled != null) {
+			line.setCompiledLine(compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Tracks the FOR loops that are opened and closed by some commands in the
+	 * same way as the interpreter does at runtime. A NEXT without a variable
+	 * closes the innermost loop, a NEXT with a variable closes this loop and all
+	 * loops inside of it. A FOR on a variable that is already looping restarts
+	 * this loop. A NEXT for a loop that isn't open closes all loops.
+	 * 
+	 * @param commands the commands
+	 * @param start    the index of the first command
+	 * @param loops    the variables of the open loops, innermost last
+	 * @return true, if all loops have been closed
+	 */
+	private boolean closeLoops(List<Command> commands, int start, List<String> loops) {
+		for (int i = start; i < commands.size(); i++) {
+			Command cmd = commands.get(i);
+			if (cmd instanceof For) {
+				String name = ((For) cmd).getVar().getName();
+				int pos = indexOfLoop(loops, name);
+				if (pos != -1) {
+					loops.subList(pos, loops.size()).clear();
+				}
+				loops.add(name);
+			} else if (cmd instanceof Next && !loops.isEmpty()) {
+				String name = ((Next) cmd).getVarName();
+				int pos = name == null ? loops.size() - 1 : Math.max(indexOfLoop(loops, name), 0);
+				loops.subList(pos, loops.size()).clear();
+				if (loops.isEmpty()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private int indexOfLoop(List<String> loops, String name) {
+		for (int i = loops.size() - 1; i >= 0; i--) {
+			if (loops.get(i).equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes all compiled regions from the program's lines.
+	 */
+	private void clearCompiledLines() {
+		for (Line line : lines.values()) {
+			line.setCompiledLine(null);
+		}
+	}
+
+	/**
+	 * Executes the program in linked mode.
+	 * 
+	 * @param config the compiler config
+	 */
+	private void executeLinked(CompilerConfig config) {
+		if (lineNumbers.size() == 0) {
+			return;
+		}
+		if (linkedProgram == null) {
+			linkedProgram = new LinkedProgram(lineNumbers, lines);
+		}
+		Command[] commands = linkedProgram.getCommands();
+		int index = 0;
+		int num = -1;
+		running = true;
+		if (tracer != null) {
+			tracer.start(this);
+		}
+		try {
+			while (index < commands.length && !stop) {
+				while (paused) {
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+						//
+					}
+				}
+
+				if (printLineNumbers && num != linkedProgram.getLineNumber(index)) {
+					Logger.log("[" + linkedProgram.getLineNumber(index) + "]");
+				}
+				num = linkedProgram.getLineNumber(index);
+
+				Command command = commands[index];
+				machine.setCurrentCommand(command);
+				BasicProgramCounter pc = command.execute(config, machine);
+				if (tracer != null) {
+					tracer.commandExecuted(this, command, num, linkedProgram.getLinePosition(index));
+				}
+				machine.setCurrentCommand(null);
+				if (pc == null) {
+					index++;
+					continue;
+				}
+				if (pc.isEnd() || pc.isStop()) {
+					if (pc.isStop()) {
+						stop = true;
+					}
+					break;
+				}
+				if (pc.isList()) {
+					for (String cl : code) {
+						this.machine.getOutputChannel().systemPrintln(0, cl);
+					}
+					index++;
+				} else if (pc.isSkip()) {
+					index = linkedProgram.getIndexOfNextLine(index);
+				} else if (pc.getLineNumber() == -1) {
+					// Line index is unknown (FOR...NEXT/RETURN/RUN w/o line)
+					index = linkedProgram.getIndexAfter(pc.getLineCnt(), pc.getLinePos());
+				} else {
+					// Line number is known (GOTO/GOSUB/RUN w/ line)
+					index = linkedProgram.getIndexOfLine(pc.getLineNumber());
+					if (index == -1) {
+						throw new RuntimeException("Undef'd statement error: " + command);
+					}
+				}
+			}
+			if (stop) {
+				machine.getOutputChannel().systemPrintln(0, "\nBREAK IN " + num);
+			}
+		} catch (Throwable t) {
+			String msg = t.getMessage();
+			String err = "Error in line " + (num != -1 ? num : "??") + (msg != null ? (": " + msg) : "");
+			machine.getOutputChannel().systemPrintln(0, err);
+			running = false;
+			throw t;
+		} finally {
+			if (tracer != null) {
+				tracer.stop(this);
+			}
+		}
+		running = false;
+	}
+
 	/**
 	 * Modifies loops according to the corresponding setting in the CompilerConfig.
 	 * Usually, there's no need to call this method directly.
@@ -824,6 +1200,8 @@ public class Basic implements ProgramExecutor {
 	 * @param config the config
 	 */
 	public void modifyDelayLoops(CompilerConfig config) {
+		linkedProgram = null;
+		clearCompiledLines();
 		LoopMode loopMode = config.getLoopMode();
 		if (loopMode == null || loopMode == LoopMode.EXECUTE) {
 			return;
@@ -867,6 +1245,9 @@ public class Basic implements ProgramExecutor {
 				if (forLine != -1 && nextLine != -1) {
 					lines.get(forLine).getCommands().set(forPos, new Delay((For) forCmd, loopMode == LoopMode.DELAY));
 					lines.get(nextLine).getCommands().set(nextPos, new Rem());
+					Line replacedFor = lines.get(forLine);
+					Line replacedNext = lines.get(nextLine);
+					parsedLines.values().removeIf(p -> p.line == replacedFor || p.line == replacedNext);
 					
 					Logger.log("Replaced for-loop at line " + forLine + " with "
 							+ (loopMode == LoopMode.DELAY ? "a delay" : "an empty operation!"));
@@ -889,6 +1270,9 @@ public class Basic implements ProgramExecutor {
 	 */
 	public void removeCommands(List<Command> toRemove) {
 		this.machine.removeCommands(toRemove);
+		linkedProgram = null;
+		parsedLines.clear();
+		clearCompiledLines();
 
 		if (lines.isEmpty()) {
 			return;
@@ -932,4 +1316,23 @@ public class Basic implements ProgramExecutor {
 		}
 		return adjusted;
 	}
+
+	/**
+	 * A line that has been parsed by an incremental compile together with the
+	 * variable usages that have been tracked while parsing it.
+	 */
+	private static class ParsedLine {
+		private Line line;
+		private List<Variable> vars = new ArrayList<>();
+		private List<Boolean> assignments = new ArrayList<>();
+
+		private ParsedLine(Line line) {
+			this.line = line;
+		}
+
+		private void track(Variable var, boolean assignment) {
+			vars.add(var);
+			assignments.add(assignment);
+		}
+	}
 }
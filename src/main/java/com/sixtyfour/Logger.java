@@ -4,6 +4,8 @@
 package com.sixtyfour;
 
 import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Map;
 import java.util.WeakHashMap;
 
 /**
@@ -14,7 +16,7 @@ import java.util.WeakHashMap;
 public class Logger {
 
 	private static PrintStream out = System.out;
-	private static WeakHashMap<Thread, PrintStream> streams = new WeakHashMap<>();
+	private static Map<Thread, PrintStream> streams = Collections.synchronizedMap(new WeakHashMap<>());
 
 	/**
 	 * Logs a message.
@@ -60,10 +62,14 @@ public class Logger {
 	 * this one will be used, if the logging happens in this thread. Once the thread
 	 * dies, the entry will be automatically removed as well.
 	 * 
-	 * @param ps the new PrintStream
+	 * @param ps the new PrintStream or null to use the global one again
 	 */
 	public static void setThreadBoundPrintStream(PrintStream ps) {
-		streams.put(Thread.currentThread(), ps);
+		if (ps == null) {
+			streams.remove(Thread.currentThread());
+		} else {
+			streams.put(Thread.currentThread(), ps);
+		}
 	}
 
 	private static PrintStream getPrintStream() {
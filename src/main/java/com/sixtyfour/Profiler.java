@@ -0,0 +1,389 @@
+package com.sixtyfour;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.sixtyfour.elements.commands.Command;
+import com.sixtyfour.elements.commands.Gosub;
+import com.sixtyfour.elements.commands.On;
+import com.sixtyfour.elements.commands.Return;
+import com.sixtyfour.system.StackEntry;
+
+/**
+ * A Tracer implementation that profiles a running BASIC program. It counts how
+ * often each command has been executed and how much time has been spent on it.
+ * The counts are exact. The time is sampled: About every n-th command (see
+ * setSampleInterval()) is timed and its time is weighted with n, so that the
+ * clock is read only twice per n commands. The commands between two samples
+ * are picked randomly, so that loops don't hide commands from the sampling.
+ * Setting a tracer disables the JIT, so the results reflect the interpreter's
+ * performance.<br/>
+ * The results are available per command, per line and per chain of GOSUBs. The
+ * latter can be written in the collapsed stack format that flame graph tools
+ * understand. Results of multiple runs add up until reset() is being called.
+ * They should be read only while the program isn't running.
+ *
+ * @author EgonOlsen
+ *
+ */
+public class Profiler implements Tracer {
+
+	private Map<Integer, Entry[]> lines = new HashMap<>();
+	private Map<Integer, String> sources = new HashMap<>();
+	private Frame root = new Frame(null, "main");
+	private Frame current = root;
+	private boolean called = false;
+
+	private int lastLineNumber = -1;
+	private Entry[] lastLine = null;
+
+	private int sampleInterval = 16;
+	private int countdown = 0;
+	private boolean measuring = false;
+	private long sampleStart = 0;
+	private int seed = 0x2545F491;
+
+	/**
+	 * Returns the average number of commands per timed command.
+	 *
+	 * @return the interval
+	 */
+	public int getSampleInterval() {
+		return sampleInterval;
+	}
+
+	/**
+	 * Sets the average number of commands per timed command. 1 times every
+	 * command, which is exact but slower. Default is 16.
+	 *
+	 * @param sampleInterval the interval
+	 */
+	public void setSampleInterval(int sampleInterval) {
+		this.sampleInterval = Math.max(1, sampleInterval);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.sixtyfour.Tracer#start(com.sixtyfour.Basic)
+	 */
+	@Override
+	public void start(Basic basic) {
+		for (String line : basic.getCode()) {
+			line = line.trim();
+			int pos = 0;
+			while (pos < line.length() && Character.isDigit(line.charAt(pos))) {
+				pos++;
+			}
+			if (pos > 0) {
+				try {
+					sources.put(Integer.valueOf(line.substring(0, pos)), line.substring(pos).trim());
+				} catch (NumberFormatException e) {
+					// Ignore, the parser will complain about it anyway
+				}
+			}
+		}
+		current = root;
+		called = false;
+		measuring = false;
+		countdown = nextInterval();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.sixtyfour.Tracer#stop(com.sixtyfour.Basic)
+	 */
+	@Override
+	public void stop(Basic basic) {
+		current = root;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.sixtyfour.Tracer#commandExecuted(com.sixtyfour.Basic,
+	 * com.sixtyfour.elements.commands.Command, java.lang.Integer, int)
+	 */
+	@Override
+	public void commandExecuted(Basic basic, Command command, Integer lineNumber, int count) {
+		if (called) {
+			// The first command after a GOSUB is the start of the subroutine
+			called = false;
+			current = current.getChild(lineNumber);
+		}
+
+		// Consecutive commands are mostly in the same line, so the line's entries
+		// have to be looked up only when the line changes.
+		if (lineNumber != lastLineNumber) {
+			lastLine = lines.get(lineNumber);
+			lastLineNumber = lineNumber;
+		}
+		if (lastLine == null || count >= lastLine.length) {
+			lastLine = lastLine == null ? new Entry[count + 1] : Arrays.copyOf(lastLine, count + 1);
+			lines.put(lineNumber, lastLine);
+		}
+		Entry entry = lastLine[count];
+		if (entry == null) {
+			entry = new Entry(lineNumber, count, command.getName());
+			lastLine[count] = entry;
+		}
+		entry.count++;
+
+		boolean sample = --countdown <= 0;
+		if (measuring || sample) {
+			long ticks = System.nanoTime();
+			if (measuring) {
+				// The time since the last command is the time of this one
+				long time = (ticks - sampleStart) * sampleInterval;
+				entry.time += time;
+				current.getLine(lineNumber).time += time;
+				measuring = false;
+			}
+			if (sample) {
+				countdown = nextInterval();
+				sampleStart = ticks;
+				measuring = true;
+			}
+		}
+
+		if (command instanceof Gosub) {
+			called = true;
+		} else if (command instanceof On) {
+			StackEntry se = basic.getMachine().peek();
+			called = se != null && se.getCommand() == command;
+		} else if (command instanceof Return && current.parent != null) {
+			current = current.parent;
+		}
+	}
+
+	/**
+	 * Clears all collected results.
+	 */
+	public void reset() {
+		lines.clear();
+		sources.clear();
+		lastLineNumber = -1;
+		lastLine = null;
+		root = new Frame(null, "main");
+		current = root;
+		called = false;
+		measuring = false;
+	}
+
+	private int nextInterval() {
+		if (sampleInterval == 1) {
+			return 1;
+		}
+		// xorshift, which is good enough to avoid aliasing with loops
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		return 1 + (seed & 0x7fffffff) % (2 * sampleInterval - 1);
+	}
+
+	private List<Entry> getCommandEntries() {
+		List<Entry> res = new ArrayList<>();
+		for (Entry[] line : lines.values()) {
+			for (Entry entry : line) {
+				if (entry != null) {
+					res.add(entry);
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the results per command, sorted by the time spent on them in
+	 * descending order.
+	 *
+	 * @return the results
+	 */
+	public List<Entry> getCommandResults() {
+		List<Entry> res = getCommandEntries();
+		res.sort(null);
+		return res;
+	}
+
+	/**
+	 * Returns the results per line, sorted by the time spent on them in
+	 * descending order. The position of these entries is -1.
+	 *
+	 * @return the results
+	 */
+	public List<Entry> getLineResults() {
+		Map<Integer, Entry> lineEntries = new HashMap<>();
+		for (Entry entry : getCommandEntries()) {
+			Entry line = lineEntries.computeIfAbsent(entry.lineNumber, k -> new Entry(k, -1, sources.get(k)));
+			// A line's count is the number of times its first command has been executed
+			if (entry.position == 0) {
+				line.count += entry.count;
+			}
+			line.time += entry.time;
+		}
+		List<Entry> res = new ArrayList<>(lineEntries.values());
+		res.sort(null);
+		return res;
+	}
+
+	/**
+	 * Returns a report of the lines and commands that took the most time.
+	 *
+	 * @param maxEntries the maximum number of lines and commands in the report
+	 * @return the report
+	 */
+	public String getReport(int maxEntries) {
+		long total = 0;
+		for (Entry entry : getCommandEntries()) {
+			total += entry.time;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("Total time: ").append(total / 1000000L).append("ms\n\n");
+		sb.append(String.format(Locale.ENGLISH, "%8s%12s%12s%8s  %s%n", "Line", "Count", "Time (ms)", "%", "Code"));
+		appendEntries(sb, getLineResults(), maxEntries, total);
+		sb.append("\n");
+		sb.append(String.format(Locale.ENGLISH, "%8s%12s%12s%8s  %s%n", "Line/Pos", "Count", "Time (ms)", "%",
+				"Command"));
+		appendEntries(sb, getCommandResults(), maxEntries, total);
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the time spent per line and chain of GOSUBs in the collapsed stack
+	 * format, i.e. one line per stack with the frames separated by semicolons,
+	 * followed by the time in microseconds. Each subroutine is named after the
+	 * line that it starts with.
+	 *
+	 * @param writer the writer
+	 * @throws IOException if writing fails
+	 */
+	public void writeCollapsedStacks(Writer writer) throws IOException {
+		writeFrame(writer, root, root.name);
+		writer.flush();
+	}
+
+	private void writeFrame(Writer writer, Frame frame, String path) throws IOException {
+		for (Map.Entry<Integer, Entry> line : frame.lines.entrySet()) {
+			long micros = line.getValue().time / 1000L;
+			if (micros > 0) {
+				writer.write(path + ";" + line.getKey() + " " + micros + "\n");
+			}
+		}
+		for (Frame child : frame.children.values()) {
+			writeFrame(writer, child, path + ";" + child.name);
+		}
+	}
+
+	private void appendEntries(StringBuilder sb, List<Entry> entries, int maxEntries, long total) {
+		for (int i = 0; i < Math.min(maxEntries, entries.size()); i++) {
+			Entry entry = entries.get(i);
+			String pos = entry.position == -1 ? String.valueOf(entry.lineNumber)
+					: entry.lineNumber + "/" + entry.position;
+			sb.append(String.format(Locale.ENGLISH, "%8s%12d%12.3f%8.2f  %s%n", pos, entry.count,
+					entry.time / 1000000d, total == 0 ? 0d : entry.time * 100d / total,
+					entry.code == null ? "" : entry.code));
+		}
+	}
+
+	/**
+	 * The results of a command or a line.
+	 */
+	public static class Entry implements Comparable<Entry> {
+
+		private int lineNumber;
+		private int position;
+		private String code;
+		private long count;
+		private long time;
+
+		private Entry(int lineNumber, int position, String code) {
+			this.lineNumber = lineNumber;
+			this.position = position;
+			this.code = code;
+		}
+
+		public int getLineNumber() {
+			return lineNumber;
+		}
+
+		/**
+		 * @return the position of the command in the line or -1 for a whole line
+		 */
+		public int getPosition() {
+			return position;
+		}
+
+		/**
+		 * @return the name of the command or the code of the line
+		 */
+		public String getCode() {
+			return code;
+		}
+
+		/**
+		 * @return how often the command or, for a line, its first command has been
+		 *         executed
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the time in ns
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		@Override
+		public int compareTo(Entry o) {
+			int res = Long.compare(o.time, time);
+			if (res == 0) {
+				res = Integer.compare(lineNumber, o.lineNumber);
+			}
+			return res == 0 ? Integer.compare(position, o.position) : res;
+		}
+	}
+
+	/**
+	 * A subroutine in a chain of GOSUBs.
+	 */
+	private static class Frame {
+
+		private Frame parent;
+		private String name;
+		private Map<Integer, Frame> children = new LinkedHashMap<>();
+		private Map<Integer, Entry> lines = new LinkedHashMap<>();
+
+		private Frame(Frame parent, String name) {
+			this.parent = parent;
+			this.name = name;
+		}
+
+		private Frame getChild(int lineNumber) {
+			Frame child = children.get(lineNumber);
+			if (child == null) {
+				child = new Frame(this, "GOSUB " + lineNumber);
+				children.put(lineNumber, child);
+			}
+			return child;
+		}
+
+		private Entry getLine(int lineNumber) {
+			Entry entry = lines.get(lineNumber);
+			if (entry == null) {
+				entry = new Entry(lineNumber, -1, null);
+				lines.put(lineNumber, entry);
+			}
+			return entry;
+		}
+	}
+}
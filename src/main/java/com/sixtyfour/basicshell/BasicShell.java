@@ -339,6 +339,19 @@ public class BasicShell {
 		}
 	}
 
+	/**
+	 * Hands the current program over to the runner, so that it only has to
+	 * parse the lines that have changed. If the runner is still busy, a new one
+	 * will be created instead.
+	 */
+	private void updateRunner() {
+		if (runner == null || runner.isRunning()) {
+			runner = new Runner(store.toArray(), this);
+		} else {
+			runner.update(store.toArray());
+		}
+	}
+
 	/**
 	 * Wipe text area
 	 */
@@ -348,7 +361,7 @@ public class BasicShell {
 	}
 
 	private void run(boolean sync) {
-		runner = new Runner(store.toArray(), this);
+		updateRunner();
 		runner.start(sync);
 		mainTextArea.requestFocus();
 	}
@@ -449,10 +462,7 @@ public class BasicShell {
 					compile(split[1]);
 				}
 			} else if (sl.equals("run")) {
-				if (runner != null) {
-					runner.dispose();
-				}
-				runner = new Runner(store.toArray(), this);
+				updateRunner();
 				runner.synchronousStart();
 			} else if (split[0].toLowerCase().equals("save")) {
 				if (split.length != 2) {
@@ -24,11 +24,22 @@ public class Runner implements Runnable {
 		Basic.registerExtension(new GraphicsBasic());
 		Basic.registerExtension(new ConsoleSupport());
 		this.olsenBasic = new Basic(program);
+		olsenBasic.setIncrementalCompilation(true);
 		olsenBasic.setOutputChannel(new ShellOutputChannel(shellFrame));
 		olsenBasic.setInputProvider(new ShellInputProvider(shellFrame));
 		memListener = new ShellMemoryListener(shellFrame);
 	}
 
+	/**
+	 * Replaces the program. The next run will only parse the lines that have
+	 * changed since the last run.
+	 * 
+	 * @param program the new program
+	 */
+	public void update(String[] program) {
+		olsenBasic.setCode(program);
+	}
+
 	public void dispose() {
 		if (olsenBasic != null) {
 			olsenBasic.resetMemory();
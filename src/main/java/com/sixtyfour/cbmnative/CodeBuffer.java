@@ -0,0 +1,157 @@
+package com.sixtyfour.cbmnative;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A gap buffer that holds lines of code for the peephole optimizer. Replacing a
+ * range of lines happens in place and only moves the lines between the last
+ * modification and the current one. The lines are stored as CodeLines, so that
+ * patterns can quickly skip lines that can't be the start of a match and don't
+ * have to split them into opcode and operands each time.
+ * 
+ * @author EgonOlsen
+ *
+ */
+public class CodeBuffer {
+
+	private CodeLine[] lines;
+	private long[] keys;
+	private int gapStart;
+	private int gapEnd;
+
+	/**
+	 * Creates a new buffer that contains the given code.
+	 * 
+	 * @param code the code
+	 */
+	public CodeBuffer(List<String> code) {
+		int size = code.size();
+		int capacity = size + Math.max(16, size / 8);
+		lines = new CodeLine[capacity];
+		keys = new long[capacity];
+		for (int i = 0; i < size; i++) {
+			CodeLine line = new CodeLine(code.get(i));
+			lines[i] = line;
+			keys[i] = line.getKey();
+		}
+		gapStart = size;
+		gapEnd = capacity;
+	}
+
+	/**
+	 * Returns the number of lines.
+	 * 
+	 * @return the number of lines
+	 */
+	public int size() {
+		return lines.length - (gapEnd - gapStart);
+	}
+
+	/**
+	 * Returns a line.
+	 * 
+	 * @param index the index of the line
+	 * @return the line
+	 */
+	public String get(int index) {
+		return getLine(index).getText();
+	}
+
+	/**
+	 * Returns a line in its split form.
+	 * 
+	 * @param index the index of the line
+	 * @return the line
+	 */
+	public CodeLine getLine(int index) {
+		return lines[index < gapStart ? index : index + gapEnd - gapStart];
+	}
+
+	/**
+	 * Returns the key of a line.
+	 * 
+	 * @param index the index of the line
+	 * @return the key
+	 */
+	public long getKey(int index) {
+		// The keys are stored in an array of their own, because they are accessed
+		// much more often than the lines themselves.
+		return keys[index < gapStart ? index : index + gapEnd - gapStart];
+	}
+
+	/**
+	 * Returns a copy of some lines.
+	 * 
+	 * @param from the index of the first line
+	 * @param to   the index of the last line (inclusive)
+	 * @return the lines
+	 */
+	public List<String> getLines(int from, int to) {
+		List<String> ret = new ArrayList<>(to - from + 1);
+		for (int i = from; i <= to; i++) {
+			ret.add(get(i));
+		}
+		return ret;
+	}
+
+	/**
+	 * Replaces some lines by new ones.
+	 * 
+	 * @param from        the index of the first line to replace
+	 * @param to          the index of the last line to replace (inclusive)
+	 * @param replacement the new lines
+	 */
+	public void replace(int from, int to, List<String> replacement) {
+		moveGap(from);
+		gapEnd += to - from + 1;
+		int size = replacement.size();
+		if (gapEnd - gapStart < size) {
+			grow(size);
+		}
+		for (String line : replacement) {
+			CodeLine codeLine = new CodeLine(line);
+			lines[gapStart] = codeLine;
+			keys[gapStart++] = codeLine.getKey();
+		}
+	}
+
+	/**
+	 * Returns the content of the buffer as a list.
+	 * 
+	 * @return the code
+	 */
+	public List<String> toList() {
+		return getLines(0, size() - 1);
+	}
+
+	private void moveGap(int index) {
+		if (index < gapStart) {
+			int len = gapStart - index;
+			System.arraycopy(lines, index, lines, gapEnd - len, len);
+			System.arraycopy(keys, index, keys, gapEnd - len, len);
+			gapStart -= len;
+			gapEnd -= len;
+		} else if (index > gapStart) {
+			int len = index - gapStart;
+			System.arraycopy(lines, gapEnd, lines, gapStart, len);
+			System.arraycopy(keys, gapEnd, keys, gapStart, len);
+			gapStart += len;
+			gapEnd += len;
+		}
+	}
+
+	private void grow(int needed) {
+		int after = lines.length - gapEnd;
+		int capacity = lines.length + needed + lines.length / 2;
+		CodeLine[] newLines = new CodeLine[capacity];
+		long[] newKeys = new long[capacity];
+		System.arraycopy(lines, 0, newLines, 0, gapStart);
+		System.arraycopy(keys, 0, newKeys, 0, gapStart);
+		System.arraycopy(lines, gapEnd, newLines, capacity - after, after);
+		System.arraycopy(keys, gapEnd, newKeys, capacity - after, after);
+		lines = newLines;
+		keys = newKeys;
+		gapEnd = capacity - after;
+	}
+}
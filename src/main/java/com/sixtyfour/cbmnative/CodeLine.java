@@ -0,0 +1,124 @@
+package com.sixtyfour.cbmnative;
+
+/**
+ * A line of code in intermediate or assembly language that has been split into
+ * its opcode and its operands. The splitting happens once when the line is
+ * created, so that the optimizers don't have to do it over and over again each
+ * time they look at the line.
+ * 
+ * @author EgonOlsen
+ *
+ */
+public class CodeLine {
+
+	/** The key of lines that have to be checked in any case */
+	public static final long ANY = -1;
+
+	/** The number of characters that make up a key */
+	static final int KEY_LENGTH = 3;
+
+	private final String text;
+	private final String opcode;
+	private final String operands;
+	private final long key;
+	private String[] parts;
+
+	/**
+	 * Creates a new line.
+	 * 
+	 * @param text the line's text
+	 */
+	public CodeLine(String text) {
+		this.text = text;
+		int pos = text.indexOf(' ');
+		if (pos == -1) {
+			opcode = text;
+			operands = null;
+		} else {
+			opcode = text.substring(0, pos).intern();
+			operands = text.substring(pos + 1).trim();
+		}
+		key = createKey(text);
+	}
+
+	/**
+	 * Returns the line's text.
+	 * 
+	 * @return the text
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Returns the opcode, i.e. everything up to the first space. For a line
+	 * without any spaces, this is the complete line.
+	 * 
+	 * @return the opcode
+	 */
+	public String getOpcode() {
+		return opcode;
+	}
+
+	/**
+	 * Returns the operands, i.e. everything after the first space, trimmed.
+	 * 
+	 * @return the operands or null, if the line has no space in it
+	 */
+	public String getOperands() {
+		return operands;
+	}
+
+	/**
+	 * Returns the key of the line, which consists of its first characters in
+	 * upper case.
+	 * 
+	 * @return the key
+	 */
+	public long getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the parts of the line split at spaces and commas. For MOV X,Y, this
+	 * would be MOV, X and Y.
+	 * 
+	 * @return the parts
+	 */
+	public String[] getParts() {
+		if (parts == null) {
+			parts = text.split(" |,");
+		}
+		return parts;
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+
+	/**
+	 * Creates the key for a line or a part of a pattern.
+	 * 
+	 * @param line the line
+	 * @return the key or ANY, if the line starts with characters that can't be
+	 *         used in a key
+	 */
+	public static long createKey(String line) {
+		long key = 0;
+		for (int i = 0; i < KEY_LENGTH; i++) {
+			char c = 0;
+			if (i < line.length()) {
+				c = line.charAt(i);
+				if (c > 127) {
+					// Case insensitive comparisons of such characters don't map to upper case
+					// properly, so we don't create a key for them.
+					return ANY;
+				}
+				c = Character.toUpperCase(c);
+			}
+			key = (key << 8) | c;
+		}
+		return key;
+	}
+}
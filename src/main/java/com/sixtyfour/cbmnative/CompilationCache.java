@@ -0,0 +1,140 @@
+package com.sixtyfour.cbmnative;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sixtyfour.Logger;
+
+/**
+ * A content addressed cache for compiled code that lives in a local directory.
+ * Entries are stored under the SHA-256 hash of everything that their content
+ * depends on, so there's no need to ever invalidate them. Writing an entry is
+ * atomic, so that multiple compiler processes can share the same directory.
+ * Failing to read or write an entry isn't an error, it just causes a cache
+ * miss.
+ *
+ * @author EgonOlsen
+ *
+ */
+public class CompilationCache {
+
+	// Has to be changed whenever the format of the entries or the code that
+	// creates them changes in a way that isn't covered by the keys.
+	private final static String VERSION = "1";
+
+	private File dir;
+	private AtomicInteger hits = new AtomicInteger();
+	private AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * Creates a new cache that uses the given directory. The directory will be
+	 * created if needed.
+	 *
+	 * @param dir the directory
+	 */
+	public CompilationCache(String dir) {
+		this.dir = new File(dir);
+	}
+
+	/**
+	 * Creates a key from the given parts. The parts must not contain line breaks.
+	 *
+	 * @param parts the parts
+	 * @return the key
+	 */
+	public static String createKey(List<String> parts) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update(VERSION.getBytes(StandardCharsets.UTF_8));
+			for (String part : parts) {
+				md.update((byte) '\n');
+				md.update(part.getBytes(StandardCharsets.UTF_8));
+			}
+			StringBuilder sb = new StringBuilder();
+			for (byte b : md.digest()) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Failed to create cache key!", e);
+		}
+	}
+
+	/**
+	 * Returns the lines stored for a key.
+	 *
+	 * @param key the key
+	 * @return the lines or null, if there are none
+	 */
+	public List<String> get(String key) {
+		File file = getFile(key);
+		if (file.isFile()) {
+			try {
+				List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+				hits.incrementAndGet();
+				return lines;
+			} catch (IOException e) {
+				Logger.log("Failed to read cache entry " + file + ": " + e.getMessage());
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Stores lines for a key. An existing entry will be replaced.
+	 *
+	 * @param key   the key
+	 * @param lines the lines, which must not contain line breaks
+	 */
+	public void put(String key, List<String> lines) {
+		File file = getFile(key);
+		Path tmp = null;
+		try {
+			file.getParentFile().mkdirs();
+			tmp = Files.createTempFile(file.getParentFile().toPath(), key, ".tmp");
+			Files.write(tmp, lines, StandardCharsets.UTF_8);
+			try {
+				Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			Logger.log("Failed to write cache entry " + file + ": " + e.getMessage());
+			if (tmp != null) {
+				tmp.toFile().delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of successful lookups.
+	 *
+	 * @return the number of hits
+	 */
+	public int getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of failed lookups.
+	 *
+	 * @return the number of misses
+	 */
+	public int getMisses() {
+		return misses.get();
+	}
+
+	private File getFile(String key) {
+		return new File(new File(dir, key.substring(0, 2)), key);
+	}
+}
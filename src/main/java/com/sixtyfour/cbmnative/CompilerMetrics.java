@@ -0,0 +1,328 @@
+package com.sixtyfour.cbmnative;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects metrics while compiling a program. These are the time taken and
+ * memory allocated by each stage of the compilation as well as the number of
+ * lines that went into a stage and came out of it. For the native optimizer, it
+ * also contains how often each pattern has been applied and how much time has
+ * been spent on matching it.<br/>
+ * To collect metrics, an instance has to be set in the compiler's
+ * configuration before compiling the program. All methods of this class are
+ * thread safe.
+ *
+ * @author EgonOlsen
+ *
+ */
+public class CompilerMetrics {
+
+	private final static ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private List<Stage> stages = new ArrayList<>();
+	private Map<String, PatternStats> patterns = new TreeMap<>();
+	private Map<String, Long> counters = new LinkedHashMap<>();
+	private Stage current = null;
+
+	/**
+	 * Starts a new stage. The stage will be measured until it's being ended.
+	 * Stages should be sequential, i.e. there should be only one running stage at
+	 * a time.
+	 *
+	 * @param name    the name of the stage
+	 * @param linesIn the number of lines that go into this stage
+	 * @return the stage
+	 */
+	public synchronized Stage startStage(String name, int linesIn) {
+		Stage stage = new Stage(name, linesIn);
+		stages.add(stage);
+		current = stage;
+		return stage;
+	}
+
+	/**
+	 * Ends a stage.
+	 *
+	 * @param stage    the stage
+	 * @param linesOut the number of lines that this stage has created
+	 */
+	public synchronized void endStage(Stage stage, int linesOut) {
+		stage.wallTime += System.nanoTime() - stage.wallStart;
+		stage.cpuTime += getCpuTime() - stage.cpuStart;
+		stage.allocatedBytes += getAllocatedBytes() - stage.allocatedStart;
+		stage.linesOut = linesOut;
+		if (current == stage) {
+			current = null;
+		}
+	}
+
+	/**
+	 * Adds CPU time and allocated memory of another thread to the current stage.
+	 * Stages only measure the thread that runs them, so parallel work has to be
+	 * added this way.
+	 *
+	 * @param cpuTime        the CPU time in ns
+	 * @param allocatedBytes the allocated memory in bytes
+	 */
+	public synchronized void addWorkerUsage(long cpuTime, long allocatedBytes) {
+		if (current != null) {
+			current.cpuTime += cpuTime;
+			current.allocatedBytes += allocatedBytes;
+		}
+	}
+
+	/**
+	 * Adds the results of a pattern to the metrics. Results of patterns with the
+	 * same name will be added up.
+	 *
+	 * @param name   the name of the pattern
+	 * @param hits   how often the pattern has been applied
+	 * @param checks how many lines have been checked for the pattern
+	 * @param time   the time in ns spent on matching the pattern
+	 */
+	public synchronized void addPatternStats(String name, long hits, long checks, long time) {
+		PatternStats stats = patterns.computeIfAbsent(name, PatternStats::new);
+		stats.hits += hits;
+		stats.checks += checks;
+		stats.time += time;
+	}
+
+	/**
+	 * Adds a value to a counter. If the counter doesn't exist, it will be created.
+	 *
+	 * @param name  the name of the counter
+	 * @param value the value
+	 */
+	public synchronized void addCounter(String name, long value) {
+		counters.merge(name, value, Long::sum);
+	}
+
+	/**
+	 * Returns the stages in the order in which they have been started.
+	 *
+	 * @return the stages
+	 */
+	public synchronized List<Stage> getStages() {
+		return new ArrayList<>(stages);
+	}
+
+	/**
+	 * Returns the stage with the given name.
+	 *
+	 * @param name the name
+	 * @return the stage or null, if there's no such stage
+	 */
+	public synchronized Stage getStage(String name) {
+		for (Stage stage : stages) {
+			if (stage.getName().equals(name)) {
+				return stage;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the results of the patterns, sorted by name.
+	 *
+	 * @return the results
+	 */
+	public synchronized List<PatternStats> getPatternStats() {
+		return new ArrayList<>(patterns.values());
+	}
+
+	/**
+	 * Returns the counters.
+	 *
+	 * @return the counters
+	 */
+	public synchronized Map<String, Long> getCounters() {
+		return new LinkedHashMap<>(counters);
+	}
+
+	/**
+	 * Returns the metrics as a JSON object. Times are given in ms.
+	 *
+	 * @return the JSON
+	 */
+	public synchronized String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n  \"stages\": [");
+		for (int i = 0; i < stages.size(); i++) {
+			Stage stage = stages.get(i);
+			sb.append(i == 0 ? "\n" : ",\n");
+			sb.append("    {\"name\": ").append(quote(stage.getName()));
+			sb.append(", \"wallTime\": ").append(toMs(stage.getWallTime()));
+			sb.append(", \"cpuTime\": ").append(toMs(stage.getCpuTime()));
+			sb.append(", \"allocatedBytes\": ").append(stage.getAllocatedBytes());
+			sb.append(", \"linesIn\": ").append(stage.getLinesIn());
+			sb.append(", \"linesOut\": ").append(stage.getLinesOut()).append("}");
+		}
+		sb.append("\n  ],\n  \"patterns\": [");
+		int i = 0;
+		for (PatternStats stats : patterns.values()) {
+			sb.append(i++ == 0 ? "\n" : ",\n");
+			sb.append("    {\"name\": ").append(quote(stats.getName()));
+			sb.append(", \"hits\": ").append(stats.getHits());
+			sb.append(", \"checks\": ").append(stats.getChecks());
+			sb.append(", \"time\": ").append(toMs(stats.getTime())).append("}");
+		}
+		sb.append("\n  ],\n  \"counters\": {");
+		i = 0;
+		for (Map.Entry<String, Long> counter : counters.entrySet()) {
+			sb.append(i++ == 0 ? "\n" : ",\n");
+			sb.append("    ").append(quote(counter.getKey())).append(": ").append(counter.getValue());
+		}
+		sb.append("\n  }\n}");
+		return sb.toString();
+	}
+
+	private static String toMs(long nanos) {
+		return String.format(Locale.ENGLISH, "%.3f", nanos / 1000000d);
+	}
+
+	private static String quote(String txt) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : txt.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 32) {
+				sb.append(String.format(Locale.ENGLISH, "\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * Returns the CPU time of the current thread.
+	 *
+	 * @return the time in ns or 0, if the VM can't measure it
+	 */
+	public static long getCpuTime() {
+		return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+	}
+
+	/**
+	 * Returns the number of bytes that the current thread has allocated so far.
+	 *
+	 * @return the number of bytes or 0, if the VM can't measure it
+	 */
+	public static long getAllocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+			if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+				return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * A stage of the compilation.
+	 */
+	public static class Stage {
+
+		private String name;
+		private int linesIn;
+		private int linesOut = -1;
+		private long wallTime;
+		private long cpuTime;
+		private long allocatedBytes;
+
+		private long wallStart;
+		private long cpuStart;
+		private long allocatedStart;
+
+		private Stage(String name, int linesIn) {
+			this.name = name;
+			this.linesIn = linesIn;
+			wallStart = System.nanoTime();
+			cpuStart = CompilerMetrics.getCpuTime();
+			allocatedStart = CompilerMetrics.getAllocatedBytes();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getLinesIn() {
+			return linesIn;
+		}
+
+		/**
+		 * @return the number of lines created or -1, if the stage hasn't been ended
+		 */
+		public int getLinesOut() {
+			return linesOut;
+		}
+
+		/**
+		 * @return the wall clock time in ns
+		 */
+		public long getWallTime() {
+			return wallTime;
+		}
+
+		/**
+		 * @return the CPU time in ns, including the time of worker threads
+		 */
+		public long getCpuTime() {
+			return cpuTime;
+		}
+
+		/**
+		 * @return the allocated memory in bytes, including that of worker threads
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+	}
+
+	/**
+	 * The results of an optimizer pattern.
+	 */
+	public static class PatternStats {
+
+		private String name;
+		private long hits;
+		private long checks;
+		private long time;
+
+		private PatternStats(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return how often the pattern has been applied
+		 */
+		public long getHits() {
+			return hits;
+		}
+
+		/**
+		 * @return how many lines have been checked for the pattern
+		 */
+		public long getChecks() {
+			return checks;
+		}
+
+		/**
+		 * @return the time in ns spent on matching the pattern
+		 */
+		public long getTime() {
+			return time;
+		}
+	}
+}
@@ -10,6 +10,7 @@ import java.util.Set;
 
 import com.sixtyfour.Basic;
 import com.sixtyfour.Logger;
+import com.sixtyfour.cbmnative.CompilerMetrics.Stage;
 import com.sixtyfour.cbmnative.mos6502.util.SourceProcessor;
 import com.sixtyfour.config.CompilerConfig;
 import com.sixtyfour.config.MemoryConfig;
@@ -122,11 +123,28 @@ public class NativeCompiler {
 		}
 	};
 
+	// The code generators number their labels with static counters and the
+	// commands generate their code with the shared instance from getCompiler(),
+	// so the generation of intermediate and native code must not run
+	// concurrently. Parsing and the native optimizations, which take most of the
+	// time, aren't affected by this.
+	private final static Object CODE_GENERATION_LOCK = new Object();
+
 	private static NativeCompiler instance = new NativeCompiler();
 	private String lastProcessedLine = null;
 
 	/**
-	 * Returns an instance of the native compiler.
+	 * Creates a new native compiler. Use this instead of getCompiler() to compile
+	 * multiple programs concurrently, so that each compile has its own state. The
+	 * generation of intermediate and native code is still serialized between all
+	 * instances.
+	 */
+	public NativeCompiler() {
+		//
+	}
+
+	/**
+	 * Returns an instance of the native compiler. This instance is shared.
 	 * 
 	 * @return the instance
 	 */
@@ -148,7 +166,8 @@ public class NativeCompiler {
 
 	/**
 	 * Compiles a BASIC program into native (or assembly) code of the given target
-	 * platform.
+	 * platform. If the configuration contains metrics, these will be filled with
+	 * the metrics of this compilation.
 	 * 
 	 * @param conf      the compiler configuration
 	 * @param basic     the Basic instance that contains the actual BASIC program
@@ -159,10 +178,16 @@ public class NativeCompiler {
 	public List<String> compile(CompilerConfig conf, Basic basic, MemoryConfig memConfig, PlatformProvider platform) {
 
 		platform.overrideConfig(conf);
+		CompilerMetrics metrics = conf.getMetrics();
 		Logger.log("Running native compiler...");
 		Logger.log("Parsing BASIC program into AST...");
+		Stage stage = startStage(metrics, "parse", basic.getCode().length);
 		basic.compile(conf);
-		List<String> mCode = NativeCompiler.getCompiler().compileToPseudoCode(conf, basic);
+		int lines = basic.getLineCount();
+		endStage(metrics, stage, lines);
+		stage = startStage(metrics, "intermediate code", lines);
+		List<String> mCode = compileToPseudoCode(conf, basic);
+		endStage(metrics, stage, mCode.size());
 		boolean adjusted = basic.adjustMemoryConfig(memConfig);
 		if (adjusted) {
 			Logger.log("Program memory adjusted to end at $" + Integer.toHexString(memConfig.getStringEnd()));
@@ -186,31 +211,56 @@ public class NativeCompiler {
 					+ ") must not be lower than variable memory (" + memConfig.getVariableStart() + ")!");
 		}
 
-		List<String> nCode = tf.transform(conf, memConfig, basic.getMachine(), platform, mCode);
+		List<String> nCode = null;
+		stage = startStage(metrics, "transform", mCode.size());
+		synchronized (CODE_GENERATION_LOCK) {
+			nCode = tf.transform(conf, memConfig, basic.getMachine(), platform, mCode);
+		}
+		endStage(metrics, stage, nCode.size());
 		if (platform.getOptimizer() != null && conf.isNativeLanguageOptimizations()) {
+			stage = startStage(metrics, "native optimization", nCode.size());
 			nCode = platform.getOptimizer().optimize(conf, platform, nCode, conf.getProgressListener());
+			endStage(metrics, stage, nCode.size());
 		}
 		if (platform.getUnlinker() != null && conf.isOptimizedLinker()) {
+			stage = startStage(metrics, "unlink", nCode.size());
 			nCode = platform.getUnlinker().unlink(nCode);
+			endStage(metrics, stage, nCode.size());
 		}
 
 		if (conf.isOptimizeConstants()) {
+			stage = startStage(metrics, "constants", nCode.size());
 			Compactor comp = new Compactor(0);
 			nCode = comp.inlineIntegerConstants(nCode);
 			nCode = comp.removeUnusedConstants(nCode);
+			endStage(metrics, stage, nCode.size());
 		}
 
 		if (conf.isBigRam()) {
+			stage = startStage(metrics, "big ram", nCode.size());
 			SourceProcessor srcProc = new SourceProcessor(nCode);
 			nCode = srcProc.moveRuntime();
+			endStage(metrics, stage, nCode.size());
 		}
 
 		if (conf.getCompactThreshold() > 1) {
+			stage = startStage(metrics, "compact", nCode.size());
 			nCode = new Compactor(conf.getCompactThreshold()).compact(conf, nCode);
+			endStage(metrics, stage, nCode.size());
 		}
 		return nCode;
 	}
 
+	private Stage startStage(CompilerMetrics metrics, String name, int linesIn) {
+		return metrics == null ? null : metrics.startStage(name, linesIn);
+	}
+
+	private void endStage(CompilerMetrics metrics, Stage stage, int linesOut) {
+		if (metrics != null) {
+			metrics.endStage(stage, linesOut);
+		}
+	}
+
 	/**
 	 * Compiles a BASIC program into intermediate (pseudo) code.
 	 * 
@@ -219,6 +269,12 @@ public class NativeCompiler {
 	 * @return the intermediate code
 	 */
 	public List<String> compileToPseudoCode(CompilerConfig config, Basic basic) {
+		synchronized (CODE_GENERATION_LOCK) {
+			return compileToPseudoCodeInternal(config, basic);
+		}
+	}
+
+	private List<String> compileToPseudoCodeInternal(CompilerConfig config, Basic basic) {
 		lastProcessedLine = null;
 		Logger.log("Compiling into intermediate code...");
 
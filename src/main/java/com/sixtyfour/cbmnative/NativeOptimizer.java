@@ -2,8 +2,10 @@ package com.sixtyfour.cbmnative;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.sixtyfour.Logger;
@@ -19,6 +21,8 @@ public class NativeOptimizer {
 
 	private final static int MAX_AHEAD = 20;
 	private static List<NativePattern> patterns = new ArrayList<NativePattern>();
+	private static Map<String, NativePattern[]> opcode2Patterns = new HashMap<>();
+	private static NativePattern[] anyOpcodePatterns;
 
 	static {
 		List<Integer> pots = new ArrayList<>();
@@ -133,6 +137,36 @@ public class NativeOptimizer {
 		// Optimizes special cases of a multiplication by, for example, 40 (and similar muls).
 		// ...this also covers the former special case for arrays like a(16,16), which require a *17...
 		createRulesForMulAndAddSub(pots);
+		createIndex();
+	}
+
+	/**
+	 * Creates an index from the opcode of the first line of a pattern to the
+	 * patterns that might match. Patterns that don't require a specific opcode
+	 * appear in every entry. The order of the patterns stays the same in each
+	 * entry.
+	 */
+	private static void createIndex() {
+		List<NativePattern> anyOps = new ArrayList<>();
+		Map<String, List<NativePattern>> op2Pats = new HashMap<>();
+		for (NativePattern pattern : patterns) {
+			String opcode = pattern.getOpcode();
+			if (opcode == null) {
+				anyOps.add(pattern);
+				for (List<NativePattern> pats : op2Pats.values()) {
+					pats.add(pattern);
+				}
+			} else {
+				List<NativePattern> pats = op2Pats.get(opcode);
+				if (pats == null) {
+					pats = new ArrayList<>(anyOps);
+					op2Pats.put(opcode, pats);
+				}
+				pats.add(pattern);
+			}
+		}
+		op2Pats.forEach((k, v) -> opcode2Patterns.put(k, v.toArray(new NativePattern[v.size()])));
+		anyOpcodePatterns = anyOps.toArray(new NativePattern[anyOps.size()]);
 	}
 
 	private static void createRulesForMulAndAddSub(List<Integer> pots) {
@@ -275,6 +309,7 @@ public class NativeOptimizer {
 		List<String> ret = new ArrayList<String>();
 		String[] lines = new String[MAX_AHEAD];
 		String[][] splittedLines = new String[MAX_AHEAD][];
+		CodeLine[] codeLines = new CodeLine[code.size()];
 
 		if (code.size() > 1) {
 			for (int i = 0; i < code.size() - 1; i++) {
@@ -284,76 +319,27 @@ public class NativeOptimizer {
 				for (; p < MAX_AHEAD && p + i < code.size(); p++) {
 					String line = code.get(p + i);
 					lines[p] = line;
-					splittedLines[p] = lines[p].split(" |,");
+					CodeLine codeLine = codeLines[p + i];
+					if (codeLine == null) {
+						codeLine = new CodeLine(line);
+						codeLines[p + i] = codeLine;
+					}
+					splittedLines[p] = codeLine.getParts();
 				}
 				for (; p < MAX_AHEAD; p++) {
 					lines[p] = null;
 					splittedLines[p] = null;
 				}
 
-				for (NativePattern pattern : patterns) {
+				NativePattern[] candidates = opcode2Patterns.get(codeLines[i].getOpcode());
+				if (candidates == null) {
+					candidates = anyOpcodePatterns;
+				}
+				for (NativePattern pattern : candidates) {
 					String[] toReplace = pattern.getToReplace();
 					String[] replaceWith = pattern.getReplaceWith();
 
-					boolean match = true;
-					for (p = 0; p < toReplace.length; p++) {
-						if (lines[p] == null) {
-							match = false;
-							break;
-						}
-						String sf = toReplace[p];
-						String[] parts = sf.split("\\|");
-						boolean subMatch = true;
-						for (String sfs : parts) {
-							String sfo = sfs.replace("*", "").replace("%", "");
-							if (sfo.contains("?")) {
-								String[] pps = sfo.split("\\?");
-								if (lines[p].startsWith(pps[0]) && lines[p].endsWith(pps[1])) {
-									subMatch = true;
-								} else {
-									subMatch = false;
-									break;
-								}
-							} else {
-								if (sfs.contains("%")) {
-									if (sfs.endsWith("%") && lines[p].startsWith(sfo)
-											&& lines[p].endsWith("{INTEGER}")) {
-										String num = lines[p].replace(sfo, "").replace("{INTEGER}", "");
-										try {
-											int numi = Integer.parseInt(num);
-											if (numi > 0 && numi <= 255) {
-												subMatch = true;
-											} else {
-												subMatch = false;
-												break;
-											}
-										} catch (Exception e) {
-											subMatch = false;
-											break;
-										}
-									} else {
-										subMatch = false;
-										break;
-									}
-								} else {
-									if ((sfs.startsWith("*") && sfs.endsWith("*") && lines[p].contains(sfo))
-											|| (sfs.startsWith("*") && lines[p].endsWith(sfo)
-													|| (sfs.endsWith("*") && lines[p].startsWith(sfo))
-													|| sfs.equals(lines[p]))) {
-										subMatch = true;
-									} else {
-										subMatch = false;
-										break;
-									}
-								}
-							}
-						}
-						match = subMatch;
-						if (!match) {
-							break;
-						}
-					}
-					if (match) {
+					if (pattern.matches(lines)) {
 						for (p = 0; p < replaceWith.length; p++) {
 							String rw = replaceWith[p];
 							String rs = null;
@@ -710,9 +696,55 @@ public class NativeOptimizer {
 
 		private String[] replaceWith;
 
+		private PartMatcher[][] matchers;
+
+		private String opcode;
+
 		public NativePattern(String[] toReplace, String[] replaceWith) {
 			this.toReplace = toReplace;
 			this.replaceWith = replaceWith;
+			matchers = new PartMatcher[toReplace.length][];
+			for (int i = 0; i < toReplace.length; i++) {
+				String[] parts = toReplace[i].split("\\|");
+				matchers[i] = new PartMatcher[parts.length];
+				for (int p = 0; p < parts.length; p++) {
+					matchers[i][p] = new PartMatcher(parts[p]);
+					if (i == 0 && opcode == null) {
+						opcode = matchers[i][p].getOpcode();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns true, if the pattern matches the lines.
+		 * 
+		 * @param lines the lines, null terminated if there are less lines than
+		 *              MAX_AHEAD
+		 * @return does it match?
+		 */
+		public boolean matches(String[] lines) {
+			for (int p = 0; p < matchers.length; p++) {
+				String line = lines[p];
+				if (line == null) {
+					return false;
+				}
+				for (PartMatcher matcher : matchers[p]) {
+					if (!matcher.matches(line)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the opcode that the first line has to have to match this pattern.
+		 * 
+		 * @return the opcode or null, if it can't be determined
+		 */
+		public String getOpcode() {
+			return opcode;
 		}
 
 		public String[] getToReplace() {
@@ -727,4 +759,82 @@ public class NativeOptimizer {
 			return Arrays.toString(toReplace) + " -> " + Arrays.toString(replaceWith);
 		}
 	}
+
+	/**
+	 * A precompiled part of a line in a pattern. The supported wildcards are * at
+	 * the start and/or end, % at the end for a number between 1 and 255 and ? for
+	 * anything in between.
+	 */
+	private static class PartMatcher {
+
+		private String sfs;
+
+		private String sfo;
+
+		private String[] pps;
+
+		private boolean startsWithStar;
+
+		private boolean endsWithStar;
+
+		private boolean percent;
+
+		public PartMatcher(String sfs) {
+			this.sfs = sfs;
+			sfo = sfs.replace("*", "").replace("%", "");
+			if (sfo.contains("?")) {
+				pps = sfo.split("\\?");
+			}
+			startsWithStar = sfs.startsWith("*");
+			endsWithStar = sfs.endsWith("*");
+			percent = sfs.contains("%");
+		}
+
+		public boolean matches(String line) {
+			if (pps != null) {
+				return line.startsWith(pps[0]) && line.endsWith(pps[1]);
+			}
+			if (percent) {
+				if (sfs.endsWith("%") && line.startsWith(sfo) && line.endsWith("{INTEGER}")) {
+					String num = line.replace(sfo, "").replace("{INTEGER}", "");
+					try {
+						int numi = Integer.parseInt(num);
+						return numi > 0 && numi <= 255;
+					} catch (Exception e) {
+						return false;
+					}
+				}
+				return false;
+			}
+			return (startsWithStar && endsWithStar && line.contains(sfo)) || (startsWithStar && line.endsWith(sfo))
+					|| (endsWithStar && line.startsWith(sfo)) || sfs.equals(line);
+		}
+
+		/**
+		 * Returns the opcode that a line has to have to match.
+		 * 
+		 * @return the opcode or null, if it can't be determined
+		 */
+		public String getOpcode() {
+			// Every match requires the line to start with the part up to the first
+			// wildcard.
+			int end = sfs.length();
+			for (char c : new char[] { '*', '%', '?' }) {
+				int pos = sfs.indexOf(c);
+				if (pos != -1) {
+					end = Math.min(end, pos);
+				}
+			}
+			String prefix = sfs.substring(0, end);
+			int pos = prefix.indexOf(' ');
+			if (pos != -1) {
+				return prefix.substring(0, pos);
+			}
+			if (end == sfs.length()) {
+				// No wildcards at all, the line has to be equal to the part
+				return sfs;
+			}
+			return null;
+		}
+	}
 }
@@ -13,9 +13,6 @@ import java.util.Map;
  * 
  */
 public class Pattern implements java.lang.Cloneable {
-	private volatile static int instanceCnt = 0;
-
-	private int instance = instanceCnt++;
 	private List<String> pattern;
 	private List<Integer> spacePos;
 	private List<Integer> partRightP0;
@@ -26,6 +23,10 @@ public class Pattern implements java.lang.Cloneable {
 	private List<String> partRights;
 	private List<String> partRightsReg;
 	private List<String> partLefts;
+	private List<String> jumpTargets;
+	private List<Integer> regIndices;
+	private List<Double> constValues;
+	private List<String> strConstValues;
 	private int pos = 0;
 	private String[] regs = new String[10];
 	private String[] mems = new String[10];
@@ -35,9 +36,12 @@ public class Pattern implements java.lang.Cloneable {
 	private int end = -1;
 	private String name;
 	private int loopCnt = 0;
+	private String labelPrefix = "";
 	private boolean looseTypes = false;
 	private boolean simple = true;
 	private boolean skipComments = false;
+	private long startKey = 0;
+	private long startMask = 0;
 
 	/**
 	 * Creates a new pattern.
@@ -57,6 +61,10 @@ public class Pattern implements java.lang.Cloneable {
 		partRightP1 = new ArrayList<>();
 		partLefts = new ArrayList<>();
 		partRightsReg = new ArrayList<>();
+		jumpTargets = new ArrayList<>();
+		regIndices = new ArrayList<>();
+		constValues = new ArrayList<>();
+		strConstValues = new ArrayList<>();
 		for (String part : pattern) {
 			int p0 = part.indexOf(" ");
 			spacePos.add(p0);
@@ -70,12 +78,18 @@ public class Pattern implements java.lang.Cloneable {
 			partLefts.add(prP0 != -1 ? pr.substring(0, prP0) : null);
 			int prP1 = pr.lastIndexOf("}");
 			partRightP1.add(prP1);
-			partRightsReg.add((prP1 != -1 && prP0 != -1) ? pr.substring(prP0 + 1, prP1) : null);
-			isJump.add(ft.equals("JSR") || ft.equals("JMP") || ft.equals("BEQ") || ft.endsWith("JMP")
-					|| ft.equals("BNE") || ft.equals("BCC") || ft.equals("BCS"));
+			String reg = (prP1 != -1 && prP0 != -1) ? pr.substring(prP0 + 1, prP1) : null;
+			partRightsReg.add(reg);
+			boolean jump = ft.equals("JSR") || ft.equals("JMP") || ft.equals("BEQ") || ft.endsWith("JMP")
+					|| ft.equals("BNE") || ft.equals("BCC") || ft.equals("BCS");
+			isJump.add(jump);
+			jumpTargets.add(jump && part.endsWith("{*}") ? part.replaceFirst(ft, "").trim().replace("{*}", "").trim()
+					: null);
+			compileReg(reg);
 		}
 		this.replacement = replacement;
 		this.name = name;
+		createStartKey();
 	}
 
 	/**
@@ -144,74 +158,155 @@ public class Pattern implements java.lang.Cloneable {
 		if (pos == pattern.size()) {
 			List<String> first = code.subList(0, index);
 			List<String> last = code.subList(end + 1, code.size());
-			String[] replacement = null;
-			boolean cntInc = false;
-			if (this.replacement != null) {
-				replacement = Arrays.copyOf(this.replacement, this.replacement.length);
-				List<String> sub = new ArrayList<String>();
-				for (String subline : code.subList(index, end + 1)) {
-					if (!subline.startsWith(";")) {
-						sub.add(subline);
-					}
+			List<String> eternity = createReplacement(code.subList(index, end + 1));
+			List<String> res = new ArrayList<>(first);
+			res.addAll(eternity);
+			res.addAll(last);
+			resetPattern();
+			return res;
+		}
+		resetPattern();
+		return code;
+	}
+
+	/**
+	 * Applies the pattern to a code buffer, i.e. the matching parts in the buffer
+	 * will be replaced by the replacement code in place.
+	 * 
+	 * @param code the code buffer
+	 */
+	public void apply(CodeBuffer code) {
+		if (pos == pattern.size()) {
+			code.replace(index, end, createReplacement(code.getLines(index, end)));
+		}
+		resetPattern();
+	}
+
+	/**
+	 * Returns false, if a line with the given key can't be the first line of a
+	 * match. This is a quick check that can be done before calling matches(), if
+	 * the pattern is at position 0. It might return true for lines that don't
+	 * match, but never false for lines that do.
+	 * 
+	 * @param key the key of the line as created by the CodeLine
+	 * @return might it match?
+	 */
+	public boolean mightStartWith(long key) {
+		return key == CodeLine.ANY || (key & startMask) == startKey;
+	}
+
+	private List<String> createReplacement(List<String> matched) {
+		String[] replacement = null;
+		boolean cntInc = false;
+		if (this.replacement != null) {
+			replacement = Arrays.copyOf(this.replacement, this.replacement.length);
+			List<String> sub = new ArrayList<String>();
+			for (String subline : matched) {
+				if (!subline.startsWith(";")) {
+					sub.add(subline);
 				}
-				for (int i = 0; i < replacement.length; i++) {
-					String from = "";
-					String to = "";
-					if (replacement[i].contains("|")) {
-						int pos = replacement[i].indexOf("|");
-						int pos2 = replacement[i].indexOf(">", pos);
-						from = replacement[i].substring(pos + 1, pos2).trim();
-						to = replacement[i].substring(pos2 + 1).trim();
-						replacement[i] = replacement[i].substring(0, pos).trim();
+			}
+			for (int i = 0; i < replacement.length; i++) {
+				String from = "";
+				String to = "";
+				if (replacement[i].contains("|")) {
+					int pos = replacement[i].indexOf("|");
+					int pos2 = replacement[i].indexOf(">", pos);
+					from = replacement[i].substring(pos + 1, pos2).trim();
+					to = replacement[i].substring(pos2 + 1).trim();
+					replacement[i] = replacement[i].substring(0, pos).trim();
+				}
+				if (replacement[i].startsWith("{LINE")) {
+					String postFix = "";
+					if (!replacement[i].endsWith("}")) {
+						int pos = replacement[i].indexOf("}");
+						postFix = replacement[i].substring(pos + 1);
+						replacement[i] = replacement[i].substring(0, pos + 1);
 					}
-					if (replacement[i].startsWith("{LINE")) {
-						String postFix = "";
-						if (!replacement[i].endsWith("}")) {
-							int pos = replacement[i].indexOf("}");
-							postFix = replacement[i].substring(pos + 1);
-							replacement[i] = replacement[i].substring(0, pos + 1);
-						}
-						int num = Integer.parseInt(replacement[i].substring(5, replacement[i].length() - 1));
-						replacement[i] = sub.get(num) + postFix;
+					int num = Integer.parseInt(replacement[i].substring(5, replacement[i].length() - 1));
+					replacement[i] = sub.get(num) + postFix;
+				} else {
+					int pos = replacement[i].indexOf("{REG");
+					if (pos != -1) {
+						replace(replacement, i, pos, 4, regs);
 					} else {
-						int pos = replacement[i].indexOf("{REG");
+						pos = replacement[i].indexOf("{CONST");
 						if (pos != -1) {
-							replace(replacement, i, pos, 4, regs);
+							replace(replacement, i, pos, 6, consts);
 						} else {
-							pos = replacement[i].indexOf("{CONST");
+							pos = replacement[i].indexOf("{MEM");
 							if (pos != -1) {
-								replace(replacement, i, pos, 6, consts);
+								replace(replacement, i, pos, 4, mems);
 							} else {
-								pos = replacement[i].indexOf("{MEM");
+								pos = replacement[i].indexOf("{cnt}");
 								if (pos != -1) {
-									replace(replacement, i, pos, 4, mems);
-								} else {
-									pos = replacement[i].indexOf("{cnt}");
-									if (pos != -1) {
-										if (!cntInc) {
-											cntInc = true;
-											loopCnt++;
-										}
-										replacement[i] = replacement[i].replace("{cnt}", instance + "_" + loopCnt);
+									if (!cntInc) {
+										cntInc = true;
+										loopCnt++;
 									}
+									replacement[i] = replacement[i].replace("{cnt}", labelPrefix + loopCnt);
 								}
 							}
 						}
 					}
-					replacement[i] = replacement[i].replace(from, to);
 				}
+				replacement[i] = replacement[i].replace(from, to);
 			}
-			List<String> eternity = replacement != null ? new ArrayList<String>(Arrays.asList(replacement))
-					: new ArrayList<String>();
-			eternity.add("; Optimizer rule: " + name + "/" + (replacement == null ? 0 : replacement.length));
-			List<String> res = new ArrayList<>(first);
-			res.addAll(eternity);
-			res.addAll(last);
-			resetPattern();
-			return res;
 		}
-		resetPattern();
-		return code;
+		List<String> eternity = replacement != null ? new ArrayList<String>(Arrays.asList(replacement))
+				: new ArrayList<String>();
+		eternity.add("; Optimizer rule: " + name + "/" + (replacement == null ? 0 : replacement.length));
+		return eternity;
+	}
+
+	private void compileReg(String reg) {
+		// Parse the placeholders once, so that matches() doesn't have to do it over
+		// and over again.
+		int index = -1;
+		double constValue = 0;
+		String strConstValue = null;
+		if (reg != null) {
+			if (reg.startsWith("#")) {
+				String num = reg.substring(1);
+				if (num.contains("\"")) {
+					strConstValue = num.replace("\"", "");
+				} else {
+					constValue = Double.parseDouble(num);
+					if (!num.contains(".")) {
+						constValue = (int) constValue;
+					}
+				}
+			} else if (reg.startsWith("REG") || reg.startsWith("MEM")) {
+				index = Integer.parseInt(reg.substring(3));
+			} else if (reg.startsWith("CONST")) {
+				index = Integer.parseInt(reg.substring(5));
+			}
+		}
+		regIndices.add(index);
+		constValues.add(constValue);
+		strConstValues.add(strConstValue);
+	}
+
+	private void createStartKey() {
+		// Every match of the first part requires the line to start with the
+		// characters of the part up to the first space (ignoring case). Labels and
+		// other placeholders match anything.
+		String part = pattern.get(0);
+		int p0 = spacePos.get(0);
+		String prefix = part.substring(0, Math.min(CodeLine.KEY_LENGTH, p0 == -1 ? part.length() : p0));
+		if (prefix.contains("{")) {
+			return;
+		}
+		long key = CodeLine.createKey(prefix);
+		if (key == CodeLine.ANY) {
+			return;
+		}
+		long mask = 0;
+		for (int i = 0; i < CodeLine.KEY_LENGTH; i++) {
+			mask = (mask << 8) | (i < prefix.length() ? 0xff : 0);
+		}
+		startKey = key & mask;
+		startMask = mask;
 	}
 
 	/**
@@ -223,13 +318,28 @@ public class Pattern implements java.lang.Cloneable {
 	 * @return does it match?
 	 */
 	public boolean matches(String line, int ix, Map<String, Number> const2Value, Map<String, String> strConst2Value) {
+		return matches(new CodeLine(line), ix, const2Value, strConst2Value);
+	}
+
+	/**
+	 * Returns true, if the pattern matches with code at the current position.
+	 * 
+	 * @param code        the line of code to test against
+	 * @param ix          the index into the code
+	 * @param const2Value a mapping from constants to their values
+	 * @return does it match?
+	 */
+	public boolean matches(CodeLine code, int ix, Map<String, Number> const2Value,
+			Map<String, String> strConst2Value) {
+		String line = code.getText();
 		if (line.startsWith(";")) {
 			return false;
 		}
 		String part = pattern.get(pos);
 
 		int p0 = spacePos.get(pos);
-		int p1 = line.indexOf(" ");
+		String lineRight = code.getOperands();
+		int p1 = lineRight == null ? -1 : code.getOpcode().length();
 		if (p0 == -1 && p1 == -1 && part.equalsIgnoreCase(line)) {
 			return inc(ix);
 		}
@@ -239,19 +349,18 @@ public class Pattern implements java.lang.Cloneable {
 
 		String ft = command.get(pos);
 		if (isJump.get(pos)) {
-			if (part.endsWith("{*}") && line.startsWith(ft)) {
-				String stripped = part.replaceFirst(ft, "").trim().replace("{*}", "").trim();
-				String sline = line.replaceFirst(ft, "").trim();
-				if (stripped.isEmpty() || sline.startsWith(stripped)) {
+			String stripped = jumpTargets.get(pos);
+			if (stripped != null && line.startsWith(ft)) {
+				if (stripped.isEmpty() || line.substring(ft.length()).trim().startsWith(stripped)) {
 					return inc(ix);
 				}
 			}
 		}
 
 		if (p0 != -1 && p1 != -1 && !line.contains("SKIP")) {
-			if (partP0.get(pos).equalsIgnoreCase(line.substring(0, p1))) {
+			String partLeft = partP0.get(pos);
+			if (partLeft.equalsIgnoreCase(code.getOpcode())) {
 				String partRight = partRights.get(pos);
-				String lineRight = line.substring(p1 + 1).trim();
 				if (partRight.equalsIgnoreCase(lineRight)) {
 					return inc(ix);
 				} else {
@@ -265,15 +374,10 @@ public class Pattern implements java.lang.Cloneable {
 								return inc(ix);
 							} else {
 								if (reg.startsWith("#")) {
-									String num = reg.substring(1);
-									boolean isReal = num.contains(".");
-									boolean isString = num.contains("\"");
-									if (!isString) {
+									String strVal = strConstValues.get(pos);
+									if (strVal == null) {
 										// Not a string...
-										double val = Double.parseDouble(num);
-										if (!isReal) {
-											val = (int) val;
-										}
+										double val = constValues.get(pos);
 										int pos = lineRight.indexOf("CONST_");
 										if (lineRight.equals(reg) || (pos != -1
 												&& const2Value.containsKey(lineRight.substring(pos))
@@ -282,7 +386,7 @@ public class Pattern implements java.lang.Cloneable {
 										}
 									} else {
 										// a string...
-										String val = num.replace("\"", "");
+										String val = strVal;
 										int pos = lineRight.indexOf("CONST_");
 										if (lineRight.equals(reg)
 												|| (pos != -1 && strConst2Value.containsKey(lineRight.substring(pos))
@@ -294,7 +398,7 @@ public class Pattern implements java.lang.Cloneable {
 								} else {
 									String value = lineRight.substring(p0);
 									if (reg.startsWith("REG") && lineRight.contains("_REG")) {
-										int num = Integer.parseInt(reg.substring(3));
+										int num = regIndices.get(pos);
 										int pv = value.lastIndexOf("+");
 										if (pv != -1) {
 											value = value.substring(0, pv);
@@ -316,7 +420,7 @@ public class Pattern implements java.lang.Cloneable {
 											if (pv != -1) {
 												value = value.substring(0, pv);
 											}
-											int num = Integer.parseInt(reg.substring(3));
+											int num = regIndices.get(pos);
 											if (mems[num] == null) {
 												mems[num] = value;
 												return inc(ix);
@@ -332,7 +436,7 @@ public class Pattern implements java.lang.Cloneable {
 											if (pv != -1) {
 												value = value.substring(0, pv);
 											}
-											int num = Integer.parseInt(reg.substring(5));
+											int num = regIndices.get(pos);
 											if (consts[num] == null) {
 												consts[num] = value;
 												return inc(ix);
@@ -404,6 +508,10 @@ public class Pattern implements java.lang.Cloneable {
 	}
 
 	private boolean resetPattern() {
+		if (pos == 0) {
+			// Nothing has been stored yet
+			return false;
+		}
 		pos = 0;
 		index = -1;
 		end = -1;
@@ -459,6 +567,27 @@ public class Pattern implements java.lang.Cloneable {
 		this.simple = simple;
 	}
 
+	/**
+	 * Returns the prefix of the numbers that replace {cnt} in the labels created
+	 * by this pattern.
+	 * 
+	 * @return the prefix
+	 */
+	public String getLabelPrefix() {
+		return labelPrefix;
+	}
+
+	/**
+	 * Sets the prefix of the numbers that replace {cnt} in the labels created by
+	 * this pattern. Patterns that are applied to the same code need different
+	 * prefixes, so that their labels don't collide. Default is an empty prefix.
+	 * 
+	 * @param labelPrefix the prefix
+	 */
+	public void setLabelPrefix(String labelPrefix) {
+		this.labelPrefix = labelPrefix;
+	}
+
 	public int getSourceSize() {
 		return pattern.size();
 	}
@@ -471,6 +600,31 @@ public class Pattern implements java.lang.Cloneable {
 		this.skipComments = skipComments;
 	}
 
+	/**
+	 * Creates a copy of this pattern. The copy shares the compiled pattern
+	 * definition with this one, which isn't modified while matching, but it has
+	 * its own matching state. The copies of one pattern can be used in different
+	 * threads at the same time. If they are applied to the same code, they need
+	 * different label prefixes (see setLabelPrefix()).
+	 * 
+	 * @return the copy in its initial state
+	 */
+	public Pattern copy() {
+		try {
+			Pattern copy = (Pattern) super.clone();
+			copy.regs = new String[regs.length];
+			copy.mems = new String[mems.length];
+			copy.consts = new String[consts.length];
+			copy.pos = 0;
+			copy.index = -1;
+			copy.end = -1;
+			copy.loopCnt = 0;
+			return copy;
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException("Failed to copy pattern: " + name, e);
+		}
+	}
+
 	@Override
 	public Object clone() throws CloneNotSupportedException {
 		return super.clone();
@@ -23,4 +23,17 @@ public interface ProgressListener {
 	 * Called one time when the process is done.
 	 */
 	void done();
+
+	/**
+	 * Called once for each thread that took part in a parallel process before
+	 * done() is being called. The default implementation does nothing.
+	 * 
+	 * @param thread the name of the thread
+	 * @param tasks  the number of tasks that the thread has processed
+	 * @param busy   the time in ms that the thread has spent on these tasks
+	 * @param total  the time in ms that the parallel process took
+	 */
+	default void threadUtilization(String thread, int tasks, long busy, long total) {
+		//
+	}
 }
@@ -8,7 +8,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 
 import com.sixtyfour.Logger;
 import com.sixtyfour.config.CompilerConfig;
@@ -58,11 +58,138 @@ public class PseudoCpu {
 	private final static int X = 0; // float
 	private final static int Y = 1; // float
 
-	private Deque<Number> stack = new LinkedList<Number>();
-	private Deque<Number> jumpStack = new LinkedList<Number>();
+	// The types of values in registers and on the stack
+	private final static byte T_INT = 0;
+	private final static byte T_FLOAT = 1;
+	private final static byte T_DOUBLE = 2;
+
+	// Opcodes of decoded instructions. All opcodes from OP_MUL on are calculations.
+	private final static int OP_INVALID = 0;
+	private final static int OP_LABEL = 1;
+	private final static int OP_NOP = 2;
+	private final static int OP_MOV = 3;
+	private final static int OP_PUSH = 4;
+	private final static int OP_POP = 5;
+	private final static int OP_SWAP = 6;
+	private final static int OP_JSR = 7;
+	private final static int OP_JMP = 8;
+	private final static int OP_JE = 9;
+	private final static int OP_JNE = 10;
+	private final static int OP_RTS = 11;
+	private final static int OP_BRK = 12;
+	private final static int OP_CMP = 13;
+	private final static int OP_MUL = 20;
+	private final static int OP_NEG = 21;
+	private final static int OP_DIV = 22;
+	private final static int OP_SHR = 23;
+	private final static int OP_SHL = 24;
+	private final static int OP_SUB = 25;
+	private final static int OP_ADD = 26;
+	private final static int OP_AND = 27;
+	private final static int OP_XOR = 28;
+	private final static int OP_NOT = 29;
+	private final static int OP_OR = 30;
+	private final static int OP_POW = 31;
+	private final static int OP_SIN = 32;
+	private final static int OP_COS = 33;
+	private final static int OP_LOG = 34;
+	private final static int OP_SQR = 35;
+	private final static int OP_INT = 36;
+	private final static int OP_ABS = 37;
+	private final static int OP_SGN = 38;
+	private final static int OP_TAN = 39;
+	private final static int OP_ATN = 40;
+	private final static int OP_EXP = 41;
+	private final static int OP_RND = 42;
+	private final static int OP_EQ = 43;
+	private final static int OP_NEQ = 44;
+	private final static int OP_GT = 45;
+	private final static int OP_LT = 46;
+	private final static int OP_GTEQ = 47;
+	private final static int OP_LTEQ = 48;
+
+	// Addressing modes of MOV
+	private final static int MOV_CONST_TO_MEM = 0;
+	private final static int MOV_REG_TO_STRING = 1;
+	private final static int MOV_REG_TO_VAR = 2;
+	private final static int MOV_REG_TO_MEM = 3;
+	private final static int MOV_REG_TO_MEM16 = 4;
+	private final static int MOV_INDIRECT_TO_REG = 5;
+	private final static int MOV_REG_TO_INDIRECT = 6;
+	private final static int MOV_MEM_TO_REG = 7;
+	private final static int MOV_REG_TO_REG = 8;
+	private final static int MOV_POINTER_TO_REG = 9;
+	private final static int MOV_STRING_TO_REG = 10;
+	private final static int MOV_CONST_TO_REG = 11;
+	private final static int MOV_ARRAY_TO_REG = 12;
+	private final static int MOV_VAR_TO_REG = 13;
+
+	// Addressing modes of CMP
+	private final static int CMP_REG_WITH_REG = 0;
+	private final static int CMP_VAR_WITH_REG = 1;
+	private final static int CMP_REG_WITH_CONST = 2;
+	private final static int CMP_REG_WITH_VAR = 3;
+
+	private final static Map<String, Integer> OPCODES = new HashMap<>();
+
+	static {
+		OPCODES.put("MOV", OP_MOV);
+		OPCODES.put("MOVB", OP_MOV);
+		OPCODES.put("PUSH", OP_PUSH);
+		OPCODES.put("POP", OP_POP);
+		OPCODES.put("SWAP", OP_SWAP);
+		OPCODES.put("JSR", OP_JSR);
+		OPCODES.put("JMP", OP_JMP);
+		OPCODES.put("JE", OP_JE);
+		OPCODES.put("JNE", OP_JNE);
+		OPCODES.put("RTS", OP_RTS);
+		OPCODES.put("BRK", OP_BRK);
+		OPCODES.put("NOP", OP_NOP);
+		OPCODES.put("CHGCTX", OP_NOP);
+		OPCODES.put("CMP", OP_CMP);
+		OPCODES.put("MUL", OP_MUL);
+		OPCODES.put("NEG", OP_NEG);
+		OPCODES.put("DIV", OP_DIV);
+		OPCODES.put("SHR", OP_SHR);
+		OPCODES.put("SHL", OP_SHL);
+		OPCODES.put("SUB", OP_SUB);
+		OPCODES.put("ADD", OP_ADD);
+		OPCODES.put("AND", OP_AND);
+		OPCODES.put("XOR", OP_XOR);
+		OPCODES.put("NOT", OP_NOT);
+		OPCODES.put("OR", OP_OR);
+		OPCODES.put("POW", OP_POW);
+		OPCODES.put("SIN", OP_SIN);
+		OPCODES.put("COS", OP_COS);
+		OPCODES.put("LOG", OP_LOG);
+		OPCODES.put("SQR", OP_SQR);
+		OPCODES.put("INT", OP_INT);
+		OPCODES.put("ABS", OP_ABS);
+		OPCODES.put("SGN", OP_SGN);
+		OPCODES.put("TAN", OP_TAN);
+		OPCODES.put("ATN", OP_ATN);
+		OPCODES.put("EXP", OP_EXP);
+		OPCODES.put("RND", OP_RND);
+		OPCODES.put("EQ", OP_EQ);
+		OPCODES.put("NEQ", OP_NEQ);
+		OPCODES.put("GT", OP_GT);
+		OPCODES.put("LT", OP_LT);
+		OPCODES.put("GTEQ", OP_GTEQ);
+		OPCODES.put("LTEQ", OP_LTEQ);
+	}
+
+	// The stack, stored as values and their types
+	private double[] stack = new double[64];
+	private byte[] stackTypes = new byte[64];
+	private int stackPos;
+	private int[] jumpStack = new int[64];
+	private int jumpStackPos;
 	private byte[] forStack = new byte[1024];
 	private int forStackPos;
-	private Number[] regs = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 }; // x,y,..,..,..,a,b,...
+	// The registers x,y,..,..,..,a,b,..., stored as values and their types
+	private double[] regs = new double[14];
+	private byte[] regTypes = new byte[14];
+	private ForStackEntry forStackEntry = new ForStackEntry();
 	private Machine machine;
 	private CompilerConfig config;
 	private boolean zeroFlag = false;
@@ -82,7 +209,7 @@ public class PseudoCpu {
 	private List<String> inputQueue = new ArrayList<String>();
 	private int jumpTargetAddr = MEM_SIZE - 4;
 	private Map<String, Integer> memLocations = new HashMap<String, Integer>();
-	private Map<Integer, String> varLocations = new HashMap<Integer, String>();
+	private Map<Integer, Integer> varLocations = new HashMap<Integer, Integer>();
 	private List<String> stringNames = new ArrayList<String>();
 	private int memPointer = 0;
 	private int stringStart = 0;
@@ -99,11 +226,12 @@ public class PseudoCpu {
 	private Function pos = new Pos();
 	private Function tab = new Tab();
 	private Function spc = new Spc();
-	private Map<String, Long> label2line = new HashMap<>();
+	private Map<String, Integer> label2line = new HashMap<>();
 	private SystemCallListener callListener = null;
 	private int memoryLimit = MEM_SIZE;
 	private boolean sharedRam = false;
 	private Map<String, Integer> constMap = ConstantExtractor.getAllConstantMaps();
+	private Map<String, Routine> routines = createRoutines();
 
 	/**
 	 * Executes the intermediate code.
@@ -117,7 +245,7 @@ public class PseudoCpu {
 		Spc.setLimitedToPrint(false);
 		this.machine = machine;
 		this.config = config;
-		stack.clear();
+		stackPos = 0;
 		label2line.clear();
 		memLocations.clear();
 		varLocations.clear();
@@ -136,7 +264,8 @@ public class PseudoCpu {
 		datasAddr = MEM_SIZE;
 		datasPointer = MEM_SIZE;
 		halt = false;
-		regs = new Number[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+		Arrays.fill(regs, 0);
+		Arrays.fill(regTypes, T_INT);
 		memory = new int[MEM_SIZE * 2]; // normal memory + work buffer
 		memPointer = PRG_START;
 
@@ -170,7 +299,7 @@ public class PseudoCpu {
 
 		this.dynamicStart = memPointer;
 
-		long cnt = 0;
+		int cnt = 0;
 		for (String line : code) {
 			String[] parts = line.split(" ");
 			if (parts.length > 0) {
@@ -183,13 +312,18 @@ public class PseudoCpu {
 
 		addr = 0;
 
-		List<String[]> splittedCode = new ArrayList<String[]>();
-		for (String line : code) {
-			splittedCode.add(split(line, " "));
+		// Decode the code once, so that the actual execution doesn't have to deal
+		// with strings anymore
+		int[] opcodes = new int[code.size()];
+		Instruction[] instructions = new Instruction[code.size()];
+		for (int i = 0; i < code.size(); i++) {
+			Instruction ins = decode(split(code.get(i), " "));
+			opcodes[i] = ins.opcode;
+			instructions[i] = ins;
 		}
 
 		do {
-			executeCommand(code, splittedCode);
+			executeCommand(code, opcodes, instructions);
 		} while (!halt && addr < code.size());
 	}
 
@@ -219,12 +353,17 @@ public class PseudoCpu {
 	}
 
 	/**
-	 * Returns the stack.
+	 * Returns a copy of the stack's content. The top of the stack is the first
+	 * element.
 	 * 
 	 * @return the stack
 	 */
 	public Deque<Number> getStack() {
-		return stack;
+		Deque<Number> ret = new LinkedList<Number>();
+		for (int i = 0; i < stackPos; i++) {
+			ret.push(toNumber(stack[i], stackTypes[i]));
+		}
+		return ret;
 	}
 
 	/**
@@ -233,8 +372,10 @@ public class PseudoCpu {
 	 * @return the string
 	 */
 	public String getStringFromStack() {
-		Integer num = (Integer) stack.pop();
-		return readString(num);
+		if (stackPos == 0) {
+			throw new NoSuchElementException();
+		}
+		return readString((int) stack[--stackPos]);
 	}
 
 	/**
@@ -301,152 +442,313 @@ public class PseudoCpu {
 		this.callListener = callListener;
 	}
 
-	private final void executeCommand(List<String> code, List<String[]> splittedCode) {
-		String[] parts = splittedCode.get(addr++);
+	private final void executeCommand(List<String> code, int[] opcodes, Instruction[] instructions) {
+		int pc = addr++;
+		Instruction ins = instructions[pc];
 		try {
-			if (parts.length > 0) {
-
-				if (parts[0].endsWith(":") && (Character.isDigit(parts[0].charAt(parts[0].length() - 2))
-						|| parts[0].startsWith("PROGRAM"))) {
-					return;
+			switch (opcodes[pc]) {
+			case OP_LABEL:
+			case OP_NOP:
+				break;
+			case OP_MOV:
+				mov(ins);
+				break;
+			case OP_PUSH:
+				push(ins.target);
+				break;
+			case OP_POP:
+				pop(ins);
+				break;
+			case OP_SWAP:
+				swap(ins);
+				break;
+			case OP_JSR:
+				jsr(ins);
+				break;
+			case OP_JMP:
+				jmp(ins);
+				break;
+			case OP_JE:
+				if (zeroFlag) {
+					condJump(ins);
+				}
+				break;
+			case OP_JNE:
+				if (!zeroFlag) {
+					condJump(ins);
 				}
+				break;
+			case OP_RTS:
+				rts(ins.parts);
+				break;
+			case OP_BRK:
+				halt = true;
+				break;
+			case OP_CMP:
+				compare(ins);
+				break;
+			case OP_INVALID:
+				throw ins.error;
+			default:
+				calc(opcodes[pc], ins);
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Error while executing: " + code.get(pc) + "/" + addr, e);
+		}
+	}
+
+	/**
+	 * Decodes an instruction. If decoding fails, the instruction will be marked as
+	 * invalid and the error will be thrown when (and if) it gets executed.
+	 * 
+	 * @param parts the instruction, split into name and operands
+	 * @return the decoded instruction
+	 */
+	private Instruction decode(String[] parts) {
+		Instruction ins = new Instruction(parts);
+		try {
+			if (parts[0].endsWith(":") && (Character.isDigit(parts[0].charAt(parts[0].length() - 2))
+					|| parts[0].startsWith("PROGRAM"))) {
+				ins.opcode = OP_LABEL;
+				return ins;
+			}
+			Integer opcode = OPCODES.get(parts[0]);
+			if (opcode == null) {
+				throw new RuntimeException("Unknown instruction: " + parts[0]);
+			}
+			ins.opcode = opcode;
 
-				switch (parts[0]) {
-				case "MOV":
-					mov(parts);
-					break;
-				case "MOVB":
-					mov(parts);
-					break;
-				case "PUSH":
-					push(parts);
-					break;
-				case "POP":
-					pop(parts);
-					break;
-				case "MUL":
-					mul(parts);
-					break;
-				case "NEG":
-					neg(parts);
-					break;
-				case "DIV":
-					div(parts);
-					break;
-				case "SHR":
-					shr(parts);
-					break;
-				case "SHL":
-					shl(parts);
-					break;
-				case "SUB":
-					sub(parts);
-					break;
-				case "ADD":
-					add(parts);
-					break;
-				case "AND":
-					and(parts);
-					break;
-				case "XOR":
-					xor(parts);
-					break;
-				case "NOT":
-					not(parts);
-					break;
-				case "OR":
-					or(parts);
-					break;
-				case "POW":
-					pow(parts);
-					break;
-				case "SIN":
-					sin(parts);
-					break;
-				case "COS":
-					cos(parts);
-					break;
-				case "NOP":
-					break;
-				case "LOG":
-					log(parts);
-					break;
-				case "SQR":
-					sqr(parts);
-					break;
-				case "INT":
-					inty(parts);
-					break;
-				case "ABS":
-					abs(parts);
-					break;
-				case "SGN":
-					sgn(parts);
-					break;
-				case "TAN":
-					tan(parts);
-					break;
-				case "ATN":
-					atn(parts);
-					break;
-				case "EXP":
-					exp(parts);
-					break;
-				case "RND":
-					rnd(parts);
-					break;
-				case "SWAP":
-					swap(parts);
-					break;
-				case "JSR":
-					jsr(parts);
-					break;
-				case "JMP":
-					jmp(parts);
-					break;
-				case "JE":
-					je(parts);
-					break;
-				case "JNE":
-					jne(parts);
-					break;
-				case "RTS":
-					rts(parts);
-					break;
-				case "BRK":
-					halt = true;
-					break;
-				case "CHGCTX":
-					nop(parts);
-					break;
-				case "EQ":
-					equal(parts);
-					break;
-				case "CMP":
-					compare(parts);
-					break;
-				case "NEQ":
-					notEqual(parts);
-					break;
-				case "GT":
-					greaterThan(parts);
-					break;
-				case "LT":
-					lowerThan(parts);
-					break;
-				case "GTEQ":
-					greaterThanOrEqual(parts);
-					break;
-				case "LTEQ":
-					lowerThanOrEqual(parts);
-					break;
-				default:
-					throw new RuntimeException("Unknown instruction: " + parts[0]);
+			switch (opcode) {
+			case OP_NOP:
+			case OP_RTS:
+			case OP_BRK:
+				break;
+			case OP_MOV:
+				decodeMov(ins);
+				break;
+			case OP_CMP:
+				decodeCompare(ins);
+				break;
+			case OP_PUSH:
+			case OP_POP:
+				ins.target = getIndex(parts[1]);
+				break;
+			case OP_SWAP: {
+				String[] ops = split(parts[1], ",");
+				ins.target = getIndex(ops[0]);
+				ins.source = getIndex(ops[1]);
+				break;
+			}
+			case OP_JSR:
+				ins.routine = routines.get(parts[1]);
+				if (ins.routine == null) {
+					ins.label = parts[1].trim();
+					ins.jumpTarget = getJumpTarget(ins.label);
+				}
+				break;
+			case OP_JMP:
+				ins.label = parts[1].trim();
+				ins.jumpTarget = getJumpTarget(ins.label);
+				break;
+			case OP_JE:
+			case OP_JNE:
+				decodeCondJump(ins);
+				break;
+			default: {
+				String[] ops = { "X", "Y" };
+				if (parts.length > 1) {
+					ops = split(parts[1], ",");
 				}
+				ins.target = getIndex(ops[0]);
+				ins.source = getIndex(ops[1]);
+			}
 			}
 		} catch (Exception e) {
-			throw new RuntimeException("Error while executing: " + code.get(addr - 1) + "/" + addr, e);
+			ins.opcode = OP_INVALID;
+			ins.error = e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+		}
+		return ins;
+	}
+
+	private void decodeCondJump(Instruction ins) {
+		String addry = ins.parts[1].trim();
+		if (addry.startsWith("(") && addry.endsWith(")")) {
+			try {
+				if (addry.contains("$JUMP")) {
+					ins.address = MEM_SIZE - 4;
+				} else {
+					ins.address = Integer.parseInt(addry.substring(1, addry.length() - 1));
+				}
+				ins.indirect = true;
+			} catch (NumberFormatException e) {
+				// Will be reported when the jump actually happens
+			}
+		} else {
+			ins.jumpTarget = getJumpTarget(addry);
+		}
+	}
+
+	private void decodeMov(Instruction ins) {
+		String[] ops = split(ins.parts[1], ",");
+		String target = ops[0];
+		String source = ops[1];
+		int ti = getIndex(target);
+		int si = getIndex(source);
+		ins.target = ti;
+		ins.source = si;
+
+		if (ti == -1 && si == -1) {
+			// constant into memory
+			ins.mode = MOV_CONST_TO_MEM;
+			ins.address = parseInt(target);
+			ins.value = parseInt(source.substring(0, source.indexOf("{")).replace("#", "").trim()) & 0xff;
+			return;
+		}
+
+		if (ti == -1) {
+			// From register into memory
+			int pos = target.lastIndexOf("{");
+			if (pos != -1) {
+				String ts = target.substring(pos + 1, target.lastIndexOf("}"));
+				String val = target.substring(0, pos);
+				ins.name = val;
+				if (Type.valueOf(ts) == Type.STRING) {
+					// a string...
+					ins.mode = MOV_REG_TO_STRING;
+				} else if (val.contains("[]")) {
+					throw new RuntimeException("Writing into '" + val + "' isn't supported!");
+				} else {
+					// a number...
+					ins.mode = MOV_REG_TO_VAR;
+					ins.slot = getSlot(val);
+				}
+			} else if (!target.contains(":")) {
+				// From register into fixed memory address
+				ins.mode = MOV_REG_TO_MEM;
+				ins.address = parseInt(target);
+			} else {
+				String[] trs = target.split(":");
+				ins.mode = MOV_REG_TO_MEM16;
+				ins.address = parseInt(trs[0].trim());
+				ins.address2 = parseInt(trs[1].trim());
+			}
+			return;
+		}
+
+		// From memory or register into register
+		int pos = source.lastIndexOf("{");
+		if (pos == -1) {
+			if (source.startsWith("(") && source.endsWith(")")) {
+				ins.mode = MOV_INDIRECT_TO_REG;
+			} else if (target.startsWith("(") && target.endsWith(")")) {
+				ins.mode = MOV_REG_TO_INDIRECT;
+			} else if (isNumber(source)) {
+				// From fixed memory address into register
+				ins.mode = MOV_MEM_TO_REG;
+				ins.address = Integer.parseInt(source);
+			} else {
+				ins.mode = MOV_REG_TO_REG;
+			}
+			return;
+		}
+
+		String ts = source.substring(pos + 1, source.lastIndexOf("}"));
+		String val = source.substring(0, pos);
+		ins.name = val;
+		if (source.startsWith("(") && source.endsWith(")")) {
+			ins.mode = MOV_POINTER_TO_REG;
+			ins.name = val.substring(1);
+			ins.slot = getSlot(ins.name);
+			return;
+		}
+		Type type = Type.valueOf(ts);
+		if (type == Type.STRING) {
+			// a string...
+			ins.mode = MOV_STRING_TO_REG;
+		} else if (val.startsWith("#")) {
+			// a number...
+			Number n = Float.valueOf(val.replace("#", ""));
+			if (type == Type.INTEGER) {
+				n = n.intValue();
+			}
+			ins.mode = MOV_CONST_TO_REG;
+			ins.constant = n.doubleValue();
+			ins.constantType = type == Type.INTEGER ? T_INT : T_FLOAT;
+		} else if (val.contains("[]")) {
+			ins.mode = MOV_ARRAY_TO_REG;
+		} else {
+			ins.mode = MOV_VAR_TO_REG;
+			ins.slot = getSlot(val);
+		}
+	}
+
+	private void decodeCompare(Instruction ins) {
+		String[] ops = split(ins.parts[1], ",");
+		String target = ops[0];
+		String source = ops[1];
+		int ti = getIndex(target);
+		int si = getIndex(source);
+		ins.target = ti;
+		ins.source = si;
+
+		if (ti == -1 && si != -1) {
+			// memory with register
+			int pos = target.lastIndexOf("{");
+			if (pos == -1) {
+				throw new RuntimeException("Unknown opcode: " + Arrays.toString(ins.parts));
+			}
+			String ts = target.substring(pos + 1, target.lastIndexOf("}"));
+			String val = target.substring(0, pos);
+			if (Type.valueOf(ts) == Type.STRING) {
+				throw new RuntimeException("Comparing a string isn't supported!");
+			}
+			ins.mode = CMP_VAR_WITH_REG;
+			ins.name = val;
+			ins.slot = getSlot(val);
+			return;
+		}
+
+		// register with memory or register
+		int pos = source.lastIndexOf("{");
+		if (pos == -1) {
+			ins.mode = CMP_REG_WITH_REG;
+			return;
+		}
+		String ts = source.substring(pos + 1, source.lastIndexOf("}"));
+		String val = source.substring(0, pos);
+		Type type = Type.valueOf(ts);
+		if (type == Type.STRING) {
+			throw new RuntimeException("Comparing a string isn't supported!");
+		}
+		if (val.startsWith("#")) {
+			Number n = Float.valueOf(val.replace("#", ""));
+			if (type == Type.INTEGER) {
+				n = n.intValue();
+			}
+			ins.mode = CMP_REG_WITH_CONST;
+			ins.constant = n.doubleValue();
+			ins.constantType = type == Type.INTEGER ? T_INT : T_FLOAT;
+		} else {
+			ins.mode = CMP_REG_WITH_VAR;
+			ins.name = val;
+			ins.slot = getSlot(val);
+		}
+	}
+
+	private int getJumpTarget(String label) {
+		Integer line = label2line.get(label + ":");
+		return line == null ? -1 : line;
+	}
+
+	private int getSlot(String name) {
+		if (machine.getVariableUpperCase(name) == null) {
+			return -1;
 		}
+		return machine.getSlot(name);
+	}
+
+	private Variable getVariable(Instruction ins) {
+		return ins.slot == -1 ? null : machine.getVariable(ins.slot);
 	}
 
 	private String[] split(String line, String delimiter) {
@@ -483,12 +785,13 @@ public class PseudoCpu {
 	}
 
 	private void createVariables() {
-		Map<String, Variable> vars = machine.getVariables();
-		for (Entry<String, Variable> entry : vars.entrySet()) {
-			String name = entry.getKey();
-			Variable var = entry.getValue();
+		for (int i = 0; i < machine.getSlotCount(); i++) {
+			Variable var = machine.getVariable(i);
+			if (var == null) {
+				continue;
+			}
 			if (var.getType() != Type.STRING) {
-				varLocations.put(System.identityHashCode(var), name);
+				varLocations.put(System.identityHashCode(var), i);
 			}
 		}
 	}
@@ -504,10 +807,12 @@ public class PseudoCpu {
 
 	private void createStringVariables() {
 		stringStart = memPointer;
-		Map<String, Variable> vars = machine.getVariables();
-		for (Entry<String, Variable> entry : vars.entrySet()) {
-			String name = entry.getKey();
-			Variable var = entry.getValue();
+		for (int i = 0; i < machine.getSlotCount(); i++) {
+			Variable var = machine.getVariable(i);
+			if (var == null) {
+				continue;
+			}
+			String name = var.getUpperCaseName();
 			if (name.endsWith("$") && !name.equals("TI$")) {
 				String val = (String) var.eval(machine);
 				if (memLocations.containsKey(name)) {
@@ -558,10 +863,12 @@ public class PseudoCpu {
 	}
 
 	private void createArrays() {
-		Map<String, Variable> vars = machine.getVariables();
-		for (Entry<String, Variable> entry : vars.entrySet()) {
-			String name = entry.getKey();
-			Variable var = entry.getValue();
+		for (int i = 0; i < machine.getSlotCount(); i++) {
+			Variable var = machine.getVariable(i);
+			if (var == null) {
+				continue;
+			}
+			String name = var.getUpperCaseName();
 			if (var.isArray()) {
 				@SuppressWarnings("unchecked")
 				List<Object> vals = (List<Object>) var.getInternalValue();
@@ -680,441 +987,238 @@ public class PseudoCpu {
 		return new String(memory, num + 1, memory[num]);
 	}
 
-	private void nop(String[] parts) {
-		// Do nothing, just a stub
-	}
-
-	private void jmp(String[] parts) {
-		String addry = parts[1].trim();
-		try {
-			jumpTo(addry);
-		} catch (Exception e) {
-			if (callListener != null) {
-				try {
-					if (addry.startsWith("$")) {
-						addry = String.valueOf(Integer.parseInt(addry.substring(1, addry.length()), 16));
-					}
-					callListener.sys(Integer.valueOf(addry));
-					jumpStack.pop();
-				} catch (Exception e2) {
-					throw new RuntimeException("Undefined call address: " + parts[1]);
+	private void jmp(Instruction ins) {
+		if (ins.jumpTarget != -1) {
+			addr = ins.jumpTarget;
+			return;
+		}
+		String addry = ins.label;
+		if (callListener != null) {
+			try {
+				if (addry.startsWith("$")) {
+					addry = String.valueOf(Integer.parseInt(addry.substring(1, addry.length()), 16));
 				}
-			} else {
-				throw new RuntimeException("Undefined call address: " + parts[1]);
+				callListener.sys(Integer.valueOf(addry));
+				popJump();
+			} catch (Exception e2) {
+				throw new RuntimeException("Undefined call address: " + ins.parts[1]);
 			}
+		} else {
+			throw new RuntimeException("Undefined call address: " + ins.parts[1]);
 		}
 	}
 
-	private void je(String[] parts) {
-		if (zeroFlag) {
-			condJump(parts);
+	private void condJump(Instruction ins) {
+		if (ins.indirect) {
+			int ia = ins.address;
+			this.addr = (memory[ia] & 0xff) + ((memory[ia + 1] & 0xff) << 8) + ((memory[ia + 2] & 0xff) << 16)
+					+ ((memory[ia + 3] & 0xff) << 24);
+		} else if (ins.jumpTarget != -1) {
+			this.addr = ins.jumpTarget;
+		} else {
+			throw new RuntimeException("Undefined call address: " + ins.parts[1] + " in " + (addr - 1));
 		}
 	}
 
-	private void jne(String[] parts) {
-		if (!zeroFlag) {
-			condJump(parts);
+	private void jsr(Instruction ins) {
+		if (ins.routine != null) {
+			ins.routine.run(ins.parts);
+		} else {
+			pushJump(addr);
+			jmp(ins);
 		}
 	}
 
-	private void condJump(String[] parts) {
-		String addry = parts[1].trim();
-		try {
-			if (addry.startsWith("(") && addry.endsWith(")")) {
-				if (addry.contains("$JUMP")) {
-					addry = String.valueOf(MEM_SIZE - 4);
-				} else {
-					addry = addry.substring(1, addry.length() - 1);
-				}
-				int ia = Integer.parseInt(addry);
-				this.addr = (memory[ia] & 0xff) + ((memory[ia + 1] & 0xff) << 8) + ((memory[ia + 2] & 0xff) << 16)
-						+ ((memory[ia + 3] & 0xff) << 24);
-			} else {
-				jumpTo(addry);
+	private Map<String, Routine> createRoutines() {
+		Map<String, Routine> routines = new HashMap<>();
+		Routine nop = p -> {
+			// Do nothing...
+		};
+		routines.put("CONCAT", this::concat);
+		routines.put("CHR", this::chr);
+		routines.put("EXTRAIGNORED", p -> strOutAbs("?extra ignored", 0));
+		routines.put("USR", this::usr);
+		routines.put("ASC", this::asc);
+		routines.put("STR", this::str);
+		routines.put("FRE", p -> intOut(p, 0));
+		routines.put("VAL", this::val);
+		routines.put("TABOUT", p -> {
+			setInt(Y, 1);
+			tab(p);
+		});
+		routines.put("LEN", this::len);
+		routines.put("MID", this::mid);
+		routines.put("BUFFERRESET", nop);
+		routines.put("LEFT", this::left);
+		routines.put("RIGHT", this::right);
+		routines.put("CRSRRIGHT", p -> crsrright(p, 0));
+		routines.put("TAB", this::tab);
+		routines.put("TABCHANNEL", this::tab);
+		routines.put("SPC", this::spc);
+		routines.put("SPCCHANNEL", this::spc);
+		routines.put("POS", this::pos);
+		routines.put("ARRAYACCESS", this::arrayAccess);
+		routines.put("ARRAYSTORE", this::arrayStore);
+		routines.put("COMPACT", p -> collectGarbage());
+		routines.put("COMPACTMAX", p -> collectGarbage());
+		routines.put("CHECKCMD", nop);
+		routines.put("SEQ", this::strEqual);
+		routines.put("SNEQ", this::strNotEqual);
+		routines.put("SGT", this::strGreaterThan);
+		routines.put("SLT", this::strLowerThan);
+		routines.put("SGTEQ", this::strGreaterThanOrEqual);
+		routines.put("SLTEQ", this::strLowerThanOrEqual);
+		routines.put("INTOUT", p -> intOut(p, 0));
+		routines.put("REALOUT", p -> realOut(p, 0));
+		routines.put("STROUT", p -> strOut(p, 0));
+		routines.put("QMARKOUT1", p -> qMarkOut1(p, 0));
+		routines.put("QMARKOUT2", p -> qMarkOut2(p, 0));
+		routines.put("LINEBREAK", p -> lineBreak(p, 0));
+		routines.put("INTOUTCHANNEL", this::intOutChannel);
+		routines.put("REALOUTCHANNEL", this::realOutChannel);
+		routines.put("STROUTCHANNEL", this::strOutChannel);
+		routines.put("LINEBREAKCHANNEL", this::lineBreakChannel);
+		routines.put("INITFOR", this::initFor);
+		routines.put("FASTFOR", this::fastFor);
+		routines.put("NEXT", this::next);
+		routines.put("GOSUB", this::gosub);
+		routines.put("RETURN", this::returny);
+		routines.put("COPYSTR", this::copyString);
+		routines.put("RESTORE", this::restore);
+		routines.put("RESTARTPRG", this::restart);
+		routines.put("READSTR", this::readString);
+		routines.put("READNUMBER", this::readNumber);
+		routines.put("GETSTR", this::getString);
+		routines.put("GETNUMBER", this::getNumber);
+		routines.put("GETSTRCHANNEL", this::getStringChannel);
+		routines.put("GETNUMBERCHANNEL", this::getNumberChannel);
+		routines.put("CMD", this::cmd);
+		routines.put("OPEN", this::open);
+		routines.put("VPEEK", this::vpeek);
+		routines.put("JOY", nop);
+		routines.put("COLOR", nop);
+		routines.put("REM", nop);
+		routines.put("CLS", nop);
+		routines.put("SYSTEMCALLDYN", nop);
+		routines.put("SETUPMULTIPARS", nop);
+		routines.put("COPYSTRINGPAR", nop);
+		routines.put("COPYREALPAR", nop);
+		routines.put("ADDCOLON", nop);
+		routines.put("PULLDOWNMULTIPARS", nop);
+		routines.put("RESET", nop);
+		routines.put("DOSCALL", nop);
+		routines.put("GEOS", nop);
+		routines.put("SCREEN", nop);
+		routines.put("MOUSE", nop);
+		routines.put("PSET", nop);
+		routines.put("LINE", nop);
+		routines.put("FRAME", nop);
+		routines.put("RECT", nop);
+		routines.put("DOSSTAT", nop);
+		routines.put("FINX", this::finx);
+		routines.put("FDEX", this::fdex);
+		routines.put("CLOSE", this::close);
+		routines.put("INPUTSTR", this::inputString);
+		routines.put("INPUTNUMBER", this::inputNumber);
+		routines.put("INPUTSTRCHANNEL", this::inputStringChannel);
+		routines.put("INPUTNUMBERCHANNEL", this::inputNumberChannel);
+		routines.put("QUEUESIZE", this::queueSize);
+		routines.put("CLEARQUEUE", this::clearQueue);
+		routines.put("CLR", this::clearVars);
+		routines.put("RUN", this::run);
+		routines.put("END", this::end);
+		routines.put("START", this::start);
+		routines.put("PEEKBYTEAND", this::peekByteAnd);
+		routines.put("PEEKBYTEOR", this::peekByteOr);
+		routines.put("PEEKBYTEADD", this::peekByteAdd);
+		routines.put("PEEKBYTEADDAND", this::peekByteAddAnd);
+		routines.put("PEEKBYTEADDOR", this::peekByteAddOr);
+		return routines;
+	}
+
+	private void peekByteAddAnd(String[] parts) {
+		int andVal = intValue(B);
+		int addVal = intValue(A);
+		int pval = intValue(Y);
+		setInt(X, (addVal + pval) & andVal);
+		updateZeroFlag(regs[X]);
+	}
+
+	private void peekByteAddOr(String[] parts) {
+		int orVal = intValue(B);
+		int addVal = intValue(A);
+		int pval = intValue(Y);
+		setInt(X, (addVal + pval) | orVal);
+		updateZeroFlag(regs[X]);
+	}
+
+	private void peekByteAdd(String[] parts) {
+		int addVal = intValue(A);
+		int pval = intValue(Y);
+		setInt(X, addVal + pval);
+		updateZeroFlag(regs[X]);
+	}
+
+	private void peekByteAnd(String[] parts) {
+		int andVal = intValue(A);
+		int pval = intValue(Y);
+		setInt(X, andVal & pval);
+		updateZeroFlag(regs[X]);
+	}
+
+	private void peekByteOr(String[] parts) {
+		int orVal = intValue(A);
+		int pval = intValue(Y);
+		setInt(X, orVal | pval);
+		updateZeroFlag(regs[X]);
+	}
+
+	private void restart(String[] parts) {
+		forStackPos = 0;
+		addr = 0;
+	}
+
+	private void fdex(String[] parts) {
+		setInt(X, intValue(X) - 1);
+	}
+
+	private void finx(String[] parts) {
+		setInt(X, intValue(X) + 1);
+	}
+
+	private void crsrright(String[] parts, int channel) {
+		if (channel == 0) {
+			machine.getOutputChannel().print(channel, " ");
+		} else {
+			machine.getDeviceProvider().print(channel, " ");
+		}
+
+	}
+
+	private void usr(String[] parts) {
+		// do nothing...who uses this anyway...
+	}
+
+	private void returny(String[] parts) {
+		int fsp = forStackPos;
+		while (fsp >= 0) {
+			ForStackEntry fse = forStackEntry.read(fsp);
+			if (fse.type == 0) {
+				// System.out.println(forStack[forStackPos-1]);
+				forStackPos = fsp - fse.size;
+				// System.out.println("Stack corrected to
+				// "+forStackPos+"/"+fse.size);
+				return;
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
-			throw new RuntimeException("Undefined call address: " + parts[1] + " in " + (addr - 1));
+			fsp -= fse.size;
 		}
+		throw new RuntimeException("Stack underflow!");
 	}
 
-	private void jsr(String[] parts) {
-
-		switch (parts[1]) {
-		case "CONCAT":
-			concat(parts);
-			return;
-		case "CHR":
-			chr(parts);
-			return;
-		case "EXTRAIGNORED":
-			strOutAbs("?extra ignored", 0);
-			return;
-		case "USR":
-			usr(parts);
-			return;
-		case "ASC":
-			asc(parts);
-			return;
-		case "STR":
-			str(parts);
-			return;
-		case "FRE":
-			intOut(parts, 0);
-			return;
-		case "VAL":
-			val(parts);
-			return;
-		case "TABOUT":
-			regs[Y] = 1;
-			tab(parts);
-			return;
-		case "LEN":
-			len(parts);
-			return;
-		case "MID":
-			mid(parts);
-			return;
-		case "BUFFERRESET":
-			// Nothing to do
-			return;
-		case "LEFT":
-			left(parts);
-			return;
-		case "RIGHT":
-			right(parts);
-			return;
-		case "CRSRRIGHT":
-			crsrright(parts, 0);
-			return;
-		case "TAB":
-		case "TABCHANNEL":
-			tab(parts);
-			return;
-		case "SPC":
-		case "SPCCHANNEL":
-			spc(parts);
-			return;
-		case "POS":
-			pos(parts);
-			return;
-		case "ARRAYACCESS":
-			arrayAccess(parts);
-			return;
-		case "ARRAYSTORE":
-			arrayStore(parts);
-			return;
-		case "COMPACT":
-			collectGarbage();
-			return;
-		case "COMPACTMAX":
-			collectGarbage();
-			return;
-		case "CHECKCMD":
-			// @todo handle additional blank when in CMD mode...
-			return;
-		case "SEQ":
-			strEqual(parts);
-			return;
-		case "SNEQ":
-			strNotEqual(parts);
-			return;
-		case "SGT":
-			strGreaterThan(parts);
-			return;
-		case "SLT":
-			strLowerThan(parts);
-			return;
-		case "SGTEQ":
-			strGreaterThanOrEqual(parts);
-			return;
-		case "SLTEQ":
-			strLowerThanOrEqual(parts);
-			return;
-		case "INTOUT":
-			intOut(parts, 0);
-			return;
-		case "REALOUT":
-			realOut(parts, 0);
-			return;
-		case "STROUT":
-			strOut(parts, 0);
-			return;
-		case "QMARKOUT1":
-			qMarkOut1(parts, 0);
-			return;
-		case "QMARKOUT2":
-			qMarkOut2(parts, 0);
-			return;
-		case "LINEBREAK":
-			lineBreak(parts, 0);
-			return;
-		case "INTOUTCHANNEL":
-			intOutChannel(parts);
-			return;
-		case "REALOUTCHANNEL":
-			realOutChannel(parts);
-			return;
-		case "STROUTCHANNEL":
-			strOutChannel(parts);
-			return;
-		case "LINEBREAKCHANNEL":
-			lineBreakChannel(parts);
-			return;
-		case "INITFOR":
-			initFor(parts);
-			return;
-		case "FASTFOR":
-			fastFor(parts);
-			return;
-		case "NEXT":
-			next(parts);
-			return;
-		case "GOSUB":
-			gosub(parts);
-			return;
-		case "RETURN":
-			returny(parts);
-			return;
-		case "COPYSTR":
-			copyString(parts);
-			return;
-		case "RESTORE":
-			restore(parts);
-			return;
-		case "RESTARTPRG":
-			restart(parts);
-			return;
-		case "READSTR":
-			readString(parts);
-			return;
-		case "READNUMBER":
-			readNumber(parts);
-			return;
-		case "GETSTR":
-			getString(parts);
-			return;
-		case "GETNUMBER":
-			getNumber(parts);
-			return;
-		case "GETSTRCHANNEL":
-			getStringChannel(parts);
-			return;
-		case "GETNUMBERCHANNEL":
-			getNumberChannel(parts);
-			return;
-		case "CMD":
-			cmd(parts);
-			return;
-		case "OPEN":
-			open(parts);
-			return;
-		case "VPEEK":
-			vpeek(parts);
-			return;
-		case "JOY":
-			// Do nothing...
-			return;
-		case "COLOR":
-			// Do nothing...
-			return;
-		case "REM":
-			// Do nothing...
-			return;
-		case "CLS":
-			// Do nothing...
-			return;
-		case "SYSTEMCALLDYN":
-			// Do nothing...
-			return;
-		case "SETUPMULTIPARS":
-			// Do nothing...
-			return;
-		case "COPYSTRINGPAR":
-			// Do nothing...
-			return;
-		case "COPYREALPAR":
-			// Do nothing...
-			return;
-		case "ADDCOLON":
-			// Do nothing...
-			return;
-		case "PULLDOWNMULTIPARS":
-			// Do nothing...
-			return;
-		case "RESET":
-			// Do nothing...
-			return;
-		case "DOSCALL":
-			// Do nothing...
-			return;
-		case "GEOS":
-			// Do nothing...
-			return;
-		case "SCREEN":
-			// Do nothing...
-			return;
-		case "MOUSE":
-			// Do nothing...
-			return;
-		case "PSET":
-			// Do nothing...
-			return;
-		case "LINE":
-			// Do nothing...
-			return;
-		case "FRAME":
-			// Do nothing...
-			return;
-		case "RECT":
-			// Do nothing...
-			return;
-		case "DOSSTAT":
-			// Do nothing...
-			return;
-		case "FINX":
-			finx(parts);
-			return;
-		case "FDEX":
-			fdex(parts);
-			return;
-		case "CLOSE":
-			close(parts);
-			return;
-		case "INPUTSTR":
-			inputString(parts);
-			return;
-		case "INPUTNUMBER":
-			inputNumber(parts);
-			return;
-		case "INPUTSTRCHANNEL":
-			inputStringChannel(parts);
-			return;
-		case "INPUTNUMBERCHANNEL":
-			inputNumberChannel(parts);
-			return;
-		case "QUEUESIZE":
-			queueSize(parts);
-			return;
-		case "CLEARQUEUE":
-			clearQueue(parts);
-			return;
-		case "CLR":
-			clearVars(parts);
-			return;
-		case "RUN":
-			run(parts);
-			return;
-		case "END":
-			end(parts);
-			return;
-		case "START":
-			start(parts);
-			return;
-		case "PEEKBYTEAND":
-			peekByteAnd(parts);
-			return;
-		case "PEEKBYTEOR":
-			peekByteOr(parts);
-			return;
-		case "PEEKBYTEADD":
-			peekByteAdd(parts);
-			return;
-		case "PEEKBYTEADDAND":
-			peekByteAddAnd(parts);
-			return;
-		case "PEEKBYTEADDOR":
-			peekByteAddOr(parts);
-			return;
-		default:
-			jumpStack.push(addr);
-			jmp(parts);
-		}
-	}
-
-	private void peekByteAddAnd(String[] parts) {
-		int andVal = regs[B].intValue();
-		int addVal = regs[A].intValue();
-		int pval = regs[Y].intValue();
-		regs[X] = (addVal + pval) & andVal;
-		updateZeroFlag(regs[X]);
-	}
-
-	private void peekByteAddOr(String[] parts) {
-		int orVal = regs[B].intValue();
-		int addVal = regs[A].intValue();
-		int pval = regs[Y].intValue();
-		regs[X] = (addVal + pval) | orVal;
-		updateZeroFlag(regs[X]);
-	}
-
-	private void peekByteAdd(String[] parts) {
-		int addVal = regs[A].intValue();
-		int pval = regs[Y].intValue();
-		regs[X] = addVal + pval;
-		updateZeroFlag(regs[X]);
-	}
-
-	private void peekByteAnd(String[] parts) {
-		int andVal = regs[A].intValue();
-		int pval = regs[Y].intValue();
-		regs[X] = andVal & pval;
-		updateZeroFlag(regs[X]);
-	}
-
-	private void peekByteOr(String[] parts) {
-		int orVal = regs[A].intValue();
-		int pval = regs[Y].intValue();
-		regs[X] = orVal | pval;
-		updateZeroFlag(regs[X]);
-	}
-
-	private void restart(String[] parts) {
-		forStackPos = 0;
-		addr = 0;
-	}
-
-	private void fdex(String[] parts) {
-		regs[X] = regs[X].intValue() - 1;
-	}
-
-	private void finx(String[] parts) {
-		regs[X] = regs[X].intValue() + 1;
-	}
-
-	private void crsrright(String[] parts, int channel) {
-		if (channel == 0) {
-			machine.getOutputChannel().print(channel, " ");
-		} else {
-			machine.getDeviceProvider().print(channel, " ");
-		}
-
-	}
-
-	private void usr(String[] parts) {
-		// do nothing...who uses this anyway...
-	}
-
-	private void returny(String[] parts) {
-		int fsp = forStackPos;
-		while (fsp >= 0) {
-			ForStackEntry fse = new ForStackEntry(fsp);
-			if (fse.type == 0) {
-				// System.out.println(forStack[forStackPos-1]);
-				forStackPos = fsp - fse.size;
-				// System.out.println("Stack corrected to
-				// "+forStackPos+"/"+fse.size);
-				return;
-			}
-			fsp -= fse.size;
-		}
-		throw new RuntimeException("Stack underflow!");
-	}
-
-	private void gosub(String[] parts) {
-		ForStackEntry fse = new ForStackEntry();
-		forStackPos = fse.push(forStackPos);
-	}
+	private void gosub(String[] parts) {
+		forStackEntry.type = 0;
+		forStackPos = forStackEntry.push(forStackPos);
+	}
 
 	private void lineBreak(String[] parts, int channel) {
 		if (channel == 0) {
@@ -1126,9 +1230,9 @@ public class PseudoCpu {
 
 	private void strOut(String[] parts, int channel) {
 		if (channel == 0) {
-			machine.getOutputChannel().print(channel, readString(regs[A].intValue()));
+			machine.getOutputChannel().print(channel, readString(intValue(A)));
 		} else {
-			machine.getDeviceProvider().print(channel, readString(regs[A].intValue()));
+			machine.getDeviceProvider().print(channel, readString(intValue(A)));
 		}
 	}
 
@@ -1158,9 +1262,8 @@ public class PseudoCpu {
 	}
 
 	private void realOut(String[] parts, int channel) {
-		Number toPrint = regs[X];
-		String out = toPrint.toString();
-		if (VarUtils.getFloat(toPrint) >= 0) {
+		String out = toNumber(regs[X], regTypes[X]).toString();
+		if (floatValue(X) >= 0) {
 			out = " " + out;
 		}
 		if (out.endsWith(".0")) {
@@ -1174,9 +1277,9 @@ public class PseudoCpu {
 	}
 
 	private void intOut(String[] parts, int channel) {
-		Number toPrint = regs[X];
-		String out = String.valueOf(toPrint.intValue());
-		if (VarUtils.getInt(toPrint) >= 0) {
+		int toPrint = intValue(X);
+		String out = String.valueOf(toPrint);
+		if (toPrint >= 0) {
 			out = " " + out;
 		}
 		if (channel == 0) {
@@ -1187,23 +1290,23 @@ public class PseudoCpu {
 	}
 
 	private void intOutChannel(String[] parts) {
-		intOut(parts, regs[C].intValue());
+		intOut(parts, intValue(C));
 	}
 
 	private void lineBreakChannel(String[] parts) {
-		lineBreak(parts, regs[C].intValue());
+		lineBreak(parts, intValue(C));
 	}
 
 	private void strOutChannel(String[] parts) {
-		strOut(parts, regs[C].intValue());
+		strOut(parts, intValue(C));
 	}
 
 	private void realOutChannel(String[] parts) {
-		realOut(parts, regs[C].intValue());
+		realOut(parts, intValue(C));
 	}
 
 	private void cmd(String[] parts) {
-		int fn = regs[X].intValue();
+		int fn = intValue(X);
 		if (!machine.getDeviceProvider().isOpen(fn)) {
 			throw new RuntimeException("File not open error: " + this);
 		}
@@ -1213,22 +1316,22 @@ public class PseudoCpu {
 
 	private void open(String[] parts) {
 		DeviceProvider device = machine.getDeviceProvider();
-		int size = regs[Y].intValue();
+		int size = intValue(Y);
 
 		try {
 			switch (size) {
 			case 1:
-				device.open(VarUtils.getInt(regs[X]));
+				device.open(intValue(X));
 				break;
 			case 2:
-				device.open(VarUtils.getInt(regs[X]), VarUtils.getInt(regs[C]));
+				device.open(intValue(X), intValue(C));
 				break;
 			case 3:
-				device.open(VarUtils.getInt(regs[X]), VarUtils.getInt(regs[C]), VarUtils.getInt(regs[D]));
+				device.open(intValue(X), intValue(C), intValue(D));
 				break;
 			case 4:
-				device.open(VarUtils.getInt(regs[X]), VarUtils.getInt(regs[C]), VarUtils.getInt(regs[D]),
-						readString(regs[G].intValue()));
+				device.open(intValue(X), intValue(C), intValue(D),
+						readString(intValue(G)));
 				break;
 			default:
 				throw new RuntimeException("Invalid parameter count: " + size);
@@ -1240,7 +1343,7 @@ public class PseudoCpu {
 	}
 
 	private void close(String[] parts) {
-		int fn = regs[X].intValue();
+		int fn = intValue(X);
 
 		if (machine.getOutputChannel().getPrintConsumer() != null) {
 			if (machine.getOutputChannel().getChannel() == fn) {
@@ -1251,28 +1354,22 @@ public class PseudoCpu {
 		machine.getDeviceProvider().close(fn);
 	}
 
-	private void jumpTo(String newAddr) {
-		String label = newAddr + ":";
-		addr = label2line.get(label).intValue();
-	}
-
 	private void rts(String[] parts) {
-		if (jumpStack.isEmpty()) {
+		if (jumpStackPos == 0) {
 			halt = true;
 		} else {
-			addr = jumpStack.pop().intValue();
+			addr = popJump();
 		}
 	}
 
 	private void xToStack() {
-		int size = initialJumpStackSize;
-		while (jumpStack.size() > size) {
-			jumpStack.pop();
+		if (jumpStackPos > initialJumpStackSize) {
+			jumpStackPos = initialJumpStackSize;
 		}
 	}
 
 	private void stackToX() {
-		initialJumpStackSize = jumpStack.size();
+		initialJumpStackSize = jumpStackPos;
 	}
 
 	private void start(String[] parts) {
@@ -1284,11 +1381,11 @@ public class PseudoCpu {
 	}
 
 	private void adjustStack() {
-		int varAddr = regs[A].intValue();
+		int varAddr = intValue(A);
 
 		int fsp = forStackPos;
 		while (fsp > 0) {
-			ForStackEntry fse = new ForStackEntry(fsp);
+			ForStackEntry fse = forStackEntry.read(fsp);
 			fsp -= fse.size;
 			if (fse.type == 0) {
 				return;
@@ -1302,24 +1399,17 @@ public class PseudoCpu {
 
 	private void initFor(String[] parts) {
 		adjustStack();
-		Number stepVal = getStack().pop();
-		Number endVal = getStack().pop();
-
-		ForStackEntry fse = new ForStackEntry(regs[A].intValue(), this.addr, endVal, stepVal);
+		ForStackEntry fse = popForStackEntry(intValue(A));
 		forStackPos = fse.push(forStackPos);
 	}
 
 	private void fastFor(String[] parts) {
-		Number stepVal = getStack().pop();
-		Number endVal = getStack().pop();
-		int varAddr = regs[A].intValue();
-
-		ForStackEntry fse = new ForStackEntry(varAddr, this.addr, endVal, stepVal);
-		Variable var = machine.getVariableUpperCase(varLocations.get(fse.varPointer));
-		int val = ((Number) var.eval(machine)).intValue();
-		int to = fse.to.intValue();
-		int step = fse.step.intValue();
-		int pval = regs[X].intValue();
+		ForStackEntry fse = popForStackEntry(intValue(A));
+		Variable var = machine.getVariable(varLocations.get(fse.varPointer));
+		int val = (int) var.evalNumber(machine);
+		int to = (int) fse.to;
+		int step = (int) fse.step;
+		int pval = intValue(X);
 		for (int i = val; i <= to; i += step) {
 			memory[i] = pval & 0xff;
 		}
@@ -1327,20 +1417,20 @@ public class PseudoCpu {
 	}
 
 	private void next(String[] parts) {
-		int varAddr = regs[A].intValue();
+		int varAddr = intValue(A);
 
 		int fsp = forStackPos;
 		while (fsp > 0) {
-			ForStackEntry fse = new ForStackEntry(fsp);
+			ForStackEntry fse = forStackEntry.read(fsp);
 			if (fse.type == 0) {
 				// Still an open GOSUB => error!
 				break;
 			} else if (fse.type == 1) {
 				if (varAddr == 0 || varAddr == fse.varPointer) {
-					Variable var = machine.getVariableUpperCase(varLocations.get(fse.varPointer));
-					double val = ((Number) var.eval(machine)).doubleValue();
-					double to = fse.to.doubleValue();
-					double step = fse.step.doubleValue();
+					Variable var = machine.getVariable(varLocations.get(fse.varPointer));
+					double val = var.evalNumber(machine);
+					double to = fse.to;
+					double step = fse.step;
 
 					// System.out.println(val+"/"+to+"/"+step);
 
@@ -1349,25 +1439,25 @@ public class PseudoCpu {
 
 					if (step < 0) {
 						if (val >= to) {
-							regs[A] = 0;
+							setInt(A, 0);
 							memory[jumpTargetAddr] = (byte) (fse.addr & 0xff);
 							memory[jumpTargetAddr + 1] = (byte) ((fse.addr >> 8) & 0xff);
 							memory[jumpTargetAddr + 2] = (byte) ((fse.addr >> 16) & 0xff);
 							memory[jumpTargetAddr + 3] = (byte) (fse.addr >> 24);
 						} else {
-							regs[A] = 1;
+							setInt(A, 1);
 							forStackPos = fsp - fse.size;
 						}
 					} else {
 						if (val <= to) {
-							regs[A] = 0;
+							setInt(A, 0);
 							memory[jumpTargetAddr] = (byte) (fse.addr & 0xff);
 							memory[jumpTargetAddr + 1] = (byte) ((fse.addr >> 8) & 0xff);
 							memory[jumpTargetAddr + 2] = (byte) ((fse.addr >> 16) & 0xff);
 							memory[jumpTargetAddr + 3] = (byte) (fse.addr >> 24);
 							forStackPos = fsp;
 						} else {
-							regs[A] = 1;
+							setInt(A, 1);
 							forStackPos = fsp - fse.size;
 						}
 					}
@@ -1380,9 +1470,9 @@ public class PseudoCpu {
 	}
 
 	private void concat(String[] parts) {
-		int sp = regs[A].intValue();
+		int sp = intValue(A);
 		String s1 = readString(sp);
-		String s2 = readString(regs[B].intValue());
+		String s2 = readString(intValue(B));
 
 		if (sp != bufferStart) {
 			bufferStart = bufferPos;
@@ -1393,7 +1483,7 @@ public class PseudoCpu {
 		}
 
 		checkBufferSpace(s2);
-		regs[A] = bufferStart;
+		setInt(A, bufferStart);
 		System.arraycopy(toIntArray(s2), 0, memory, bufferStart + 1 + memory[bufferStart], s2.length());
 		memory[bufferStart] = memory[bufferStart] + s2.length();
 		bufferPos += s2.length() + 1;
@@ -1403,9 +1493,9 @@ public class PseudoCpu {
 	}
 
 	private void mid(String[] parts) {
-		String ch = readString(regs[B].intValue());
-		int end = regs[D].intValue();
-		int start = regs[C].intValue();
+		String ch = readString(intValue(B));
+		int end = intValue(D);
+		int start = intValue(C);
 
 		if (end != -1) {
 			mid.setTerm(Parser.getTerm(config, "\"" + ch + "\"," + start + "," + end, machine, false, false));
@@ -1418,23 +1508,23 @@ public class PseudoCpu {
 
 	private void vpeek(String[] parts) {
 		@SuppressWarnings("unused")
-		int bank = regs[Y].intValue();
-		int addr = regs[C].intValue();
+		int bank = intValue(Y);
+		int addr = intValue(C);
 		int ti = getIndex("X");
-		regs[ti] = memory[addr];
+		setInt(ti, memory[addr]);
 	}
 
 	private void left(String[] parts) {
-		String ch = readString(regs[B].intValue());
-		int end = regs[C].intValue();
+		String ch = readString(intValue(B));
+		int end = intValue(C);
 		left.setTerm(Parser.getTerm(config, "\"" + ch + "\"," + end, machine, false, false));
 		String snum = left.eval(machine).toString();
 		copyStringResult(snum);
 	}
 
 	private void right(String[] parts) {
-		String ch = readString(regs[B].intValue());
-		int end = regs[C].intValue();
+		String ch = readString(intValue(B));
+		int end = intValue(C);
 		right.setTerm(Parser.getTerm(config, "\"" + ch + "\"," + end, machine, false, false));
 		String snum = right.eval(machine).toString();
 		copyStringResult(snum);
@@ -1451,11 +1541,11 @@ public class PseudoCpu {
 	private void pos(String[] parts) {
 		pos.setTerm(Parser.getTerm(config, "0", machine, false, false));
 		Number num = (Number) pos.eval(machine);
-		regs[X] = num;
+		setNumber(X, num);
 	}
 
 	private void copyString(String[] parts) {
-		int fromAddr = regs[A].intValue();
+		int fromAddr = intValue(A);
 		if (fromAddr >= MEM_SIZE) {
 			String toCopy = this.readString(fromAddr);
 			copyStringResult(toCopy);
@@ -1471,8 +1561,9 @@ public class PseudoCpu {
 	}
 
 	private void clearVars(String[] parts) {
-		for (Variable var : machine.getVariables().values()) {
-			if (var.isArray()) {
+		for (int slot = 0; slot < machine.getSlotCount(); slot++) {
+			Variable var = machine.getVariable(slot);
+			if (var != null && var.isArray()) {
 				int addr = memLocations.get(var.getName());
 				int type = memory[addr++];
 				int size = memory[addr++];
@@ -1514,7 +1605,7 @@ public class PseudoCpu {
 	private void getString(String[] parts) {
 		Character c = machine.getInputProvider().readKey();
 		if (c == null) {
-			regs[A] = emptyString;
+			setInt(A, emptyString);
 		} else {
 			copyStringResult(c.toString());
 		}
@@ -1524,10 +1615,10 @@ public class PseudoCpu {
 	private void getNumber(String[] parts) {
 		Character c = machine.getInputProvider().readKey();
 		if (c == null) {
-			regs[Y] = emptyReal;
+			setInt(Y, emptyReal);
 		} else {
 			c = ensureNumberKey(machine, c, true);
-			regs[Y] = Integer.valueOf(c.toString());
+			setInt(Y, Integer.parseInt(c.toString()));
 		}
 		machine.getOutputChannel().setPrintConsumer(null, 0);
 	}
@@ -1537,17 +1628,17 @@ public class PseudoCpu {
 	}
 
 	private void queueSize(String[] parts) {
-		regs[X] = inputQueue.size();
+		setInt(X, inputQueue.size());
 	}
 
 	private void inputNumber(String[] parts) {
 		String inp = inputNext();
-		regs[X] = 0;
+		setInt(X, 0);
 		try {
-			Float num = Float.valueOf(inp);
-			regs[Y] = num;
+			float num = Float.parseFloat(inp);
+			setFloat(Y, num);
 		} catch (NumberFormatException nfe) {
-			regs[X] = 1;
+			setInt(X, 1);
 			inputQueue.clear();
 		}
 	}
@@ -1555,7 +1646,7 @@ public class PseudoCpu {
 	private void inputString(String[] parts) {
 		String inp = inputNext();
 		copyStringResult(inp);
-		regs[X] = 0;
+		setInt(X, 0);
 	}
 
 	private String inputNext() {
@@ -1580,29 +1671,29 @@ public class PseudoCpu {
 	}
 
 	private void getStringChannel(String[] parts) {
-		int fn = regs[C].intValue();
+		int fn = intValue(C);
 		DeviceProvider device = machine.getDeviceProvider();
 		Character c = device.getChar(fn);
 		copyStringResult(c.toString());
 	}
 
 	private void getNumberChannel(String[] parts) {
-		int fn = regs[C].intValue();
+		int fn = intValue(C);
 		DeviceProvider device = machine.getDeviceProvider();
 		Character c = device.getChar(fn);
 		c = ensureNumberKey(machine, c, true);
-		regs[Y] = Integer.valueOf(c.toString());
+		setInt(Y, Integer.parseInt(c.toString()));
 	}
 
 	private void inputNumberChannel(String[] parts) {
-		int fn = regs[C].intValue();
+		int fn = intValue(C);
 		DeviceProvider device = machine.getDeviceProvider();
 		float num = device.inputNumber(fn);
-		regs[Y] = num;
+		setFloat(Y, num);
 	}
 
 	private void inputStringChannel(String[] parts) {
-		int fn = regs[C].intValue();
+		int fn = intValue(C);
 		DeviceProvider device = machine.getDeviceProvider();
 		String str = device.inputString(fn);
 		copyStringResult(str);
@@ -1620,7 +1711,7 @@ public class PseudoCpu {
 			}
 			copyStringResult(n.toString());
 		} else {
-			regs[A] = datasPointer;
+			setInt(A, datasPointer);
 			datasPointer += memory[datasPointer++] + 1;
 		}
 	}
@@ -1651,9 +1742,9 @@ public class PseudoCpu {
 			}
 		}
 		if (type == 0) {
-			regs[Y] = obj;
+			setInt(Y, obj);
 		} else {
-			regs[Y] = Float.intBitsToFloat(obj);
+			setFloat(Y, Float.intBitsToFloat(obj));
 		}
 	}
 
@@ -1665,7 +1756,7 @@ public class PseudoCpu {
 
 	private void copyStringResult(String snum) {
 		checkMemory(snum.length());
-		regs[A] = memPointer;
+		setInt(A, memPointer);
 		memory[memPointer] = snum.length();
 		System.arraycopy(toIntArray(snum), 0, memory, memPointer + 1, snum.length());
 		memPointer += snum.length() + 1;
@@ -1686,13 +1777,14 @@ public class PseudoCpu {
 	}
 
 	private void runStringIntFunction(String[] parts, Function func, boolean inty) {
-		String ch = readString(regs[B].intValue());
+		String ch = readString(intValue(B));
 		func.setTerm(Parser.getTerm(config, "\"" + ch + "\"", machine, false, false));
 		Number num = ((Number) func.eval(machine));
 		if (inty) {
-			num = num.intValue();
+			setInt(X, num.intValue());
+		} else {
+			setNumber(X, num);
 		}
-		regs[X] = num;
 	}
 
 	private void chr(String[] parts) {
@@ -1706,9 +1798,8 @@ public class PseudoCpu {
 	private void runIntStringFunction(String[] parts, Function func, boolean inty) {
 		// These results will be stored in the actual variable memory, not in
 		// the concat buffer. This will populate the buffer, but anyway...
-		Number num = (Number) regs[Y];
-		func.setTerm(Parser.getTerm(config, String.valueOf(inty ? num.intValue() : num.floatValue()), machine, false,
-				false));
+		func.setTerm(
+				Parser.getTerm(config, String.valueOf(inty ? intValue(Y) : floatValue(Y)), machine, false, false));
 		String snum = func.eval(machine).toString();
 		copyStringResult(snum);
 	}
@@ -1838,25 +1929,11 @@ public class PseudoCpu {
 		}
 	}
 
-	private void sin(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return Math.sin(n2.doubleValue());
-			}
-
-			@Override
-			public String op() {
-				return "SIN(_)";
-			}
-		});
-	}
-
 	private void arrayStore(String[] parts) {
-		int addr = regs[G].intValue();
-		int offset = regs[X].intValue();
-		float val = regs[Y].floatValue();
-		int valStr = regs[A].intValue();
+		int addr = intValue(G);
+		int offset = intValue(X);
+		float val = floatValue(Y);
+		int valStr = intValue(A);
 		int type = memory[addr];
 		int size = memory[addr + 1];
 		if (offset >= size) {
@@ -1881,8 +1958,8 @@ public class PseudoCpu {
 	}
 
 	private void arrayAccess(String[] parts) {
-		int addr = regs[G].intValue();
-		int offset = regs[X].intValue();
+		int addr = intValue(G);
+		int offset = intValue(X);
 		int type = memory[addr];
 		int size = memory[addr + 1];
 		if (offset >= size) {
@@ -1893,563 +1970,319 @@ public class PseudoCpu {
 		int val = memory[pos];
 
 		if (type == 1) {
-			regs[X] = Float.intBitsToFloat(val);
+			setFloat(X, Float.intBitsToFloat(val));
 		} else {
 			if (type == 0) {
-				regs[X] = val;
+				setInt(X, val);
 			} else {
-				regs[A] = val;
+				setInt(A, val);
 			}
 		}
 	}
 
-	private void rnd(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return Math.random();
-			}
-
-			@Override
-			public String op() {
-				return "RND(_)";
-			}
-		});
-	}
-
-	private void cos(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return Math.cos(n2.doubleValue());
-			}
-
-			@Override
-			public String op() {
-				return "COS(_)";
-			}
-		});
-	}
-
-	private void tan(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return Math.tan(n2.doubleValue());
-			}
-
-			@Override
-			public String op() {
-				return "TAN(_)";
-			}
-		});
-	}
-
-	private void atn(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return Math.atan(n2.doubleValue());
-			}
-
-			@Override
-			public String op() {
-				return "ATN(_)";
-			}
-		});
-	}
-
-	private void exp(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return Math.exp(n2.doubleValue());
-			}
-
-			@Override
-			public String op() {
-				return "EXP(_)";
-			}
-		});
-	}
-
-	private void log(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return Math.log(n2.doubleValue());
-			}
-
-			@Override
-			public String op() {
-				return "LOG(_)";
-			}
-		});
-	}
-
-	private void sqr(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return Math.sqrt(n2.doubleValue());
-			}
-
-			@Override
-			public String op() {
-				return "SQR(_)";
-			}
-		});
-	}
-
-	private void sgn(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return Math.signum(n2.doubleValue());
-			}
-
-			@Override
-			public String op() {
-				return "SGN(_)";
-			}
-		});
-	}
-
-	private void inty(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return n2.intValue();
-			}
-
-			@Override
-			public String op() {
-				return "INT(_)";
-			}
-		});
-	}
-
-	private void abs(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return Math.abs(n2.doubleValue());
-			}
-
-			@Override
-			public String op() {
-				return "ABS(_)";
-			}
-		});
-	}
-
-	private void not(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return ~n2.intValue();
-			}
+	private void compare(Instruction ins) {
+		double v0 = 0;
+		double v1 = 0;
 
-			@Override
-			public String op() {
-				return "!_";
-			}
-		});
-	}
-
-	private void lowerThanOrEqual(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return (n1.doubleValue() <= n2.doubleValue()) ? -1 : 0;
-			}
+		switch (ins.mode) {
+		case CMP_VAR_WITH_REG:
+			v0 = getVariable(ins).evalNumber(machine);
+			v1 = regs[ins.source];
+			break;
+		case CMP_REG_WITH_CONST:
+			v0 = regs[ins.target];
+			v1 = ins.constant;
+			break;
+		case CMP_REG_WITH_VAR:
+			v0 = regs[ins.target];
+			v1 = getVariable(ins).evalNumber(machine);
+			break;
+		default:
+			v0 = regs[ins.target];
+			v1 = regs[ins.source];
+		}
+
+		updateZeroFlag(v0 - v1);
+	}
+
+	private void calc(int opcode, Instruction ins) {
+		int ti = ins.target;
+		double n1 = regs[ti];
+		double n2 = regs[ins.source];
+
+		switch (opcode) {
+		case OP_ADD:
+			setFloat(ti, (float) n1 + (float) n2);
+			break;
+		case OP_SUB:
+			setFloat(ti, (float) n1 - (float) n2);
+			break;
+		case OP_MUL:
+			setFloat(ti, (float) n1 * (float) n2);
+			break;
+		case OP_DIV:
+			setFloat(ti, (float) n1 / (float) n2);
+			break;
+		case OP_POW:
+			setDouble(ti, Math.pow((float) n1, (float) n2));
+			break;
+		case OP_NEG:
+			setFloat(ti, -1 * (float) n2);
+			break;
+		case OP_SHR:
+			setDouble(ti, (float) n1 / Math.pow(2, (float) n2));
+			break;
+		case OP_SHL:
+			setDouble(ti, (float) n1 * Math.pow(2, (float) n2));
+			break;
+		case OP_AND:
+			setInt(ti, (int) n1 & (int) n2);
+			break;
+		case OP_OR:
+			setInt(ti, (int) n1 | (int) n2);
+			break;
+		case OP_XOR:
+			setInt(ti, (int) n1 ^ (int) n2);
+			break;
+		case OP_NOT:
+			setInt(ti, ~(int) n2);
+			break;
+		case OP_EQ:
+			setInt(ti, n1 == n2 ? -1 : 0);
+			break;
+		case OP_NEQ:
+			setInt(ti, n1 == n2 ? 0 : -1);
+			break;
+		case OP_GT:
+			setInt(ti, n1 > n2 ? -1 : 0);
+			break;
+		case OP_LT:
+			setInt(ti, n1 < n2 ? -1 : 0);
+			break;
+		case OP_GTEQ:
+			setInt(ti, n1 >= n2 ? -1 : 0);
+			break;
+		case OP_LTEQ:
+			setInt(ti, n1 <= n2 ? -1 : 0);
+			break;
+		case OP_SIN:
+			setDouble(ti, Math.sin(n2));
+			break;
+		case OP_COS:
+			setDouble(ti, Math.cos(n2));
+			break;
+		case OP_TAN:
+			setDouble(ti, Math.tan(n2));
+			break;
+		case OP_ATN:
+			setDouble(ti, Math.atan(n2));
+			break;
+		case OP_EXP:
+			setDouble(ti, Math.exp(n2));
+			break;
+		case OP_LOG:
+			setDouble(ti, Math.log(n2));
+			break;
+		case OP_SQR:
+			setDouble(ti, Math.sqrt(n2));
+			break;
+		case OP_SGN:
+			setDouble(ti, Math.signum(n2));
+			break;
+		case OP_INT:
+			setInt(ti, (int) n2);
+			break;
+		case OP_ABS:
+			setDouble(ti, Math.abs(n2));
+			break;
+		case OP_RND:
+			setDouble(ti, Math.random());
+			break;
+		default:
+			throw new RuntimeException("Unknown instruction: " + ins.parts[0]);
+		}
 
-			@Override
-			public String op() {
-				return "LTEQ_";
-			}
-		});
+		updateZeroFlag(regs[ti]);
 	}
 
-	private void greaterThanOrEqual(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return (n1.doubleValue() >= n2.doubleValue()) ? -1 : 0;
-			}
-
-			@Override
-			public String op() {
-				return "GTEQ_";
-			}
-		});
+	private void push(int reg) {
+		if (stackPos == stack.length) {
+			stack = Arrays.copyOf(stack, stackPos * 2);
+			stackTypes = Arrays.copyOf(stackTypes, stackPos * 2);
+		}
+		stack[stackPos] = regs[reg];
+		stackTypes[stackPos++] = regTypes[reg];
 	}
 
-	private void lowerThan(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return n1.doubleValue() < n2.doubleValue() ? -1 : 0;
-			}
-
-			@Override
-			public String op() {
-				return "LT_";
-			}
-		});
+	private void pop(Instruction ins) {
+		if (stackPos == 0) {
+			Logger.log("Illegal opcode: " + Arrays.toString(ins.parts));
+			throw new RuntimeException(new NoSuchElementException());
+		}
+		stackPos--;
+		regs[ins.target] = stack[stackPos];
+		regTypes[ins.target] = stackTypes[stackPos];
 	}
 
-	private void greaterThan(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return n1.doubleValue() > n2.doubleValue() ? -1 : 0;
-			}
-
-			@Override
-			public String op() {
-				return "GT_";
-			}
-		});
+	private void pushJump(int addr) {
+		if (jumpStackPos == jumpStack.length) {
+			jumpStack = Arrays.copyOf(jumpStack, jumpStackPos * 2);
+		}
+		jumpStack[jumpStackPos++] = addr;
 	}
 
-	private void notEqual(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return n1.doubleValue() == n2.doubleValue() ? 0 : -1;
-			}
-
-			@Override
-			public String op() {
-				return "NEQ_";
-			}
-		});
+	private int popJump() {
+		if (jumpStackPos == 0) {
+			throw new NoSuchElementException();
+		}
+		return jumpStack[--jumpStackPos];
 	}
 
-	private void equal(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return n1.doubleValue() == n2.doubleValue() ? -1 : 0;
-			}
-
-			@Override
-			public String op() {
-				return "EQ_";
-			}
-		});
+	private void swap(Instruction ins) {
+		int ti = ins.target;
+		int si = ins.source;
+		double rti = regs[ti];
+		byte tti = regTypes[ti];
+		regs[ti] = regs[si];
+		regTypes[ti] = regTypes[si];
+		regs[si] = rti;
+		regTypes[si] = tti;
+	}
+
+	private void mov(Instruction ins) {
+		int ti = ins.target;
+		int si = ins.source;
+
+		switch (ins.mode) {
+		case MOV_CONST_TO_MEM:
+			memory[ins.address] = ins.value;
+			return;
+		case MOV_REG_TO_STRING:
+			memLocations.put(ins.name, intValue(si));
+			return;
+		case MOV_REG_TO_VAR:
+			storeVariable(getVariable(ins), si);
+			return;
+		case MOV_REG_TO_MEM:
+			poke(ins.address, intValue(si) & 0xff);
+			return;
+		case MOV_REG_TO_MEM16: {
+			int val = intValue(si) & 0xff;
+			poke(ins.address, val & 255);
+			poke(ins.address2, val >> 8);
+			return;
+		}
+		case MOV_INDIRECT_TO_REG:
+			setInt(ti, memory[intValue(si)] & 0xff);
+			break;
+		case MOV_REG_TO_INDIRECT:
+			poke(intValue(ti), intValue(si) & 0xff);
+			break;
+		case MOV_MEM_TO_REG:
+			setInt(ti, memory[ins.address]);
+			break;
+		case MOV_REG_TO_REG:
+			regs[ti] = regs[si];
+			regTypes[ti] = regTypes[si];
+			break;
+		case MOV_POINTER_TO_REG:
+			setInt(ti, System.identityHashCode(getVariable(ins)));
+			break;
+		case MOV_STRING_TO_REG: {
+			Integer addr = memLocations.get(ins.name);
+			if (addr == null) {
+				throw new RuntimeException("Unknown string: " + ins.name);
+			}
+			setInt(ti, addr);
+			break;
+		}
+		case MOV_CONST_TO_REG:
+			regs[ti] = ins.constant;
+			regTypes[ti] = ins.constantType;
+			break;
+		case MOV_ARRAY_TO_REG: {
+			Integer addr = memLocations.get(ins.name);
+			if (addr == null) {
+				throw new RuntimeException("Unknown pointer to: " + ins.name);
+			}
+			setInt(ti, addr);
+			break;
+		}
+		case MOV_VAR_TO_REG:
+			loadVariable(getVariable(ins), ti);
+			break;
+		default:
+			throw new RuntimeException("Unknown addressing mode: " + ins.mode);
+		}
+		updateZeroFlag(regs[ti]);
 	}
 
-	private void compare(String[] parts) {
-		String[] ops = split(parts[1], ",");
-		String target = ops[0];
-		String source = ops[1];
-		int ti = 0;
-		int si = 0;
-
-		ti = getIndex(target);
-		si = getIndex(source);
-		Type type = Type.INTEGER;
-
-		Object v0 = null;
-		Object v1 = null;
-
-		if (ti == -1 && si != -1) {
-			// memory with register
-			int pos = target.lastIndexOf("{");
-			if (pos != -1) {
-				String ts = target.substring(pos + 1, target.lastIndexOf("}"));
-				String val = target.substring(0, pos);
-				type = Type.valueOf(ts);
-				if (type == Type.STRING) {
-					throw new RuntimeException("Comparing a string isn't supported!");
-				} else {
-					// a number...
-					v0 = machine.getVariableUpperCase(val).getValue();
-					v1 = regs[si];
-				}
-			} else {
-				throw new RuntimeException("Unknown opcode: " + Arrays.toString(parts));
-			}
+	private void loadVariable(Variable var, int reg) {
+		if (var.isArray() || var.isSystem() || var.getType() == Type.STRING) {
+			setNumber(reg, (Number) var.eval(machine));
+		} else if (var.getType() == Type.INTEGER) {
+			setInt(reg, (int) var.evalNumber(machine));
+		} else if (var.isDoublePrecision()) {
+			setDouble(reg, var.evalNumber(machine));
 		} else {
-			// register with memory or register
-			int pos = source.lastIndexOf("{");
-			if (pos == -1) {
-				v0 = regs[ti];
-				v1 = regs[si];
-			} else {
-				String ts = source.substring(pos + 1, source.lastIndexOf("}"));
-				String val = source.substring(0, pos);
-				type = Type.valueOf(ts);
-				if (type == Type.STRING) {
-					throw new RuntimeException("Comparing a string isn't supported!");
-				} else {
-					// a number...
-					if (val.startsWith("#")) {
-						Number n = Float.valueOf(val.replace("#", ""));
-						if (type == Type.INTEGER) {
-							n = n.intValue();
-						}
-						v0 = regs[ti];
-						v1 = n;
-					} else {
-						Number n = (Number) machine.getVariableUpperCase(val).eval(machine);
-						v0 = regs[ti];
-						v1 = n;
-					}
-				}
-			}
+			setFloat(reg, (float) var.evalNumber(machine));
 		}
+	}
 
-		double cmp = 1;
-		if (v0 instanceof Number && v1 instanceof Number) {
-			cmp = ((Number) v0).doubleValue() - ((Number) v1).doubleValue();
-		} else {
-			throw new RuntimeException("Can't compare " + v0.getClass() + " with " + v1.getClass());
+	private void storeVariable(Variable var, int reg) {
+		switch (regTypes[reg]) {
+		case T_INT:
+			var.setValue((int) regs[reg]);
+			break;
+		case T_FLOAT:
+			var.setValue((float) regs[reg]);
+			break;
+		default:
+			var.setValue(regs[reg]);
 		}
+	}
 
-		updateZeroFlag(cmp);
-
+	private void poke(int addr, int val) {
+		memory[addr] = val;
+		if (sharedRam) {
+			machine.getMemoryListener().poke(addr, val);
+		}
 	}
 
 	private void strLowerThanOrEqual(String[] parts) {
-		String n1 = readString(regs[B].intValue());
-		String n2 = readString(regs[A].intValue());
-		regs[X] = n1.compareTo(n2) >= 0 ? -1 : 0;
+		String n1 = readString(intValue(B));
+		String n2 = readString(intValue(A));
+		setInt(X, n1.compareTo(n2) >= 0 ? -1 : 0);
 	}
 
 	private void strGreaterThanOrEqual(String[] parts) {
-		String n1 = readString(regs[B].intValue());
-		String n2 = readString(regs[A].intValue());
-		regs[X] = n1.compareTo(n2) <= 0 ? -1 : 0;
+		String n1 = readString(intValue(B));
+		String n2 = readString(intValue(A));
+		setInt(X, n1.compareTo(n2) <= 0 ? -1 : 0);
 	}
 
 	private void strLowerThan(String[] parts) {
-		String n1 = readString(regs[B].intValue());
-		String n2 = readString(regs[A].intValue());
-		regs[X] = n1.compareTo(n2) > 0 ? -1 : 0;
+		String n1 = readString(intValue(B));
+		String n2 = readString(intValue(A));
+		setInt(X, n1.compareTo(n2) > 0 ? -1 : 0);
 	}
 
 	private void strGreaterThan(String[] parts) {
-		String n1 = readString(regs[B].intValue());
-		String n2 = readString(regs[A].intValue());
-		regs[X] = n1.compareTo(n2) < 0 ? -1 : 0;
+		String n1 = readString(intValue(B));
+		String n2 = readString(intValue(A));
+		setInt(X, n1.compareTo(n2) < 0 ? -1 : 0);
 	}
 
 	private void strNotEqual(String[] parts) {
-		String n1 = readString(regs[B].intValue());
-		String n2 = readString(regs[A].intValue());
-		regs[X] = n1.compareTo(n2) != 0 ? -1 : 0;
+		String n1 = readString(intValue(B));
+		String n2 = readString(intValue(A));
+		setInt(X, n1.compareTo(n2) != 0 ? -1 : 0);
 	}
 
 	private void strEqual(String[] parts) {
-		String n1 = readString(regs[B].intValue());
-		String n2 = readString(regs[A].intValue());
-		regs[X] = n1.compareTo(n2) == 0 ? -1 : 0;
-	}
-
-	private void or(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return n1.intValue() | n2.intValue();
-			}
-
-			@Override
-			public String op() {
-				return "|_";
-			}
-		});
-	}
-
-	private void xor(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return n1.intValue() ^ n2.intValue();
-			}
-
-			@Override
-			public String op() {
-				return "~_";
-			}
-		});
-	}
-
-	private void and(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return n1.intValue() & n2.intValue();
-			}
-
-			@Override
-			public String op() {
-				return "&_";
-			}
-		});
-	}
-
-	private void add(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return n1.floatValue() + n2.floatValue();
-			}
-
-			@Override
-			public String op() {
-				return "+_";
-			}
-		});
-	}
-
-	private void pow(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return Math.pow(n1.floatValue(), n2.floatValue());
-			}
-
-			@Override
-			public String op() {
-				return "^_";
-			}
-		});
-	}
-
-	private void sub(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return n1.floatValue() - n2.floatValue();
-			}
-
-			@Override
-			public String op() {
-				return "-_";
-			}
-		});
-	}
-
-	private void div(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return n1.floatValue() / n2.floatValue();
-			}
-
-			@Override
-			public String op() {
-				return "/_";
-			}
-		});
-	}
-
-	private void shr(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return n1.floatValue() / Math.pow(2, n2.floatValue());
-			}
-
-			@Override
-			public String op() {
-				return ">_";
-			}
-		});
-	}
-
-	private void shl(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return n1.floatValue() * Math.pow(2, n2.floatValue());
-			}
-
-			@Override
-			public String op() {
-				return "<_";
-			}
-		});
-	}
-
-	private void mul(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return n1.floatValue() * n2.floatValue();
-			}
-
-			@Override
-			public String op() {
-				return "*_";
-			}
-		});
-	}
-
-	private void neg(String[] parts) {
-		calc(parts, new Calc() {
-			@Override
-			public Number calc(Number n1, Number n2) {
-				return -1 * n2.floatValue();
-			}
-
-			@Override
-			public String op() {
-				return "NEG(_)";
-			}
-		});
-	}
-
-	private void calc(String[] parts, Calc calc) {
-		String[] ops = { "X", "Y" };
-		if (parts.length > 1) {
-			ops = split(parts[1], ",");
-		}
-		String target = ops[0];
-		int ti = getIndex(target);
-		Number n1 = regs[ti];
-
-		String source = ops[1];
-		int si = getIndex(source);
-		Number n2 = regs[si];
-
-		regs[ti] = calc.calc(n1, n2);
-
-		updateZeroFlag(regs[ti]);
-	}
-
-	private void pop(String[] parts) {
-		try {
-			String target = parts[1];
-			int ti = getIndex(target);
-			regs[ti] = stack.pop();
-		} catch (Throwable t) {
-			Logger.log("Illegal opcode: " + Arrays.toString(parts), t);
-			throw new RuntimeException(t);
-		}
-	}
-
-	private void push(String[] parts) {
-		String target = parts[1];
-		int ti = getIndex(target);
-		stack.push(regs[ti]);
-	}
-
-	private void swap(String[] parts) {
-		String[] ops = split(parts[1], ",");
-		String target = ops[0];
-		String source = ops[1];
-		int ti = 0;
-		int si = 0;
-
-		ti = getIndex(target);
-		si = getIndex(source);
-		Number rti = regs[ti];
-		regs[ti] = regs[si];
-		regs[si] = rti;
+		String n1 = readString(intValue(B));
+		String n2 = readString(intValue(A));
+		setInt(X, n1.compareTo(n2) == 0 ? -1 : 0);
 	}
 
 	private int parseInt(String txt) {
@@ -2469,153 +2302,76 @@ public class PseudoCpu {
 		}
 	}
 
-	private void mov(String[] parts) {
-		String[] ops = split(parts[1], ",");
-		String target = ops[0];
-		String source = ops[1];
-		int ti = 0;
-		int si = 0;
+	private boolean isNumber(String val) {
+		for (int i = 0; i < val.length(); i++) {
+			if (!Character.isDigit(val.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
 
-		ti = getIndex(target);
-		si = getIndex(source);
-		Type type = Type.INTEGER;
+	private void updateZeroFlag(double value) {
+		zeroFlag = value == 0;
+	}
 
-		if (ti == -1 && si == -1) {
-			// constant into memory
-			int addr = parseInt(target);
-			int val = parseInt(source.substring(0, source.indexOf("{")).replace("#", "").trim()) & 0xff;
-			memory[addr] = val;
-			return;
-		}
+	private int intValue(int reg) {
+		return (int) regs[reg];
+	}
 
-		if (ti == -1 && si != -1) {
-			// From register into memory
-			int pos = target.lastIndexOf("{");
-			if (pos != -1) {
-				String ts = target.substring(pos + 1, target.lastIndexOf("}"));
-				String val = target.substring(0, pos);
-				type = Type.valueOf(ts);
-				if (type == Type.STRING) {
-					// a string...
-					Integer addr = regs[si].intValue();
-					memLocations.put(val, addr);
-				} else {
-					// a number...
-					if (val.contains("[]")) {
-						throw new RuntimeException("Writing into '" + val + "' isn't supported!");
-					} else {
-						machine.getVariableUpperCase(val).setValue(regs[si]);
-					}
-				}
-			} else {
-				// From register into fixed memory address
-				if (!target.contains(":")) {
-					int addr = parseInt(target);
-					int val = regs[si].intValue() & 0xff;
-					memory[addr] = val;
-					if (sharedRam) {
-						machine.getMemoryListener().poke(addr, val);
-					}
-				} else {
-					String[] trs = target.split(":");
-					int val = regs[si].intValue() & 0xff;
-					int lo = val & 255;
-					int hi = val >> 8;
-					int addr = parseInt(trs[0].trim());
-					memory[addr] = lo;
-					if (sharedRam) {
-						machine.getMemoryListener().poke(addr, lo);
-					}
-					addr = parseInt(trs[1].trim());
-					memory[addr] = hi;
-					if (sharedRam) {
-						machine.getMemoryListener().poke(addr, hi);
-					}
-				}
-			}
-		} else {
-			// From memory or register into register
-			int pos = source.lastIndexOf("{");
-			if (pos == -1) {
-				if (source.startsWith("(") && source.endsWith(")")) {
-					regs[ti] = memory[regs[si].intValue()] & 0xff;
-				} else {
-					if (target.startsWith("(") && target.endsWith(")")) {
-						int addr = regs[ti].intValue();
-						int val = regs[si].intValue() & 0xff;
-						memory[addr] = val;
-						if (sharedRam) {
-							machine.getMemoryListener().poke(addr, val);
-						}
-						// System.out.println(regs[ti].intValue()+"/"+(regs[si].intValue()
-						// & 0xff)+"/"+memory[regs[ti].intValue()]);
-					} else {
-						String val = source;
-						if (isNumber(val)) {
-							// From fixed memory address into register
-							int vally = Integer.parseInt(val);
-							regs[ti] = memory[vally];
-						} else {
-							regs[ti] = regs[si];
-						}
-					}
-				}
-			} else {
-				String ts = source.substring(pos + 1, source.lastIndexOf("}"));
-				String val = source.substring(0, pos);
+	private float floatValue(int reg) {
+		return (float) regs[reg];
+	}
 
-				if (source.startsWith("(") && source.endsWith(")")) {
-					val = val.substring(1);
-					regs[ti] = System.identityHashCode(machine.getVariableUpperCase(val));
-				} else {
-					type = Type.valueOf(ts);
-					if (type == Type.STRING) {
-						// a string...
-						Integer addr = memLocations.get(val);
-						if (addr == null) {
-							throw new RuntimeException("Unknown string: " + val);
-						}
-						regs[ti] = addr;
-					} else {
-						// a number...
-						if (val.startsWith("#")) {
-							Number n = Float.valueOf(val.replace("#", ""));
-							if (type == Type.INTEGER) {
-								n = n.intValue();
-							}
-							regs[ti] = n;
-						} else {
-							if (val.contains("[]")) {
-								Integer addr = memLocations.get(val);
-								if (addr == null) {
-									throw new RuntimeException("Unknown pointer to: " + val);
-								}
-								regs[ti] = addr;
-							} else {
-								Number n = (Number) machine.getVariableUpperCase(val).eval(machine);
-								regs[ti] = n;
-							}
-						}
-					}
-				}
-			}
-		}
-		if (ti > -1) {
-			updateZeroFlag(regs[ti]);
+	private void setInt(int reg, int value) {
+		regs[reg] = value;
+		regTypes[reg] = T_INT;
+	}
+
+	private void setFloat(int reg, float value) {
+		regs[reg] = value;
+		regTypes[reg] = T_FLOAT;
+	}
+
+	private void setDouble(int reg, double value) {
+		regs[reg] = value;
+		regTypes[reg] = T_DOUBLE;
+	}
+
+	private void setNumber(int reg, Number value) {
+		if (VarUtils.isInteger(value)) {
+			setInt(reg, value.intValue());
+		} else if (VarUtils.isFloat(value)) {
+			setFloat(reg, value.floatValue());
+		} else {
+			setDouble(reg, value.doubleValue());
 		}
 	}
 
-	private boolean isNumber(String val) {
-		for (int i = 0; i < val.length(); i++) {
-			if (!Character.isDigit(val.charAt(i))) {
-				return false;
-			}
+	private static Number toNumber(double value, byte type) {
+		switch (type) {
+		case T_INT:
+			return Integer.valueOf((int) value);
+		case T_FLOAT:
+			return Float.valueOf((float) value);
+		default:
+			return Double.valueOf(value);
 		}
-		return true;
 	}
 
-	private void updateZeroFlag(Number value) {
-		zeroFlag = value.doubleValue() == 0;
+	private ForStackEntry popForStackEntry(int varPointer) {
+		if (stackPos < 2) {
+			throw new NoSuchElementException();
+		}
+		ForStackEntry fse = forStackEntry;
+		fse.type = 1;
+		fse.varPointer = varPointer;
+		fse.addr = this.addr;
+		fse.step = stack[--stackPos];
+		fse.intStep = stackTypes[stackPos] == T_INT;
+		fse.to = stack[--stackPos];
+		fse.intTo = stackTypes[stackPos] == T_INT;
+		return fse;
 	}
 
 	private int getIndex(String target) {
@@ -2645,45 +2401,83 @@ public class PseudoCpu {
 		return ti;
 	}
 
-	private static interface Calc {
-		Number calc(Number n1, Number n2);
+	/**
+	 * A subroutine of the runtime that can be called via JSR.
+	 */
+	private static interface Routine {
+		void run(String[] parts);
+	}
 
-		String op();
+	/**
+	 * A decoded instruction. The operands are resolved at decoding time, so that
+	 * executing it doesn't require any string processing.
+	 */
+	private static class Instruction {
+		/** The original instruction, split into name and operands */
+		String[] parts;
+		int opcode;
+		/** The addressing mode for MOV and CMP */
+		int mode;
+		/** The register indices or -1, if the operand isn't a register */
+		int target = -1;
+		int source = -1;
+		/** Fixed memory addresses */
+		int address;
+		int address2;
+		/** A constant byte value */
+		int value;
+		/** A constant number and its type */
+		double constant;
+		byte constantType;
+		/** The name of a variable, a string or an array */
+		String name;
+		/** The slot of a variable or -1, if it doesn't exist */
+		int slot = -1;
+		/** The label and its resolved line for jumps */
+		String label;
+		int jumpTarget = -1;
+		/** Is the jump target stored in memory? */
+		boolean indirect;
+		/** The resolved subroutine for JSR or null, if it's a jump into the code */
+		Routine routine;
+		/** The exception to throw, if the instruction can't be decoded */
+		RuntimeException error;
+
+		Instruction(String[] parts) {
+			this.parts = parts;
+		}
 	}
 
+	/**
+	 * An entry on the stack for FOR and GOSUB. To avoid creating objects while
+	 * running, there is only one instance of this that will be filled with the
+	 * entry's data when needed.
+	 */
 	private class ForStackEntry {
 		byte size;
 		byte type; // 0=gosub, 1=for
 		int varPointer;
 		int addr;
-		Number to;
-		Number step;
-
-		public ForStackEntry() {
-			this.type = 0;
-		}
-
-		public ForStackEntry(int varPointer, int addr, Number to, Number step) {
-			this.varPointer = varPointer;
-			this.addr = addr;
-			this.to = to;
-			this.step = step;
-			this.type = 1;
-		}
+		double to;
+		double step;
+		boolean intTo;
+		boolean intStep;
 
-		public ForStackEntry(int stackPos) {
+		public ForStackEntry read(int stackPos) {
 			size = forStack[stackPos - 1];
 			type = forStack[stackPos - 2];
 			if (type == 0) {
-				return;
+				return this;
 			}
 
 			int sp = stackPos - size;
 			varPointer = getInt(sp);
 			addr = getInt(sp + 4);
-			Number[] sc = getNumbers(sp + 8);
-			to = sc[0];
-			step = sc[1];
+			intTo = forStack[sp + 8] == 0;
+			to = getNumber(sp + 8);
+			intStep = forStack[sp + 13] == 0;
+			step = getNumber(sp + 13);
+			return this;
 		}
 
 		public int push(int stackPos) {
@@ -2694,20 +2488,20 @@ public class PseudoCpu {
 				store(addr, stackPos + s);
 				s += 4;
 				int h = 0;
-				if (VarUtils.isInteger(to)) {
-					h = to.intValue();
+				if (intTo) {
+					h = (int) to;
 					forStack[stackPos + (s++)] = 0;
 				} else {
-					h = Float.floatToIntBits(to.floatValue());
+					h = Float.floatToIntBits((float) to);
 					forStack[stackPos + (s++)] = 1;
 				}
 				store(h, stackPos + s);
 				s += 4;
-				if (VarUtils.isInteger(step)) {
-					h = step.intValue();
+				if (intStep) {
+					h = (int) step;
 					forStack[stackPos + (s++)] = 0;
 				} else {
-					h = Float.floatToIntBits(step.floatValue());
+					h = Float.floatToIntBits((float) step);
 					forStack[stackPos + (s++)] = 1;
 				}
 				store(h, stackPos + s);
@@ -2725,22 +2519,11 @@ public class PseudoCpu {
 			forStack[sp + 3] = (byte) (h >> 24);
 		}
 
-		private Number[] getNumbers(int sp) {
-			Number[] ret = new Number[2];
-			int p = 0;
-			do {
-				byte type = forStack[sp];
-				if (type == 0) {
-					int h = getInt(sp + 1);
-					ret[p] = h;
-					sp += 5;
-				} else {
-					float h = Float.intBitsToFloat(getInt(sp + 1));
-					ret[p] = h;
-					sp += 5;
-				}
-			} while (++p < 2);
-			return ret;
+		private double getNumber(int sp) {
+			if (forStack[sp] == 0) {
+				return getInt(sp + 1);
+			}
+			return Float.intBitsToFloat(getInt(sp + 1));
 		}
 
 		private int getInt(int sp) {
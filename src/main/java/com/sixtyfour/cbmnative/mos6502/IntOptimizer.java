@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.Map;
 
 import com.sixtyfour.Logger;
+import com.sixtyfour.cbmnative.CodeLine;
 import com.sixtyfour.cbmnative.PlatformProvider;
 import com.sixtyfour.cbmnative.Util;
 import com.sixtyfour.config.CompilerConfig;
@@ -1587,8 +1588,12 @@ public class IntOptimizer {
 				continue;
 			}
 
+			CodeLine codeLine = new CodeLine(line);
 			for (IntPattern pattern : intPatterns) {
-				boolean matches = pattern.matches(line, i, const2Value, strConst2Value);
+				if (pattern.getPos() == 0 && !pattern.mightStartWith(codeLine.getKey())) {
+					continue;
+				}
+				boolean matches = pattern.matches(codeLine, i, const2Value, strConst2Value);
 				if (matches) {
 					try {
 						input = pattern.modify(input);
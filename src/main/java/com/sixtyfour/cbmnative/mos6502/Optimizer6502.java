@@ -8,12 +8,16 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import com.sixtyfour.Logger;
+import com.sixtyfour.cbmnative.CodeBuffer;
+import com.sixtyfour.cbmnative.CompilationCache;
+import com.sixtyfour.cbmnative.CompilerMetrics;
 import com.sixtyfour.cbmnative.Optimizer;
 import com.sixtyfour.cbmnative.Pattern;
 import com.sixtyfour.cbmnative.PlatformProvider;
@@ -32,6 +36,15 @@ import com.sixtyfour.util.PatternProcessor;
  */
 public class Optimizer6502 implements Optimizer {
 
+	// The minimum number of lines that one task of the parallel optimization run
+	// covers
+	private final static int TASK_SIZE = 250;
+
+	private static List<Pattern> compiledPatterns = null;
+	private static Map<Integer, ForkJoinPool> pools = new HashMap<>();
+
+	private boolean incremental = true;
+
 	@Override
 	public List<String> optimize(CompilerConfig config, PlatformProvider platform, List<String> input,
 			ProgressListener pg) {
@@ -64,62 +77,284 @@ public class Optimizer6502 implements Optimizer {
 					+ input.size());
 		}
 
+		// Split the code into many small parts, each starting with a BASIC line. The
+		// size of these parts doesn't depend on the number of threads, so neither
+		// does the result. The pool's threads will steal them from each other, so
+		// that none of them runs idle while others are still busy with the more
+		// complex parts.
 		List<List<String>> parts = new ArrayList<>();
-		int dif = Math.max(Math.round((codeEnd - codeStart) / cpus), 1);
-		int pos = 0;
-		int cnt = 0;
 		int lastStart = codeStart;
 
 		parts.add(input.subList(0, codeStart));
-		for (pos = codeStart; pos < codeEnd; pos++) {
+		for (int pos = codeStart; pos < codeEnd; pos++) {
 			String line = input.get(pos);
-			cnt++;
-			if (line.startsWith("LINE_") && line.endsWith(":")) {
-				if (cnt >= dif) {
-					parts.add(input.subList(lastStart, pos));
-					cnt = 0;
-					lastStart = pos;
-				}
+			if (pos - lastStart >= TASK_SIZE && line.startsWith("LINE_") && line.endsWith(":")) {
+				parts.add(input.subList(lastStart, pos));
+				lastStart = pos;
 			}
 		}
 		parts.add(input.subList(lastStart, input.size()));
 
-		ExecutorService executor = Executors.newFixedThreadPool(cpus);
-		List<Future<OptimizationResult>> futures = new ArrayList<>();
-		for (List<String> part : parts) {
-			List<Pattern> patterns = getPatterns();
-			RuntimeAddition add = conf.getRuntimeAddition();
-			if (add != null && add.getAdditionalPatterns() != null) {
-				patterns.addAll(add.getAdditionalPatterns());
-			}
-			Future<OptimizationResult> task = executor.submit(() -> {
-				return optimizeInternalThreaded(conf, patterns, platform, part, pg, const2Value, strConst2Value);
-			});
-			futures.add(task);
+		List<Pattern> patterns = new ArrayList<>(getCompiledPatterns());
+		RuntimeAddition add = conf.getRuntimeAddition();
+		if (add != null && add.getAdditionalPatterns() != null) {
+			patterns.addAll(add.getAdditionalPatterns());
 		}
-		executor.shutdown();
 
-		List<String> optCode = new ArrayList<>();
+		ForkJoinPool pool = getPool(cpus);
+		Map<String, long[]> utilization = new ConcurrentHashMap<>();
 		Map<String, Integer> type2count = new HashMap<>();
+		long s = System.nanoTime();
+
+		if (pg != null) {
+			pg.start();
+		}
+
+		List<String> optCode = new ArrayList<>();
+		List<Integer> borders = new ArrayList<>();
+		CompilationCache cache = null;
+		String patternKey = null;
+		if (conf.getCacheDirectory() != null) {
+			cache = new CompilationCache(conf.getCacheDirectory());
+			patternKey = createPatternKey(conf, platform, patterns);
+		}
+
+		List<OptimizationResult> results = optimizeParallel(conf, patterns, platform, parts, "", pg, const2Value,
+				strConst2Value, pool, utilization, cache, patternKey);
+		for (int i = 0; i < results.size(); i++) {
+			OptimizationResult res = results.get(i);
+			if (i > 1) {
+				borders.add(optCode.size());
+			}
+			optCode.addAll(res.getCode());
+			addCounts(type2count, res.getType2count());
+		}
+
+		// Matches that span the border between two parts can't be found by the
+		// tasks above. So the regions around these borders are being optimized again
+		// in a second parallel run.
+		int reach = 0;
+		for (Pattern pattern : patterns) {
+			reach = Math.max(reach, pattern.getSourceSize());
+		}
+		List<int[]> regions = new ArrayList<>();
+		for (int border : borders) {
+			int from = skipCode(optCode, border, -reach);
+			int to = skipCode(optCode, border, reach);
+			int[] last = regions.isEmpty() ? null : regions.get(regions.size() - 1);
+			if (last != null && last[1] >= from) {
+				last[1] = to;
+			} else {
+				regions.add(new int[] { from, to });
+			}
+		}
+
+		List<List<String>> borderParts = new ArrayList<>();
+		for (int[] region : regions) {
+			borderParts.add(optCode.subList(region[0], region[1]));
+		}
+		results = optimizeParallel(conf, patterns, platform, borderParts, "b", pg, const2Value, strConst2Value,
+				pool, utilization, cache, patternKey);
+
+		List<String> fixedCode = new ArrayList<>();
+		int pos = 0;
+		for (int i = 0; i < regions.size(); i++) {
+			OptimizationResult res = results.get(i);
+			fixedCode.addAll(optCode.subList(pos, regions.get(i)[0]));
+			fixedCode.addAll(res.getCode());
+			addCounts(type2count, res.getType2count());
+			pos = regions.get(i)[1];
+		}
+		fixedCode.addAll(optCode.subList(pos, optCode.size()));
+
+		reportUtilization(utilization, System.nanoTime() - s, pg);
+		if (cache != null) {
+			Logger.log("Optimizer cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses");
+			if (conf.getMetrics() != null) {
+				conf.getMetrics().addCounter("optimizer cache hits", cache.getHits());
+				conf.getMetrics().addCounter("optimizer cache misses", cache.getMisses());
+			}
+		}
+		if (pg != null) {
+			pg.done();
+		}
+
+		printOutResults(type2count);
+		return fixedCode;
+	}
 
+	private List<OptimizationResult> optimizeParallel(CompilerConfig conf, List<Pattern> patterns,
+			PlatformProvider platform, List<List<String>> parts, String run, ProgressListener pg,
+			Map<String, Number> const2Value, Map<String, String> strConst2Value, ForkJoinPool pool,
+			Map<String, long[]> utilization, CompilationCache cache, String patternKey) {
+		List<Callable<OptimizationResult>> tasks = new ArrayList<>();
+		CompilerMetrics metrics = conf.getMetrics();
+		Thread caller = Thread.currentThread();
+		for (int i = 0; i < parts.size(); i++) {
+			List<String> part = parts.get(i);
+			// Each task gets its own copies of the patterns to store its matching
+			// state in. The labels that some patterns create are numbered after the
+			// part and the pattern, so that the code doesn't depend on the scheduling
+			// or on what has been compiled before.
+			List<Pattern> copies = copyPatterns(patterns);
+			String labelId = getLabelId(part, run, i);
+			for (int p = 0; p < copies.size(); p++) {
+				copies.get(p).setLabelPrefix(labelId + "_" + p + "_");
+			}
+			tasks.add(() -> {
+				long s = System.nanoTime();
+				long cpu = metrics == null ? 0 : CompilerMetrics.getCpuTime();
+				long allocated = metrics == null ? 0 : CompilerMetrics.getAllocatedBytes();
+				String key = null;
+				OptimizationResult res = null;
+				if (cache != null) {
+					key = createCacheKey(patternKey, labelId, part, const2Value, strConst2Value);
+					res = fromCacheEntry(cache.get(key));
+				}
+				if (res == null) {
+					res = optimizeInternalThreaded(conf, copies, platform, part, pg, const2Value, strConst2Value);
+					if (cache != null) {
+						cache.put(key, toCacheEntry(res));
+					}
+				}
+				long time = System.nanoTime() - s;
+				if (metrics != null && Thread.currentThread() != caller) {
+					metrics.addWorkerUsage(CompilerMetrics.getCpuTime() - cpu,
+							CompilerMetrics.getAllocatedBytes() - allocated);
+				}
+				utilization.compute(Thread.currentThread().getName(), (k, v) -> {
+					v = v == null ? new long[2] : v;
+					v[0]++;
+					v[1] += time;
+					return v;
+				});
+				return res;
+			});
+		}
+
+		List<OptimizationResult> results = new ArrayList<>();
 		try {
-			for (Future<OptimizationResult> future : futures) {
-				OptimizationResult res = future.get();
-				optCode.addAll(res.getCode());
-				res.getType2count()
-						.forEach((k, v) -> type2count.put(k, type2count.containsKey(k) ? v + type2count.get(k) : v));
+			for (Future<OptimizationResult> future : pool.invokeAll(tasks)) {
+				results.add(future.get());
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new RuntimeException("Failed to run optimizer!", e);
 		}
+		return results;
+	}
 
-		if (pg != null) {
-			pg.done();
+	private String getLabelId(List<String> part, String run, int index) {
+		// The first BASIC line in a part is unique within the program and it doesn't
+		// depend on the parts before, so it stays the same if other lines change.
+		// Parts without one (like the one before the code) are numbered by their
+		// index instead.
+		for (String line : part) {
+			if (line.startsWith("LINE_") && line.endsWith(":")) {
+				String num = line.substring(5, line.length() - 1);
+				if (!num.isEmpty() && num.chars().allMatch(Character::isDigit)) {
+					return run + num;
+				}
+			}
 		}
+		return run + "t" + index;
+	}
 
-		printOutResults(type2count);
-		return optCode;
+	private String createPatternKey(CompilerConfig conf, PlatformProvider platform, List<Pattern> patterns) {
+		// Everything besides the code itself that has an impact on the result of
+		// the optimization
+		StringBuilder sb = new StringBuilder();
+		sb.append(platform.getClass().getName()).append(platform.useLooseTypes()).append(conf.isBigRam());
+		for (Pattern pattern : patterns) {
+			sb.append(pattern.getName()).append(pattern.isSimple()).append(pattern.isLooseTypes())
+					.append(pattern.isSkipComments()).append(pattern.getInputPattern())
+					.append(pattern.getOutputPattern());
+		}
+		return CompilationCache.createKey(List.of(sb.toString().replace("\n", " ")));
+	}
+
+	private String createCacheKey(String patternKey, String labelId, List<String> part,
+			Map<String, Number> const2Value, Map<String, String> strConst2Value) {
+		List<String> key = new ArrayList<>();
+		key.add(patternKey);
+		// The labels created by patterns are part of the result
+		key.add(labelId);
+		for (String line : part) {
+			key.add(line);
+			// Patterns compare constants by value, so these values are part of the
+			// key as well.
+			int pos = line.indexOf("CONST_");
+			if (pos != -1) {
+				String name = line.substring(pos);
+				key.add("=" + const2Value.get(name) + "/" + strConst2Value.get(name));
+			}
+		}
+		return CompilationCache.createKey(key);
+	}
+
+	private List<String> toCacheEntry(OptimizationResult res) {
+		List<String> entry = new ArrayList<>();
+		entry.add(String.valueOf(res.getType2count().size()));
+		res.getType2count().forEach((k, v) -> entry.add(k + "\t" + v));
+		entry.addAll(res.getCode());
+		return entry;
+	}
+
+	private OptimizationResult fromCacheEntry(List<String> entry) {
+		if (entry == null) {
+			return null;
+		}
+		try {
+			Map<String, Integer> type2count = new HashMap<>();
+			int cnt = Integer.parseInt(entry.get(0));
+			for (int i = 1; i <= cnt; i++) {
+				String[] parts = entry.get(i).split("\t");
+				type2count.put(parts[0], Integer.valueOf(parts[1]));
+			}
+			List<String> code = new ArrayList<>(entry.subList(cnt + 1, entry.size()));
+			return new OptimizationResult(code, type2count);
+		} catch (Exception e) {
+			Logger.log("Ignoring invalid cache entry: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private void reportUtilization(Map<String, long[]> utilization, long total, ProgressListener pg) {
+		List<String> threads = new ArrayList<>(utilization.keySet());
+		Collections.sort(threads);
+		for (String thread : threads) {
+			long[] util = utilization.get(thread);
+			Logger.log("Optimizer thread " + thread + ": " + util[0] + " tasks, "
+					+ (total == 0 ? 0 : util[1] * 100 / total) + "% busy");
+			if (pg != null) {
+				pg.threadUtilization(thread, (int) util[0], util[1] / 1000000L, total / 1000000L);
+			}
+		}
+	}
+
+	/**
+	 * Moves from a position in the code up or down until the given number of
+	 * lines that aren't comments have been passed.
+	 * 
+	 * @param code  the code
+	 * @param pos   the start position
+	 * @param lines the number of lines, negative to move up
+	 * @return the new position
+	 */
+	private int skipCode(List<String> code, int pos, int lines) {
+		int dir = lines < 0 ? -1 : 1;
+		int cnt = Math.abs(lines);
+		while (cnt > 0 && pos > 0 && pos < code.size()) {
+			pos += dir;
+			if (!code.get(dir < 0 ? pos : pos - 1).startsWith(";")) {
+				cnt--;
+			}
+		}
+		return pos;
+	}
+
+	private void addCounts(Map<String, Integer> type2count, Map<String, Integer> counts) {
+		counts.forEach((k, v) -> type2count.put(k, type2count.containsKey(k) ? v + type2count.get(k) : v));
 	}
 
 	private void printOutResults(Map<String, Integer> type2count) {
@@ -156,9 +391,13 @@ public class Optimizer6502 implements Optimizer {
 			codeEnd = input.size();
 		}
 
-		if (pg != null) {
-			pg.start();
-		}
+		CodeBuffer code = new CodeBuffer(input);
+
+		// Hits, checked lines and time in ns per pattern, if metrics are being
+		// collected
+		CompilerMetrics metrics = conf.getMetrics();
+		Map<String, long[]> stats = metrics == null ? null : new HashMap<>();
+
 		do {
 			optimized = false;
 			if (pg != null) {
@@ -167,9 +406,9 @@ public class Optimizer6502 implements Optimizer {
 
 			int start = 0;
 			int lastPattern2 = lastPattern;
-			if (lastLine != input.size()) {
+			if (lastLine != code.size()) {
 				start = lastLine;
-				lastLine = input.size();
+				lastLine = code.size();
 				lastPattern = -1;
 			}
 
@@ -188,14 +427,26 @@ public class Optimizer6502 implements Optimizer {
 					stl = start;
 				}
 
+				long matchStart = stats == null ? 0 : System.nanoTime();
+				long matchEnd = 0;
+				int checks = 0;
 				for (int i = stl; i < codeEnd; i++) {
-					String line = input.get(i);
-					if (line.trim().startsWith(";") && pattern.isSkipComments()) {
+					int sp = pattern.getPos();
+					if (sp == 0 && incremental && !pattern.mightStartWith(code.getKey(i))) {
+						// Can't be the start of a match and the pattern is in its initial state
+						// anyway, so there's no need to call matches() on it.
 						continue;
 					}
-					int sp = pattern.getPos();
-					boolean matches = pattern.matches(line, i, const2Value, strConst2Value);
+					String line = code.get(i);
+					if (pattern.isSkipComments() && line.trim().startsWith(";")) {
+						continue;
+					}
+					checks++;
+					boolean matches = pattern.matches(code.getLine(i), i, const2Value, strConst2Value);
 					if (matches) {
+						if (stats != null) {
+							matchEnd = System.nanoTime();
+						}
 						String name = pattern.getName();
 						Integer cnt = type2count.get(name);
 						if (cnt == null) {
@@ -203,9 +454,13 @@ public class Optimizer6502 implements Optimizer {
 						} else {
 							type2count.put(name, cnt + 1);
 						}
-						int oldSize = input.size();
-						input = pattern.apply(input);
-						codeEnd -= (oldSize - input.size());
+						int oldSize = code.size();
+						if (incremental) {
+							pattern.apply(code);
+						} else {
+							code = new CodeBuffer(pattern.apply(code.toList()));
+						}
+						codeEnd -= (oldSize - code.size());
 						optimized = true;
 						int iLine = i - pattern.getSourceSize() - 1;
 						if (iLine <= lastLine) {
@@ -218,9 +473,18 @@ public class Optimizer6502 implements Optimizer {
 						i--;
 					}
 				}
+				if (stats != null) {
+					long[] stat = stats.computeIfAbsent(pattern.getName(), k -> new long[3]);
+					stat[0] += optimized ? 1 : 0;
+					stat[1] += checks;
+					stat[2] += (matchEnd == 0 ? System.nanoTime() : matchEnd) - matchStart;
+				}
 				if (optimized) {
 					break;
 				} else {
+					// The code might end with a partial match, which mustn't be continued
+					// at the start of the next run.
+					pattern.reset();
 					if (!pattern.isSimple()) {
 						used.add(pattern);
 					}
@@ -228,7 +492,10 @@ public class Optimizer6502 implements Optimizer {
 			}
 		} while (optimized);
 
-		return new OptimizationResult(input, type2count);
+		if (stats != null) {
+			stats.forEach((k, v) -> metrics.addPatternStats(k, v[0], v[1], v[2]));
+		}
+		return new OptimizationResult(code.toList(), type2count);
 	}
 
 	private void trimLines(CompilerConfig config, List<String> input) {
@@ -614,6 +881,9 @@ public class Optimizer6502 implements Optimizer {
 		// thread, because it's quite cheap to do anyway.
 
 		List<Pattern> others = new PatternProcessor().getPatterns("optimizer6502x.txt");
+		for (int i = 0; i < others.size(); i++) {
+			others.get(i).setLabelPrefix("x" + i + "_");
+		}
 		OptimizationResult res = optimizeInternalThreaded(conf, others, platform, ret, null, extractConstants(ret),
 				extractStringConstants(ret));
 		printOutResults(res.getType2count());
@@ -695,7 +965,54 @@ public class Optimizer6502 implements Optimizer {
 		return "; *** SUBROUTINES ***";
 	}
 
+	/**
+	 * Returns true, if the patterns will be applied in place to a code buffer and
+	 * lines that can't start a match will be skipped quickly.
+	 * 
+	 * @return is it?
+	 */
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * If set to false, the code will be rebuilt after each application of a
+	 * pattern and every line will be checked by every pattern. This is much
+	 * slower but gives the same results. Default is true.
+	 * 
+	 * @param incremental should the incremental mode be used?
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
 	public List<Pattern> getPatterns() {
-		return new PatternProcessor().getPatterns("optimizer6502.txt");
+		return copyPatterns(getCompiledPatterns());
+	}
+
+	private List<Pattern> copyPatterns(List<Pattern> patterns) {
+		List<Pattern> copies = new ArrayList<>(patterns.size());
+		for (Pattern pattern : patterns) {
+			copies.add(pattern.copy());
+		}
+		return copies;
+	}
+
+	private static synchronized List<Pattern> getCompiledPatterns() {
+		// The patterns will never be used directly but only as templates for
+		// copies, so they can be shared by all optimizer instances and threads.
+		if (compiledPatterns == null) {
+			compiledPatterns = Collections.unmodifiableList(new PatternProcessor().getPatterns("optimizer6502.txt"));
+		}
+		return compiledPatterns;
+	}
+
+	private static synchronized ForkJoinPool getPool(int threads) {
+		ForkJoinPool pool = pools.get(threads);
+		if (pool == null) {
+			pool = new ForkJoinPool(threads);
+			pools.put(threads, pool);
+		}
+		return pool;
 	}
 }
@@ -99,7 +99,13 @@ public class CompressorCL {
 			}
 		}
 
-		Program compressed = Compressor.compressAndLinkNative(data, startAddr);
+		Program compressed = null;
+		if (getOption("search", cmds)) {
+			int time = getNumber("searchtime", cmds);
+			compressed = Compressor.compressAndLinkNative(data, startAddr, time == -1 ? 0 : time);
+		} else {
+			compressed = Compressor.compressAndLinkNative(data, startAddr);
+		}
 
 		if (compressed != null) {
 			System.out.println("Writing compressed target file: " + targetFile);
@@ -117,6 +123,11 @@ public class CompressorCL {
 		System.exit(i);
 	}
 
+	private static boolean getOption(String option, Map<String, String> options) {
+		option = option.toLowerCase(Locale.ENGLISH);
+		return options.containsKey(option) && Boolean.valueOf(options.get(option));
+	}
+
 	private static int getNumber(String option, Map<String, String> options) {
 		option = option.toLowerCase(Locale.ENGLISH);
 		try {
@@ -155,6 +166,10 @@ public class CompressorCL {
 				"/startaddress=xxxxx|$yyyy -  start address of the program, if no basic header is present. If none is given, RUN will be executed instead. This is also the default.");
 		System.out.println(
 				"/addfiles=<file1>,<file2>,... -  link and compress additional files into the binary. The files have to be in C64 prg format and will be added at their speficied memory locations.");
+		System.out.println(
+				"/search=true|false -  if true, several compression settings will be tried in parallel and the one with the smallest result will be used. Default is false.");
+		System.out.println(
+				"/searchtime=<ms> -  the time budget for /search=true in milliseconds. Settings that take longer will be skipped. Default is no limit.");
 		System.out.println();
 	}
 
@@ -1,18 +1,28 @@
 package com.sixtyfour.cbmnative.shell;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.sixtyfour.Assembler;
 import com.sixtyfour.Basic;
 import com.sixtyfour.Loader;
+import com.sixtyfour.Logger;
+import com.sixtyfour.cbmnative.CompilerMetrics;
+import com.sixtyfour.cbmnative.CompilerMetrics.Stage;
 import com.sixtyfour.cbmnative.NativeCompiler;
 import com.sixtyfour.cbmnative.Pattern;
 import com.sixtyfour.cbmnative.PlatformProvider;
@@ -36,6 +46,7 @@ import com.sixtyfour.parser.Preprocessor;
 import com.sixtyfour.parser.RuntimeAddParser;
 import com.sixtyfour.parser.cbmnative.UnTokenizer;
 import com.sixtyfour.plugins.AssemblerMonitor;
+import com.sixtyfour.system.CycleProfiler;
 import com.sixtyfour.system.FileWriter;
 import com.sixtyfour.system.Program;
 import com.sixtyfour.system.ProgramPart;
@@ -48,23 +59,26 @@ import com.sixtyfour.system.ProgramPart;
  */
 public class MoSpeedCL {
 
+	private final static String[] STAGES = { "load", "check", "compile", "assemble", "write" };
+
+	// The stream that the output of the current compile goes to. Each job in batch
+	// mode has its own.
+	private final static ThreadLocal<PrintStream> OUT = ThreadLocal.withInitial(() -> System.out);
+
 	public static void main(String[] args) {
-		long s = System.currentTimeMillis();
 		System.out.println("*** MOSpeed - a Commodore BASIC V2 cross compiler");
 		System.out.println("(w) by EgonOlsen - https://github.com/EgonOlsen71");
 		System.out.println("-------------------------------------------------");
 		Map<String, String> cmds = new HashMap<>();
-		List<MemoryHole> holes = new ArrayList<>();
-		String srcFile = null;
+		List<String> srcFiles = new ArrayList<>();
 		for (String arg : args) {
-			if ((arg.startsWith("/") || arg.startsWith("-")) && !(new File(arg).isFile())) {
+			if ((arg.startsWith("/") || arg.startsWith("-")) && !(new File(arg).isFile())
+					&& !(new File(arg).isDirectory())) {
 				arg = arg.substring(1);
 				String[] parts = arg.split("=");
 				cmds.put(parts[0].toLowerCase(Locale.ENGLISH), parts.length > 1 ? parts[1] : null);
 			} else {
-				if (srcFile == null) {
-					srcFile = arg;
-				}
+				srcFiles.add(arg);
 			}
 		}
 		
@@ -74,11 +88,41 @@ public class MoSpeedCL {
 		}
 		System.out.println("type /? for more information\n\n");
 
-		if (srcFile == null) {
+		if (srcFiles.isEmpty()) {
 			System.out.println("No input file specified - aborting!");
 			exit(1);
 		}
 
+		if (srcFiles.size() > 1 || new File(srcFiles.get(0)).isDirectory()) {
+			exit(compileBatch(cmds, srcFiles));
+		}
+
+		try {
+			CompilerMetrics metrics = cmds.containsKey("metrics") ? new CompilerMetrics() : null;
+			compile(cmds, srcFiles.get(0), false, new LinkedHashMap<>(), metrics);
+			if (metrics != null) {
+				writeMetrics(cmds.get("metrics"), metrics.toJson());
+			}
+		} catch (CompilationFailure e) {
+			exit(e.getExitCode());
+		}
+		exit(0);
+	}
+
+	/**
+	 * Compiles a single program.
+	 * 
+	 * @param cmds    the command line options
+	 * @param srcFile the source file
+	 * @param batch   if true, the program is part of a batch, which disables the
+	 *                target and vice options
+	 * @param times   the map that the time taken per stage will be written into
+	 * @param metrics the metrics to collect or null, if none should be collected
+	 */
+	private static void compile(Map<String, String> cmds, String srcFile, boolean batch, Map<String, Long> times,
+			CompilerMetrics metrics) {
+		long s = System.currentTimeMillis();
+		List<MemoryHole> holes = new ArrayList<>();
 		CompilerConfig cfg = new CompilerConfig();
 		MemoryConfig memConfig = new MemoryConfig();
 
@@ -89,13 +133,13 @@ public class MoSpeedCL {
 		memConfig.setStringEnd(getNumber("varend", cmds));
 
 		if (cfg.isBigRam()) {
-			System.out.println("Runtime start configuration ignored, because bigram is true!");
+			out().println("Runtime start configuration ignored, because bigram is true!");
 			memConfig.setRuntimeStart(-1);
 		}
 
 		if (!memConfig.isValid()) {
-			System.out.println("Invalid memory configuration!");
-			exit(12);
+			out().println("Invalid memory configuration!");
+			fail(12);
 		}
 
 		boolean addrHeader = getOptionInt("addressheader", cmds);
@@ -125,7 +169,7 @@ public class MoSpeedCL {
 		cfg.setInlineAssembly(getOptionIntDefault("inlineasm", cmds, false));
 
 		if (cmds.containsKey("specops")) {
-			System.out.println("reading runtime/optimizer information!");
+			out().println("reading runtime/optimizer information!");
 			final RuntimeAddParser addy = new RuntimeAddParser(loadSource(cmds.get("specops")));
 			RuntimeAddition rta = new RuntimeAddition() {
 
@@ -144,11 +188,21 @@ public class MoSpeedCL {
 		}
 
 		boolean compress = getOptionIntDefault("compression", cmds, false);
+		// -1 means no search for the best compression settings, 0 means no time limit
+		long compressionTime = getOptionIntDefault("compressionsearch", cmds, false) ? 0 : -1;
+		if (compressionTime == 0 && cmds.containsKey("compressiontime")) {
+			try {
+				compressionTime = Math.max(0, Long.parseLong(cmds.get("compressiontime")));
+			} catch (Exception e) {
+				out().println("Invalid compression time: " + cmds.get("compressiontime"));
+			}
+		}
 		boolean multiPart = getOptionIntDefault("multipart", cmds, false);
 
 		holes = parseMemoryHoles(cmds);
 
-		cfg.setProgressListener(new DotPrintingProgressListener());
+		cfg.setProgressListener(new DotPrintingProgressListener(out()));
+		cfg.setMetrics(metrics);
 
 		if (cmds.containsKey("compactlevel")) {
 			try {
@@ -158,7 +212,7 @@ public class MoSpeedCL {
 				}
 				cfg.setCompactThreshold(level);
 			} catch (Exception e) {
-				System.out.println("Invalid compactor level: " + cmds.get("compactlevel"));
+				out().println("Invalid compactor level: " + cmds.get("compactlevel"));
 
 			}
 		}
@@ -167,11 +221,15 @@ public class MoSpeedCL {
 			try {
 				cfg.setThreads(Integer.parseInt(cmds.get("threads")));
 			} catch (Exception e) {
-				System.out.println("Invalid thread count: " + cmds.get("threads"));
+				out().println("Invalid thread count: " + cmds.get("threads"));
 
 			}
 		}
 
+		if (cmds.containsKey("cache")) {
+			cfg.setCacheDirectory(cmds.get("cache"));
+		}
+
 		boolean genSrc = cmds.containsKey("generatesrc") && Boolean.valueOf(cmds.get("generatesrc"));
 		String ilTarget = null;
 		String nlTarget = null;
@@ -215,8 +273,8 @@ public class MoSpeedCL {
 				}
 				appendix = ".prg";
 			} else {
-				System.out.println("Target platform " + cmds.get("platform") + " not supported!");
-				exit(4);
+				out().println("Target platform " + cmds.get("platform") + " not supported!");
+				fail(4);
 			}
 		}
 
@@ -225,7 +283,7 @@ public class MoSpeedCL {
 				if (memConfig.getStringEnd() == -1) {
 					memConfig.setStringEnd(53247);
 				}
-				System.out.println(
+				out().println(
 						"BigRam option enabled, highest memory address available is " + memConfig.getStringEnd());
 			}
 		} else {
@@ -233,18 +291,18 @@ public class MoSpeedCL {
 		}
 
 		if (!platform.supportsCompression() && compress) {
-			System.out.println("WARNING: This target platform doesn't support compression!");
+			out().println("WARNING: This target platform doesn't support compression!");
 			compress = false;
 		}
 
 		if (compress && multiPart) {
-			System.out.println("WARNING: Compression isn't supported if the multipart option is enabled!");
+			out().println("WARNING: Compression isn't supported if the multipart option is enabled!");
 			compress = false;
 		}
 
 		String targetFile = "++" + new File(srcFile).getName().replace(".BAS", "").replace(".bas", "")
 				.replace(".prg", "").replace(".PRG", "") + appendix;
-		if (cmds.containsKey("target")) {
+		if (cmds.containsKey("target") && !batch) {
 			targetFile = cmds.get("target");
 			if ((appendix.equalsIgnoreCase(".js") && !targetFile.endsWith(".js"))
 					|| (appendix.equalsIgnoreCase(".ps1") && !targetFile.endsWith(".ps1"))) {
@@ -253,8 +311,8 @@ public class MoSpeedCL {
 		}
 		boolean ok = delete(targetFile);
 		if (!ok) {
-			System.out.println("Can't delete target file: " + targetFile);
-			exit(3);
+			out().println("Can't delete target file: " + targetFile);
+			fail(3);
 		}
 
 		if (genSrc) {
@@ -264,30 +322,31 @@ public class MoSpeedCL {
 			asmTarget = targetFile + ".dbg";
 			ok = delete(ilTarget) && delete(nlTarget) && delete(ascTarget);
 			if (!ok) {
-				System.out.println(
+				out().println(
 						"Can't delete generated source file: " + ilTarget + " / " + nlTarget + "/" + ascTarget);
-				exit(5);
+				fail(5);
 			}
 		}
 
-		System.out.println("Compiling " + srcFile + "...");
+		out().println("Compiling " + srcFile + "...");
+		long stageStart = System.nanoTime();
 		String[] src = null;
 
 		if (srcFile.toLowerCase(Locale.ENGLISH).endsWith(".prg")) {
 			try {
-				System.out.println("Looks like a PRG file, trying to convert it...");
+				out().println("Looks like a PRG file, trying to convert it...");
 				byte[] data = Loader.loadBlob(srcFile);
 				UnTokenizer unto = new UnTokenizer();
 				List<String> srcList = unto.getText(data, multiByteTokens);
 				src = srcList.toArray(new String[0]);
-				System.out.println("PRG file converted into ASCII, proceeding!");
+				out().println("PRG file converted into ASCII, proceeding!");
 				if (genSrc) {
 					write(srcList, ascTarget);
 				}
 				srcFile = srcFile.replace(".prg", ".bas");
 			} catch (Exception e) {
-				System.out.println("Failed to convert PRG file: " + e.getClass() + "/" + e.getMessage());
-				System.out.println("Proceeding as if it was ASCII instead!");
+				out().println("Failed to convert PRG file: " + e.getClass() + "/" + e.getMessage());
+				out().println("Proceeding as if it was ASCII instead!");
 			}
 		}
 
@@ -296,15 +355,15 @@ public class MoSpeedCL {
 		}
 
 		if (src == null || src.length == 0) {
-			System.out.println("\nSource file is empty!");
-			exit(45);
+			out().println("\nSource file is empty!");
+			fail(45);
 		}
 
 		for (String line : src) {
 			if (!line.trim().isEmpty()) {
 				char c = line.charAt(0);
 				if (!Character.isDigit(c)) {
-					System.out.println("Code seems to use labels, not lines...converting it!");
+					out().println("Code seems to use labels, not lines...converting it!");
 					src = Preprocessor.convertToLineNumbers(src);
 					if (genSrc) {
 						write(Arrays.asList(src), ascTarget);
@@ -315,22 +374,24 @@ public class MoSpeedCL {
 		}
 
 		src = Preprocessor.convertSpecialChars(src);
+		stageStart = addTime(times, "load", stageStart);
 
 		Basic basic = new Basic(src);
 		try {
-			System.out.println("Checking source file...");
+			out().println("Checking source file...");
 			basic.compile(cfg);
 		} catch (Exception e) {
-			System.out.println("\n!!! Error compiling BASIC program: " + e.getMessage());
+			out().println("\n!!! Error compiling BASIC program: " + e.getMessage());
 			printCause(e);
-			exit(10);
+			fail(10);
 		}
+		stageStart = addTime(times, "check", stageStart);
 		List<String> nCode = null;
 
-		NativeCompiler nComp = NativeCompiler.getCompiler();
+		NativeCompiler nComp = new NativeCompiler();
 		try {
 			if (genSrc) {
-				List<String> mCode = NativeCompiler.getCompiler().compileToPseudoCode(cfg, basic);
+				List<String> mCode = nComp.compileToPseudoCode(cfg, basic);
 				write(mCode, ilTarget);
 			}
 
@@ -338,13 +399,13 @@ public class MoSpeedCL {
 			nCode = nComp.compile(cfg, basic, memConfig, platform);
 		} catch (Exception e) {
 			// e.printStackTrace();
-			System.out.println("\n!!! Error compiling: " + e.getMessage());
+			out().println("\n!!! Error compiling: " + e.getMessage());
 			String ll = nComp.getLastProcessedLine();
 			if (ll != null) {
-				System.out.println("Error at: " + ll);
+				out().println("Error at: " + ll);
 			}
 			printCause(e);
-			exit(15);
+			fail(15);
 		}
 
 		if (is6502Platform(platform) && !holes.isEmpty()) {
@@ -362,9 +423,11 @@ public class MoSpeedCL {
 		if (genSrc) {
 			write(nCode, nlTarget);
 		}
+		stageStart = addTime(times, "compile", stageStart);
 
 		Assembler assy = null;
 		if (is6502Platform(platform)) {
+			Stage stage = metrics == null ? null : metrics.startStage("assemble", nCode.size());
 			PrintWriter pwa = null;
 			try {
 				assy = new Assembler(nCode);
@@ -383,23 +446,187 @@ public class MoSpeedCL {
 				}
 				assy.compile(cfg);
 			} catch (Exception e) {
-				System.out.println("\n!!! Error running assembler: " + e.getMessage());
+				out().println("\n!!! Error running assembler: " + e.getMessage());
 				printCause(e);
-				exit(15);
+				fail(15);
 			} finally {
 				if (pwa != null) {
 					pwa.close();
 				}
 			}
+			if (metrics != null) {
+				metrics.endStage(stage, nCode.size());
+			}
+		}
+		stageStart = addTime(times, "assemble", stageStart);
+		writeTargetFiles(memConfig, targetFile, nCode, assy, platform, addrHeader, multiPart, compress,
+				compressionTime);
+		addTime(times, "write", stageStart);
+		out().println(srcFile + " compiled in " + (System.currentTimeMillis() - s) + "ms!");
+
+		if (cmds.containsKey("profile") && !batch) {
+			profile(cmds, assy, nCode, platform);
 		}
-		writeTargetFiles(memConfig, targetFile, nCode, assy, platform, addrHeader, multiPart, compress);
-		System.out.println(srcFile + " compiled in " + (System.currentTimeMillis() - s) + "ms!");
 
-		if (cmds.containsKey("vice")) {
+		if (cmds.containsKey("vice") && !batch) {
 			runVice(cmds, targetFile);
 		}
+	}
 
-		exit(0);
+	/**
+	 * Compiles multiple programs concurrently. Each program gets its own compiler
+	 * configuration and compiler instance. The output of each program will be
+	 * printed once it has been compiled, followed by a summary of the time taken
+	 * per stage and program.
+	 * 
+	 * @param cmds     the command line options
+	 * @param srcFiles the source files and/or directories that contain them
+	 * @return the exit code, which is the one of the first program that failed or
+	 *         0 if none did
+	 */
+	private static int compileBatch(Map<String, String> cmds, List<String> srcFiles) {
+		long s = System.currentTimeMillis();
+		List<String> files = new ArrayList<>();
+		for (String srcFile : srcFiles) {
+			File file = new File(srcFile);
+			if (file.isDirectory()) {
+				File[] content = file.listFiles(f -> f.isFile() && isSourceFile(f.getName()));
+				if (content != null) {
+					Arrays.sort(content);
+					for (File cf : content) {
+						files.add(cf.getPath());
+					}
+				}
+			} else {
+				files.add(srcFile);
+			}
+		}
+		if (files.isEmpty()) {
+			System.out.println("No source files found - aborting!");
+			return 1;
+		}
+		if (cmds.containsKey("target") || cmds.containsKey("vice") || cmds.containsKey("profile")) {
+			System.out.println("WARNING: The target, vice and profile options will be ignored in batch mode!");
+		}
+
+		int jobs = Runtime.getRuntime().availableProcessors();
+		if (cmds.containsKey("jobs")) {
+			try {
+				jobs = Math.max(1, Integer.parseInt(cmds.get("jobs")));
+			} catch (Exception e) {
+				System.out.println("Invalid job count: " + cmds.get("jobs"));
+			}
+		}
+
+		// Registering extensions modifies global state that all jobs depend on, so
+		// it has to happen upfront.
+		if ("x16".equalsIgnoreCase(cmds.get("platform"))) {
+			Basic.registerExtension(new X16Extensions());
+		}
+
+		System.out.println("Compiling " + files.size() + " programs in " + jobs + " jobs...\n");
+		List<Future<BatchResult>> futures = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(jobs);
+		try {
+			for (String file : files) {
+				futures.add(executor.submit(() -> compileJob(cmds, file)));
+			}
+			List<BatchResult> results = new ArrayList<>();
+			for (Future<BatchResult> future : futures) {
+				results.add(future.get());
+			}
+			int exitCode = printSummary(results, System.currentTimeMillis() - s);
+			if (cmds.containsKey("metrics")) {
+				StringBuilder json = new StringBuilder("[");
+				for (BatchResult result : results) {
+					if (result.exitCode == 0) {
+						json.append(json.length() == 1 ? "\n" : ",\n");
+						String name = new File(result.srcFile).getName().replace("\\", "\\\\").replace("\"", "\\\"");
+						json.append("{\"program\": \"").append(name).append("\", \"metrics\": ")
+								.append(result.metrics.toJson()).append("}");
+					}
+				}
+				writeMetrics(cmds.get("metrics"), json.append("\n]").toString());
+			}
+			return exitCode;
+		} catch (InterruptedException | ExecutionException e) {
+			System.out.println("\n!!! Batch compilation failed: " + e.getMessage());
+			return 1;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static BatchResult compileJob(Map<String, String> cmds, String srcFile) {
+		BatchResult result = new BatchResult(srcFile, cmds.containsKey("metrics"));
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(bos, true);
+		OUT.set(ps);
+		Logger.setThreadBoundPrintStream(ps);
+		long start = System.currentTimeMillis();
+		try {
+			compile(cmds, srcFile, true, result.times, result.metrics);
+		} catch (CompilationFailure e) {
+			result.exitCode = e.getExitCode();
+		} catch (Exception e) {
+			ps.println("\n!!! Error compiling: " + e.getMessage());
+			result.exitCode = 15;
+		} finally {
+			result.total = System.currentTimeMillis() - start;
+			OUT.remove();
+			Logger.setThreadBoundPrintStream(null);
+			synchronized (System.out) {
+				System.out.print(bos.toString());
+				System.out.println();
+			}
+		}
+		return result;
+	}
+
+	private static int printSummary(List<BatchResult> results, long time) {
+		int exitCode = 0;
+		int failed = 0;
+		Map<String, Long> totals = new LinkedHashMap<>();
+		System.out.println("Summary (times in ms):");
+		System.out.println(String.format(Locale.ENGLISH, "%-30s%10s%10s%10s%10s%10s%10s", "Program", STAGES[0],
+				STAGES[1], STAGES[2], STAGES[3], STAGES[4], "total"));
+		for (BatchResult result : results) {
+			StringBuilder sb = new StringBuilder(
+					String.format(Locale.ENGLISH, "%-30s", new File(result.srcFile).getName()));
+			for (String stage : STAGES) {
+				Long stageTime = result.times.get(stage);
+				sb.append(String.format(Locale.ENGLISH, "%10s", stageTime == null ? "-" : stageTime.toString()));
+				if (stageTime != null) {
+					totals.merge(stage, stageTime, Long::sum);
+				}
+			}
+			sb.append(String.format(Locale.ENGLISH, "%10d", result.total));
+			if (result.exitCode != 0) {
+				sb.append("  FAILED (").append(result.exitCode).append(")");
+				if (exitCode == 0) {
+					exitCode = result.exitCode;
+				}
+				failed++;
+			}
+			System.out.println(sb.toString());
+		}
+		StringBuilder sb = new StringBuilder(String.format(Locale.ENGLISH, "%-30s", "Sum"));
+		long sum = 0;
+		for (String stage : STAGES) {
+			long total = totals.getOrDefault(stage, 0L);
+			sb.append(String.format(Locale.ENGLISH, "%10d", total));
+			sum += total;
+		}
+		sb.append(String.format(Locale.ENGLISH, "%10d", sum));
+		System.out.println(sb.toString());
+		System.out.println("\n" + (results.size() - failed) + " of " + results.size() + " programs compiled in " + time
+				+ "ms!");
+		return exitCode;
+	}
+
+	private static boolean isSourceFile(String name) {
+		name = name.toLowerCase(Locale.ENGLISH);
+		return name.endsWith(".bas") || name.endsWith(".prg");
 	}
 
 	private static List<MemoryHole> parseMemoryHoles(Map<String, String> cmds) {
@@ -419,15 +646,15 @@ public class MoSpeedCL {
 					si = getNumber(start);
 					ei = getNumber(end);
 				} catch (NumberFormatException nfe) {
-					System.out.println("Invalid number: " + holeTxt);
-					exit(37);
+					out().println("Invalid number: " + holeTxt);
+					fail(37);
 				}
 				if (si != ei && si > 0 && ei > 0) {
 					holes.add(new MemoryHole(si, ei));
 				}
 			} else {
-				System.out.println("Parse error: " + holeTxt);
-				exit(38);
+				out().println("Parse error: " + holeTxt);
+				fail(38);
 			}
 		}
 		return holes;
@@ -435,14 +662,14 @@ public class MoSpeedCL {
 
 	private static void printCause(Exception e) {
 		if (e.getCause() != null && e.getCause().getMessage() != null) {
-			System.out.println("Caused by: " + e.getCause().getMessage());
+			out().println("Caused by: " + e.getCause().getMessage());
 		}
 	}
 
 	private static void writeTargetFiles(MemoryConfig memConfig, String targetFile, List<String> ncode, Assembler assy,
-			PlatformProvider platform, boolean addrHeader, boolean multiPart, boolean compress) {
+			PlatformProvider platform, boolean addrHeader, boolean multiPart, boolean compress, long compressionTime) {
 		if (is6502Platform(platform)) {
-			write6502(memConfig, targetFile, assy, platform, addrHeader, multiPart, compress);
+			write6502(memConfig, targetFile, assy, platform, addrHeader, multiPart, compress, compressionTime);
 			// Check out of memory on write time
 			int se = memConfig.getStringEnd();
 			if (se <= 0) {
@@ -451,7 +678,7 @@ public class MoSpeedCL {
 			if (se >= 0) {
 				ProgramPart part0 = assy.getProgram().getParts().get(0);
 				if (part0.getAddress() <= se && part0.getEndAddress() > se) {
-					System.out.println("\nWARNING: Compiled program's length exceeds memory limit: "
+					out().println("\nWARNING: Compiled program's length exceeds memory limit: "
 							+ (part0.getEndAddress() + ">" + se));
 				}
 			}
@@ -460,20 +687,20 @@ public class MoSpeedCL {
 		} else if (platform instanceof PlatformPs) {
 			writePowershell(targetFile, ncode);
 		} else {
-			System.out.println("\n!!! Unsupported platform: " + platform);
-			exit(19);
+			out().println("\n!!! Unsupported platform: " + platform);
+			fail(19);
 		}
 	}
 
 	private static void writePowershell(String targetFile, List<String> ncode) {
 		try (PrintWriter pw = new PrintWriter(targetFile)) {
-			System.out.println("Writing target file: " + targetFile);
+			out().println("Writing target file: " + targetFile);
 			for (String line : ncode) {
 				pw.println(line);
 			}
 		} catch (Exception e) {
-			System.out.println("Failed to write target file '" + targetFile + "': " + e.getMessage());
-			exit(9);
+			out().println("Failed to write target file '" + targetFile + "': " + e.getMessage());
+			fail(9);
 		}
 	}
 
@@ -481,7 +708,7 @@ public class MoSpeedCL {
 		Transformer trsn = new PlatformJs().getTransformer();
 		try (PrintWriter pw = new PrintWriter(targetFile);
 				PrintWriter cpw = new PrintWriter(targetFile.replace(".js", ".html"))) {
-			System.out.println("Writing target files: " + targetFile);
+			out().println("Writing target files: " + targetFile);
 			for (String line : ncode) {
 				pw.println(line);
 			}
@@ -490,16 +717,16 @@ public class MoSpeedCL {
 				cpw.println(line);
 			}
 		} catch (Exception e) {
-			System.out.println("Failed to write target file '" + targetFile + "': " + e.getMessage());
-			exit(9);
+			out().println("Failed to write target file '" + targetFile + "': " + e.getMessage());
+			fail(9);
 		}
 	}
 
 	private static void write6502(MemoryConfig memConfig, String targetFile, Assembler assy, PlatformProvider platform,
-			boolean addrHeader, boolean multiPart, boolean compress) {
+			boolean addrHeader, boolean multiPart, boolean compress, long compressionTime) {
 		try {
 			if (!multiPart) {
-				System.out.println("Writing target file: " + targetFile);
+				out().println("Writing target file: " + targetFile);
 				boolean basicHeader = memConfig.getProgramStart() == -1
 						|| (memConfig.getProgramStart() < platform.getMaxHeaderAddress()
 								&& memConfig.getProgramStart() >= platform.getBaseAddress() + 23);
@@ -507,25 +734,27 @@ public class MoSpeedCL {
 						addrHeader);
 				if (compress) {
 					byte[] bytes = Compressor.loadProgram(targetFile);
-					Program compressed = Compressor.compressAndLinkNative(bytes,
-							basicHeader ? -1 : memConfig.getProgramStart());
+					int startAddr = basicHeader ? -1 : memConfig.getProgramStart();
+					Program compressed = compressionTime >= 0
+							? Compressor.compressAndLinkNative(bytes, startAddr, compressionTime)
+							: Compressor.compressAndLinkNative(bytes, startAddr);
 					if (compressed != null) {
 						String resultFile = targetFile.replace(".prg", "-c.prg");
-						System.out.println("Writing compressed target file: " + resultFile);
+						out().println("Writing compressed target file: " + resultFile);
 						FileWriter.writeAsPrg(compressed, resultFile, false);
 					} else {
-						System.out.println(
+						out().println(
 								"Unable to compress the program any further, no compressed version has been created!");
 					}
 				}
 			} else {
-				System.out.println("Writing multiple target files!");
+				out().println("Writing multiple target files!");
 				Program tmp = new Program();
 				Program sp = assy.getProgram();
 				tmp.setLabelsContainer(sp.getLabelsContainer());
 				tmp.addPart(sp.getParts().get(0));
 				tmp.setCodeStart(sp.getCodeStart());
-				System.out.println("Writing target file: " + targetFile);
+				out().println("Writing target file: " + targetFile);
 				FileWriter.writeAsPrg(tmp, targetFile,
 						memConfig.getProgramStart() == -1
 								|| (memConfig.getProgramStart() < platform.getMaxHeaderAddress()
@@ -540,13 +769,13 @@ public class MoSpeedCL {
 					tmp.setLabelsContainer(sp.getLabelsContainer());
 					String newName = master + i;
 					delete(newName);
-					System.out.println("Writing target file: " + newName);
+					out().println("Writing target file: " + newName);
 					FileWriter.writeAsPrg(tmp, newName, false, platform.getBaseAddress(), true);
 				}
 			}
 		} catch (Exception e) {
-			System.out.println("Failed to write target file '" + targetFile + "': " + e.getMessage());
-			exit(9);
+			out().println("Failed to write target file '" + targetFile + "': " + e.getMessage());
+			fail(9);
 		}
 	}
 
@@ -554,6 +783,46 @@ public class MoSpeedCL {
 		return platform instanceof Platform64 || platform instanceof Platform20 || platform instanceof PlatformX16;
 	}
 
+	private static void profile(Map<String, String> cmds, Assembler assy, List<String> nCode,
+			PlatformProvider platform) {
+		String file = cmds.get("profile");
+		if (!(platform instanceof Platform64) || assy == null) {
+			out().println("Profiling is supported for the C64 platform only!");
+			return;
+		}
+		if (file == null) {
+			out().println("No profile file specified!");
+			return;
+		}
+		long maxCycles = 1000000000L;
+		if (cmds.containsKey("profilecycles")) {
+			try {
+				maxCycles = Long.parseLong(cmds.get("profilecycles"));
+			} catch (Exception e) {
+				out().println("Invalid number of cycles: " + cmds.get("profilecycles"));
+			}
+		}
+		out().println("Profiling compiled program...");
+		CycleProfiler profiler = new CycleProfiler(assy.getProgram(), nCode);
+		profiler.setMaxCycles(maxCycles);
+		assy.getMachine().addRoms();
+		assy.getCpu().setCpuTracer(profiler);
+		try {
+			assy.run(new CompilerConfig());
+		} catch (Exception e) {
+			out().println("Program failed while profiling: " + e.getMessage());
+		}
+		if (profiler.isLimitReached()) {
+			out().println("Program stopped after " + maxCycles + " cycles!");
+		}
+		out().println("Writing profile: " + file);
+		try (PrintWriter pw = new PrintWriter(file, "UTF-8")) {
+			pw.print(profiler.getReport(Integer.MAX_VALUE));
+		} catch (Exception e) {
+			out().println("Failed to write profile '" + file + "': " + e.getMessage());
+		}
+	}
+
 	private static void runVice(Map<String, String> cmds, String targetFile) {
 		try {
 			Process prc = Runtime.getRuntime()
@@ -566,8 +835,8 @@ public class MoSpeedCL {
 				// }
 			}
 		} catch (Exception e) {
-			System.out.println("Failed to start VICE at " + cmds.get("vice") + ": " + e.getMessage());
-			exit(10);
+			out().println("Failed to start VICE at " + cmds.get("vice") + ": " + e.getMessage());
+			fail(10);
 		}
 	}
 
@@ -576,25 +845,38 @@ public class MoSpeedCL {
 	}
 
 	private static void write(List<String> code, String file) {
-		System.out.println("Writing file: " + file);
+		out().println("Writing file: " + file);
 		try (PrintWriter pw = new PrintWriter(file)) {
 			for (String line : code) {
 				pw.println(line);
 			}
 		} catch (Exception e) {
-			System.out.println("Failed to write file '" + file + "': " + e.getMessage());
-			exit(7);
+			out().println("Failed to write file '" + file + "': " + e.getMessage());
+			fail(7);
+		}
+	}
+
+	private static void writeMetrics(String file, String json) {
+		if (file == null) {
+			System.out.println("No metrics file specified!");
+			return;
+		}
+		System.out.println("Writing metrics: " + file);
+		try (PrintWriter pw = new PrintWriter(file, "UTF-8")) {
+			pw.println(json);
+		} catch (Exception e) {
+			System.out.println("Failed to write metrics '" + file + "': " + e.getMessage());
 		}
 	}
 
 	private static String[] loadSource(String srcFile) {
 		String[] src = null;
-		System.out.println("Loading source file...");
+		out().println("Loading source file...");
 		try {
 			src = Loader.loadProgram(srcFile);
 		} catch (Exception e) {
-			System.out.println("Failed to load source file (" + srcFile + "): " + e.getMessage());
-			exit(6);
+			out().println("Failed to load source file (" + srcFile + "): " + e.getMessage());
+			fail(6);
 		}
 		List<String> res = new ArrayList<>();
 		for (String line : src) {
@@ -610,6 +892,20 @@ public class MoSpeedCL {
 		System.exit(i);
 	}
 
+	private static void fail(int i) {
+		throw new CompilationFailure(i);
+	}
+
+	private static PrintStream out() {
+		return OUT.get();
+	}
+
+	private static long addTime(Map<String, Long> times, String stage, long start) {
+		long now = System.nanoTime();
+		times.put(stage, (now - start) / 1000000L);
+		return now;
+	}
+
 	private static boolean getOption(String option, Map<String, String> options) {
 		if (options.containsKey("alloff")) {
 			return false;
@@ -637,8 +933,8 @@ public class MoSpeedCL {
 				return getNumber(nums);
 			}
 		} catch (Exception e) {
-			System.out.println("Invalid number: " + options.get(option));
-			exit(11);
+			out().println("Invalid number: " + options.get(option));
+			fail(11);
 		}
 		return -1;
 	}
@@ -661,7 +957,9 @@ public class MoSpeedCL {
 		System.out.println(
 				"\nThis will compile the specified source file for the C64 with all optimizations enabled and using the default memory configuration.");
 		System.out.println("The target file name is the source file name with a '++'-prefix.");
-		System.out.println("An existing file of the same name will be overwritten.\n\n");
+		System.out.println("An existing file of the same name will be overwritten.");
+		System.out.println(
+				"If multiple source files or a directory are specified, all of them (*.bas and *.prg) will be compiled concurrently in batch mode.\n\n");
 		System.out.println("Optional parameters (either with / or - as prefix):\n");
 		System.out.println("/target=<target file> -  the target file name");
 		System.out.println(
@@ -719,12 +1017,26 @@ public class MoSpeedCL {
 				"/bigram=true|false - *Experimental* - If true, the RAM under the C64's BASIC ROM as well as the higher 4K of RAM will be used for the compiled program as well. This will reduce performance, especially when accessing memory under the ROM. Default is false.");
 		System.out.println(
 				"/compression=true|false - *Experimental* - If true, the compiled program will be compressed to achieve a smaller file size. The compressed file will be saved in addition to the normal binary. Compression isn't always possible. In that case, no compressed file will be written.");
+		System.out.println(
+				"/compressionsearch=true|false - If true, several compression settings will be tried in parallel and the one with the smallest result will be used. Default is false.");
+		System.out.println(
+				"/compressiontime=<ms> - The time budget for /compressionsearch=true in milliseconds. Settings that take longer will be skipped. Default is 0, which means no limit.");
 		System.out.println(
 				"/inlineasm=true|false - *Experimental* - If true, inline assembly code can be used, marked by REM [...;...;...]. Default is false.");
 		System.out.println(
 				"/printopt=true|false - *Experimental* - If true, the compiler tries to rearrange texts in PRINT statements to save memory at the expense of speed. Default is false.");
 		System.out.println(
 				"/arrayopt=true|false - *Experimental* - If true, the compiler tries to optimize access speed of multi-dimensional arrays at the expense of memory usage. Default is false.");
+		System.out.println(
+				"/cache=<directory> - caches the results of the native language optimizations in the given directory, so that unchanged parts of a program don't have to be optimized again on the next run. Default is none.");
+		System.out.println(
+				"/metrics=<file> - writes the time and memory taken by each stage of the compilation as well as the number of hits of each optimizer pattern and the time spent on matching it to the given file in JSON format. In batch mode, the file contains the metrics of all programs. Default is none.");
+		System.out.println(
+				"/profile=<file> - runs the compiled program on the built-in 6502 emulation with the C64's ROMs and writes the number of cycles spent per BASIC line and per subroutine to the given file. This only applies to the C64 target platform. Programs that wait for input should be avoided. Default is none.");
+		System.out.println(
+				"/profilecycles=<n> - the number of cycles after which a program will be stopped when profiling it. Default is 1000000000.");
+		System.out.println(
+				"/jobs=<n> - the number of programs that will be compiled concurrently in batch mode. Parsing and the native language optimizations run concurrently, the generation of intermediate and native code runs for one program at a time. Default is the number of available CPU cores.");
 
 		
 		System.out.println();
@@ -732,9 +1044,15 @@ public class MoSpeedCL {
 
 	private static class DotPrintingProgressListener implements ProgressListener {
 
+		private PrintStream out;
+
+		private DotPrintingProgressListener(PrintStream out) {
+			this.out = out;
+		}
+
 		@Override
 		public void nextStep() {
-			System.out.print("*");
+			out.print("*");
 		}
 
 		@Override
@@ -744,9 +1062,47 @@ public class MoSpeedCL {
 
 		@Override
 		public void done() {
-			System.out.println();
+			out.println();
+		}
+
+	}
+
+	/**
+	 * Thrown to abort the compilation of a program with an exit code.
+	 */
+	private static class CompilationFailure extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private int exitCode;
+
+		private CompilationFailure(int exitCode) {
+			super("Compilation failed with exit code " + exitCode);
+			this.exitCode = exitCode;
 		}
 
+		private int getExitCode() {
+			return exitCode;
+		}
+	}
+
+	/**
+	 * The outcome of a program's compilation in batch mode.
+	 */
+	private static class BatchResult {
+
+		private String srcFile;
+		private Map<String, Long> times = new LinkedHashMap<>();
+		private CompilerMetrics metrics;
+		private int exitCode = 0;
+		private long total;
+
+		private BatchResult(String srcFile, boolean collectMetrics) {
+			this.srcFile = srcFile;
+			if (collectMetrics) {
+				metrics = new CompilerMetrics();
+			}
+		}
 	}
 
 }
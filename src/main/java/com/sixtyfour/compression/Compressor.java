@@ -8,8 +8,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.sixtyfour.Assembler;
 import com.sixtyfour.Loader;
@@ -24,8 +31,11 @@ import com.sixtyfour.system.ProgramPart;
  * simple and most likely inefficient sliding window pattern matching algorithm
  * that I came up with while being half asleep. It uses a pattern based
  * approach, no huffman encoding. That's why it's less efficient but should
- * decompress rather quickly. It can also compress a compiled C64 program, link
- * the decompressor to it and return the executable result.
+ * decompress rather quickly. Matches can also be found by using hash chains
+ * (see MatchStrategy), which is a lot faster and compresses better. It can also
+ * compress a compiled C64 program, link the decompressor to it and return the
+ * executable result. compressBest() tries several strategies and sizes in
+ * parallel and returns the smallest result.
  * 
  * @author EgonOlsen
  *
@@ -39,6 +49,31 @@ public class Compressor {
 	private static final int MIN_WINDOW_SIZE = 12;
 	private static final int CHUNK_SIZE = 32768;
 
+	/** The shortest match that the hash chains can find */
+	private static final int MIN_MATCH_SIZE = 4;
+	/** The longest match that fits into the format */
+	private static final int MAX_MATCH_SIZE = 255;
+	private static final int HASH_BITS = 15;
+	private static final int MAX_CHAIN_LAZY = 64;
+	private static final int MAX_CHAIN_OPTIMAL = 512;
+
+	/** The size of a match in the footer (length and target address) */
+	private static final int MATCH_COST = 3;
+	/**
+	 * The additional size of a match whose source differs from the previous one's
+	 * (source address and end flag)
+	 */
+	private static final int SOURCE_COST = 4;
+
+	/**
+	 * The strategies and sizes tried by compressBest(), ordered by their speed, so
+	 * that the fast ones get their results in before the time budget runs out
+	 */
+	private static final Object[][] CANDIDATES = { { MatchStrategy.OPTIMAL, MAX_MATCH_SIZE },
+			{ MatchStrategy.OPTIMAL, 128 }, { MatchStrategy.OPTIMAL, 64 }, { MatchStrategy.LAZY, MAX_MATCH_SIZE },
+			{ MatchStrategy.LAZY, 128 }, { MatchStrategy.LAZY, 64 }, { MatchStrategy.WINDOW, MAX_WINDOW_SIZE_1 },
+			{ MatchStrategy.WINDOW, MAX_WINDOW_SIZE_2 } };
+
 	public static void main(String[] args) throws Exception {
 
 		testCompressor("E:\\src\\workspace2018\\Adventure\\build\\++xam.prg",
@@ -67,7 +102,7 @@ public class Compressor {
 
 	/**
 	 * Compresses a given byte array and returns the comressed array or null, if no
-	 * compression has been performed.
+	 * compression has been performed. This uses the original sliding window.
 	 * 
 	 * @param dump       the byte array to compress
 	 * @param windowSize the size of the sliding window
@@ -76,16 +111,122 @@ public class Compressor {
 	 * @return the compressed array or null
 	 */
 	public static byte[] compress(byte[] dump, int windowSize, boolean watchSize) {
+		return compress(dump, windowSize, watchSize, MatchStrategy.WINDOW);
+	}
+
+	/**
+	 * Compresses a given byte array and returns the comressed array or null, if no
+	 * compression has been performed.
+	 * 
+	 * @param dump       the byte array to compress
+	 * @param windowSize the size of the sliding window or, for the other
+	 *                   strategies, the maximum length of a match (up to 255)
+	 * @param watchSize  if true, no compression will be performed if the result
+	 *                   will actually increase in size
+	 * @param strategy   the strategy used to find matches
+	 * @return the compressed array or null
+	 */
+	public static byte[] compress(byte[] dump, int windowSize, boolean watchSize, MatchStrategy strategy) {
+		return compress(dump, windowSize, watchSize, strategy, 0);
+	}
+
+	/**
+	 * Returns the strategies and sizes that compressBest() tries. Each entry
+	 * contains the MatchStrategy and the size as an Integer.
+	 * 
+	 * @return the candidates
+	 */
+	public static Object[][] getSearchCandidates() {
+		Object[][] ret = new Object[CANDIDATES.length][];
+		for (int i = 0; i < CANDIDATES.length; i++) {
+			ret[i] = CANDIDATES[i].clone();
+		}
+		return ret;
+	}
+
+	/**
+	 * Compresses a given byte array with several strategies and sizes at once and
+	 * returns the smallest result that can be decompressed in memory (see
+	 * decompressInMemory()). The candidates run in parallel on the common
+	 * ForkJoinPool. If a time budget is given, candidates that haven't finished
+	 * when it runs out will be skipped. The fastest candidate will always be
+	 * waited for, if nothing else has finished by then.
+	 * 
+	 * @param dump       the byte array to compress
+	 * @param watchSize  if true, no compression will be performed if the result
+	 *                   will actually increase in size
+	 * @param timeBudget the time budget in ms, 0 means no limit
+	 * @return the compressed array or null
+	 */
+	public static byte[] compressBest(byte[] dump, boolean watchSize, long timeBudget) {
+		long time = System.currentTimeMillis();
+		long deadline = timeBudget > 0 ? System.nanoTime() + timeBudget * 1000000L : 0;
+
+		List<ForkJoinTask<byte[]>> tasks = new ArrayList<>();
+		for (Object[] candidate : CANDIDATES) {
+			MatchStrategy strategy = (MatchStrategy) candidate[0];
+			int size = (Integer) candidate[1];
+			tasks.add(ForkJoinPool.commonPool().submit(() -> {
+				byte[] res = compress(dump, size, watchSize, strategy, deadline);
+				if (res != null && !Arrays.equals(decompressInMemory(res), dump)) {
+					log("Uncompressed data and data table overlap for " + strategy + "/" + size + "!");
+					return null;
+				}
+				return res;
+			}));
+		}
+
+		byte[] best = null;
+		String bestName = null;
+		for (int i = 0; i < tasks.size(); i++) {
+			ForkJoinTask<byte[]> task = tasks.get(i);
+			byte[] res = null;
+			try {
+				if (deadline == 0 || best == null) {
+					res = task.get();
+				} else {
+					res = task.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+				}
+			} catch (TimeoutException e) {
+				task.cancel(false);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Compression has been interrupted!", e);
+			} catch (ExecutionException e) {
+				if (!(e.getCause() instanceof CancellationException)) {
+					throw new RuntimeException("Compression failed!", e.getCause());
+				}
+			}
+			if (res != null && (best == null || res.length < best.length)) {
+				best = res;
+				bestName = CANDIDATES[i][0] + "/" + CANDIDATES[i][1];
+			}
+		}
+
+		if (best != null) {
+			log("Best compression: " + bestName + " with " + best.length + " bytes, found in "
+					+ (System.currentTimeMillis() - time) + "ms");
+		}
+		return best;
+	}
+
+	private static byte[] compress(byte[] dump, int windowSize, boolean watchSize, MatchStrategy strategy,
+			long deadline) {
 		long time = System.currentTimeMillis();
 		int minSize = MIN_WINDOW_SIZE;
 		int len = dump.length;
 		if (len > 65536) {
 			throw new RuntimeException("This compressor can't compress anything larger than 64KB!");
 		}
-		byte[] window = new byte[windowSize];
-		fillWindow(dump, window, 0);
 
-		List<Part> parts = findMatches(dump, windowSize, minSize, len, window, FAST);
+		List<Part> parts = null;
+		if (strategy == MatchStrategy.WINDOW) {
+			byte[] window = new byte[windowSize];
+			fillWindow(dump, window, 0);
+			parts = findMatches(dump, windowSize, minSize, len, window, FAST, deadline);
+		} else {
+			parts = findHashMatches(dump, Math.min(windowSize, MAX_MATCH_SIZE), strategy == MatchStrategy.OPTIMAL);
+		}
 
 		byte[] bos = compress(parts, dump);
 
@@ -256,31 +397,49 @@ public class Compressor {
 	public static Program compressAndLinkNative(byte[] bytes, int startAddr) {
 		log("Trying to find best compression settings...");
 
-		byte[] compressedBytes = compress(bytes, MAX_WINDOW_SIZE_1, startAddr == -1);
-		byte[] compressedBytes2 = compress(bytes, MAX_WINDOW_SIZE_2, startAddr == -1);
-
-		if (compressedBytes == null) {
-			compressedBytes = compressedBytes2;
-		} else if (compressedBytes2 == null) {
-			compressedBytes2 = compressedBytes;
+		byte[] compressedBytes = compress(bytes, MAX_MATCH_SIZE, startAddr == -1, MatchStrategy.OPTIMAL);
+		if (compressedBytes != null && !Arrays.equals(decompressInMemory(compressedBytes), bytes)) {
+			log("Uncompressed data and data table overlap, trying sliding window...");
+			compressedBytes = compressWithWindow(bytes, startAddr);
 		}
 		if (compressedBytes == null) {
 			return null;
 		}
 
-		if (compressedBytes2.length < compressedBytes.length) {
-			compressedBytes = compressedBytes2;
-			log("Setting 2 used!");
-		} else {
-			log("Setting 1 used!");
-		}
-
 		byte[] uncompressed = decompressInMemory(compressedBytes);
 		if (uncompressed == null || !Arrays.equals(uncompressed, bytes)) {
 			log("Uncompressed data and data table overlap, no compression performed!");
 			return null;
 		}
+		return link(compressedBytes, bytes, startAddr);
+	}
+
+	/**
+	 * Compress a compiled program and link the decompressor onto it. Unlike
+	 * compressAndLinkNative(byte[], int), this tries several strategies and sizes
+	 * in parallel and uses the smallest result (see compressBest()).
+	 * 
+	 * @param bytes      the program
+	 * @param startAddr  the start address of the program. If given, the
+	 *                   decompressed program will be copied to that memory address
+	 *                   and started directly. If not given, the program will reside
+	 *                   on the start of BASIC memory and started with RUN.
+	 * @param timeBudget the time budget for the search in ms, 0 means no limit
+	 * @return the executable, compressed program or null, if no compression was
+	 *         possible
+	 */
+	public static Program compressAndLinkNative(byte[] bytes, int startAddr, long timeBudget) {
+		log("Searching for the best compression settings...");
+
+		byte[] compressedBytes = compressBest(bytes, startAddr == -1, timeBudget);
+		if (compressedBytes == null) {
+			log("None of the settings could be used, no compression performed!");
+			return null;
+		}
+		return link(compressedBytes, bytes, startAddr);
+	}
 
+	private static Program link(byte[] compressedBytes, byte[] bytes, int startAddr) {
 		Program prg = compileHeader(startAddr);
 		ProgramPart first = prg.getParts().get(0);
 		ProgramPart pp = new ProgramPart();
@@ -300,6 +459,28 @@ public class Compressor {
 		return prg;
 	}
 
+	private static byte[] compressWithWindow(byte[] bytes, int startAddr) {
+		byte[] compressedBytes = compress(bytes, MAX_WINDOW_SIZE_1, startAddr == -1);
+		byte[] compressedBytes2 = compress(bytes, MAX_WINDOW_SIZE_2, startAddr == -1);
+
+		if (compressedBytes == null) {
+			compressedBytes = compressedBytes2;
+		} else if (compressedBytes2 == null) {
+			compressedBytes2 = compressedBytes;
+		}
+		if (compressedBytes == null) {
+			return null;
+		}
+
+		if (compressedBytes2.length < compressedBytes.length) {
+			compressedBytes = compressedBytes2;
+			log("Setting 2 used!");
+		} else {
+			log("Setting 1 used!");
+		}
+		return compressedBytes;
+	}
+
 	/**
 	 * Loads a file into a byte array.
 	 * 
@@ -450,10 +631,12 @@ public class Compressor {
 	 * @param windowPos
 	 * @param window
 	 * @param fastMode   Less compression, but a lot faster.
+	 * @param deadline   the value of System.nanoTime() after which the search will
+	 *                   be cancelled, 0 means never
 	 * @return
 	 */
 	private static List<Part> findMatches(byte[] dump, int windowSize, int minSize, int len, byte[] window,
-			boolean fastMode) {
+			boolean fastMode, long deadline) {
 		int curSize = windowSize;
 		int largest = 0;
 		int windowPos = 0;
@@ -464,6 +647,9 @@ public class Compressor {
 
 		for (int lenPart = Math.min(len, chunkSize); lenPart <= len;) {
 			do {
+				if (deadline != 0 && System.nanoTime() > deadline) {
+					throw new CancellationException("Time budget exceeded!");
+				}
 				for (int i = windowPos + curSize; i < lenPart - curSize; i++) {
 					if (covered[i] > 0) {
 						continue;
@@ -535,6 +721,123 @@ public class Compressor {
 		return parts;
 	}
 
+	/**
+	 * Finds matches by looking up earlier positions that start with the same bytes
+	 * in hash chains. A match's source has to end before its target starts,
+	 * because the decompressor copies the data in one go. Matches that use the
+	 * same source as the previous one are cheaper, because they share the source
+	 * address in the footer. Both parsing strategies take this into account.
+	 * 
+	 * @param dump    the data
+	 * @param maxSize the maximum length of a match
+	 * @param optimal if true, the matches will be chosen to minimize the size of
+	 *                the result. Otherwise, lazy matching will be used.
+	 * @return the matches sorted by target address
+	 */
+	private static List<Part> findHashMatches(byte[] dump, int maxSize, boolean optimal) {
+		HashChains chains = new HashChains(dump, optimal ? MAX_CHAIN_OPTIMAL : MAX_CHAIN_LAZY);
+		return optimal ? parseOptimal(dump, chains, maxSize) : parseLazy(dump, chains, maxSize);
+	}
+
+	private static List<Part> parseLazy(byte[] dump, HashChains chains, int maxSize) {
+		List<Part> parts = new ArrayList<>();
+		int len = dump.length;
+		int lastSource = -1;
+		Match match = new Match();
+		Match next = new Match();
+		chains.find(0, maxSize, lastSource, match);
+		chains.insert(0);
+		for (int i = 0; i < len;) {
+			if (i + 1 < len) {
+				chains.find(i + 1, maxSize, lastSource, next);
+			} else {
+				next.size = 0;
+			}
+			if (match.getSavings(lastSource) > 0 && match.getSavings(lastSource) >= next.getSavings(lastSource)) {
+				parts.add(new Part(match.source, i, match.size));
+				lastSource = match.source;
+				int end = i + match.size;
+				for (int p = i + 1; p < end; p++) {
+					chains.insert(p);
+				}
+				i = end;
+				if (i < len) {
+					chains.find(i, maxSize, lastSource, match);
+					chains.insert(i);
+				}
+			} else {
+				i++;
+				Match tmp = match;
+				match = next;
+				next = tmp;
+				if (i < len) {
+					chains.insert(i);
+				}
+			}
+		}
+		return parts;
+	}
+
+	private static List<Part> parseOptimal(byte[] dump, HashChains chains, int maxSize) {
+		int len = dump.length;
+		// The smallest size of the result up to a position and how it got there
+		int[] costs = new int[len + 1];
+		int[] sources = new int[len + 1];
+		int[] sizes = new int[len + 1];
+		int[] lastSources = new int[len + 1];
+		Arrays.fill(costs, Integer.MAX_VALUE);
+		costs[0] = 0;
+		lastSources[0] = -1;
+		Match match = new Match();
+
+		for (int i = 0; i < len; i++) {
+			int cost = costs[i];
+			int lastSource = lastSources[i];
+			if (cost + 1 < costs[i + 1]) {
+				costs[i + 1] = cost + 1;
+				sizes[i + 1] = 0;
+				lastSources[i + 1] = lastSource;
+			}
+
+			chains.find(i, maxSize, lastSource, match);
+			if (match.size >= MIN_MATCH_SIZE) {
+				int matchCost = cost + (match.source == lastSource ? MATCH_COST : MATCH_COST + SOURCE_COST);
+				for (int size = MIN_MATCH_SIZE; size <= match.size; size++) {
+					relax(costs, sources, sizes, lastSources, i + size, matchCost, match.source, size);
+				}
+			}
+			if (match.lastSourceSize >= MIN_MATCH_SIZE) {
+				int matchCost = cost + MATCH_COST;
+				for (int size = MIN_MATCH_SIZE; size <= match.lastSourceSize; size++) {
+					relax(costs, sources, sizes, lastSources, i + size, matchCost, lastSource, size);
+				}
+			}
+			chains.insert(i);
+		}
+
+		LinkedList<Part> parts = new LinkedList<>();
+		for (int i = len; i > 0;) {
+			int size = sizes[i];
+			if (size == 0) {
+				i--;
+			} else {
+				i -= size;
+				parts.addFirst(new Part(sources[i + size], i, size));
+			}
+		}
+		return new ArrayList<>(parts);
+	}
+
+	private static void relax(int[] costs, int[] sources, int[] sizes, int[] lastSources, int pos, int cost,
+			int source, int size) {
+		if (cost < costs[pos]) {
+			costs[pos] = cost;
+			sources[pos] = source;
+			sizes[pos] = size;
+			lastSources[pos] = source;
+		}
+	}
+
 	private static void fillWindow(byte[] dump, byte[] window, int pos) {
 		System.arraycopy(dump, pos, window, 0, window.length);
 	}
@@ -569,4 +872,111 @@ public class Compressor {
 		}
 	}
 
+	/**
+	 * The longest match found for a position.
+	 */
+	private static class Match {
+
+		int source;
+		int size;
+		int lastSourceSize;
+
+		/**
+		 * Returns how many bytes the best of the found matches saves.
+		 * 
+		 * @param lastSource the source of the previous match
+		 * @return the number of bytes
+		 */
+		int getSavings(int lastSource) {
+			int savings = size - (source == lastSource ? MATCH_COST : MATCH_COST + SOURCE_COST);
+			int lastSavings = lastSourceSize - MATCH_COST;
+			if (lastSavings > savings && lastSourceSize >= MIN_MATCH_SIZE) {
+				// Reusing the previous source is better, so take that one
+				source = lastSource;
+				size = lastSourceSize;
+				return lastSavings;
+			}
+			return size >= MIN_MATCH_SIZE ? savings : 0;
+		}
+	}
+
+	/**
+	 * Hash chains that link each position to the previous positions that start
+	 * with the same bytes.
+	 */
+	private static class HashChains {
+
+		private byte[] dump;
+		private int[] head = new int[1 << HASH_BITS];
+		private int[] prev;
+		private int maxChain;
+
+		HashChains(byte[] dump, int maxChain) {
+			this.dump = dump;
+			this.maxChain = maxChain;
+			prev = new int[dump.length];
+			Arrays.fill(head, -1);
+		}
+
+		void insert(int pos) {
+			if (pos + MIN_MATCH_SIZE <= dump.length) {
+				int hash = hash(pos);
+				prev[pos] = head[hash];
+				head[hash] = pos;
+			}
+		}
+
+		/**
+		 * Finds the longest match for a position among the positions inserted so far
+		 * and the length of the match with the previous match's source.
+		 * 
+		 * @param pos        the position
+		 * @param maxSize    the maximum length of a match
+		 * @param lastSource the source of the previous match or -1
+		 * @param match      the match to store the results in
+		 */
+		void find(int pos, int maxSize, int lastSource, Match match) {
+			match.size = 0;
+			match.source = -1;
+			match.lastSourceSize = 0;
+			int left = Math.min(maxSize, dump.length - pos);
+			if (left < MIN_MATCH_SIZE) {
+				return;
+			}
+			if (lastSource >= 0) {
+				match.lastSourceSize = getSize(lastSource, pos, Math.min(left, pos - lastSource));
+			}
+			int best = MIN_MATCH_SIZE - 1;
+			int cnt = 0;
+			for (int source = head[hash(pos)]; source >= 0 && cnt < maxChain; source = prev[source], cnt++) {
+				int max = Math.min(left, pos - source);
+				if (max <= best || dump[source + best] != dump[pos + best]) {
+					continue;
+				}
+				int size = getSize(source, pos, max);
+				if (size > best) {
+					best = size;
+					match.size = size;
+					match.source = source;
+					if (size == left) {
+						break;
+					}
+				}
+			}
+		}
+
+		private int getSize(int source, int pos, int max) {
+			int size = 0;
+			while (size < max && dump[source + size] == dump[pos + size]) {
+				size++;
+			}
+			return size;
+		}
+
+		private int hash(int pos) {
+			int val = (dump[pos] & 0xff) | (dump[pos + 1] & 0xff) << 8 | (dump[pos + 2] & 0xff) << 16
+					| (dump[pos + 3] & 0xff) << 24;
+			return (val * 0x9E3779B1) >>> (32 - HASH_BITS);
+		}
+	}
 }
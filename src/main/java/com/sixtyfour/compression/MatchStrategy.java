@@ -0,0 +1,33 @@
+package com.sixtyfour.compression;
+
+/**
+ * Enumeration for the different ways in which the compressor can find repeated
+ * byte sequences. All of them create the same format, so the result can be
+ * decompressed by the same decompressor.
+ *
+ * @author EgonOlsen
+ */
+public enum MatchStrategy {
+
+	/**
+	 * The original sliding window. It compares a window of bytes with every
+	 * position of the data and then moves on. The window size limits the length
+	 * of a match.
+	 */
+	WINDOW,
+	/**
+	 * Finds the longest match for each position by looking up earlier positions
+	 * that start with the same bytes in hash chains. A match will be taken unless
+	 * the next position has a better one. The window size limits the length of a
+	 * match.
+	 */
+	LAZY,
+	/**
+	 * Uses the same hash chains as LAZY, but chooses the matches so that the
+	 * compressed result gets as small as possible. This is slower than LAZY, but
+	 * usually still faster than WINDOW. The window size limits the length of a
+	 * match.
+	 */
+	OPTIMAL;
+
+}
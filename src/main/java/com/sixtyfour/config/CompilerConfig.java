@@ -1,5 +1,6 @@
 package com.sixtyfour.config;
 
+import com.sixtyfour.cbmnative.CompilerMetrics;
 import com.sixtyfour.cbmnative.ProgressListener;
 
 /**
@@ -37,9 +38,11 @@ public class CompilerConfig {
 	private boolean arrayOptimizations = false;
 
 	private String symbolTable = null;
+	private String cacheDirectory = null;
 	private int threads = -1;
 	private LoopMode loopMode = LoopMode.EXECUTE;
 	private ProgressListener progressListener;
+	private CompilerMetrics metrics;
 
 	private RuntimeAddition runtimeAddition = null;
 
@@ -186,6 +189,20 @@ public class CompilerConfig {
 		this.progressListener = progressListener;
 	}
 
+	public CompilerMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics that the native compiler will fill while compiling a
+	 * program. Default is null, which means that no metrics will be collected.
+	 * 
+	 * @param metrics the metrics or null
+	 */
+	public void setMetrics(CompilerMetrics metrics) {
+		this.metrics = metrics;
+	}
+
 	public boolean isFloatOptimizations() {
 		return floatOptimizations;
 	}
@@ -266,6 +283,20 @@ public class CompilerConfig {
 		this.flipCasing = flipCasing;
 	}
 
+	public String getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	/**
+	 * Sets a directory in which compiled code will be cached between compiler
+	 * runs. Default is null, which means that nothing will be cached.
+	 * 
+	 * @param cacheDirectory the directory or null
+	 */
+	public void setCacheDirectory(String cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
 	public int getThreads() {
 		return threads;
 	}
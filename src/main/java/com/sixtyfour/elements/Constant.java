@@ -22,6 +22,9 @@ public class Constant<T> implements Atom {
 	/** The type. */
 	private Type type;
 
+	/** The value as a number, if it is one */
+	private double number;
+
 	/**
 	 * Instantiates a new constant.
 	 * 
@@ -29,6 +32,9 @@ public class Constant<T> implements Atom {
 	 */
 	public Constant(T value) {
 		this.value = value;
+		if (VarUtils.isNumber(value)) {
+			number = VarUtils.getDouble(value);
+		}
 		if (VarUtils.isInteger(value)) {
 			type = Type.INTEGER;
 		} else if (VarUtils.isFloat(value)) {
@@ -105,6 +111,19 @@ public class Constant<T> implements Atom {
 		return value;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.sixtyfour.parser.Atom#evalNumber(com.sixtyfour.system.Machine)
+	 */
+	@Override
+	public double evalNumber(Machine machine) {
+		if (type == Type.STRING) {
+			return Atom.super.evalNumber(machine);
+		}
+		return number;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -35,9 +35,36 @@ public class Variable implements Atom {
 	/** The array. */
 	private boolean array = false;
 
-	/** The value. */
+	/**
+	 * The value of a STRING variable or the boxed value of a numeric one. For
+	 * numeric variables, this will be created on demand only.
+	 */
 	private Object value;
 
+	/** The value of a REAL variable. */
+	private double realValue;
+
+	/**
+	 * True, if the value of a REAL variable has been assigned as a double instead
+	 * of a float.
+	 */
+	private boolean doublePrecision;
+
+	/** The value of an INTEGER variable. */
+	private int intValue;
+
+	/** The values of a REAL array. */
+	private double[] realValues;
+
+	/** Marks the values of a REAL array that have been assigned as doubles. */
+	private boolean[] doublePrecisions;
+
+	/** The values of an INTEGER array. */
+	private int[] intValues;
+
+	/** The values of a STRING array. */
+	private String[] stringValues;
+
 	/** The dimensions. */
 	private int[] dimensions;
 
@@ -57,10 +84,18 @@ public class Variable implements Atom {
 	 *                   dimensions.
 	 */
 	public Variable(String name, List<Object> values, int... dimensions) {
-		this(name, values == null ? createEmptyArray(dimensions) : (Object) values);
+		this(name, (Object) null);
 		this.dimensions = dimensions;
 		array = true;
 		this.setName(name.endsWith("[]") ? name : (name + "[]"));
+		createArray();
+		if (values != null) {
+			for (int i = 0; i < Math.min(values.size(), elements()); i++) {
+				if (values.get(i) != null) {
+					setArrayValue(i, values.get(i));
+				}
+			}
+		}
 	}
 
 	/**
@@ -160,31 +195,21 @@ public class Variable implements Atom {
 	/**
 	 * Clears the variable by setting it back to its default.
 	 */
-	@SuppressWarnings("unchecked")
 	public void clear() {
 		if (array) {
-			List<Object> vals = ((List<Object>) value);
-			vals.clear();
-			for (int i = 0; i < calcSize(dimensions); i++) {
-				if (type == Type.STRING) {
-					vals.add("");
-				}
-				if (type == Type.INTEGER) {
-					vals.add(0);
-				}
-				if (type == Type.REAL) {
-					vals.add(0f);
-				}
-			}
+			createArray();
 		} else {
 			if (type == Type.STRING) {
 				value = "";
 			}
 			if (type == Type.INTEGER) {
-				value = 0;
+				intValue = 0;
+				value = null;
 			}
 			if (type == Type.REAL) {
-				value = 0f;
+				realValue = 0;
+				doublePrecision = false;
+				value = null;
 			}
 		}
 	}
@@ -295,13 +320,12 @@ public class Variable implements Atom {
 	 * 
 	 * @see java.lang.Object#toString()
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	public String toString() {
-		if (!array || value == null) {
-			return name + "{" + value + "/" + this.isConstant() + "}";
+		if (!array) {
+			return name + "{" + getInternalValue() + "/" + this.isConstant() + "}";
 		} else {
-			return name + "{" + Arrays.toString(((List<Object>) value).toArray()) + "}";
+			return name + "{" + Arrays.toString(getArrayValues().toArray()) + "}";
 		}
 	}
 
@@ -311,12 +335,17 @@ public class Variable implements Atom {
 	 * 
 	 * @return the number of elements
 	 */
-	@SuppressWarnings("unchecked")
 	public int elements() {
 		if (!array) {
 			return 1;
 		}
-		return ((List<Object>) value).size();
+		if (type == Type.REAL) {
+			return realValues.length;
+		}
+		if (type == Type.INTEGER) {
+			return intValues.length;
+		}
+		return stringValues.length;
 	}
 
 	/*
@@ -326,14 +355,32 @@ public class Variable implements Atom {
 	 */
 	@Override
 	public Object eval(Machine machine) {
-		return value;
+		return getInternalValue();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.sixtyfour.parser.Atom#evalNumber(com.sixtyfour.system.Machine)
+	 */
+	@Override
+	public double evalNumber(Machine machine) {
+		if (!array && !system) {
+			if (type == Type.REAL) {
+				return realValue;
+			}
+			if (type == Type.INTEGER) {
+				return intValue;
+			}
+		}
+		return Atom.super.evalNumber(machine);
 	}
 
 	/**
 	 * @return
 	 */
 	public Object evalFromCode() {
-		return value;
+		return getInternalValue();
 	}
 
 	public boolean isReadOnly() {
@@ -349,7 +396,7 @@ public class Variable implements Atom {
 		if (array) {
 			throw new RuntimeException("Not a simple type: " + this);
 		}
-		return value;
+		return getInternalValue();
 	}
 
 	/**
@@ -361,24 +408,108 @@ public class Variable implements Atom {
 		if (array) {
 			throw new RuntimeException("Not a simple type: " + this);
 		}
-		if (value == this.value || value.equals(this.value)) {
+		if (value == this.value) {
+			return;
+		}
+		if (type == Type.STRING) {
+			this.value = value;
 			return;
 		}
+		if (!VarUtils.isNumber(value)) {
+			throw new RuntimeException("Type mismatch error: " + name + "/" + value);
+		}
 		// Convert into proper format
-		if (type == Type.INTEGER && (VarUtils.isFloat(value) || VarUtils.isDouble(value))) {
-			value = IntegerC.valueOf(VarUtils.getInt(value));
-		} else if (type == Type.REAL && VarUtils.isInteger(value)) {
-			value = VarUtils.getFloat(value);
+		if (type == Type.INTEGER) {
+			intValue = VarUtils.getInt(value);
+			this.value = VarUtils.isInteger(value) ? value : null;
+		} else if (VarUtils.isDouble(value)) {
+			realValue = VarUtils.getDouble(value);
+			doublePrecision = true;
+			this.value = value;
+		} else {
+			realValue = VarUtils.getFloat(value);
+			doublePrecision = false;
+			this.value = VarUtils.isFloat(value) ? value : null;
+		}
+	}
+
+	/**
+	 * Sets the value of a non-array variable to an int. This is the same as
+	 * calling setValue(Object) with an Integer, but it doesn't box the value.
+	 * 
+	 * @param value the new value
+	 */
+	public void setValue(int value) {
+		if (array || system || type == Type.STRING) {
+			setValue((Object) Integer.valueOf(value));
+			return;
+		}
+		if (type == Type.INTEGER) {
+			intValue = value;
+		} else {
+			realValue = (float) value;
+			doublePrecision = false;
+		}
+		this.value = null;
+	}
+
+	/**
+	 * Sets the value of a non-array variable to a float. This is the same as
+	 * calling setValue(Object) with a Float, but it doesn't box the value.
+	 * 
+	 * @param value the new value
+	 */
+	public void setValue(float value) {
+		if (array || system || type == Type.STRING) {
+			setValue((Object) Float.valueOf(value));
+			return;
+		}
+		if (type == Type.INTEGER) {
+			intValue = (int) value;
+		} else {
+			realValue = value;
+			doublePrecision = false;
+		}
+		this.value = null;
+	}
+
+	/**
+	 * Sets the value of a non-array variable to a double. This is the same as
+	 * calling setValue(Object) with a Double, but it doesn't box the value.
+	 * 
+	 * @param value the new value
+	 */
+	public void setValue(double value) {
+		if (array || system || type == Type.STRING) {
+			setValue((Object) Double.valueOf(value));
+			return;
+		}
+		if (type == Type.INTEGER) {
+			intValue = (int) value;
+		} else {
+			realValue = value;
+			doublePrecision = true;
 		}
-		this.value = value;
+		this.value = null;
 	}
 
 	/**
-	 * Returns the actual value object regardless of type.
+	 * Returns the actual value object regardless of type. For arrays, this returns
+	 * a copy of the values in form of a list.
 	 * 
 	 * @return the value object
 	 */
 	public Object getInternalValue() {
+		if (array) {
+			return getArrayValues();
+		}
+		if (value == null) {
+			if (type == Type.INTEGER) {
+				value = IntegerC.valueOf(intValue);
+			} else if (type == Type.REAL) {
+				value = doublePrecision ? (Object) Double.valueOf(realValue) : (Object) Float.valueOf((float) realValue);
+			}
+		}
 		return value;
 	}
 
@@ -388,32 +519,25 @@ public class Variable implements Atom {
 	 * @param pos the position in the array
 	 * @return the value
 	 */
-	@SuppressWarnings("unchecked")
 	public Object getValue(int... pos) {
-		if (!array) {
-			throw new RuntimeException("Not an array type: " + this);
-		}
-		int ap = 0;
-		int cnt = 0;
+		return getArrayValue(getArrayPosition(pos));
+	}
 
-		if (pos.length != dimensions.length) {
-			throw new RuntimeException(
-					"Array indices don't match: " + this + "/" + pos.length + "/" + dimensions.length);
+	/**
+	 * Gets the value of an element of a numeric array without boxing it.
+	 * 
+	 * @param pos the position in the array
+	 * @return the value
+	 */
+	public double getNumber(int... pos) {
+		int ap = getArrayPosition(pos);
+		if (type == Type.REAL) {
+			return realValues[ap];
 		}
-
-		if (pos.length == 1) {
-			// Fast path for one-dimensional arrays
-			ap = pos[0];
-		} else {
-			int m = 1;
-			for (int p : pos) {
-				ap += m * p;
-				m *= (dimensions[cnt] + 1);
-				// System.out.println(ap+"/"+m+"/"+p);
-				cnt++;
-			}
+		if (type == Type.INTEGER) {
+			return intValues[ap];
 		}
-		return ((List<Object>) value).get(ap);
+		throw new RuntimeException("Type mismatch error: " + name);
 	}
 
 	public int[] getDimensions() {
@@ -427,42 +551,68 @@ public class Variable implements Atom {
 	 * @param pos the position in the array
 	 * @return the value
 	 */
-	@SuppressWarnings("unchecked")
 	public Object setValue(Object val, int... pos) {
-		if (!array) {
-			throw new RuntimeException("Not an array type: " + this);
-		}
-		int ap = 0;
-		int cnt = 0;
-
-		if (pos.length != dimensions.length) {
-			throw new RuntimeException("Array indices don't match: " + this);
-		}
+		int ap = getArrayPosition(pos);
+		Object old = getArrayValue(ap);
+		setArrayValue(ap, val);
+		return old;
+	}
 
-		if (pos.length == 1) {
-			// Fast path for one-dimensional arrays
-			ap = pos[0];
+	/**
+	 * Sets the value of an array element to an int. This is the same as calling
+	 * setValue(Object, int...) with an Integer, but it doesn't box the value.
+	 * 
+	 * @param val the value
+	 * @param pos the position in the array
+	 */
+	public void setValue(int val, int... pos) {
+		int ap = getArrayPosition(pos);
+		if (type == Type.INTEGER) {
+			intValues[ap] = val;
+		} else if (type == Type.REAL) {
+			realValues[ap] = (float) val;
+			doublePrecisions[ap] = false;
 		} else {
-			int m = 1;
-			for (int p : pos) {
-				ap += m * p;
-				m *= (dimensions[cnt] + 1);
-				cnt++;
-			}
+			setArrayValue(ap, Integer.valueOf(val));
 		}
+	}
 
-		if (type == Type.INTEGER && (VarUtils.isFloat(val) || VarUtils.isDouble(val))) {
-			val = IntegerC.valueOf(VarUtils.getInt(val));
-		} else if (type == Type.REAL && VarUtils.isInteger(val)) {
-			val = VarUtils.getFloat(val);
+	/**
+	 * Sets the value of an array element to a float. This is the same as calling
+	 * setValue(Object, int...) with a Float, but it doesn't box the value.
+	 * 
+	 * @param val the value
+	 * @param pos the position in the array
+	 */
+	public void setValue(float val, int... pos) {
+		int ap = getArrayPosition(pos);
+		if (type == Type.INTEGER) {
+			intValues[ap] = (int) val;
+		} else if (type == Type.REAL) {
+			realValues[ap] = val;
+			doublePrecisions[ap] = false;
+		} else {
+			setArrayValue(ap, Float.valueOf(val));
 		}
+	}
 
-		List<Object> ovalue = (List<Object>) value;
-
-		if (ap >= ovalue.size() || ap < 0) {
-			throw new RuntimeException("Array index out of range: " + name + "(" + val + "/" + ovalue.size() + ")");
+	/**
+	 * Sets the value of an array element to a double. This is the same as calling
+	 * setValue(Object, int...) with a Double, but it doesn't box the value.
+	 * 
+	 * @param val the value
+	 * @param pos the position in the array
+	 */
+	public void setValue(double val, int... pos) {
+		int ap = getArrayPosition(pos);
+		if (type == Type.INTEGER) {
+			intValues[ap] = (int) val;
+		} else if (type == Type.REAL) {
+			realValues[ap] = val;
+			doublePrecisions[ap] = true;
+		} else {
+			setArrayValue(ap, Double.valueOf(val));
 		}
-		return ovalue.set(ap, val);
 	}
 
 	/**
@@ -473,12 +623,15 @@ public class Variable implements Atom {
 	 */
 	public float inc(float value) {
 		if (type == Type.INTEGER) {
-			int ret = (int) (VarUtils.getInt(this.value) + value);
-			this.value = IntegerC.valueOf(ret);
+			int ret = (int) (intValue + value);
+			intValue = ret;
+			this.value = null;
 			return ret;
 		} else if (type == Type.REAL) {
-			float ret = VarUtils.getFloat(this.value) + value;
-			this.value = ret;
+			float ret = (float) realValue + value;
+			realValue = ret;
+			doublePrecision = false;
+			this.value = null;
 			return ret;
 		}
 		throw new RuntimeException("Type mismatch error: " + this);
@@ -519,8 +672,6 @@ public class Variable implements Atom {
 			return null;
 		}
 
-		machine.getJit().addVariable(this);
-
 		String nam = VarUtils.relabel(name);
 		if (type == Type.REAL) {
 			return "((Number) " + nam + ".evalFromCode()).floatValue()";
@@ -558,11 +709,84 @@ public class Variable implements Atom {
 		return size;
 	}
 
-	private static Object createEmptyArray(int[] dimensions) {
+	private void createArray() {
 		int size = calcSize(dimensions);
+		if (type == Type.REAL) {
+			realValues = new double[size];
+			doublePrecisions = new boolean[size];
+		} else if (type == Type.INTEGER) {
+			intValues = new int[size];
+		} else {
+			stringValues = new String[size];
+			Arrays.fill(stringValues, "");
+		}
+	}
+
+	private int getArrayPosition(int... pos) {
+		if (!array) {
+			throw new RuntimeException("Not an array type: " + this);
+		}
+		int ap = 0;
+		int cnt = 0;
+
+		if (pos.length != dimensions.length) {
+			throw new RuntimeException(
+					"Array indices don't match: " + this + "/" + pos.length + "/" + dimensions.length);
+		}
+
+		if (pos.length == 1) {
+			// Fast path for one-dimensional arrays
+			ap = pos[0];
+		} else {
+			int m = 1;
+			for (int p : pos) {
+				ap += m * p;
+				m *= (dimensions[cnt] + 1);
+				cnt++;
+			}
+		}
+
+		if (ap >= elements() || ap < 0) {
+			throw new RuntimeException("Array index out of range: " + name + "(" + ap + "/" + elements() + ")");
+		}
+		return ap;
+	}
+
+	private Object getArrayValue(int ap) {
+		if (type == Type.REAL) {
+			return doublePrecisions[ap] ? (Object) Double.valueOf(realValues[ap])
+					: (Object) Float.valueOf((float) realValues[ap]);
+		}
+		if (type == Type.INTEGER) {
+			return IntegerC.valueOf(intValues[ap]);
+		}
+		return stringValues[ap];
+	}
+
+	private void setArrayValue(int ap, Object val) {
+		if (type == Type.STRING) {
+			stringValues[ap] = val != null ? val.toString() : null;
+			return;
+		}
+		if (!VarUtils.isNumber(val)) {
+			throw new RuntimeException("Type mismatch error: " + name + "/" + val);
+		}
+		if (type == Type.INTEGER) {
+			intValues[ap] = VarUtils.getInt(val);
+		} else if (VarUtils.isDouble(val)) {
+			realValues[ap] = VarUtils.getDouble(val);
+			doublePrecisions[ap] = true;
+		} else {
+			realValues[ap] = VarUtils.getFloat(val);
+			doublePrecisions[ap] = false;
+		}
+	}
+
+	private List<Object> getArrayValues() {
+		int size = elements();
 		List<Object> ret = new ArrayList<Object>(size);
 		for (int i = 0; i < size; i++) {
-			ret.add(null);
+			ret.add(getArrayValue(i));
 		}
 		return ret;
 	}
@@ -571,6 +795,16 @@ public class Variable implements Atom {
 		return system;
 	}
 
+	/**
+	 * Returns true, if the value of this (non-array) REAL variable has been
+	 * assigned as a double instead of a float.
+	 * 
+	 * @return is it?
+	 */
+	public boolean isDoublePrecision() {
+		return doublePrecision;
+	}
+
 	public void setSystem(boolean system) {
 		this.system = system;
 	}
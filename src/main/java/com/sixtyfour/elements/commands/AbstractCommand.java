@@ -184,6 +184,16 @@ public abstract class AbstractCommand implements Command {
 		return null;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see sixtyfour.elements.commands.Command#setLineCnt(int)
+	 */
+	@Override
+	public void setLineCnt(int lineCnt) {
+		this.lineCnt = lineCnt;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
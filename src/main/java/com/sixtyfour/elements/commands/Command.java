@@ -111,4 +111,13 @@ public interface Command extends Atom {
 	 */
 	boolean isOverride();
 
+	/**
+	 * Moves the command to another line counter without parsing it again. This is
+	 * needed, if a line has been reused by an incremental compile but its position
+	 * in the program has changed.
+	 * 
+	 * @param lineCnt the new line counter
+	 */
+	void setLineCnt(int lineCnt);
+
 }
@@ -23,6 +23,9 @@ public class Def extends AbstractCommand {
 	/** The var name. */
 	private String varName = null;
 
+	/** The var slot. */
+	private int varSlot = -1;
+
 	/** The fn name. */
 	private String fnName = null;
 
@@ -107,7 +110,8 @@ public class Def extends AbstractCommand {
 		// System.out.println("New DEF-Term: " + term + " - " + fnName + " - " +
 		// varName);
 		this.term = Parser.getTerm(config, term, machine, false, true, null);
-		machine.add(new Variable(varName, 0f));
+		Variable var = machine.add(new Variable(varName, 0f));
+		varSlot = machine.getSlot(var.getUpperCaseName());
 		return null;
 	}
 
@@ -160,6 +164,15 @@ public class Def extends AbstractCommand {
 		return varName;
 	}
 
+	/**
+	 * Gets the slot of the var in the machine.
+	 * 
+	 * @return the var slot
+	 */
+	public int getVarSlot() {
+		return varSlot;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -29,6 +29,12 @@ public class Dim extends AbstractCommand {
 	/** The terms. */
 	private Map<String, List<Atom>> terms;
 
+	/** The slots of the vars. */
+	private int[] slots;
+
+	/** The terms of the vars in the same order as the vars. */
+	private List<List<Atom>> varTerms;
+
 	/**
 	 * Instantiates a new dim.
 	 */
@@ -85,6 +91,13 @@ public class Dim extends AbstractCommand {
 				terms.put(vary.getName(), var.getTerms());
 			}
 		}
+		slots = new int[this.vars.size()];
+		varTerms = new ArrayList<List<Atom>>();
+		for (int i = 0; i < slots.length; i++) {
+			Variable vary = this.vars.get(i);
+			slots[i] = machine.getSlot(vary.getUpperCaseName());
+			varTerms.add(terms.get(vary.getName()));
+		}
 		return null;
 	}
 
@@ -130,7 +143,7 @@ public class Dim extends AbstractCommand {
 		for (int i = 0; i < vars.size(); i++) {
 			Variable var = vars.get(i);
 			if (!var.isArray()) {
-				List<Atom> pars = terms.get(var.getName());
+				List<Atom> pars = varTerms.get(i);
 				if (pars == null) {
 					throw new RuntimeException(
 							"Array dimensions missing @ line " + this.lineNumber + ": " + var.getName() + "/" + this);
@@ -141,8 +154,8 @@ public class Dim extends AbstractCommand {
 					pis[cnt++] = VarUtils.getInt(par.eval(machine));
 				}
 				Variable vary = new Variable(var.getName(), null, pis);
-				if (machine.getVariable(vary.getName()) != null) {
-					Variable av = machine.getVariable(vary.getName());
+				Variable av = machine.getVariable(slots[i]);
+				if (av != null) {
 					if (!av.isArray()) {
 						redimed(var);
 					} else {
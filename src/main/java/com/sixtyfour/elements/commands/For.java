@@ -23,6 +23,9 @@ public class For extends AbstractCommand {
 	/** The var. */
 	private Variable var;
 
+	/** The var's slot or -1, if it hasn't been resolved yet. */
+	private int slot = -1;
+
 	/** The end term. */
 	private Term endTerm;
 
@@ -61,6 +64,7 @@ public class For extends AbstractCommand {
 	 */
 	public void setVar(Variable var) {
 		this.var = var;
+		slot = -1;
 	}
 
 	/*
@@ -109,6 +113,7 @@ public class For extends AbstractCommand {
 
 		String assignment = linePart.substring(0, posTo);
 		var = Parser.getVariable(assignment, machine);
+		slot = machine.getSlot(var.getUpperCaseName());
 		term = Parser.getTerm(config, assignment, machine, true, true);
 
 		if (var.getType() == Type.INTEGER) {
@@ -157,10 +162,13 @@ public class For extends AbstractCommand {
 	 */
 	@Override
 	public BasicProgramCounter execute(CompilerConfig config, Machine machine) {
-		var = machine.add(var);
+		if (slot == -1) {
+			slot = machine.getSlot(var.getUpperCaseName());
+		}
+		var = machine.add(slot, var);
 		var.setValue(term.eval(machine));
-		end = VarUtils.getFloat(endTerm.eval(machine));
-		step = VarUtils.getFloat(stepTerm.eval(machine));
+		end = (float) endTerm.evalNumber(machine);
+		step = (float) stepTerm.evalNumber(machine);
 
 		machine.pushFor(this);
 		running = true;
@@ -27,6 +27,9 @@ public class Let extends AbstractCommand implements Assignment {
 	/** The var. */
 	private Variable var;
 
+	/** The var's slot or -1, if it hasn't been resolved yet. */
+	private int slot = -1;
+
 	/** The index term. */
 	private Term indexTerm;
 
@@ -56,6 +59,29 @@ public class Let extends AbstractCommand implements Assignment {
 	 */
 	public void setVar(Variable var) {
 		this.var = var;
+		slot = -1;
+	}
+
+	/**
+	 * Gets the slot of the var in the machine that parsed this command.
+	 * 
+	 * @param machine the machine
+	 * @return the slot
+	 */
+	public int getSlot(Machine machine) {
+		if (slot == -1) {
+			slot = machine.getSlot(var.getUpperCaseName());
+		}
+		return slot;
+	}
+
+	/**
+	 * Gets the index term, if the assignment targets an array element.
+	 * 
+	 * @return the index term or null
+	 */
+	public Term getIndexTerm() {
+		return indexTerm;
 	}
 
 	/*
@@ -91,6 +117,7 @@ public class Let extends AbstractCommand implements Assignment {
 		VariableAndIndex vai = Parser.getIndexTerm(config, var, linePart, machine, true);
 		indexTerm = vai.getIndexTerm();
 		var = vai.getVariable();
+		slot = machine.getSlot(var.getUpperCaseName());
 		term = Parser.getTerm(config, linePart, machine, true, true);
 		if (term.getOperator().isDelimiter()) {
 			syntaxError(linePart);
@@ -133,17 +160,25 @@ public class Let extends AbstractCommand implements Assignment {
 	 */
 	@Override
 	public BasicProgramCounter execute(CompilerConfig config, Machine machine) {
-		var = machine.add(var);
+		var = machine.add(getSlot(machine), var);
 		if (indexTerm == null) {
 			// no array
-			var.setValue(term.eval(machine));
+			if (term.isCalculation()) {
+				var.setValue(term.evalNumber(machine));
+			} else {
+				var.setValue(term.eval(machine));
+			}
 		} else {
 			// array
 			List<Atom> pars = Parser.getParameters(indexTerm);
 			for (int i = 0; i < pars.size(); i++) {
-				pis[i] = VarUtils.getInt(pars.get(i).eval(machine));
+				pis[i] = (int) pars.get(i).evalNumber(machine);
+			}
+			if (term.isCalculation()) {
+				var.setValue(term.evalNumber(machine), pis);
+			} else {
+				var.setValue(term.eval(machine), pis);
 			}
-			var.setValue(term.eval(machine), pis);
 		}
 		return null;
 	}
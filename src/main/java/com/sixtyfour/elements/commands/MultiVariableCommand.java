@@ -29,6 +29,9 @@ public abstract class MultiVariableCommand extends AbstractCommand {
 	/** The index terms. */
 	protected List<Term> indexTerms = new ArrayList<Term>();
 
+	/** The slots of the vars. */
+	private int[] slots = new int[0];
+
 	/**
 	 * Instantiates a new multi variable command.
 	 * 
@@ -148,7 +151,7 @@ public abstract class MultiVariableCommand extends AbstractCommand {
 	final protected Variable getVariable(Machine machine, int i) {
 		Variable var = vars.get(i);
 		Variable oldVar = var;
-		var = machine.add(var);
+		var = machine.add(slots[i], var);
 		if (var != oldVar) {
 			vars.set(i, var);
 		}
@@ -216,6 +219,10 @@ public abstract class MultiVariableCommand extends AbstractCommand {
 			vars.add(var);
 			machine.trackVariableUsage(var, false);
 		}
+		slots = new int[vars.size()];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = machine.getSlot(vars.get(i).getUpperCaseName());
+		}
 	}
 
 }
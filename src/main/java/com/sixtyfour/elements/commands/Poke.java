@@ -83,15 +83,42 @@ public class Poke extends AbstractCommand {
 	 */
 	@Override
 	public BasicProgramCounter execute(CompilerConfig config, Machine machine) {
-		int memAddr = VarUtils.getInt(addr.eval(machine));
-		int vally = VarUtils.getInt(val.eval(machine));
+		poke(machine, VarUtils.getInt(addr.eval(machine)), VarUtils.getInt(val.eval(machine)));
+		return null;
+	}
+
+	/**
+	 * Writes a value into memory.
+	 * 
+	 * @param machine the machine
+	 * @param memAddr the address
+	 * @param vally   the value
+	 */
+	public void poke(Machine machine, int memAddr, int vally) {
 		if (vally < 0 || vally > 255 || memAddr < 0 || memAddr > 65535) {
 			throw new RuntimeException("Illegal quantity error: " + this + "/" + vally + "/" + memAddr);
 		}
 
 		machine.getRam()[memAddr] = vally;
 		machine.getMemoryListener().poke(memAddr, vally);
-		return null;
+	}
+
+	/**
+	 * Gets the address.
+	 * 
+	 * @return the address
+	 */
+	public Atom getAddr() {
+		return addr;
+	}
+
+	/**
+	 * Gets the value.
+	 * 
+	 * @return the value
+	 */
+	public Atom getVal() {
+		return val;
 	}
 
 	@Override
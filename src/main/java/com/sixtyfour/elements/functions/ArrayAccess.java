@@ -23,6 +23,9 @@ public class ArrayAccess extends AbstractFunction {
 	/** The variable name. */
 	private String variableName;
 
+	/** The variable's slot. */
+	private int slot;
+
 	/** The variable type. */
 	private Type variableType;
 
@@ -54,7 +57,7 @@ public class ArrayAccess extends AbstractFunction {
 	@Override
 	public Object eval(Machine machine) {
 		fillParameterIndices(machine);
-		Variable vary = machine.getVariableUpperCase(variableName);
+		Variable vary = machine.getVariable(slot);
 		if (vary == null) {
 			// No such array...revert to a constant
 			if (variableType.equals(Type.REAL)) {
@@ -72,6 +75,25 @@ public class ArrayAccess extends AbstractFunction {
 		return vary.getValue(pis);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.sixtyfour.parser.Atom#evalNumber(com.sixtyfour.system.Machine)
+	 */
+	@Override
+	public double evalNumber(Machine machine) {
+		if (variableType.equals(Type.STRING)) {
+			return super.evalNumber(machine);
+		}
+		fillParameterIndices(machine);
+		Variable vary = machine.getVariable(slot);
+		if (vary == null) {
+			// No such array...revert to a constant
+			return 0;
+		}
+		return vary.getNumber(pis);
+	}
+
 	@Override
 	public boolean typesMatch() {
 		List<Atom> pars = Parser.getParameters(term);
@@ -125,10 +147,12 @@ public class ArrayAccess extends AbstractFunction {
 	 * Sets the array variable that this function should access.
 	 * 
 	 * @param variable the new variable
+	 * @param machine  the machine that resolves the variable's slot
 	 */
-	public void setVariable(Variable variable) {
+	public void setVariable(Variable variable, Machine machine) {
 		this.variableType = variable.getType();
 		this.variableName = VarUtils.toUpper(variable.getName());
+		this.slot = machine.getSlot(variableName);
 	}
 
 	/*
@@ -157,7 +181,7 @@ public class ArrayAccess extends AbstractFunction {
 			pis = new int[pars.size()];
 		}
 		for (int i = 0; i < pars.size(); i++) {
-			pis[i] = VarUtils.getInt(pars.get(i).eval(machine));
+			pis[i] = (int) pars.get(i).evalNumber(machine);
 		}
 	}
 }
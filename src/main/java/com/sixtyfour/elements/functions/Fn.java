@@ -49,7 +49,7 @@ public class Fn extends AbstractFunction {
 			typeMismatch(this);
 		}
 		Object val = term.eval(machine);
-		Variable placeHolder = machine.getVariable(def.getVarName());
+		Variable placeHolder = machine.getVariable(def.getVarSlot());
 		placeHolder.setValue(VarUtils.getFloat(val));
 		return def.eval(machine);
 	}
@@ -38,7 +38,7 @@ public class Time extends Variable {
 	 */
 	@Override
 	public Object eval(Machine machine) {
-		TimeDate tid = (TimeDate) machine.getVariable("TI$");
+		TimeDate tid = machine.getTimeDate();
 		Date td = tid.getIntervalValue();
 		Calendar cally = Calendar.getInstance();
 		cally.setTime(td);
@@ -42,6 +42,18 @@ public interface Atom {
 	 */
 	Object eval(Machine machine);
 
+	/**
+	 * Evaluates this Atom to a number in the context of the current machine state.
+	 * The default implementation delegates to eval(). Atoms that can provide
+	 * their value without boxing it should override this method.
+	 * 
+	 * @param machine the machine
+	 * @return the result of the evaluation
+	 */
+	default double evalNumber(Machine machine) {
+		return ((Number) eval(machine)).doubleValue();
+	}
+
 	/**
 	 * "Evaluates" an Atom to "native" code.
 	 * 
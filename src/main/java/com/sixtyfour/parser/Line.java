@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.sixtyfour.elements.commands.Command;
+import com.sixtyfour.util.CompiledLine;
 
 /**
  * A line in a BASIC program.
@@ -22,6 +23,12 @@ public class Line {
 	/** The commands in this line in order of appearance */
 	private List<Command> commands = new ArrayList<Command>();
 
+	/** How often the interpreter has entered this line */
+	private int executionCount;
+
+	/** The compiled region that starts with this line, if any */
+	private CompiledLine compiledLine;
+
 	/**
 	 * Instantiates a new line.
 	 * 
@@ -159,4 +166,45 @@ public class Line {
 	public void setLine(String line) {
 		this.line = line;
 	}
+
+	/**
+	 * Increments the number of times that the interpreter has entered this line.
+	 * The JIT compiler uses this count to decide when to compile the line.
+	 * 
+	 * @return the new count
+	 */
+	public int incrementExecutionCount() {
+		return ++executionCount;
+	}
+
+	/**
+	 * Returns the number of times that the interpreter has entered this line.
+	 * 
+	 * @return the count
+	 */
+	public int getExecutionCount() {
+		return executionCount;
+	}
+
+	/**
+	 * Returns the compiled region that starts with this line.
+	 * 
+	 * @return the compiled region or null, if there is none
+	 */
+	public CompiledLine getCompiledLine() {
+		return compiledLine;
+	}
+
+	/**
+	 * Sets the compiled region that starts with this line. Setting it to null
+	 * resets the line's execution count as well.
+	 * 
+	 * @param compiledLine the compiled region or null
+	 */
+	public void setCompiledLine(CompiledLine compiledLine) {
+		this.compiledLine = compiledLine;
+		if (compiledLine == null) {
+			executionCount = 0;
+		}
+	}
 }
@@ -383,7 +383,7 @@ public class Parser {
 		} else {
 			fun.parse(config, linePart.substring(pos + 1, pos2), machine);
 		}
-		fun.setVariable(var);
+		fun.setVariable(var, machine);
 		return fun;
 	}
 
@@ -1,6 +1,5 @@
 package com.sixtyfour.parser;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -12,7 +11,7 @@ import com.sixtyfour.elements.functions.Function;
 import com.sixtyfour.parser.cbmnative.CodeContainer;
 import com.sixtyfour.system.Machine;
 import com.sixtyfour.util.Checker;
-import com.sixtyfour.util.Jitted;
+import com.sixtyfour.util.CompiledTerm;
 
 /**
  * A Term is a (part of a) calculation or a logical operation. Terms have two
@@ -47,9 +46,7 @@ public class Term implements Atom {
 
 	private int callCount = 0;
 
-	private Method jittedMethod = null;
-
-	private Jitted jittedInstance = null;
+	private CompiledTerm compiledTerm = null;
 
 	private boolean jitRun = false;
 
@@ -352,8 +349,8 @@ public class Term implements Atom {
 		try {
 			callCount++;
 			machine.setCurrentOperator(operator);
-			if (jittedMethod != null) {
-				return machine.getJit().call(this);
+			if (compiledTerm != null) {
+				return compiledTerm.evalNumber(machine);
 			}
 			if (operator.isNop()) {
 				if (left == null) {
@@ -367,55 +364,102 @@ public class Term implements Atom {
 					return left.eval(machine).toString() + right.eval(machine).toString();
 				}
 			} else {
-				Number n1 = (Number) left.eval(machine);
-				Number n2 = n1;
-				if (left != right) {
-					n2 = (Number) right.eval(machine);
-				}
+				return calculate(machine);
+			}
+			throw new RuntimeException("Unable to evaluate term: " + this.toString());
+		} finally {
+			afterEval(machine);
+		}
+	}
 
-				double v1 = 0;
-				switch (operator.getType()) {
-				case 0:
-					v1 = Math.pow(n1.doubleValue(), n2.doubleValue());
-					break;
-				case 1:
-					v1 = n1.doubleValue() * n2.doubleValue();
-					break;
-				case 2:
-					if (n2.doubleValue() == 0) {
-						throw new RuntimeException("Division by zero error: " + n1 + "/" + n2);
-					}
-					v1 = n1.doubleValue() / n2.doubleValue();
-					break;
-				case 3:
-					v1 = n1.doubleValue() + n2.doubleValue();
-					break;
-				case 4:
-					v1 = n1.doubleValue() - n2.doubleValue();
-					break;
-				case 5:
-					break;
-				case 6:
-					break;
-				case 7:
-					v1 = n1.intValue() | n2.intValue();
-					break;
-				case 8:
-					v1 = n1.intValue() & n2.intValue();
-					break;
-				case 9:
-					v1 = ~n2.intValue();
-					break;
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.sixtyfour.parser.Atom#evalNumber(com.sixtyfour.system.Machine)
+	 */
+	@Override
+	public double evalNumber(Machine machine) {
+		try {
+			callCount++;
+			machine.setCurrentOperator(operator);
+			if (compiledTerm != null) {
+				return compiledTerm.evalNumber(machine);
+			}
+			if (operator.isNop()) {
+				if (left == null) {
+					throw new RuntimeException("Syntax error!");
 				}
-				return v1;
+				return left.evalNumber(machine);
 			}
-			throw new RuntimeException("Unable to evaluate term: " + this.toString());
+			if (getType() == Type.STRING) {
+				throw new RuntimeException("Type mismatch error: " + this.toString());
+			}
+			return calculate(machine);
 		} finally {
-			machine.setCurrentOperator(null);
-			// TODO Make 20 dependent on something
-			if (!jitRun && callCount > 20 && machine.getJit() != null) {
-				jitRun = machine.getJit().addMethod(this, machine);
+			afterEval(machine);
+		}
+	}
+
+	/**
+	 * Returns true, if evaluating this term results in an actual calculation. For
+	 * these terms, eval() returns a Double, which means that evalNumber() can be
+	 * used instead to get the same result without boxing it.
+	 * 
+	 * @return is it?
+	 */
+	public boolean isCalculation() {
+		return !operator.isNop() && getType() != Type.STRING;
+	}
+
+	private double calculate(Machine machine) {
+		double n1 = left.evalNumber(machine);
+		double n2 = n1;
+		if (left != right) {
+			n2 = right.evalNumber(machine);
+		}
+
+		double v1 = 0;
+		switch (operator.getType()) {
+		case 0:
+			v1 = Math.pow(n1, n2);
+			break;
+		case 1:
+			v1 = n1 * n2;
+			break;
+		case 2:
+			if (n2 == 0) {
+				throw new RuntimeException("Division by zero error: " + n1 + "/" + n2);
 			}
+			v1 = n1 / n2;
+			break;
+		case 3:
+			v1 = n1 + n2;
+			break;
+		case 4:
+			v1 = n1 - n2;
+			break;
+		case 5:
+			break;
+		case 6:
+			break;
+		case 7:
+			v1 = (int) n1 | (int) n2;
+			break;
+		case 8:
+			v1 = (int) n1 & (int) n2;
+			break;
+		case 9:
+			v1 = ~(int) n2;
+			break;
+		}
+		return v1;
+	}
+
+	private void afterEval(Machine machine) {
+		machine.setCurrentOperator(null);
+		// TODO Make 20 dependent on something
+		if (!jitRun && callCount > 20 && machine.getJit() != null) {
+			jitRun = machine.getJit().addMethod(this, machine);
 		}
 	}
 
@@ -510,26 +554,12 @@ public class Term implements Atom {
 
 	/**
 	 * If this term has been compiled by the JIT compiler, this will return the
-	 * Method instance in the compiled code.
+	 * compiled code.
 	 * 
-	 * @return the method instance of null
-	 */
-	public Method getJittedMethod() {
-		return jittedMethod;
-	}
-
-	/**
-	 * @return
-	 */
-	public Jitted getJittedInstance() {
-		return jittedInstance;
-	}
-
-	/**
-	 * @param jittedInstance
+	 * @return the compiled code or null
 	 */
-	public void setJittedInstance(Jitted jittedInstance) {
-		this.jittedInstance = jittedInstance;
+	public CompiledTerm getCompiledTerm() {
+		return compiledTerm;
 	}
 
 	/**
@@ -618,13 +648,12 @@ public class Term implements Atom {
 	}
 
 	/**
-	 * Sets the Method instance, once this term has been compiled by the JIT
-	 * compiler
+	 * Sets the compiled code, once this term has been compiled by the JIT compiler
 	 * 
-	 * @param jitted the method
+	 * @param compiledTerm the compiled code
 	 */
-	public void setJittedMethod(Method jitted) {
-		this.jittedMethod = jitted;
+	public void setCompiledTerm(CompiledTerm compiledTerm) {
+		this.compiledTerm = compiledTerm;
 	}
 
 	/*
@@ -1,6 +1,7 @@
 package com.sixtyfour.parser.assembly;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -141,6 +142,15 @@ public class LabelsContainer {
 		return labels2Addr.get(name);
 	}
 
+	/**
+	 * Returns all known labels and their addresses/values.
+	 * 
+	 * @return the labels, which can't be modified
+	 */
+	public Map<String, Integer> getLabels() {
+		return Collections.unmodifiableMap(labels2Addr);
+	}
+
 	/**
 	 * Adds a reference to a label that isn't yet known to the container. Such
 	 * labels' addresses/values will automatically applied to the code by the
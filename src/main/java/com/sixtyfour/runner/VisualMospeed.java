@@ -71,20 +71,41 @@ public class VisualMospeed {
 	private String[] code;
 	private File lastDir;
 	private long fileDate;
+	private String cacheDirectory;
 
 	/**
-	 * The main method. Just run this without any parameters.
+	 * The main method. Just run this without any parameters. Like in MoSpeedCL,
+	 * /cache=&lt;directory&gt; caches the results of the native language
+	 * optimizations in the given directory. Default is no cache.
 	 * 
 	 * @param args
 	 */
 	public static void main(String[] args) {
-		new VisualMospeed();
+		String cacheDirectory = null;
+		for (String arg : args) {
+			if (arg.toLowerCase(Locale.ENGLISH).startsWith("/cache=")) {
+				cacheDirectory = arg.substring(7).trim();
+			}
+		}
+		new VisualMospeed(cacheDirectory);
 	}
 
 	/**
 	 * Creates a new visual compiler.
 	 */
 	public VisualMospeed() {
+		this(null);
+	}
+
+	/**
+	 * Creates a new visual compiler that caches the results of the native
+	 * language optimizations in the given directory. Recompiling an edited
+	 * program then only has to optimize the parts that have changed.
+	 * 
+	 * @param cacheDirectory the directory or null for no cache
+	 */
+	public VisualMospeed(String cacheDirectory) {
+		this.cacheDirectory = cacheDirectory != null && cacheDirectory.isEmpty() ? null : cacheDirectory;
 		setup();
 	}
 
@@ -235,6 +256,9 @@ public class VisualMospeed {
 			CompilerConfig conf = new CompilerConfig();
 			MemoryConfig memConfig = new MemoryConfig();
 			setPlatform(conf);
+			// Parsing happens from scratch, because the native compiler modifies the
+			// parsed program.
+			conf.setCacheDirectory(cacheDirectory);
 
 			Basic basic = new Basic(code);
 			try {
@@ -38,6 +38,13 @@ public class Cpu {
 	private boolean paused = false;
 	private CpuTracer cpuTracer = null;
 	private CpuCallListener cpuCallListener = null;
+	private boolean fastMode = true;
+
+	/**
+	 * Set, if the execution loop has to check for pause or interrupt requests.
+	 * Only evaluated in fast mode.
+	 */
+	private volatile boolean attention = false;
 
 	/**
 	 * Creates a new cpu for a given machine.
@@ -110,6 +117,7 @@ public class Cpu {
 	 */
 	public synchronized void nmi() {
 		nmi = true;
+		attention = true;
 	}
 
 	/**
@@ -118,6 +126,7 @@ public class Cpu {
 	 */
 	public synchronized void irq() {
 		irq = true;
+		attention = true;
 	}
 
 	/**
@@ -135,6 +144,9 @@ public class Cpu {
 	 */
 	public void setPaused(boolean paused) {
 		this.paused = paused;
+		if (paused) {
+			attention = true;
+		}
 	}
 
 	/**
@@ -146,6 +158,27 @@ public class Cpu {
 		return paused;
 	}
 
+	/**
+	 * Returns true, if the cpu runs in fast mode. This is the default.
+	 * 
+	 * @return is it?
+	 */
+	public boolean isFastMode() {
+		return fastMode;
+	}
+
+	/**
+	 * Enables/disables the fast mode. In fast mode, the cpu checks for pauses and
+	 * interrupts only if one has actually been requested instead of before each
+	 * instruction. If a cpu tracer has been set, the cpu will run in normal mode
+	 * anyway.
+	 * 
+	 * @param fastMode should fast mode be used?
+	 */
+	public void setFastMode(boolean fastMode) {
+		this.fastMode = fastMode;
+	}
+
 	/**
 	 * Returns the accumulator's content.
 	 * 
@@ -346,6 +379,7 @@ public class Cpu {
 		nmi = false;
 		brk = false;
 		paused = false;
+		attention = false;
 	}
 
 	/**
@@ -370,6 +404,8 @@ public class Cpu {
 		push(ram, 0);
 		push(ram, 0);
 
+		boolean fast = fastMode && cpuTracer == null;
+
 		do {
 			int lastPc = pc;
 			int cmd = ram[pc++];
@@ -382,36 +418,8 @@ public class Cpu {
 			int yb = y & 0xff;
 			int accb = acc & 0xff;
 
-			while (paused) {
-				try {
-					Thread.sleep(1);
-				} catch (InterruptedException e) {
-					//
-				}
-			}
-
-			boolean decimal = (status & 0b00001000) != 0;
-
-			if (irq) {
-				if (!isInterruptFlagSet()) {
-					synchronized (this) {
-						push(ram, getHigh(pc));
-						push(ram, getLow(pc));
-						push(ram, status & 0b11101111);
-						pc = getWord(ram[0xFFFE], ram[0xFFFF]);
-						irq = false;
-					}
-				}
-			}
-
-			if (nmi) {
-				synchronized (this) {
-					push(ram, getHigh(pc));
-					push(ram, getLow(pc));
-					push(ram, status & 0b11101111);
-					pc = getWord(ram[0xFFFA], ram[0xFFFB]);
-					nmi = false;
-				}
+			if (!fast || attention) {
+				handleAttention();
 			}
 
 			// System.out.println("cmd:
@@ -673,65 +681,65 @@ public class Cpu {
 				break;
 			case 0x69:
 				// ADC #$nn
-				adc_nn(accb, decimal);
+				adc_nn(accb, (status & 0b00001000) != 0);
 				break;
 			case 0x6D:
 				// ADC $hhll
-				adc_hhll(accb, decimal);
+				adc_hhll(accb, (status & 0b00001000) != 0);
 				break;
 			case 0x7D:
 				// ADC $hhll,X
-				adc_hhllx(xb, accb, decimal);
+				adc_hhllx(xb, accb, (status & 0b00001000) != 0);
 				break;
 			case 0x79:
-				adc_hhllx(yb, accb, decimal);
+				adc_hhllx(yb, accb, (status & 0b00001000) != 0);
 				break;
 			case 0x65:
 				// ADC $ll
-				adc_ll(accb, decimal);
+				adc_ll(accb, (status & 0b00001000) != 0);
 				break;
 			case 0x75:
 				// ADC $ll,X
-				adc_llx(xb, accb, decimal);
+				adc_llx(xb, accb, (status & 0b00001000) != 0);
 				break;
 			case 0x61:
 				// ADC ($ll, X)
-				adc_ll_x(accb, decimal);
+				adc_ll_x(accb, (status & 0b00001000) != 0);
 				break;
 			case 0x71:
 				// ADC ($ll), Y
-				adc_lly(yb, accb, decimal);
+				adc_lly(yb, accb, (status & 0b00001000) != 0);
 				break;
 			case 0xE9:
 				// SBC #$nn
-				sbc_nn(accb, decimal);
+				sbc_nn(accb, (status & 0b00001000) != 0);
 				break;
 			case 0xED:
 				// SBC $hhll
-				sbc_hhll(accb, decimal);
+				sbc_hhll(accb, (status & 0b00001000) != 0);
 				break;
 			case 0xFD:
 				// SBC $hhll,X
-				sbc_hhllx(xb, accb, decimal);
+				sbc_hhllx(xb, accb, (status & 0b00001000) != 0);
 				break;
 			case 0xF9:
-				sbc_hhllx(yb, accb, decimal);
+				sbc_hhllx(yb, accb, (status & 0b00001000) != 0);
 				break;
 			case 0xE5:
 				// SBC $ll
-				sbc_ll(accb, decimal);
+				sbc_ll(accb, (status & 0b00001000) != 0);
 				break;
 			case 0xF5:
 				// SBC $ll,X
-				sbc_llx(xb, accb, decimal);
+				sbc_llx(xb, accb, (status & 0b00001000) != 0);
 				break;
 			case 0xE1:
 				// SBC ($ll, X)
-				sbc_ll_x(accb, decimal);
+				sbc_ll_x(accb, (status & 0b00001000) != 0);
 				break;
 			case 0xF1:
 				// SBC ($ll), Y
-				sbc_lly(yb, accb, decimal);
+				sbc_lly(yb, accb, (status & 0b00001000) != 0);
 				break;
 			case 0xEE:
 				// INC $hhll
@@ -1036,6 +1044,48 @@ public class Cpu {
 		} while (!brk);
 	}
 
+	/**
+	 * Handles pauses and pending interrupts. In normal mode, this will be called
+	 * before each instruction. In fast mode, only if the attention flag is set.
+	 */
+	private void handleAttention() {
+		if (attention) {
+			attention = false;
+		}
+		while (paused) {
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				//
+			}
+		}
+
+		if (irq) {
+			if (!isInterruptFlagSet()) {
+				synchronized (this) {
+					push(ram, getHigh(pc));
+					push(ram, getLow(pc));
+					push(ram, status & 0b11101111);
+					pc = getWord(ram[0xFFFE], ram[0xFFFF]);
+					irq = false;
+				}
+			} else {
+				// Still pending, check again before the next instruction
+				attention = true;
+			}
+		}
+
+		if (nmi) {
+			synchronized (this) {
+				push(ram, getHigh(pc));
+				push(ram, getLow(pc));
+				push(ram, status & 0b11101111);
+				pc = getWord(ram[0xFFFA], ram[0xFFFB]);
+				nmi = false;
+			}
+		}
+	}
+
 	private void plp() {
 		status = pop(ram);
 		ticks += 3;
@@ -2098,7 +2148,13 @@ public class Cpu {
 	}
 
 	private void setFlags(int a, boolean negative, boolean zero) {
-		setFlags(a, a, negative, zero, false, false, false);
+		// Same as the generic version, but small enough to be inlined
+		if (negative) {
+			status = (status & 0b01111111) | (a & 0b10000000);
+		}
+		if (zero) {
+			status = (status & 0b11111101) | ((a & 0xff) == 0 ? 0b10 : 0);
+		}
 	}
 
 	private void setFlags(int a, int oldA, boolean negative, boolean zero, boolean overflow, boolean carry,
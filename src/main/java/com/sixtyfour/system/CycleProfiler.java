@@ -0,0 +1,387 @@
+package com.sixtyfour.system;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A CpuTracer implementation that profiles a program compiled by the native
+ * compiler while it's running on the cpu emulation. It uses the clock ticks of
+ * the cpu to attribute the cycles that each instruction takes to the BASIC line
+ * that it belongs to, i.e. to the code after the nearest LINE_xxx label before
+ * it. Cycles spent in subroutines of the runtime (or the ROM) count for the
+ * line that called them, but they are collected per subroutine as well, both
+ * the cycles spent in the subroutine itself and the ones including all
+ * subroutines that it calls. A subroutine is named after its label or, if there
+ * is no such label, by its address.<br/>
+ * A BASIC GOSUB is compiled into a JSR to a LINE_xxx label, so it's not
+ * considered to be a subroutine call in that sense.
+ *
+ * @author EgonOlsen
+ *
+ */
+public class CycleProfiler implements CpuTracer {
+
+	private final static String LINE_PREFIX = "LINE_";
+
+	private int[] lineAddrs;
+	private int[] lineNumbers;
+	private long[] lineCycles;
+	private long[] lineCounts;
+	private long startupCycles = 0;
+
+	private Map<Integer, String> addr2name = new HashMap<>();
+	private Map<String, Entry> routines = new HashMap<>();
+
+	private Frame[] stack = new Frame[256];
+	private int depth = 0;
+	private int routineDepth = 0;
+	private int currentLine = -1;
+	private long lastTicks = -1;
+	private long totalCycles = 0;
+	private long maxCycles = 0;
+	private boolean limitReached = false;
+
+	/**
+	 * Creates a new profiler for a program. The program has to be compiled by the
+	 * assembler so that it contains the labels.
+	 *
+	 * @param program the program
+	 */
+	public CycleProfiler(Program program) {
+		this(program, null);
+	}
+
+	/**
+	 * Creates a new profiler for a program. The program has to be compiled by the
+	 * assembler so that it contains the labels. The optional code is scanned for
+	 * constant definitions like "REALFAC = $BBA2", which are used to name
+	 * subroutines in the ROM.
+	 *
+	 * @param program the program
+	 * @param code    the assembly code of the program or null
+	 */
+	public CycleProfiler(Program program, List<String> code) {
+		if (code != null) {
+			for (String line : code) {
+				int pos = line.indexOf('=');
+				if (pos > 0 && !line.startsWith(";")) {
+					String name = line.substring(0, pos).trim();
+					String value = line.substring(pos + 1).trim();
+					if (value.startsWith("$") && name.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+						try {
+							addr2name.putIfAbsent(Integer.parseInt(value.substring(1), 16), name);
+						} catch (NumberFormatException e) {
+							// Not an address...ignore it
+						}
+					}
+				}
+			}
+		}
+
+		TreeMap<Integer, Integer> lines = new TreeMap<>();
+		for (Map.Entry<String, Integer> label : program.getLabelsContainer().getLabels().entrySet()) {
+			String name = label.getKey();
+			// Labels override constants, because these are the actual subroutines
+			addr2name.put(label.getValue(), name);
+			if (name.startsWith(LINE_PREFIX)) {
+				try {
+					lines.merge(label.getValue(), Integer.parseInt(name.substring(LINE_PREFIX.length())),
+							Math::max);
+				} catch (NumberFormatException e) {
+					// Not a BASIC line, but one of the labels inside of it
+				}
+			}
+		}
+		// Lines without code share their address with the next one. The one with the
+		// highest number is the one that actually contains the code.
+		lineAddrs = new int[lines.size()];
+		lineNumbers = new int[lines.size()];
+		int i = 0;
+		for (Map.Entry<Integer, Integer> line : lines.entrySet()) {
+			lineAddrs[i] = line.getKey();
+			lineNumbers[i++] = line.getValue();
+		}
+		lineCycles = new long[lineAddrs.length];
+		lineCounts = new long[lineAddrs.length];
+	}
+
+	/**
+	 * Sets the maximum number of cycles that the program is allowed to run. If
+	 * this number has been exceeded, the cpu will be stopped. This is helpful for
+	 * programs that wait for input or never end.
+	 *
+	 * @param maxCycles the maximum number of cycles, 0 means no limit
+	 */
+	public void setMaxCycles(long maxCycles) {
+		this.maxCycles = maxCycles;
+	}
+
+	/**
+	 * Returns true, if the cpu has been stopped because the maximum number of
+	 * cycles has been exceeded.
+	 *
+	 * @return has it?
+	 */
+	public boolean isLimitReached() {
+		return limitReached;
+	}
+
+	@Override
+	public void commandExecuted(Cpu cpu, int opcode, int opcodePc, int newPc) {
+		long ticks = cpu.getClockTicks();
+		long cycles = lastTicks == -1 ? 0 : ticks - lastTicks;
+		lastTicks = ticks;
+		totalCycles += cycles;
+
+		if (routineDepth == 0) {
+			currentLine = findLine(opcodePc);
+			if (currentLine != -1 && lineAddrs[currentLine] == opcodePc) {
+				lineCounts[currentLine]++;
+			}
+		}
+		if (currentLine == -1) {
+			startupCycles += cycles;
+		} else {
+			lineCycles[currentLine] += cycles;
+		}
+		if (depth > 0 && stack[depth - 1].routine != null) {
+			stack[depth - 1].routine.cycles += cycles;
+		}
+
+		if (opcode == 0x20) {
+			// JSR
+			String name = addr2name.get(newPc);
+			Entry routine = null;
+			if (name == null || !name.startsWith(LINE_PREFIX)) {
+				String rName = name == null ? "$" + Integer.toHexString(newPc).toUpperCase(Locale.ENGLISH) : name;
+				routine = routines.computeIfAbsent(rName, k -> new Entry(k));
+				routine.count++;
+			}
+			push(new Frame(routine, opcodePc + 3, ticks));
+		} else if (opcode == 0x60) {
+			// RTS...the runtime manipulates the stack at times, so the frame that
+			// matches the return address might not be the topmost one.
+			for (int i = depth - 1; i >= 0; i--) {
+				if (stack[i].returnPc == newPc) {
+					while (depth > i) {
+						pop(ticks);
+					}
+					break;
+				}
+			}
+		}
+
+		if (maxCycles > 0 && totalCycles >= maxCycles) {
+			limitReached = true;
+			cpu.stop();
+		}
+	}
+
+	@Override
+	public void exception(Cpu cpu, int opcode, int opcodePc, int newPc) {
+		//
+	}
+
+	/**
+	 * Returns the total number of cycles that have been profiled.
+	 *
+	 * @return the number of cycles
+	 */
+	public long getTotalCycles() {
+		return totalCycles;
+	}
+
+	/**
+	 * Returns the number of cycles spent before the first BASIC line has been
+	 * reached, i.e. in the initialization of the runtime.
+	 *
+	 * @return the number of cycles
+	 */
+	public long getStartupCycles() {
+		return startupCycles;
+	}
+
+	/**
+	 * Returns the results per BASIC line, sorted by the cycles spent in them in
+	 * descending order. Lines that haven't been executed are omitted.
+	 *
+	 * @return the results
+	 */
+	public List<Entry> getLineResults() {
+		List<Entry> res = new ArrayList<>();
+		for (int i = 0; i < lineNumbers.length; i++) {
+			if (lineCycles[i] > 0) {
+				Entry entry = new Entry(String.valueOf(lineNumbers[i]));
+				entry.count = lineCounts[i];
+				entry.cycles = lineCycles[i];
+				entry.totalCycles = lineCycles[i];
+				res.add(entry);
+			}
+		}
+		res.sort(null);
+		return res;
+	}
+
+	/**
+	 * Returns the results per subroutine, sorted by the cycles spent in them
+	 * (without the subroutines they call) in descending order.
+	 *
+	 * @return the results
+	 */
+	public List<Entry> getRoutineResults() {
+		List<Entry> res = new ArrayList<>(routines.values());
+		res.sort(null);
+		return res;
+	}
+
+	/**
+	 * Returns a report of the BASIC lines and subroutines that took the most
+	 * cycles.
+	 *
+	 * @param maxEntries the maximum number of lines and subroutines in the report
+	 * @return the report
+	 */
+	public String getReport(int maxEntries) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Total cycles: ").append(totalCycles).append(", startup: ").append(startupCycles);
+		if (limitReached) {
+			sb.append(" (limit reached)");
+		}
+		sb.append("\n\n");
+		sb.append(String.format(Locale.ENGLISH, "%-16s%12s%14s%8s%n", "Line", "Count", "Cycles", "%"));
+		List<Entry> lines = getLineResults();
+		for (int i = 0; i < Math.min(maxEntries, lines.size()); i++) {
+			Entry entry = lines.get(i);
+			sb.append(String.format(Locale.ENGLISH, "%-16s%12d%14d%8.2f%n", entry.name, entry.count, entry.cycles,
+					getPercentage(entry.cycles)));
+		}
+		sb.append("\n");
+		sb.append(String.format(Locale.ENGLISH, "%-16s%12s%14s%8s%14s%8s%n", "Subroutine", "Calls", "Self", "%",
+				"Total", "%"));
+		List<Entry> subs = getRoutineResults();
+		for (int i = 0; i < Math.min(maxEntries, subs.size()); i++) {
+			Entry entry = subs.get(i);
+			sb.append(String.format(Locale.ENGLISH, "%-16s%12d%14d%8.2f%14d%8.2f%n", entry.name, entry.count,
+					entry.cycles, getPercentage(entry.cycles), entry.totalCycles, getPercentage(entry.totalCycles)));
+		}
+		return sb.toString();
+	}
+
+	private double getPercentage(long cycles) {
+		return totalCycles == 0 ? 0d : cycles * 100d / totalCycles;
+	}
+
+	private int findLine(int addr) {
+		if (currentLine != -1 && addr >= lineAddrs[currentLine]
+				&& (currentLine == lineAddrs.length - 1 || addr < lineAddrs[currentLine + 1])) {
+			// Still in the same line
+			return currentLine;
+		}
+		int low = 0;
+		int high = lineAddrs.length - 1;
+		int res = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (lineAddrs[mid] <= addr) {
+				res = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return res;
+	}
+
+	private void push(Frame frame) {
+		if (depth == stack.length) {
+			// Can't happen with a proper stack on a 6502, so something went wrong
+			// anyway. Start over...
+			depth = 0;
+			routineDepth = 0;
+		}
+		stack[depth++] = frame;
+		if (frame.routine != null) {
+			routineDepth++;
+		}
+	}
+
+	private void pop(long ticks) {
+		Frame frame = stack[--depth];
+		stack[depth] = null;
+		if (frame.routine != null) {
+			routineDepth--;
+			frame.routine.totalCycles += ticks - frame.startTicks;
+		}
+	}
+
+	/**
+	 * The results of a BASIC line or a subroutine.
+	 */
+	public static class Entry implements Comparable<Entry> {
+
+		private String name;
+		private long count;
+		private long cycles;
+		private long totalCycles;
+
+		private Entry(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return the line number or the name of the subroutine
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return how often the line has been entered or the subroutine has been
+		 *         called
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the cycles spent in the line or in the subroutine itself
+		 */
+		public long getCycles() {
+			return cycles;
+		}
+
+		/**
+		 * @return the cycles spent in the line or in the subroutine including the
+		 *         subroutines that it calls
+		 */
+		public long getTotalCycles() {
+			return totalCycles;
+		}
+
+		@Override
+		public int compareTo(Entry o) {
+			int res = Long.compare(o.cycles, cycles);
+			return res == 0 ? name.compareTo(o.name) : res;
+		}
+	}
+
+	/**
+	 * An entry on the call stack.
+	 */
+	private static class Frame {
+
+		private Entry routine;
+		private int returnPc;
+		private long startTicks;
+
+		private Frame(Entry routine, int returnPc, long startTicks) {
+			this.routine = routine;
+			this.returnPc = returnPc;
+			this.startTicks = startTicks;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.sixtyfour.system;
+
+import java.util.List;
+import java.util.Map;
+
+import com.sixtyfour.elements.commands.Command;
+import com.sixtyfour.parser.Line;
+
+/**
+ * A linked program is a flattened view of a compiled BASIC program. All
+ * commands of all lines are stored in one array in program order, so that the
+ * interpreter can walk the program by index instead of looking up each line by
+ * its number. Line numbers and (line count/position)-pairs as returned by
+ * BasicProgramCounter are resolved into offsets into that array by plain array
+ * lookups.
+ */
+public class LinkedProgram {
+
+	/** All commands in program order */
+	private Command[] commands;
+
+	/** The line number of the line that each command belongs to */
+	private int[] numbers;
+
+	/** The line count of the line that each command belongs to */
+	private int[] counts;
+
+	/** The position of each command within its line */
+	private int[] positions;
+
+	/** The offset of the first command of each line, indexed by line count */
+	private int[] lineStarts;
+
+	/** The line count for each line number or -1, indexed by line number */
+	private int[] lineCounts;
+
+	/**
+	 * Instantiates a new linked program.
+	 *
+	 * @param lineNumbers the line numbers in program order
+	 * @param lines       the lines, mapped by their numbers
+	 */
+	public LinkedProgram(List<Integer> lineNumbers, Map<Integer, Line> lines) {
+		int size = 0;
+		int maxNumber = 0;
+		for (Integer num : lineNumbers) {
+			size += lines.get(num).getCommands().size();
+			maxNumber = Math.max(maxNumber, num);
+		}
+
+		commands = new Command[size];
+		numbers = new int[size];
+		counts = new int[size];
+		positions = new int[size];
+		lineStarts = new int[lineNumbers.size() + 1];
+		lineCounts = new int[maxNumber + 1];
+		for (int i = 0; i < lineCounts.length; i++) {
+			lineCounts[i] = -1;
+		}
+
+		int index = 0;
+		for (int cnt = 0; cnt < lineNumbers.size(); cnt++) {
+			int num = lineNumbers.get(cnt);
+			List<Command> cmds = lines.get(num).getCommands();
+			lineStarts[cnt] = index;
+			lineCounts[num] = cnt;
+			for (int pos = 0; pos < cmds.size(); pos++) {
+				commands[index] = cmds.get(pos);
+				numbers[index] = num;
+				counts[index] = cnt;
+				positions[index] = pos;
+				index++;
+			}
+		}
+		lineStarts[lineNumbers.size()] = index;
+	}
+
+	/**
+	 * Returns all commands in program order. This returns a direct reference to
+	 * the internal array.
+	 *
+	 * @return the commands
+	 */
+	public Command[] getCommands() {
+		return commands;
+	}
+
+	/**
+	 * Returns the number of the line that the command at the given offset belongs
+	 * to.
+	 *
+	 * @param index the offset
+	 * @return the line number
+	 */
+	public int getLineNumber(int index) {
+		return numbers[index];
+	}
+
+	/**
+	 * Returns the position of the command at the given offset in its line.
+	 *
+	 * @param index the offset
+	 * @return the position
+	 */
+	public int getLinePosition(int index) {
+		return positions[index];
+	}
+
+	/**
+	 * Returns the offset of the first command of the line with the given number.
+	 *
+	 * @param lineNumber the line number
+	 * @return the offset or -1, if there's no such line
+	 */
+	public int getIndexOfLine(int lineNumber) {
+		if (lineNumber < 0 || lineNumber >= lineCounts.length) {
+			return -1;
+		}
+		int cnt = lineCounts[lineNumber];
+		if (cnt == -1) {
+			return -1;
+		}
+		return lineStarts[cnt];
+	}
+
+	/**
+	 * Returns the offset of the command that follows the command at the given line
+	 * count and position. This is where execution continues after a NEXT or a
+	 * RETURN.
+	 *
+	 * @param lineCnt the line count
+	 * @param linePos the position in the line
+	 * @return the offset
+	 */
+	public int getIndexAfter(int lineCnt, int linePos) {
+		return lineStarts[lineCnt] + linePos + 1;
+	}
+
+	/**
+	 * Returns the offset of the first command of the line that follows the line of
+	 * the command at the given offset.
+	 *
+	 * @param index the offset
+	 * @return the offset of the next line
+	 */
+	public int getIndexOfNextLine(int index) {
+		return lineStarts[counts[index] + 1];
+	}
+}
@@ -2,13 +2,15 @@ package com.sixtyfour.system;
 
 import java.io.BufferedInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import com.sixtyfour.Basic;
@@ -43,14 +45,38 @@ import com.sixtyfour.util.VarUtils;
  */
 public class Machine {
 
-	/** The variables */
-	private Map<String, Variable> vars = new HashMap<>();
+	/**
+	 * The symbol table. It maps the upper case names of all variables that this
+	 * machine has ever seen to their slots. Slots will be assigned at parse time
+	 * and never change afterwards, even if the variables themselves get cleared.
+	 */
+	private Map<String, Integer> slots = new HashMap<>();
+
+	/** The variables, indexed by their slots */
+	private Variable[] vars = new Variable[64];
+
+	/** The number of assigned slots */
+	private int slotCount = 0;
+
+	/** The slot of TI$, which is needed to evaluate TI at runtime */
+	private int timeDateSlot;
 
 	/** The RAM */
 	private int[] ram = new int[65536];
 
-	/** The Stack */
-	private List<StackEntry> stack = new LinkedList<>();
+	/** The maximum size of the stack */
+	private static final int MAX_STACK_SIZE = 10000;
+
+	/**
+	 * The Stack. Entries will be created on demand and reused afterwards.
+	 */
+	private StackEntry[] stack = new StackEntry[MAX_STACK_SIZE + 1];
+
+	/** The number of entries on the stack */
+	private int stackSize = 0;
+
+	/** The FOR entries on the stack, mapped by their variables' names */
+	private Map<String, StackEntry> forEntries = new HashMap<>();
 
 	/** The command list */
 	private List<Command> commandList = new ArrayList<>();
@@ -88,12 +114,14 @@ public class Machine {
 
 	private Jit jit = null;
 
-	private List<StackEntry> toRemove = new ArrayList<>();
-
 	private List<RomInfo> roms;
 
 	private Map<String, Integer> usageIndicator = new HashMap<>();
 
+	private BiConsumer<Variable, Boolean> usageRecorder = null;
+
+	private int resetCount = 0;
+
 	private List<Variable> extendedSystemVars = new ArrayList<>();
 
 	/**
@@ -105,6 +133,7 @@ public class Machine {
 		memoryListener = new NullMemoryListener();
 		deviceProvider = new MemoryDeviceProvider(outputChannel);
 		setSystemCallListener(new NullSystemCallListener());
+		timeDateSlot = getSlot("TI$");
 		addDefaults();
 		this.cpu = new Cpu(this);
 	}
@@ -171,7 +200,7 @@ public class Machine {
 	 * @return system or not?
 	 */
 	public boolean isSystemVariable(String name) {
-		Variable var = vars.get(name.toUpperCase(Locale.ENGLISH));
+		Variable var = getVariableUpperCase(name.toUpperCase(Locale.ENGLISH));
 		return var != null && var.isSystem();
 	}
 
@@ -213,10 +242,10 @@ public class Machine {
 	 * @param command the command
 	 */
 	public void push(Command command) {
-		if (stack.size() > 10000) {
-			throw new RuntimeException("Out of memory error, stack size exceeds 10000!");
+		if (stackSize > MAX_STACK_SIZE) {
+			throw new RuntimeException("Out of memory error, stack size exceeds " + MAX_STACK_SIZE + "!");
 		}
-		stack.add(new StackEntry(command));
+		pushEntry(command);
 	}
 
 	/**
@@ -225,29 +254,24 @@ public class Machine {
 	 * @param fory the FOR command
 	 */
 	public void pushFor(For fory) {
-		if (stack.size() > 10000) {
-			for (int i = 0; i < stack.size(); i++) {
-				StackEntry se = stack.get(i);
+		if (stackSize > MAX_STACK_SIZE) {
+			for (int i = 0; i < stackSize; i++) {
+				StackEntry se = stack[i];
 				if (se.isSubroutineCall()) {
 					System.out.println(se.getCommand());
 				}
 			}
-			throw new RuntimeException("Out of memory error, stack size exceeds 10000!");
+			throw new RuntimeException("Out of memory error, stack size exceeds " + MAX_STACK_SIZE + "!");
 		}
 
 		// Remove a for with the same variable and all later ones from the stack
-		for (int i = 0; i < stack.size(); i++) {
-			StackEntry cmd = stack.get(i);
-			if (cmd.isFor()) {
-				if (((For) cmd.getCommand()).getVar().equals(fory.getVar())) {
-					popFor((For) cmd.getCommand());
-					break;
-				}
-			}
+		String name = fory.getVar().getUpperCaseName();
+		StackEntry old = forEntries.get(name);
+		if (old != null) {
+			popFor((For) old.getCommand());
 		}
 
-		// System.out.println(stack.size()+"/"+fory.getVar());
-		stack.add(new StackEntry(fory));
+		forEntries.put(name, pushEntry(fory));
 	}
 
 	/**
@@ -258,28 +282,34 @@ public class Machine {
 	 * @return the popped command
 	 */
 	public For popFor(For fory) {
-		int end = stack.size() - 1;
-		for (int i = end; i >= 0; i--) {
-			StackEntry entry = stack.get(i);
-			if (entry.getCommand() == fory) {
-				if (i == end) {
-					// Shortcut for FORs that are at the top of the stack
-					stack.remove(end);
+		StackEntry entry = forEntries.get(fory.getVar().getUpperCaseName());
+		if (entry == null || entry.getCommand() != fory) {
+			return null;
+		}
+
+		int pos = entry.getIndex();
+		int end = stackSize - 1;
+		if (pos == end) {
+			// Shortcut for FORs that are at the top of the stack
+			removeForEntry(entry);
+			stackSize--;
+		} else {
+			// Remove all FORs starting from pos, but keep the other entries in order
+			int dest = pos;
+			for (int p = pos; p <= end; p++) {
+				StackEntry se = stack[p];
+				if (se.isFor()) {
+					removeForEntry(se);
 				} else {
-					toRemove.clear();
-					for (int p = end; p >= i; p--) {
-						entry = stack.get(p);
-						if (entry.isFor()) {
-							toRemove.add(entry);
-						}
-					}
-					stack.removeAll(toRemove);
+					stack[p] = stack[dest];
+					stack[dest] = se;
+					se.setIndex(dest);
+					dest++;
 				}
-				return (For) entry.getCommand();
 			}
+			stackSize = dest;
 		}
-
-		return null;
+		return fory;
 	}
 
 	/**
@@ -290,10 +320,13 @@ public class Machine {
 	 * @return the corresponding FOR
 	 */
 	public For peekFor(String varName) {
-		for (int i = stack.size() - 1; i >= 0; i--) {
-			StackEntry entry = stack.get(i);
-			if (entry.isFor()
-					&& (varName == null || varName.equalsIgnoreCase(((For) entry.getCommand()).getVar().getName()))) {
+		if (varName != null) {
+			StackEntry entry = forEntries.get(VarUtils.toUpper(varName));
+			return entry != null ? (For) entry.getCommand() : null;
+		}
+		for (int i = stackSize - 1; i >= 0; i--) {
+			StackEntry entry = stack[i];
+			if (entry.isFor()) {
 				return (For) entry.getCommand();
 			}
 		}
@@ -301,18 +334,21 @@ public class Machine {
 	}
 
 	/**
-	 * Gets the stack entry of the last GOSUB, if there was any.
+	 * Gets the stack entry of the last GOSUB, if there was any. The entry and all
+	 * entries above it will be removed from the stack.
 	 * 
 	 * @return the calling GOSUB
 	 */
 	public StackEntry getCaller() {
-		for (int i = stack.size() - 1; i >= 0; i--) {
-			StackEntry entry = stack.get(i);
+		for (int i = stackSize - 1; i >= 0; i--) {
+			StackEntry entry = stack[i];
 			if (entry.isSubroutineCall()) {
-				int end = stack.size();
-				for (int p = 0; p < end - i; p++) {
-					stack.remove(stack.size() - 1);
+				for (int p = i + 1; p < stackSize; p++) {
+					if (stack[p].isFor()) {
+						removeForEntry(stack[p]);
+					}
 				}
+				stackSize = i;
 				return entry;
 			}
 		}
@@ -325,8 +361,8 @@ public class Machine {
 	 * @return the most current stack entry or null, if it's empty
 	 */
 	public StackEntry peek() {
-		if (stack.size() > 0) {
-			return stack.get(stack.size() - 1);
+		if (stackSize > 0) {
+			return stack[stackSize - 1];
 		}
 		return null;
 	}
@@ -337,10 +373,14 @@ public class Machine {
 	 * @return the popped stack entry
 	 */
 	public StackEntry pop() {
-		if (stack.isEmpty()) {
+		if (stackSize == 0) {
 			throw new RuntimeException("Out of memory error, stack is empty!");
 		}
-		return stack.remove(stack.size() - 1);
+		StackEntry entry = stack[--stackSize];
+		if (entry.isFor()) {
+			removeForEntry(entry);
+		}
+		return entry;
 	}
 
 	/**
@@ -363,7 +403,10 @@ public class Machine {
 			ram[i] = 0;
 		}
 		if (!softClear) {
-			vars.clear();
+			for (int i = 0; i < slotCount; i++) {
+				vars[i] = null;
+			}
+			resetCount++;
 		}
 		clearVars();
 		clearCommandList();
@@ -374,14 +417,39 @@ public class Machine {
 		copyRoms();
 	}
 
+	/**
+	 * Resets the memory like resetMemory(true) does, but instead of clearing the
+	 * 64KB of main memory and restoring the ROM data, it copies the given image
+	 * into it. This is faster than clearing the memory and loading the same
+	 * programs into it over and over again.
+	 *
+	 * @param image the memory image, usually taken from the memory of a machine
+	 *              that has been reset and loaded with some programs before
+	 */
+	public void resetMemory(int[] image) {
+		if (image.length != ram.length) {
+			throw new RuntimeException("Invalid memory image size: " + image.length);
+		}
+		clearVars();
+		clearCommandList();
+		functions.clear();
+		for (BasicExtension ex : Basic.getExtensions()) {
+			ex.reset(this);
+		}
+		System.arraycopy(image, 0, ram, 0, ram.length);
+	}
+
 	/**
 	 * Clears all variables.
 	 */
 	public void clearVars() {
-		for (Variable var : vars.values()) {
-			var.setPersistent(false);
-			var.clear();
-			var.setConstant(false);
+		for (int i = 0; i < slotCount; i++) {
+			Variable var = vars[i];
+			if (var != null) {
+				var.setPersistent(false);
+				var.clear();
+				var.setConstant(false);
+			}
 		}
 		addDefaults();
 		for (Variable var : extendedSystemVars) {
@@ -389,15 +457,33 @@ public class Machine {
 			addXSystemVar(var);
 		}
 
-		stack.clear();
+		stackSize = 0;
+		forEntries.clear();
 		usageIndicator.clear();
 		variablesInAsm.clear();
 	}
 
-	private void addXSystemVar(Variable var) {
-		if (vars.containsKey(var.getUpperCaseName())) {
-			vars.remove(var.getUpperCaseName());
+	private StackEntry pushEntry(Command command) {
+		StackEntry entry = stack[stackSize];
+		if (entry == null) {
+			entry = new StackEntry(command);
+			stack[stackSize] = entry;
+		} else {
+			entry.setCommand(command);
 		}
+		entry.setIndex(stackSize++);
+		return entry;
+	}
+
+	private void removeForEntry(StackEntry entry) {
+		String name = ((For) entry.getCommand()).getVar().getUpperCaseName();
+		if (forEntries.get(name) == entry) {
+			forEntries.remove(name);
+		}
+	}
+
+	private void addXSystemVar(Variable var) {
+		vars[getSlot(var.getUpperCaseName())] = null;
 		add(var);
 	}
 
@@ -412,9 +498,25 @@ public class Machine {
 		if (var.isPersistent()) {
 			return var;
 		}
-		Variable ret = getVariableUpperCase(var.getUpperCaseName());
+		return add(getSlot(var.getUpperCaseName()), var);
+	}
+
+	/**
+	 * Adds a variable to a slot and returns it. This is the same as add(Variable),
+	 * but it doesn't have to look up the slot by name, so it should be used at
+	 * runtime with a slot that has been resolved at parse time (see getSlot()).
+	 * 
+	 * @param slot the slot of the variable
+	 * @param var  the variable
+	 * @return either the newly added variable or the old one in that slot
+	 */
+	public Variable add(int slot, Variable var) {
+		if (var.isPersistent()) {
+			return var;
+		}
+		Variable ret = vars[slot];
 		if (ret == null) {
-			vars.put(var.getUpperCaseName(), var);
+			vars[slot] = var;
 			var.setPersistent(true);
 			ret = var;
 		}
@@ -429,9 +531,10 @@ public class Machine {
 	 * @return either the newly added variable or the old one with the same name
 	 */
 	public Variable addOrSet(Variable var) {
-		Variable ret = getVariableUpperCase(var.getUpperCaseName());
+		int slot = getSlot(var.getUpperCaseName());
+		Variable ret = vars[slot];
 		if (ret == null) {
-			vars.put(var.getUpperCaseName(), var);
+			vars[slot] = var;
 			ret = var;
 		} else {
 			ret.setValue(var.getValue());
@@ -447,6 +550,9 @@ public class Machine {
 	 * @param assigment track an assignment (true)/something else (false)
 	 */
 	public void trackVariableUsage(Variable var, boolean assignment) {
+		if (usageRecorder != null) {
+			usageRecorder.accept(var, assignment);
+		}
 		if (var.isSupposedToBeArray()) {
 			return;
 		}
@@ -458,6 +564,28 @@ public class Machine {
 		usageIndicator.put(name, assignment ? (indicator + 1) : (indicator + 10));
 	}
 
+	/**
+	 * Sets a recorder that gets notified about each call to trackVariableUsage().
+	 * This allows to replay the tracking for lines that haven't been parsed
+	 * again.
+	 * 
+	 * @param usageRecorder the recorder or null to disable recording
+	 */
+	public void setUsageRecorder(BiConsumer<Variable, Boolean> usageRecorder) {
+		this.usageRecorder = usageRecorder;
+	}
+
+	/**
+	 * Returns the number of times that the variables have been removed from this
+	 * machine by a reset that wasn't a soft clear. Variable instances that have
+	 * been obtained before such a reset are no longer valid afterwards.
+	 * 
+	 * @return the number of resets
+	 */
+	public int getResetCount() {
+		return resetCount;
+	}
+
 	/**
 	 * Returns the variable with the given name. Case doesn't matter.
 	 * 
@@ -468,8 +596,57 @@ public class Machine {
 		if (name == null) {
 			throw new RuntimeException("Null variable found!");
 		}
-		name = VarUtils.toUpper(name);
-		return vars.get(name);
+		return getVariableUpperCase(VarUtils.toUpper(name));
+	}
+
+	/**
+	 * Returns the slot of the variable with the given name in upper case. If the
+	 * name is unknown so far, a new slot will be assigned to it. Slots are stable
+	 * for the lifetime of the machine, so that they can be resolved once at parse
+	 * time and used to access the variable at runtime without any name lookups.
+	 * 
+	 * @param name the name in upper case
+	 * @return the slot
+	 */
+	public int getSlot(String name) {
+		Integer slot = slots.get(name);
+		if (slot == null) {
+			slot = slotCount++;
+			slots.put(name, slot);
+			if (slot == vars.length) {
+				vars = Arrays.copyOf(vars, vars.length * 2);
+			}
+		}
+		return slot;
+	}
+
+	/**
+	 * Returns the number of slots assigned so far. All slots from 0 to this number
+	 * (exclusive) are valid parameters for getVariable(int).
+	 * 
+	 * @return the number of slots
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * Returns the variable stored in the given slot.
+	 * 
+	 * @param slot the slot
+	 * @return the variable or null, if there's currently none in that slot
+	 */
+	public Variable getVariable(int slot) {
+		return vars[slot];
+	}
+
+	/**
+	 * Returns the system variable TI$.
+	 * 
+	 * @return TI$
+	 */
+	public TimeDate getTimeDate() {
+		return (TimeDate) vars[timeDateSlot];
 	}
 
 	/**
@@ -493,7 +670,14 @@ public class Machine {
 	 * @return the map
 	 */
 	public Map<String, Variable> getVariables() {
-		return new HashMap<String, Variable>(vars);
+		Map<String, Variable> ret = new HashMap<String, Variable>();
+		for (Entry<String, Integer> entry : slots.entrySet()) {
+			Variable var = vars[entry.getValue()];
+			if (var != null) {
+				ret.put(entry.getKey(), var);
+			}
+		}
+		return ret;
 	}
 
 	/**
@@ -503,7 +687,11 @@ public class Machine {
 	 * @return the variable or null, if it doesn't exist
 	 */
 	public Variable getVariableUpperCase(String name) {
-		return vars.get(name);
+		Integer slot = slots.get(name);
+		if (slot == null) {
+			return null;
+		}
+		return vars[slot];
 	}
 
 	/**
@@ -7,7 +7,8 @@ import com.sixtyfour.elements.commands.On;
 
 /**
  * A StackEntry can either be a reference to a FOR or to a GOSUB/ON...GOSUB
- * command.
+ * command. Entries on a Machine's stack are reused, so an entry is only valid
+ * until the next push operation.
  */
 public class StackEntry {
 
@@ -16,17 +17,47 @@ public class StackEntry {
 	private boolean isFor = false;
 	private boolean isJump = false;
 
+	/** The position of this entry on the stack */
+	private int index = 0;
+
 	/**
 	 * Instantiates a new stack entry.
 	 * 
 	 * @param command the command
 	 */
 	public StackEntry(Command command) {
+		setCommand(command);
+	}
+
+	/**
+	 * Sets the command. This is used to reuse an entry for another command.
+	 * 
+	 * @param command the command
+	 */
+	void setCommand(Command command) {
 		this.command = command;
 		isFor = command instanceof For;
 		isJump = command instanceof Gosub || command instanceof On;
 	}
 
+	/**
+	 * Returns the position of this entry on the stack.
+	 * 
+	 * @return the position
+	 */
+	int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Sets the position of this entry on the stack.
+	 * 
+	 * @param index the position
+	 */
+	void setIndex(int index) {
+		this.index = index;
+	}
+
 	/**
 	 * Returns the command.
 	 * 
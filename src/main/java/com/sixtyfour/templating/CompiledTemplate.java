@@ -0,0 +1,258 @@
+package com.sixtyfour.templating;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.sixtyfour.Assembler;
+import com.sixtyfour.config.CompilerConfig;
+import com.sixtyfour.parser.Line;
+import com.sixtyfour.parser.Preprocessor;
+import com.sixtyfour.system.Machine;
+import com.sixtyfour.system.Program;
+import com.sixtyfour.util.VarUtils;
+
+/**
+ * A parsed template. Parsing converts the template into a BASIC program, its
+ * static parts and the programs assembled from its inline assembly code. It
+ * also creates an image of the memory with these programs in it, which every
+ * run of the template starts with. Once created, a compiled template doesn't
+ * change anymore, so it can be shared between threads and used to create any
+ * number of Template instances without parsing and assembling it again.
+ *
+ * @author EgonOlsen
+ */
+public class CompiledTemplate {
+
+	private final CompilerConfig config;
+
+	private final String basicCode;
+
+	private final Map<Integer, TemplatePart> staticParts;
+
+	private final List<Program> prgs;
+
+	private final int[] image;
+
+	private final String path;
+
+	/**
+	 * Parses a template.
+	 *
+	 * @param config   the compiler configuration
+	 * @param template the template's content
+	 * @param path     the path of the template in the file system, may be null
+	 */
+	public CompiledTemplate(CompilerConfig config, String template, String path) {
+		this.config = config;
+		this.path = path;
+		Map<Integer, TemplatePart> parts = new HashMap<Integer, TemplatePart>();
+		List<Program> programs = new ArrayList<Program>();
+		basicCode = parseTemplate(template, parts, programs);
+		staticParts = Collections.unmodifiableMap(parts);
+		prgs = Collections.unmodifiableList(programs);
+
+		Machine machine = new Machine();
+		machine.resetMemory(true);
+		for (Program prg : prgs) {
+			machine.putProgram(prg);
+		}
+		image = machine.getRam().clone();
+	}
+
+	/**
+	 * Creates a new template instance based on this compiled template.
+	 *
+	 * @return the template
+	 */
+	public Template createTemplate() {
+		return new Template(this, null);
+	}
+
+	/**
+	 * Returns the BASIC code that has been created by parsing the template.
+	 *
+	 * @return the code
+	 */
+	public String getBasicCode() {
+		return basicCode;
+	}
+
+	/**
+	 * Gets the path of the template in the file system, if one has been set.
+	 *
+	 * @return the path or null, if none has been set
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	public CompilerConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * Returns the static parts by the numbers used in their SYS1000 calls.
+	 *
+	 * @return the static parts
+	 */
+	Map<Integer, TemplatePart> getStaticParts() {
+		return staticParts;
+	}
+
+	/**
+	 * Returns the programs assembled from the template's inline assembly code.
+	 *
+	 * @return the programs
+	 */
+	List<Program> getPrograms() {
+		return prgs;
+	}
+
+	/**
+	 * Returns the memory image that every run of the template starts with. It
+	 * must not be modified.
+	 *
+	 * @return the image
+	 */
+	int[] getImage() {
+		return image;
+	}
+
+	/**
+	 * Parses the template.
+	 *
+	 * @param template the template
+	 * @param parts    the map to store the static parts in
+	 * @param programs the list to store the assembled programs in
+	 * @return the BASIC code
+	 */
+	private String parseTemplate(String template, Map<Integer, TemplatePart> parts, List<Program> programs) {
+		int pl = template.toLowerCase(Locale.ENGLISH).indexOf("<!labels>");
+		boolean labels = pl != -1;
+		if (labels) {
+			template += "<?cbm REM end ?>";
+			template = template.substring(0, pl) + template.substring(pl + 9);
+		} else {
+			template += "<?cbm 9999999 REM end ?>";
+		}
+		String utemp = VarUtils.toUpper(template);
+		int pos = 0;
+		int last = 0;
+		int lastLine = 0;
+		StringBuilder code = new StringBuilder();
+
+		do {
+			int opos = pos;
+			pos = utemp.indexOf("<?CBM", opos);
+
+			if (pos != -1) {
+				int pos2 = -1;
+				boolean inString = false;
+				for (int i = pos; i < utemp.length() - 1; i++) {
+					char c = utemp.charAt(i);
+					if (c == '"') {
+						inString = !inString;
+					}
+					if (!inString && c == '?' && utemp.charAt(i + 1) == '>') {
+						pos2 = i + 2;
+						break;
+					}
+				}
+				if (pos2 == -1) {
+					throw new RuntimeException("Syntax error in template, no closing ?> found!");
+				}
+
+				String prior = template.substring(last, pos);
+				String codePart = template.substring(pos + 5, pos2 - 2);
+				int firstLine = -1;
+				int endLine = -1;
+
+				boolean asm = codePart.toLowerCase(Locale.ENGLISH).startsWith(":asm");
+				if (asm) {
+					codePart = codePart.substring(4);
+				}
+
+				String[] lines = codePart.split("\n");
+
+				if (!asm) {
+					if (!labels) {
+						// Normal BASIC code with line numbers
+						for (String line : lines) {
+							line = line.replace("\t", "").trim();
+							if (!line.isEmpty()) {
+								Line lo = Line.getLine(line);
+								firstLine = lo.getNumber();
+								break;
+							}
+						}
+
+						for (int i = lines.length - 1; i >= 0; i--) {
+							String line = lines[i];
+							line = line.replace("\t", "").trim();
+							if (!line.isEmpty()) {
+								Line lo = Line.getLine(line);
+								endLine = lo.getNumber();
+								break;
+							}
+						}
+
+						if (firstLine <= lastLine) {
+							throw new RuntimeException("Line numbers (" + firstLine + "/" + lastLine
+									+ ") too close, can't insert static content into template!");
+						}
+
+						lastLine = addStaticPart(lastLine, code, prior, firstLine, labels, parts);
+						prior = null;
+						lastLine = endLine;
+					} else {
+						// BASIC code with labels instead of line numbers
+						if (!prior.isEmpty()) {
+							TemplatePart tp = new TemplatePart(prior);
+							prior = null;
+							lastLine++;
+							code.append("SYS1000,").append(lastLine).append('\n');
+							parts.put(lastLine, tp);
+						}
+					}
+					code.append(codePart).append('\n');
+				} else {
+					lastLine = addStaticPart(lastLine, code, prior, firstLine, labels, parts);
+					prior = null;
+					Assembler assem = new Assembler(lines);
+					assem.compile(config);
+					programs.add(assem.getProgram());
+				}
+				last = pos2;
+				pos = pos2;
+			}
+		} while (pos != -1);
+
+		if (labels) {
+			String[] lines = code.toString().split("\n");
+			lines = Preprocessor.convertToLineNumbers(lines);
+			code.setLength(0);
+			for (String line : lines) {
+				code.append(line).append('\n');
+			}
+		}
+		// System.out.println(code);
+		return code.toString();
+	}
+
+	private int addStaticPart(int lastLine, StringBuilder code, String prior, int firstLine, boolean labels,
+			Map<Integer, TemplatePart> parts) {
+		if (!prior.isEmpty()) {
+			TemplatePart tp = new TemplatePart(prior);
+			tp.setFirstLine(lastLine);
+			tp.setLastLine(firstLine - 1);
+			lastLine++;
+			code.append(labels ? "" : lastLine).append(" SYS1000,").append(lastLine).append('\n');
+			parts.put(lastLine, tp);
+		}
+		return lastLine;
+	}
+}
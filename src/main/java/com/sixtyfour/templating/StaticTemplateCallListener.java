@@ -9,7 +9,8 @@ import com.sixtyfour.system.Machine;
 /**
  * A listener used to process templates. Template parsing inserts SYS1000 calls
  * into the program, which will output the template's static content. This is
- * done here. All other SYS-calls will be redirect to an internal instance of
+ * done here. A SYS1001 without parameters flushes the output, if it's being
+ * streamed. All other SYS-calls will be redirect to an internal instance of
  * RamSystemCallListener.
  */
 public class StaticTemplateCallListener implements SystemCallListener {
@@ -42,7 +43,9 @@ public class StaticTemplateCallListener implements SystemCallListener {
 	@Override
 	public void sys(int addr, Object... params) {
 		if (addr == 1000 && params != null && params.length == 1) {
-			out.print(0, parts.get(params[0]).getContent());
+			out.print(parts.get(params[0]));
+		} else if (addr == 1001 && params == null) {
+			out.flush();
 		} else {
 			ramCaller.sys(addr, params);
 		}
@@ -1,22 +1,17 @@
 package com.sixtyfour.templating;
 
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.HashMap;
-import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import com.sixtyfour.Assembler;
 import com.sixtyfour.Basic;
 import com.sixtyfour.config.CompilerConfig;
 import com.sixtyfour.elements.Variable;
-import com.sixtyfour.parser.Line;
-import com.sixtyfour.parser.Preprocessor;
 import com.sixtyfour.plugins.CpuCallListener;
 import com.sixtyfour.system.Cpu;
 import com.sixtyfour.system.Machine;
-import com.sixtyfour.system.Program;
 import com.sixtyfour.util.VarUtils;
 
 /**
@@ -26,7 +21,10 @@ import com.sixtyfour.util.VarUtils;
  * enough number space left between lines. See the test package for an example
  * template. A template isn't thread-safe, i.e. if you want to serve multiple
  * clients at a time with the same template, you have to create multiple
- * template instances and manage them in a ThreadLocal for example.
+ * template instances and manage them in a ThreadLocal for example. Multiple
+ * instances can share the same CompiledTemplate, which saves parsing the
+ * template for each of them. A TemplatePool manages such instances without
+ * binding them to threads.
  */
 public class Template {
 
@@ -35,18 +33,17 @@ public class Template {
 
 	private Basic basic = null;
 
-	private List<Program> prgs = new ArrayList<Program>();
+	/** The parsed template. */
+	private CompiledTemplate compiled;
 
-	/** The static parts. */
-	private Map<Integer, TemplatePart> staticParts = new HashMap<Integer, TemplatePart>();
+	/** The slots of the variables by the names used to set them. */
+	private Map<String, Integer> slots = new HashMap<String, Integer>();
 
 	/** The out. */
 	private TemplateOutputChannel out;
 
-	private String basicCode;
-
 	private String path;
-	
+
 	private CompilerConfig config;
 
 	/**
@@ -56,11 +53,24 @@ public class Template {
 	 * @param variables the variables to prefill the template with
 	 */
 	public Template(CompilerConfig config, String template, Map<String, Object> variables) {
+		this(new CompiledTemplate(config, template, null), variables);
+	}
+
+	/**
+	 * Instantiates a new template based on an already parsed one. Only the BASIC
+	 * code will be compiled for this instance.
+	 * 
+	 * @param compiled  the parsed template
+	 * @param variables the variables to prefill the template with
+	 */
+	public Template(CompiledTemplate compiled, Map<String, Object> variables) {
 		if (variables != null) {
 			vars.putAll(variables);
 		}
-		this.config = config;
-		parseTemplate(template);
+		this.compiled = compiled;
+		this.config = compiled.getConfig();
+		this.path = compiled.getPath();
+		setup();
 	}
 
 	/**
@@ -118,7 +128,16 @@ public class Template {
 	 * @return the code
 	 */
 	public String getBasicCode() {
-		return basicCode;
+		return compiled.getBasicCode();
+	}
+
+	/**
+	 * Returns the parsed template that this instance is based on.
+	 * 
+	 * @return the parsed template
+	 */
+	public CompiledTemplate getCompiledTemplate() {
+		return compiled;
 	}
 
 	/**
@@ -142,18 +161,57 @@ public class Template {
 	 */
 	public String process() {
 		out.reset();
-		Machine machine = basic.getMachine();
-		machine.resetMemory(true);
-		machine.getCpu().reset();
-		for (Program prg : prgs) {
-			machine.putProgram(prg);
+		start();
+		return out.getResult();
+	}
+
+	/**
+	 * Processes the templates and streams the output into a writer. The output is
+	 * buffered and written whenever the buffer is full, if the template calls
+	 * SYS1001 and when processing has been finished. The writer will be flushed
+	 * in these cases but it won't be closed. This resets the underlying machine
+	 * instance.
+	 * 
+	 * @param writer the writer
+	 */
+	public void process(Writer writer) {
+		out.stream(writer);
+		try {
+			start();
+			out.flush();
+		} finally {
+			out.reset();
 		}
-		for (Map.Entry<String, Object> var : vars.entrySet()) {
-			Variable vary = new Variable(VarUtils.toUpper(var.getKey()), var.getValue());
-			machine.addOrSet(vary);
+	}
+
+	/**
+	 * Processes the templates and streams the output into a stream encoded in
+	 * UTF-8. The output is buffered and written whenever the buffer is full, if
+	 * the template calls SYS1001 and when processing has been finished. The stream
+	 * will be flushed in these cases but it won't be closed. This resets the
+	 * underlying machine instance.
+	 * 
+	 * @param stream the stream
+	 */
+	public void process(OutputStream stream) {
+		out.stream(stream);
+		try {
+			start();
+			out.flush();
+		} finally {
+			out.reset();
 		}
-		basic.start(config);
-		return out.getResult();
+	}
+
+	/**
+	 * Sets the size of the buffer used by process(Writer) and
+	 * process(OutputStream). The default is
+	 * TemplateOutputChannel.DEFAULT_BUFFER_SIZE.
+	 * 
+	 * @param bufferSize the size in chars or bytes
+	 */
+	public void setBufferSize(int bufferSize) {
+		out.setBufferSize(bufferSize);
 	}
 
 	/**
@@ -197,127 +255,66 @@ public class Template {
 	}
 
 	/**
-	 * Parses the template.
+	 * Processes a part of a template and prints its output into another channel.
 	 * 
-	 * @param template the template
+	 * @param target the other channel
 	 */
-	private void parseTemplate(String template) {
-		int pl = template.toLowerCase(Locale.ENGLISH).indexOf("<!labels>");
-		boolean labels = pl != -1;
-		if (labels) {
-			template += "<?cbm REM end ?>";
-			template = template.substring(0, pl) + template.substring(pl + 9);
-		} else {
-			template += "<?cbm 9999999 REM end ?>";
+	void processPart(TemplateOutputChannel target) {
+		out.reset();
+		out.redirect(target);
+		try {
+			basic.start(config);
+		} finally {
+			out.redirect(null);
 		}
-		String utemp = VarUtils.toUpper(template);
-		int pos = 0;
-		int last = 0;
-		int lastLine = 0;
-		StringBuilder code = new StringBuilder();
-
-		do {
-			int opos = pos;
-			pos = utemp.indexOf("<?CBM", opos);
-
-			if (pos != -1) {
-				int pos2 = -1;
-				boolean inString = false;
-				for (int i = pos; i < utemp.length() - 1; i++) {
-					char c = utemp.charAt(i);
-					if (c == '"') {
-						inString = !inString;
-					}
-					if (!inString && c == '?' && utemp.charAt(i + 1) == '>') {
-						pos2 = i + 2;
-						break;
-					}
-				}
-				if (pos2 == -1) {
-					throw new RuntimeException("Syntax error in template, no closing ?> found!");
-				}
-
-				String prior = template.substring(last, pos);
-				String codePart = template.substring(pos + 5, pos2 - 2);
-				int firstLine = -1;
-				int endLine = -1;
+	}
 
-				boolean asm = codePart.toLowerCase(Locale.ENGLISH).startsWith(":asm");
-				if (asm) {
-					codePart = codePart.substring(4);
-				}
+	/**
+	 * Resets the machine, sets the variables and runs the program.
+	 */
+	private void start() {
+		Machine machine = basic.getMachine();
+		machine.resetMemory(compiled.getImage());
+		machine.getCpu().reset();
+		for (Map.Entry<String, Object> var : vars.entrySet()) {
+			setVariableValue(machine, var.getKey(), var.getValue());
+		}
+		basic.start(config);
+	}
 
-				String[] lines = codePart.split("\n");
-
-				if (!asm) {
-					if (!labels) {
-						// Normal BASIC code with line numbers
-						for (String line : lines) {
-							line = line.replace("\t", "").trim();
-							if (!line.isEmpty()) {
-								Line lo = Line.getLine(line);
-								firstLine = lo.getNumber();
-								break;
-							}
-						}
-
-						for (int i = lines.length - 1; i >= 0; i--) {
-							String line = lines[i];
-							line = line.replace("\t", "").trim();
-							if (!line.isEmpty()) {
-								Line lo = Line.getLine(line);
-								endLine = lo.getNumber();
-								break;
-							}
-						}
-
-						if (firstLine <= lastLine) {
-							throw new RuntimeException("Line numbers (" + firstLine + "/" + lastLine
-									+ ") too close, can't insert static content into template!");
-						}
-
-						lastLine = addStaticPart(lastLine, code, prior, firstLine, labels);
-						prior = null;
-						lastLine = endLine;
-					} else {
-						// BASIC code with labels instead of line numbers
-						if (!prior.isEmpty()) {
-							TemplatePart tp = new TemplatePart(prior);
-							prior = null;
-							lastLine++;
-							code.append("SYS1000,").append(lastLine).append('\n');
-							staticParts.put(lastLine, tp);
-						}
-					}
-					code.append(codePart).append('\n');
-				} else {
-					lastLine = addStaticPart(lastLine, code, prior, firstLine, labels);
-					prior = null;
-					Assembler assem = new Assembler(lines);
-					assem.compile(config);
-					prgs.add(assem.getProgram());
-				}
-				last = pos2;
-				pos = pos2;
-			}
-		} while (pos != -1);
-
-		if (labels) {
-			String[] lines = code.toString().split("\n");
-			lines = Preprocessor.convertToLineNumbers(lines);
-			code.setLength(0);
-			for (String line : lines) {
-				code.append(line).append('\n');
+	/**
+	 * Sets a variable in the machine. The first time a name is used, a new
+	 * Variable will be created for it, which also validates the name. Its slot
+	 * will be remembered, so that later calls can set the value of the existing
+	 * variable directly.
+	 * 
+	 * @param machine the machine
+	 * @param name    the name of the variable
+	 * @param value   the value
+	 */
+	private void setVariableValue(Machine machine, String name, Object value) {
+		Integer slot = slots.get(name);
+		if (slot != null) {
+			Variable existing = machine.getVariable(slot);
+			if (existing != null) {
+				existing.setValue(value);
+				return;
 			}
 		}
-		// System.out.println(code);
+		Variable vary = machine.addOrSet(new Variable(VarUtils.toUpper(name), value));
+		slots.put(name, machine.getSlot(vary.getUpperCaseName()));
+	}
 
-		basicCode = code.toString();
-		basic = new Basic(basicCode);
+	/**
+	 * Compiles the BASIC code and sets up the machine to run it.
+	 */
+	private void setup() {
+		basic = new Basic(compiled.getBasicCode());
 		basic.compile(config);
 		out = new TemplateOutputChannel();
 		basic.setOutputChannel(out);
-		basic.getMachine().setSystemCallListener(new StaticTemplateCallListener(staticParts, out, basic.getMachine()));
+		basic.getMachine().setSystemCallListener(
+				new StaticTemplateCallListener(compiled.getStaticParts(), out, basic.getMachine()));
 		basic.getMachine().setDeviceProvider(new TemplateDeviceProvider(basic, this));
 		basic.getMachine().getCpu().setCpuCallListener(new CpuCallListener() {
 			@Override
@@ -332,16 +329,4 @@ public class Template {
 			}
 		});
 	}
-
-	private int addStaticPart(int lastLine, StringBuilder code, String prior, int firstLine, boolean labels) {
-		if (!prior.isEmpty()) {
-			TemplatePart tp = new TemplatePart(prior);
-			tp.setFirstLine(lastLine);
-			tp.setLastLine(firstLine - 1);
-			lastLine++;
-			code.append(labels ? "" : lastLine).append(" SYS1000,").append(lastLine).append('\n');
-			staticParts.put(lastLine, tp);
-		}
-		return lastLine;
-	}
 }
@@ -55,8 +55,12 @@ public class TemplateDeviceProvider extends MemoryDeviceProvider {
 					tmpl.getMachine().addOrSet(entry.getValue());
 				}
 
-				String result = tmpl.processPart();
-				oo.print(0, result);
+				if (oo instanceof TemplateOutputChannel) {
+					tmpl.processPart((TemplateOutputChannel) oo);
+				} else {
+					String result = tmpl.processPart();
+					oo.print(0, result);
+				}
 			} finally {
 				//
 			}
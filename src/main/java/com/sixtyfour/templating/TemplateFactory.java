@@ -12,7 +12,8 @@ import com.sixtyfour.config.CompilerConfig;
  * if you want to serve multiple clients at a time with the same template, you
  * have to create multiple template instances and manage them in a ThreadLocal
  * for example. The TemplateManager class has a basic implementation of this
- * approach.
+ * approach. Alternatively, a CompiledTemplate can be shared by a TemplatePool
+ * that hands out instances to the threads that need them.
  * 
  * @author EgonOlsen
  */
@@ -39,4 +40,16 @@ public class TemplateFactory {
 		return new Template(config, Loader.loadText(input), variables);
 	}
 
+	/**
+	 * Gets a parsed template, which can be used to create any number of template
+	 * instances.
+	 * 
+	 * @param input the inputstream of the template file
+	 * @param path  the path of the template file, may be null
+	 * @return the parsed template
+	 */
+	public static CompiledTemplate getCompiledTemplate(CompilerConfig config, InputStream input, String path) {
+		return new CompiledTemplate(config, Loader.loadText(input), path);
+	}
+
 }
@@ -1,28 +1,51 @@
 package com.sixtyfour.templating;
 
 import java.io.FileInputStream;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import com.sixtyfour.Logger;
 import com.sixtyfour.config.CompilerConfig;
 
-
 /**
- * Manages templates bound to threads. For each thread, you'll get an individual
- * template instance. If the template file has changed on disk, a new instance
- * will be created. Otherwise, the existing instance for a thread will be
- * recycled.
- * 
+ * Manages templates. Each template will be parsed once and shared by all
+ * threads. For each thread, you'll get an individual template instance from
+ * getTemplate(), which will be recycled on later calls. Alternatively,
+ * getPool() returns a pool of instances that aren't bound to threads.<br/>
+ * Looking up a template doesn't lock. Whether a template file has changed on
+ * disk will be checked by a background thread in regular intervals. If it has,
+ * the template will be parsed again in that thread. The old version will be
+ * used until the new one is ready. The number of templates is limited. If it's
+ * exceeded, the least recently used template will be removed.
+ *
  * @author EgonOlsen
- * 
+ *
  */
 public class TemplateManager {
-	private Map<TemplateInfo, ThreadLocal<Template>> templates = new HashMap<TemplateInfo, ThreadLocal<Template>>();
-	private Map<String, TemplateInfo> templateInfos = new HashMap<String, TemplateInfo>();
+
+	/** The default interval for checking the template files for changes in ms. */
+	public static final long DEFAULT_CHECK_INTERVAL = 2000;
+
+	/** The default maximum number of templates. */
+	public static final int DEFAULT_MAX_TEMPLATES = 1000;
+
+	/** The default maximum number of idle instances in each template's pool. */
+	public static final int DEFAULT_POOL_SIZE = 16;
+
+	private Map<String, Entry> templates = new ConcurrentHashMap<String, Entry>();
 	private static TemplateManager instance = new TemplateManager();
 	private CompilerConfig config = new CompilerConfig();
 
+	private volatile int maxTemplates = DEFAULT_MAX_TEMPLATES;
+	private volatile int poolSize = DEFAULT_POOL_SIZE;
+	private long checkInterval = DEFAULT_CHECK_INTERVAL;
+	private ScheduledExecutorService checker = null;
+	private ScheduledFuture<?> checkTask = null;
+
 	public static TemplateManager getInstance() {
 		return instance;
 	}
@@ -33,56 +56,185 @@ public class TemplateManager {
 
 	/**
 	 * Returns a template instance for the given path and the current thread.
-	 * 
+	 *
 	 * @param pathToTemplate
 	 * @return the template instance
-	 * @todo This method is synchronized, which is a very mindless way of making
-	 *       sure that nothing goes wrong here. This should be improved, but I can't
-	 *       be bothered right now.
 	 */
-	public synchronized Template getTemplate(String pathToTemplate) {
-		TemplateInfo existing = templateInfos.get(pathToTemplate);
-		if (existing == null) {
-			existing = new TemplateInfo(pathToTemplate);
-			ThreadLocal<Template> tl = new ThreadLocal<Template>();
-			templates.put(existing, tl);
-
-			Template tmpl = createTemplate(config, pathToTemplate, existing, tl);
-			templateInfos.put(pathToTemplate, existing);
-			return tmpl;
-		} else {
-			if (existing.hasChanged()) {
-				Logger.log("Template " + pathToTemplate + " has been modified, reloading...");
-				templates.remove(existing);
-			}
+	public Template getTemplate(String pathToTemplate) {
+		Entry entry = getEntry(pathToTemplate);
+		TemplatePool pool = entry.pool;
+		Template tmpl = entry.local.get();
+		if (tmpl == null || tmpl.getCompiledTemplate() != pool.getCompiledTemplate()) {
+			Logger.log("Creating new template instance for " + pathToTemplate);
+			tmpl = pool.getCompiledTemplate().createTemplate();
+			entry.local.set(tmpl);
+		}
+		return tmpl;
+	}
+
+	/**
+	 * Returns the pool of template instances for the given path. The returned pool
+	 * belongs to the current version of the template. If the template file has
+	 * changed, later calls will return a new pool.
+	 *
+	 * @param pathToTemplate
+	 * @return the pool
+	 */
+	public TemplatePool getPool(String pathToTemplate) {
+		return getEntry(pathToTemplate).pool;
+	}
 
-			ThreadLocal<Template> tl = templates.get(existing);
-			if (tl == null) {
-				tl = new ThreadLocal<Template>();
-				templates.put(existing, tl);
-				return createTemplate(config, pathToTemplate, existing, tl);
-			} else {
-				Template tmpl = tl.get();
-				if (tmpl == null) {
-					return createTemplate(config, pathToTemplate, existing, tl);
+	/**
+	 * Checks all templates for changes of their files and parses the changed ones
+	 * again. This is done by a background thread in regular intervals, so there's
+	 * no need to call this method unless the checks have been disabled.
+	 */
+	public void checkForChanges() {
+		for (Entry entry : templates.values()) {
+			if (entry.info.hasChanged()) {
+				String path = entry.info.getPath();
+				Logger.log("Template " + path + " has been modified, reloading...");
+				try {
+					entry.pool = createPool(path, entry.info);
+				} catch (Exception e) {
+					Logger.log("Unable to reload template " + path + ", keeping the old version: " + e.getMessage());
 				}
-				return tmpl;
 			}
 		}
 	}
 
-	private Template createTemplate(CompilerConfig config, String pathToTemplate, TemplateInfo existing,
-			ThreadLocal<Template> tl) {
-		try {
-			Logger.log("Creating new template instance for " + pathToTemplate);
-			Template tmpl = TemplateFactory.getTemplate(config, new FileInputStream(pathToTemplate), null);
-			tl.set(tmpl);
-			tmpl.setPath(pathToTemplate);
-			existing.setBasicCode(tmpl.getBasicCode());
-			return tmpl;
+	/**
+	 * Sets the interval in which the template files will be checked for changes.
+	 * The default is DEFAULT_CHECK_INTERVAL.
+	 *
+	 * @param checkInterval the interval in ms, 0 disables the checks
+	 */
+	public synchronized void setCheckInterval(long checkInterval) {
+		this.checkInterval = checkInterval;
+		if (checkTask != null) {
+			checkTask.cancel(false);
+			checkTask = null;
+		}
+		if (!templates.isEmpty()) {
+			startChecks();
+		}
+	}
+
+	/**
+	 * Sets the maximum number of templates. If more templates are being used, the
+	 * least recently used ones will be removed. The default is
+	 * DEFAULT_MAX_TEMPLATES.
+	 *
+	 * @param maxTemplates the maximum number
+	 */
+	public void setMaxTemplates(int maxTemplates) {
+		if (maxTemplates < 1) {
+			throw new RuntimeException("Invalid number of templates: " + maxTemplates);
+		}
+		this.maxTemplates = maxTemplates;
+		evict();
+	}
+
+	/**
+	 * Sets the maximum number of idle instances in the pool of each template. The
+	 * new size applies to templates that are loaded or reloaded afterwards. The
+	 * default is DEFAULT_POOL_SIZE.
+	 *
+	 * @param poolSize the maximum number
+	 */
+	public void setPoolSize(int poolSize) {
+		if (poolSize < 1) {
+			throw new RuntimeException("Invalid pool size: " + poolSize);
+		}
+		this.poolSize = poolSize;
+	}
+
+	/**
+	 * Returns the number of templates currently managed.
+	 *
+	 * @return the number
+	 */
+	public int getTemplateCount() {
+		return templates.size();
+	}
+
+	private Entry getEntry(String pathToTemplate) {
+		Entry entry = templates.get(pathToTemplate);
+		if (entry == null) {
+			entry = templates.computeIfAbsent(pathToTemplate, path -> {
+				TemplateInfo info = new TemplateInfo(path);
+				return new Entry(info, createPool(path, info));
+			});
+			evict();
+			startChecks();
+		}
+		entry.lastUsed = System.nanoTime();
+		return entry;
+	}
+
+	private TemplatePool createPool(String pathToTemplate, TemplateInfo info) {
+		try (FileInputStream input = new FileInputStream(pathToTemplate)) {
+			Logger.log("Parsing template " + pathToTemplate);
+			CompiledTemplate compiled = TemplateFactory.getCompiledTemplate(config, input, pathToTemplate);
+			info.setBasicCode(compiled.getBasicCode());
+			return new TemplatePool(compiled, poolSize);
 		} catch (Exception e) {
 			throw new RuntimeException("Unable to instantiate template: " + pathToTemplate, e);
 		}
 	}
 
+	private void evict() {
+		while (templates.size() > maxTemplates) {
+			Entry oldest = null;
+			for (Entry entry : templates.values()) {
+				if (oldest == null || entry.lastUsed < oldest.lastUsed) {
+					oldest = entry;
+				}
+			}
+			if (oldest == null) {
+				break;
+			}
+			Logger.log("Removing template " + oldest.info.getPath());
+			templates.remove(oldest.info.getPath(), oldest);
+		}
+	}
+
+	private synchronized void startChecks() {
+		if (checkTask != null || checkInterval <= 0) {
+			return;
+		}
+		if (checker == null) {
+			checker = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "Template reloader");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		checkTask = checker.scheduleWithFixedDelay(() -> {
+			try {
+				checkForChanges();
+			} catch (Throwable t) {
+				Logger.log("Failed to check templates for changes", t);
+			}
+		}, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * A template managed by this class.
+	 */
+	private static class Entry {
+
+		private TemplateInfo info;
+
+		private volatile TemplatePool pool;
+
+		private ThreadLocal<Template> local = new ThreadLocal<Template>();
+
+		private volatile long lastUsed = System.nanoTime();
+
+		private Entry(TemplateInfo info, TemplatePool pool) {
+			this.info = info;
+			this.pool = pool;
+		}
+	}
 }
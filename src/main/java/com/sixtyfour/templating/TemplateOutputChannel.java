@@ -1,16 +1,28 @@
 package com.sixtyfour.templating;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
 import com.sixtyfour.plugins.OutputChannel;
 import com.sixtyfour.plugins.PrintConsumer;
 
 /**
  * An output channel for the templates. Template content shouldn't be printed
- * onto the console, so it will be redirected into here instead.
+ * onto the console, so it will be redirected into here instead. By default,
+ * the output will be collected in memory. Alternatively, it can be streamed
+ * into a Writer or (encoded in UTF-8) into an OutputStream. In that case, it's
+ * collected in a buffer of limited size, which will be written whenever it's
+ * full or if flush() is being called.
  * 
  * @author EgonOlsen
  */
 public class TemplateOutputChannel implements OutputChannel {
 
+	/** The default size of the buffer used when streaming the output. */
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
 	/** The cursor. */
 	private int cursor = 0;
 
@@ -23,6 +35,27 @@ public class TemplateOutputChannel implements OutputChannel {
 	/** The result. */
 	private StringBuilder result = new StringBuilder();
 
+	/** The size of the buffer used when streaming the output. */
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	/** The writer to stream the output into. */
+	private Writer writer = null;
+
+	/** The stream to stream the output into. */
+	private OutputStream stream = null;
+
+	/** The buffer for the writer. */
+	private char[] chars = null;
+
+	/** The buffer for the stream. */
+	private byte[] bytes = null;
+
+	/** The number of chars or bytes in the buffer. */
+	private int count = 0;
+
+	/** The channel to redirect the output to. */
+	private TemplateOutputChannel target = null;
+
 	/**
 	 * Instantiates a new template output channel.
 	 */
@@ -31,13 +64,107 @@ public class TemplateOutputChannel implements OutputChannel {
 	}
 
 	/**
-	 * Reset.
+	 * Reset. This will also stop streaming the output, but it won't write what's
+	 * left in the buffer.
 	 */
 	public void reset() {
 		cursor = 0;
 		channel = 0;
 		otherConsumer = null;
 		result.setLength(0);
+		writer = null;
+		stream = null;
+		count = 0;
+	}
+
+	/**
+	 * Resets the channel and streams the output into a writer from now on.
+	 * 
+	 * @param writer the writer
+	 */
+	public void stream(Writer writer) {
+		reset();
+		if (chars == null || chars.length != bufferSize) {
+			chars = new char[bufferSize];
+		}
+		this.writer = writer;
+	}
+
+	/**
+	 * Resets the channel and streams the output into a stream from now on. The
+	 * output will be encoded in UTF-8.
+	 * 
+	 * @param stream the stream
+	 */
+	public void stream(OutputStream stream) {
+		reset();
+		if (bytes == null || bytes.length != bufferSize) {
+			bytes = new byte[bufferSize];
+		}
+		this.stream = stream;
+	}
+
+	/**
+	 * Sets the size of the buffer used when streaming the output. The new size
+	 * will be used the next time streaming starts.
+	 * 
+	 * @param bufferSize the size in chars or bytes
+	 */
+	public void setBufferSize(int bufferSize) {
+		if (bufferSize < 1) {
+			throw new RuntimeException("Invalid buffer size: " + bufferSize);
+		}
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Redirects all output into another channel or stops doing so, if null is
+	 * given.
+	 * 
+	 * @param target the other channel or null
+	 */
+	void redirect(TemplateOutputChannel target) {
+		this.target = target;
+	}
+
+	/**
+	 * Prints a part of a template. Static parts will be streamed in their
+	 * pre-encoded form.
+	 * 
+	 * @param part the part
+	 */
+	public void print(TemplatePart part) {
+		if (otherConsumer != null || stream == null && target == null) {
+			print(0, part.getContent());
+		} else if (target != null) {
+			target.print(part);
+		} else {
+			byte[] content = part.getBytes();
+			setCursor(getCursor() + part.getContent().length());
+			write(content, 0, content.length);
+		}
+	}
+
+	/**
+	 * Writes the buffered output into the writer or stream and flushes them. If
+	 * the output isn't streamed, nothing will happen.
+	 */
+	public void flush() {
+		if (target != null) {
+			target.flush();
+			return;
+		}
+		try {
+			if (writer != null) {
+				writeBuffer();
+				writer.flush();
+			} else if (stream != null) {
+				writeBuffer();
+				stream.flush();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write template output", e);
+		}
 	}
 
 	/*
@@ -49,9 +176,11 @@ public class TemplateOutputChannel implements OutputChannel {
 	public void print(int id, String txt) {
 		if (otherConsumer != null) {
 			otherConsumer.print(channel, txt);
+		} else if (target != null) {
+			target.print(id, txt);
 		} else {
 			setCursor(getCursor() + txt.length());
-			result.append(txt);
+			append(txt);
 		}
 	}
 
@@ -64,9 +193,11 @@ public class TemplateOutputChannel implements OutputChannel {
 	public void println(int id, String txt) {
 		if (otherConsumer != null) {
 			otherConsumer.println(channel, txt);
+		} else if (target != null) {
+			target.println(id, txt);
 		} else {
-			result.append(txt);
-			result.append("\n");
+			append(txt);
+			append("\n");
 			setCursor(0);
 		}
 	}
@@ -124,7 +255,7 @@ public class TemplateOutputChannel implements OutputChannel {
 	}
 
 	/**
-	 * Gets the result.
+	 * Gets the result. If the output has been streamed, it's empty.
 	 * 
 	 * @return the result
 	 */
@@ -152,4 +283,59 @@ public class TemplateOutputChannel implements OutputChannel {
 		// this.println(id, txt);
 	}
 
+	private void append(String txt) {
+		if (writer != null) {
+			int len = txt.length();
+			if (count + len > chars.length) {
+				writeBuffer();
+			}
+			if (len >= chars.length) {
+				try {
+					writer.write(txt);
+				} catch (IOException e) {
+					throw new RuntimeException("Unable to write template output", e);
+				}
+			} else {
+				txt.getChars(0, len, chars, count);
+				count += len;
+			}
+		} else if (stream != null) {
+			byte[] content = txt.getBytes(StandardCharsets.UTF_8);
+			write(content, 0, content.length);
+		} else {
+			result.append(txt);
+		}
+	}
+
+	private void write(byte[] content, int offset, int len) {
+		if (count + len > bytes.length) {
+			writeBuffer();
+		}
+		if (len >= bytes.length) {
+			try {
+				stream.write(content, offset, len);
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to write template output", e);
+			}
+		} else {
+			System.arraycopy(content, offset, bytes, count, len);
+			count += len;
+		}
+	}
+
+	private void writeBuffer() {
+		if (count == 0) {
+			return;
+		}
+		try {
+			if (writer != null) {
+				writer.write(chars, 0, count);
+			} else {
+				stream.write(bytes, 0, count);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to write template output", e);
+		}
+		count = 0;
+	}
 }
@@ -1,5 +1,7 @@
 package com.sixtyfour.templating;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * A part of a template. Used for parsing the template, so there's no need to
  * use this directly.
@@ -18,6 +20,12 @@ public class TemplatePart {
 	/** The dynamic. */
 	private boolean dynamic;
 
+	/** The content of a static part. */
+	private String text;
+
+	/** The content of a static part, encoded in UTF-8. */
+	private byte[] bytes;
+
 	/**
 	 * Instantiates a new template part.
 	 */
@@ -33,6 +41,7 @@ public class TemplatePart {
 	public TemplatePart(String staticText) {
 		content.append(staticText);
 		dynamic = false;
+		encode();
 	}
 
 	/**
@@ -51,6 +60,9 @@ public class TemplatePart {
 	 */
 	public void append(String txt) {
 		content.append(txt);
+		if (!dynamic) {
+			encode();
+		}
 	}
 
 	/**
@@ -95,9 +107,26 @@ public class TemplatePart {
 	 * @return the content
 	 */
 	public String getContent() {
+		if (!dynamic) {
+			return text;
+		}
 		return content.toString();
 	}
 
+	/**
+	 * Gets the content encoded in UTF-8. For static parts, this has been done
+	 * once when the part has been created. The returned array must not be
+	 * modified.
+	 * 
+	 * @return the content
+	 */
+	public byte[] getBytes() {
+		if (!dynamic) {
+			return bytes;
+		}
+		return content.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
 	/**
 	 * Checks if is dynamic.
 	 * 
@@ -106,4 +135,9 @@ public class TemplatePart {
 	public boolean isDynamic() {
 		return dynamic;
 	}
+
+	private void encode() {
+		text = content.toString();
+		bytes = text.getBytes(StandardCharsets.UTF_8);
+	}
 }
@@ -0,0 +1,163 @@
+package com.sixtyfour.templating;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A pool of template instances that share the same CompiledTemplate. Unlike
+ * the TemplateManager, it doesn't bind instances to threads. A thread borrows
+ * an idle instance for rendering and returns it afterwards, so that the number
+ * of instances depends on the number of concurrent renders and not on the
+ * number of threads. If no idle instance is available, a new one will be
+ * created. The pool keeps at most maxSize idle instances, all others will be
+ * discarded when they are being returned. The pool doesn't use any locks, so
+ * it can be used from any number of threads at the same time.
+ *
+ * @author EgonOlsen
+ */
+public class TemplatePool {
+
+	private CompiledTemplate compiled;
+
+	private AtomicReferenceArray<Template> idle;
+
+	/**
+	 * Creates a new pool.
+	 *
+	 * @param compiled the parsed template
+	 * @param maxSize  the maximum number of idle instances to keep
+	 */
+	public TemplatePool(CompiledTemplate compiled, int maxSize) {
+		if (maxSize < 1) {
+			throw new RuntimeException("Invalid pool size: " + maxSize);
+		}
+		this.compiled = compiled;
+		idle = new AtomicReferenceArray<Template>(maxSize);
+	}
+
+	/**
+	 * Returns the parsed template that the instances of this pool are based on.
+	 *
+	 * @return the parsed template
+	 */
+	public CompiledTemplate getCompiledTemplate() {
+		return compiled;
+	}
+
+	/**
+	 * Renders the template with the given variables. This borrows an instance
+	 * from the pool, processes it and returns it to the pool afterwards.
+	 *
+	 * @param variables the variables, following BASIC's naming conventions
+	 * @return the output
+	 */
+	public String render(Map<String, Object> variables) {
+		Template tmpl = borrow();
+		try {
+			tmpl.setVariables(variables);
+			return tmpl.process();
+		} finally {
+			release(tmpl);
+		}
+	}
+
+	/**
+	 * Renders the template with the given variables and streams the output into a
+	 * writer.
+	 *
+	 * @param variables the variables, following BASIC's naming conventions
+	 * @param writer    the writer
+	 */
+	public void render(Map<String, Object> variables, Writer writer) {
+		Template tmpl = borrow();
+		try {
+			tmpl.setVariables(variables);
+			tmpl.process(writer);
+		} finally {
+			release(tmpl);
+		}
+	}
+
+	/**
+	 * Renders the template with the given variables and streams the output into a
+	 * stream encoded in UTF-8.
+	 *
+	 * @param variables the variables, following BASIC's naming conventions
+	 * @param stream    the stream
+	 */
+	public void render(Map<String, Object> variables, OutputStream stream) {
+		Template tmpl = borrow();
+		try {
+			tmpl.setVariables(variables);
+			tmpl.process(stream);
+		} finally {
+			release(tmpl);
+		}
+	}
+
+	/**
+	 * Borrows an instance from the pool. If there is no idle instance, a new one
+	 * will be created. The instance has to be given back by calling release()
+	 * when it's no longer needed.
+	 *
+	 * @return the instance
+	 */
+	public Template borrow() {
+		int size = idle.length();
+		int start = getStart(size);
+		for (int i = 0; i < size; i++) {
+			int pos = (start + i) % size;
+			if (idle.get(pos) != null) {
+				Template tmpl = idle.getAndSet(pos, null);
+				if (tmpl != null) {
+					return tmpl;
+				}
+			}
+		}
+		return compiled.createTemplate();
+	}
+
+	/**
+	 * Gives an instance back to the pool. If the pool is full already, the
+	 * instance will be discarded. Instances based on another parsed template
+	 * will be discarded as well.
+	 *
+	 * @param tmpl the instance
+	 */
+	public void release(Template tmpl) {
+		if (tmpl.getCompiledTemplate() != compiled) {
+			return;
+		}
+		int size = idle.length();
+		int start = getStart(size);
+		for (int i = 0; i < size; i++) {
+			int pos = (start + i) % size;
+			if (idle.get(pos) == null && idle.compareAndSet(pos, null, tmpl)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of idle instances in the pool.
+	 *
+	 * @return the number
+	 */
+	public int getIdleCount() {
+		int cnt = 0;
+		for (int i = 0; i < idle.length(); i++) {
+			if (idle.get(i) != null) {
+				cnt++;
+			}
+		}
+		return cnt;
+	}
+
+	private int getStart(int size) {
+		// Threads start at different positions, so that they don't compete for the
+		// same slots all the time
+		return (int) (Thread.currentThread().getId() % size);
+	}
+}
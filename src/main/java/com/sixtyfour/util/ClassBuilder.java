@@ -0,0 +1,380 @@
+package com.sixtyfour.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal class file writer for the JIT compilers. It supports one class with
+ * some fields and methods, a constant pool, forward jumps and tableswitches.
+ * Class files will be written in version 49, so that no stack map frames are
+ * needed for methods with branches.
+ *
+ * @author EgonOlsen
+ *
+ */
+class ClassBuilder {
+
+	private static int id = 0;
+
+	/**
+	 * Lookup.defineHiddenClass(byte[], boolean) without class options or null, if
+	 * the VM doesn't support hidden classes. It's looked up at runtime, because it
+	 * doesn't exist in Java 11.
+	 */
+	private static final MethodHandle DEFINE_HIDDEN = findDefineHidden();
+
+	private String name;
+	private String superName;
+	private String interfaceName;
+
+	private Map<String, Integer> pool = new HashMap<>();
+	private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private DataOutputStream poolOut = new DataOutputStream(poolBytes);
+	private int poolSize = 1;
+
+	private ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+	private DataOutputStream fieldOut = new DataOutputStream(fieldBytes);
+	private int fieldCount = 0;
+
+	private ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+	private DataOutputStream methodOut = new DataOutputStream(methodBytes);
+	private int methodCount = 0;
+
+	private ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+	private DataOutputStream code = new DataOutputStream(codeBytes);
+	private int stack = 0;
+	private int maxStack = 0;
+	private List<Fixup> fixups = new ArrayList<>();
+
+	/**
+	 * A jump target in the code of the current method.
+	 */
+	static class Label {
+		private int position = -1;
+	}
+
+	/**
+	 * A jump offset that has to be filled in once the target is known.
+	 */
+	private static class Fixup {
+		private int offset;
+		private int start;
+		private int size;
+		private Label label;
+
+		private Fixup(int offset, int start, int size, Label label) {
+			this.offset = offset;
+			this.start = start;
+			this.size = size;
+			this.label = label;
+		}
+	}
+
+	/**
+	 * Creates a new builder for a class with a unique name in the package of this
+	 * class.
+	 *
+	 * @param baseName      the name's prefix, without the package
+	 * @param superName     the internal name of the super class
+	 * @param interfaceName the internal name of the implemented interface or
+	 *                      null
+	 */
+	ClassBuilder(String baseName, String superName, String interfaceName) {
+		synchronized (ClassBuilder.class) {
+			this.name = "com/sixtyfour/util/" + baseName + (id++);
+		}
+		this.superName = superName;
+		this.interfaceName = interfaceName;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	void addField(int access, String fieldName, String desc) throws IOException {
+		fieldOut.writeShort(access);
+		fieldOut.writeShort(utf8(fieldName));
+		fieldOut.writeShort(utf8(desc));
+		fieldOut.writeShort(0);
+		fieldCount++;
+	}
+
+	/**
+	 * Starts the code of a new method.
+	 */
+	void beginMethod() {
+		codeBytes.reset();
+		fixups.clear();
+		stack = 0;
+		maxStack = 0;
+	}
+
+	/**
+	 * Finishes the method whose code has been written since the last call to
+	 * beginMethod().
+	 */
+	void endMethod(int access, String methodName, String desc, int maxLocals) throws IOException {
+		byte[] bytes = codeBytes.toByteArray();
+		for (Fixup fixup : fixups) {
+			int offset = fixup.offset;
+			int target = fixup.label.position - fixup.start;
+			if (fixup.size == 2) {
+				if (target > Short.MAX_VALUE || target < Short.MIN_VALUE) {
+					throw new RuntimeException("Method too large: " + methodName);
+				}
+				bytes[offset] = (byte) (target >> 8);
+				bytes[offset + 1] = (byte) target;
+			} else {
+				bytes[offset] = (byte) (target >> 24);
+				bytes[offset + 1] = (byte) (target >> 16);
+				bytes[offset + 2] = (byte) (target >> 8);
+				bytes[offset + 3] = (byte) target;
+			}
+		}
+
+		methodOut.writeShort(access);
+		methodOut.writeShort(utf8(methodName));
+		methodOut.writeShort(utf8(desc));
+		methodOut.writeShort(1);
+		methodOut.writeShort(utf8("Code"));
+		methodOut.writeInt(12 + bytes.length);
+		methodOut.writeShort(maxStack);
+		methodOut.writeShort(maxLocals);
+		methodOut.writeInt(bytes.length);
+		methodOut.write(bytes);
+		methodOut.writeShort(0);
+		methodOut.writeShort(0);
+		methodCount++;
+	}
+
+	/**
+	 * Writes an opcode and tracks the resulting stack depth.
+	 *
+	 * @param opcode      the opcode
+	 * @param stackChange the change in stack depth caused by that opcode
+	 */
+	void op(int opcode, int stackChange) throws IOException {
+		code.writeByte(opcode);
+		stack += stackChange;
+		maxStack = Math.max(maxStack, stack);
+	}
+
+	void writeByte(int val) throws IOException {
+		code.writeByte(val);
+	}
+
+	void writeShort(int val) throws IOException {
+		code.writeShort(val);
+	}
+
+	/**
+	 * Pushes an int constant onto the stack.
+	 *
+	 * @param val the value
+	 */
+	void pushInt(int val) throws IOException {
+		if (val >= -1 && val <= 5) {
+			op(0x03 + val, 1); // iconst_<n>
+		} else if (val >= Byte.MIN_VALUE && val <= Byte.MAX_VALUE) {
+			op(0x10, 1); // bipush
+			code.writeByte(val);
+		} else {
+			op(0x11, 1); // sipush
+			code.writeShort(val);
+		}
+	}
+
+	/**
+	 * Writes a jump instruction with a 16 bit offset.
+	 *
+	 * @param opcode      the opcode
+	 * @param stackChange the change in stack depth caused by that opcode
+	 * @param label       the target
+	 */
+	void jump(int opcode, int stackChange, Label label) throws IOException {
+		int start = codeBytes.size();
+		op(opcode, stackChange);
+		fixups.add(new Fixup(codeBytes.size(), start, 2, label));
+		code.writeShort(0);
+	}
+
+	/**
+	 * Writes a tableswitch instruction for the keys 0...targets.length-1.
+	 *
+	 * @param targets       the targets
+	 * @param defaultTarget the default target
+	 */
+	void tableSwitch(Label[] targets, Label defaultTarget) throws IOException {
+		int start = codeBytes.size();
+		op(0xaa, -1);
+		while (codeBytes.size() % 4 != 0) {
+			code.writeByte(0);
+		}
+		fixups.add(new Fixup(codeBytes.size(), start, 4, defaultTarget));
+		code.writeInt(0);
+		code.writeInt(0);
+		code.writeInt(targets.length - 1);
+		for (Label target : targets) {
+			fixups.add(new Fixup(codeBytes.size(), start, 4, target));
+			code.writeInt(0);
+		}
+	}
+
+	/**
+	 * Marks the current position in the code as the position of a label.
+	 *
+	 * @param label the label
+	 */
+	void mark(Label label) {
+		label.position = codeBytes.size();
+		stack = 0;
+	}
+
+	/**
+	 * Creates the class file and defines it as a hidden class (or as a normal one,
+	 * if the VM doesn't support hidden classes).
+	 *
+	 * @return a lookup on the new class
+	 */
+	Lookup define() throws IOException, IllegalAccessException {
+		int thisClass = classRef(name);
+		int superClass = classRef(superName);
+		int interfaceClass = interfaceName != null ? classRef(interfaceName) : 0;
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bos);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(49);
+		out.writeShort(poolSize);
+		poolOut.flush();
+		out.write(poolBytes.toByteArray());
+		out.writeShort(0x0031); // public final super
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		if (interfaceName != null) {
+			out.writeShort(1);
+			out.writeShort(interfaceClass);
+		} else {
+			out.writeShort(0);
+		}
+		out.writeShort(fieldCount);
+		fieldOut.flush();
+		out.write(fieldBytes.toByteArray());
+		out.writeShort(methodCount);
+		methodOut.flush();
+		out.write(methodBytes.toByteArray());
+		out.writeShort(0);
+		out.flush();
+		byte[] clazz = bos.toByteArray();
+
+		Lookup lookup = MethodHandles.lookup();
+		if (DEFINE_HIDDEN == null) {
+			// Hidden classes are not supported by the VM, fall back to normal ones
+			return MethodHandles.privateLookupIn(lookup.defineClass(clazz), lookup);
+		}
+		try {
+			return (Lookup) DEFINE_HIDDEN.invokeExact(lookup, clazz, true);
+		} catch (IllegalAccessException | RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new RuntimeException("Failed to define class: " + name, t);
+		}
+	}
+
+	private static MethodHandle findDefineHidden() {
+		try {
+			Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+			Object noOptions = Array.newInstance(option, 0);
+			MethodHandle handle = MethodHandles.publicLookup().findVirtual(Lookup.class, "defineHiddenClass",
+					MethodType.methodType(Lookup.class, byte[].class, boolean.class, noOptions.getClass()));
+			return MethodHandles.insertArguments(handle, 3, noOptions);
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	int utf8(String txt) throws IOException {
+		Integer index = pool.get("U" + txt);
+		if (index == null) {
+			poolOut.writeByte(1);
+			poolOut.writeUTF(txt);
+			index = add("U" + txt, 1);
+		}
+		return index;
+	}
+
+	int classRef(String className) throws IOException {
+		Integer index = pool.get("C" + className);
+		if (index == null) {
+			int nameIndex = utf8(className);
+			poolOut.writeByte(7);
+			poolOut.writeShort(nameIndex);
+			index = add("C" + className, 1);
+		}
+		return index;
+	}
+
+	int fieldRef(String owner, String fieldName, String desc) throws IOException {
+		return memberRef(9, owner, fieldName, desc);
+	}
+
+	int methodRef(String owner, String methodName, String desc, boolean isInterface) throws IOException {
+		return memberRef(isInterface ? 11 : 10, owner, methodName, desc);
+	}
+
+	int doubleConst(double val) throws IOException {
+		String key = "D" + Double.doubleToRawLongBits(val);
+		Integer index = pool.get(key);
+		if (index == null) {
+			poolOut.writeByte(6);
+			poolOut.writeDouble(val);
+			index = add(key, 2);
+		}
+		return index;
+	}
+
+	private int nameAndType(String memberName, String desc) throws IOException {
+		Integer index = pool.get("N" + memberName + desc);
+		if (index == null) {
+			int nameIndex = utf8(memberName);
+			int descIndex = utf8(desc);
+			poolOut.writeByte(12);
+			poolOut.writeShort(nameIndex);
+			poolOut.writeShort(descIndex);
+			index = add("N" + memberName + desc, 1);
+		}
+		return index;
+	}
+
+	private int memberRef(int tag, String owner, String memberName, String desc) throws IOException {
+		String key = "M" + tag + owner + "." + memberName + desc;
+		Integer index = pool.get(key);
+		if (index == null) {
+			int classIndex = classRef(owner);
+			int natIndex = nameAndType(memberName, desc);
+			poolOut.writeByte(tag);
+			poolOut.writeShort(classIndex);
+			poolOut.writeShort(natIndex);
+			index = add(key, 1);
+		}
+		return index;
+	}
+
+	private int add(String key, int size) {
+		int index = poolSize;
+		pool.put(key, index);
+		poolSize += size;
+		return index;
+	}
+}
@@ -0,0 +1,197 @@
+package com.sixtyfour.util;
+
+import java.util.List;
+
+import com.sixtyfour.config.CompilerConfig;
+import com.sixtyfour.elements.commands.Command;
+import com.sixtyfour.parser.Atom;
+import com.sixtyfour.parser.Line;
+import com.sixtyfour.system.BasicProgramCounter;
+import com.sixtyfour.system.Machine;
+
+/**
+ * Base class for regions of BASIC lines that have been compiled into bytecode
+ * by the JIT compiler. A region consists of one or more consecutive lines, for
+ * example a FOR...NEXT loop. All commands of the region will be executed in one
+ * method. Jumps inside the region (like NEXT jumping back to its FOR or an IF
+ * that skips the rest of the line) will be handled in that method as well. All
+ * other jumps (like GOTO or GOSUB) leave the region and return to the
+ * interpreter.<br/>
+ * The commands of a region are addressed by an index. The index of a command is
+ * its position in its line plus the number of commands in the lines before it.
+ *
+ * @author EgonOlsen
+ *
+ */
+public abstract class CompiledLine {
+
+	/** The number of jumps inside the region before it returns to the interpreter */
+	private static final int MAX_JUMPS = 10000;
+
+	/** The atoms that the compiled code calls at runtime */
+	protected Atom[] atoms;
+
+	/** The index of the command that is currently being executed */
+	protected int current;
+
+	private Line[] lines;
+	private Command[] commands;
+	private int[] positions;
+	private int[] lineIndices;
+	private int[] lineStarts;
+	private int firstCount;
+
+	private BasicProgramCounter pc;
+	private int exit;
+	private int jumps;
+
+	/**
+	 * Initializes the region. Used by the LineCompiler only.
+	 *
+	 * @param region the lines of the region
+	 * @param atoms  the atoms that the compiled code calls at runtime
+	 */
+	void init(List<Line> region, Atom[] atoms) {
+		this.atoms = atoms;
+		int size = 0;
+		for (Line line : region) {
+			size += line.getCommands().size();
+		}
+		lines = new Line[size];
+		commands = new Command[size];
+		positions = new int[size];
+		lineIndices = new int[size];
+		lineStarts = new int[region.size() + 1];
+		firstCount = region.get(0).getCount();
+		int index = 0;
+		for (int i = 0; i < region.size(); i++) {
+			Line line = region.get(i);
+			lineStarts[i] = index;
+			for (int pos = 0; pos < line.getCommands().size(); pos++) {
+				lines[index] = line;
+				commands[index] = line.getCommands().get(pos);
+				positions[index] = pos;
+				lineIndices[index] = i;
+				index++;
+			}
+		}
+		lineStarts[region.size()] = index;
+	}
+
+	/**
+	 * Executes the region starting with the command at the given position of the
+	 * region's first line.
+	 *
+	 * @param config  the compiler config
+	 * @param machine the machine
+	 * @param start   the position of the first command to execute
+	 * @return -1, if the execution reached the end of the region. Otherwise, the
+	 *         index of the command whose program counter has to be handled by the
+	 *         interpreter.
+	 */
+	public int execute(CompilerConfig config, Machine machine, int start) {
+		exit = -1;
+		pc = null;
+		jumps = 0;
+		current = start;
+		run(config, machine, start);
+		return exit;
+	}
+
+	/**
+	 * Returns the program counter that caused the last execution to leave the
+	 * region.
+	 *
+	 * @return the program counter
+	 */
+	public BasicProgramCounter getProgramCounter() {
+		return pc;
+	}
+
+	/**
+	 * Returns the command with the given index.
+	 *
+	 * @param index the index
+	 * @return the command
+	 */
+	public Command getCommand(int index) {
+		return commands[index];
+	}
+
+	/**
+	 * Returns the line of the command with the given index.
+	 *
+	 * @param index the index
+	 * @return the line
+	 */
+	public Line getLine(int index) {
+		return lines[index];
+	}
+
+	/**
+	 * Returns the position of the command with the given index in its line.
+	 *
+	 * @param index the index
+	 * @return the position
+	 */
+	public int getPosition(int index) {
+		return positions[index];
+	}
+
+	/**
+	 * Returns the line of the command that has been executed last. If executing
+	 * the region throws an exception, this is the line that caused it.
+	 *
+	 * @return the line
+	 */
+	public Line getCurrentLine() {
+		return lines[current];
+	}
+
+	/**
+	 * Returns the last line of the region.
+	 *
+	 * @return the line
+	 */
+	public Line getLastLine() {
+		return lines[lines.length - 1];
+	}
+
+	/**
+	 * The actual compiled code.
+	 *
+	 * @param config  the compiler config
+	 * @param machine the machine
+	 * @param start   the index of the first command to execute
+	 */
+	protected abstract void run(CompilerConfig config, Machine machine, int start);
+
+	/**
+	 * Called by the compiled code if a command returned a program counter. It
+	 * returns the index of the command at which the execution continues. If that
+	 * command isn't part of the region, the execution has to continue in the
+	 * interpreter and -1 will be returned.
+	 *
+	 * @param pc    the program counter
+	 * @param index the index of the command that returned it
+	 * @return the index of the next command, the number of commands if the region
+	 *         has been left at its end or -1
+	 */
+	protected int resolve(BasicProgramCounter pc, int index) {
+		if (!pc.isEnd() && !pc.isStop() && !pc.isList()) {
+			if (pc.isSkip()) {
+				return lineStarts[lineIndices[index] + 1];
+			}
+			if (pc.getLineNumber() == -1) {
+				// FOR...NEXT/RETURN
+				int line = pc.getLineCnt() - firstCount;
+				if (line >= 0 && line < lineStarts.length - 1 && jumps++ < MAX_JUMPS) {
+					return lineStarts[line] + pc.getLinePos() + 1;
+				}
+			}
+		}
+		this.pc = pc;
+		this.exit = index;
+		return -1;
+	}
+}
@@ -0,0 +1,21 @@
+package com.sixtyfour.util;
+
+import com.sixtyfour.system.Machine;
+
+/**
+ * Interface for classes created by the JIT compiler. Each implementation
+ * evaluates one numerical Term.
+ *
+ * @author EgonOlsen
+ *
+ */
+public interface CompiledTerm {
+
+	/**
+	 * Evaluates the compiled term.
+	 *
+	 * @param machine the current machine
+	 * @return the result
+	 */
+	double evalNumber(Machine machine);
+}
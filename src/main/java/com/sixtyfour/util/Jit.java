@@ -1,47 +1,41 @@
 package com.sixtyfour.util;
 
-import java.io.File;
-import java.lang.reflect.Method;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.tools.JavaCompiler;
-import javax.tools.ToolProvider;
-
 import com.sixtyfour.Logger;
-import com.sixtyfour.elements.Variable;
+import com.sixtyfour.parser.Line;
 import com.sixtyfour.parser.Term;
 import com.sixtyfour.system.Machine;
 
 /**
  * A JIT compiler that can compile some expressions into actual Java bytecode at
- * runtime. For this to work, the application has to run on a JDK, not a JRE. A
+ * runtime. The bytecode will be generated directly in memory and loaded as a
+ * hidden class, so this works on a JRE as well and no files will be written. A
  * JIT might help to improve performance for complex calculations. If your
- * program doesn't do these, it might not even kick in or the additional
- * overhead might slow your program down.
- * 
+ * program doesn't do these, it might not even kick in.<br/>
+ * In addition to single expressions, the JIT compiles lines that the
+ * interpreter enters often into one method. If a hot line starts a FOR...NEXT
+ * loop, the whole loop will be compiled into that method.
+ *
  * @author EgonOlsen
- * 
+ *
  */
 public class Jit {
-	private StringBuilder code = new StringBuilder();
 	private List<Term> jittedTerms = new ArrayList<Term>();
 	private int compileThreshold = 0;
 	private boolean failed = false;
-	private List<Variable> vars = new ArrayList<Variable>();
-	private static Object sync = new Object();
-	private long lastAdd = 0;
-	private boolean compilerRunning = false;
-	private static int id = 0;
+	private Machine machine = null;
+	private int compiled = 0;
+	private long compileTime = 0;
+	private int lineThreshold = 100;
+	private int compiledLines = 0;
 
 	/**
 	 * Creates a new Jit. A Jit has to be assigned to the current instance of
 	 * Machine. This constructor creates a JIT with the default threshold of 0, i.e.
-	 * the JIT compiler will try to auto-detect when to compile.
+	 * the JIT compiler will compile expressions as soon as they have been marked
+	 * as potentially jittable.
 	 */
 	public Jit() {
 		this(0);
@@ -52,61 +46,30 @@ public class Jit {
 	 * Machine. This constructor creates a JIT with a user defined count of
 	 * "compileThreshold" methods to compile, i.e. the actual bytecode generation
 	 * kicks in when compileThreshold expressions are marked as potentially
-	 * jittable. If the threshold is <=0, then the JIT compiler will try to
-	 * auto-detect when to compile.
-	 * 
+	 * jittable. If the threshold is <=0, then the JIT compiler will compile each
+	 * expression right away.
+	 *
 	 * @param compileThreshold
 	 */
 	public Jit(int compileThreshold) {
 		this.compileThreshold = compileThreshold;
-		initCode();
-	}
-
-	/**
-	 * Adds a variable to the compiled code. Used internally, no need to call this
-	 * from an application.
-	 * 
-	 * @param var the variable to add
-	 * @return the position in the JIT's list
-	 */
-	public void addVariable(Variable var) {
-		synchronized (sync) {
-			if (compilerRunning) {
-				return;
-			}
-			if (!vars.contains(var)) {
-				vars.add(var);
-			}
-		}
 	}
 
 	/**
 	 * Adds a method that evaluates an expression. Used internally, no need to call
 	 * this from an application.
-	 * 
+	 *
 	 * @param term    the term that forms the expression
 	 * @param machine the current machine
+	 * @return true, if the term has been processed. false, if it should be added
+	 *         again later
 	 */
 	public boolean addMethod(Term term, Machine machine) {
-		synchronized (sync) {
-			if (compilerRunning) {
-				return false;
-			}
-		}
-		if (!failed) {
-			if (!jittedTerms.contains(term)) {
-				String cody = term.toCode(machine);
-				if (cody == null || cody.length() < 80) {
-					return true;
-				}
-				code.append("\npublic final Object m").append(term.getId()).append("() {").append("return ")
-						.append(cody.trim()).append(";}\n");
-				jittedTerms.add(term);
-				lastAdd = System.currentTimeMillis();
-
-				if (compileThreshold > 0 && jittedTerms.size() > compileThreshold && !compilerRunning) {
-					compile();
-				}
+		if (!failed && term.getCompiledTerm() == null && !jittedTerms.contains(term)) {
+			this.machine = machine;
+			jittedTerms.add(term);
+			if (jittedTerms.size() > compileThreshold) {
+				compile();
 			}
 		}
 		return true;
@@ -118,125 +81,109 @@ public class Jit {
 	 * happen.
 	 */
 	public void autoCompile() {
-		if (lastAdd > 0 && compileThreshold <= 0 && !failed) {
-			if (System.currentTimeMillis() - lastAdd >= 200 && !compilerRunning) {
-				Logger.log("Auto-compilation triggered!");
-				compile();
-			}
+		if (compileThreshold <= 0 && !jittedTerms.isEmpty() && !failed) {
+			compile();
 		}
 	}
 
 	/**
-	 * Calls the actual compiled bytecode of a Term.
-	 * 
-	 * @param term the term
-	 * @return the result
+	 * Compiles a region of lines. Used internally, no need to call this from an
+	 * application.
+	 *
+	 * @param region  the consecutive lines of the region
+	 * @param machine the current machine
+	 * @return the compiled region or null, if it can't be compiled
 	 */
-	public Object call(Term term) {
-		Method m = term.getJittedMethod();
-		if (m == null) {
-			throw new RuntimeException("Internal JIT error: " + term);
+	public CompiledLine compileLines(List<Line> region, Machine machine) {
+		if (failed) {
+			return null;
 		}
+		long s = System.nanoTime();
 		try {
-			return m.invoke(term.getJittedInstance());
+			CompiledLine cl = LineCompiler.compile(region, machine);
+			long time = System.nanoTime() - s;
+			compiledLines++;
+			compileTime += time;
+			Logger.log("JIT-Compiler executed in " + (time / 1000000f) + "ms, " + region.size()
+					+ " line(s) compiled starting at line " + region.get(0).getNumber() + "!");
+			return cl;
 		} catch (Exception e) {
-			throw new RuntimeException("Internal JIT error: " + term, e);
+			Logger.log("Failed to run JIT-Compiler!", e);
+			failed = true;
+			return null;
 		}
-
 	}
 
-	private void compile() {
-		if (!failed) {
-			synchronized (sync) {
-				if (compilerRunning) {
-					return;
-				}
-				compilerRunning = true;
-				Thread compileThread = new Thread() {
-					@Override
-					public void run() {
-						String clazzName = "JittedImpl" + (id++);
-						File sourceFile = null;
-						try {
-
-							long s = System.currentTimeMillis();
-							Logger.log("Running JIT-Compiler...");
-							code.append("}");
-							String source = code.toString();
-
-							StringBuilder varStr = new StringBuilder();
-							for (Variable var : vars) {
-								varStr.append("\npublic Variable ").append(VarUtils.relabel(var.getName()))
-										.append("=null;\n");
-							}
-							source = source.replace("[vars]", varStr.toString());
-
-							// System.out.println(source);
-
-							sourceFile = new File(clazzName + ".java");
-							Files.write(sourceFile.toPath(), source.getBytes(StandardCharsets.UTF_8));
-							JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-							if (compiler == null) {
-								Logger.log(
-										"Unable to run JIT-Compiler! Please run this application using a JDK, not a JRE!");
-								failed = true;
-								return;
-							}
-							compiler.run(null, null, null, sourceFile.getPath());
+	/**
+	 * Returns the number of times that the interpreter has to enter a line before
+	 * it gets compiled. Default is 100.
+	 *
+	 * @return the threshold
+	 */
+	public int getLineThreshold() {
+		return lineThreshold;
+	}
 
-							URLClassLoader classLoader = URLClassLoader
-									.newInstance(new URL[] { new File(".").toURI().toURL() });
-							Class<?> cls = Class.forName(clazzName, true, classLoader);
-							@SuppressWarnings("deprecation")
-							Jitted jittedCode = (Jitted) cls.newInstance();
-							jittedCode.setVars(vars.toArray(new Variable[vars.size()]));
+	/**
+	 * Sets the number of times that the interpreter has to enter a line before it
+	 * gets compiled. A value of <=0 disables the compilation of lines.
+	 *
+	 * @param lineThreshold the threshold
+	 */
+	public void setLineThreshold(int lineThreshold) {
+		this.lineThreshold = lineThreshold;
+	}
 
-							for (Variable var : vars) {
-								jittedCode.getClass().getField(VarUtils.relabel(var.getName())).set(jittedCode, var);
-							}
+	/**
+	 * Returns the number of line regions that have been compiled so far.
+	 *
+	 * @return the number
+	 */
+	public int getCompiledLinesCount() {
+		return compiledLines;
+	}
 
-							Logger.log("JIT-Compiler executed in " + (System.currentTimeMillis() - s) + "ms, "
-									+ jittedTerms.size() + " methods compiled into " + clazzName + ".class!");
+	/**
+	 * Returns the number of expressions that have been compiled so far.
+	 *
+	 * @return the number
+	 */
+	public int getCompiledCount() {
+		return compiled;
+	}
 
-							for (Term jittedTerm : jittedTerms) {
-								try {
-									jittedTerm.setJittedInstance(jittedCode);
-									jittedTerm
-											.setJittedMethod(jittedCode.getClass().getMethod("m" + jittedTerm.getId()));
-								} catch (Exception e) {
-									throw new RuntimeException("Internal JIT error: " + jittedTerm, e);
-								}
-							}
-						} catch (Exception e) {
-							Logger.log("Failed to run JIT-Compiler!", e);
-							failed = true;
-						} finally {
-							if (sourceFile != null) {
-								new File(clazzName + ".class").delete();
-								if (!sourceFile.delete()) {
-									sourceFile.deleteOnExit();
-									new File(clazzName + ".class").deleteOnExit();
-								}
-							}
-							initCode();
-							vars.clear();
-							jittedTerms.clear();
-							lastAdd = 0;
-							compilerRunning = false;
-						}
+	/**
+	 * Returns the time in ns that has been spent in compiling expressions so far.
+	 *
+	 * @return the time
+	 */
+	public long getCompileTime() {
+		return compileTime;
+	}
 
-					}
-				};
-				compileThread.start();
+	private void compile() {
+		long s = System.nanoTime();
+		int cnt = 0;
+		try {
+			for (Term term : jittedTerms) {
+				CompiledTerm ct = TermCompiler.compile(term, machine);
+				if (ct != null) {
+					term.setCompiledTerm(ct);
+					cnt++;
+				}
 			}
+		} catch (Exception e) {
+			Logger.log("Failed to run JIT-Compiler!", e);
+			failed = true;
+		} finally {
+			jittedTerms.clear();
+		}
+		long time = System.nanoTime() - s;
+		compiled += cnt;
+		compileTime += time;
+		if (cnt > 0) {
+			Logger.log("JIT-Compiler executed in " + (time / 1000000f) + "ms, " + cnt + " methods compiled!");
 		}
-	}
-
-	private void initCode() {
-		code.setLength(0);
-		code.append("import com.sixtyfour.system.*; import com.sixtyfour.elements.*; \npublic class JittedImpl" + id
-				+ " implements com.sixtyfour.util.Jitted { private Variable[] vars; [vars] public JittedImpl" + id
-				+ "() {} \n public void setVars(Variable[] vars) {this.vars=vars;} ");
 	}
 
 }
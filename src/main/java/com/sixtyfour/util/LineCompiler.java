@@ -0,0 +1,193 @@
+package com.sixtyfour.util;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sixtyfour.elements.Type;
+import com.sixtyfour.elements.commands.Command;
+import com.sixtyfour.elements.commands.Let;
+import com.sixtyfour.elements.commands.Poke;
+import com.sixtyfour.parser.Atom;
+import com.sixtyfour.parser.Line;
+import com.sixtyfour.parser.Term;
+import com.sixtyfour.system.Machine;
+import com.sixtyfour.util.ClassBuilder.Label;
+
+/**
+ * Compiles a region of BASIC lines into one method of a class that extends
+ * CompiledLine. Assignments of numerical terms to simple variables and POKEs are
+ * compiled directly into bytecode. All other commands are called from the
+ * compiled code. If they return a program counter, CompiledLine.resolve()
+ * decides if the execution continues inside the region or if it has to return
+ * to the interpreter.
+ *
+ * @author EgonOlsen
+ *
+ */
+public class LineCompiler {
+
+	private static final String BASE = "com/sixtyfour/util/CompiledLine";
+	private static final String COMMAND = "com/sixtyfour/elements/commands/Command";
+	private static final String VARIABLE = "com/sixtyfour/elements/Variable";
+	private static final String POKE = "com/sixtyfour/elements/commands/Poke";
+	private static final String MACHINE = "com/sixtyfour/system/Machine";
+	private static final String PC_DESC = "Lcom/sixtyfour/system/BasicProgramCounter;";
+	private static final String CONFIG_DESC = "Lcom/sixtyfour/config/CompilerConfig;";
+
+	/**
+	 * Compiles a region of lines.
+	 *
+	 * @param region  the lines, which have to be consecutive lines of the program
+	 * @param machine the current machine
+	 * @return the compiled region
+	 */
+	public static CompiledLine compile(List<Line> region, Machine machine) {
+		try {
+			ClassBuilder cb = new ClassBuilder("CompiledLineImpl", BASE, null);
+			int atomsField = cb.fieldRef(BASE, "atoms", TermCompiler.ATOMS_DESC);
+			int currentField = cb.fieldRef(BASE, "current", "I");
+			List<Atom> atoms = new ArrayList<>();
+			TermCompiler tc = new TermCompiler(cb, machine, atoms, atomsField);
+
+			// The constructor
+			cb.beginMethod();
+			cb.op(0x2a, 1); // aload_0
+			cb.op(0xb7, -1); // invokespecial
+			cb.writeShort(cb.methodRef(BASE, "<init>", "()V", false));
+			cb.op(0xb1, 0); // return
+			cb.endMethod(0x0001, "<init>", "()V", 1);
+
+			List<Command> commands = new ArrayList<>();
+			for (Line line : region) {
+				commands.addAll(line.getCommands());
+			}
+			Label[] labels = new Label[commands.size() + 1];
+			for (int i = 0; i < labels.length; i++) {
+				labels[i] = new Label();
+			}
+			Label dispatch = new Label();
+			Label exit = labels[labels.length - 1];
+
+			// run(config, machine, start)...locals are this, config, machine, index and pc
+			cb.beginMethod();
+			cb.mark(dispatch);
+			cb.op(0x1d, 1); // iload_3
+			cb.tableSwitch(labels, exit);
+
+			for (int i = 0; i < commands.size(); i++) {
+				Command command = commands.get(i);
+				cb.mark(labels[i]);
+				cb.op(0x2a, 1); // aload_0
+				cb.pushInt(i);
+				cb.op(0xb5, -2); // putfield
+				cb.writeShort(currentField);
+
+				if (isCompilableLet(command)) {
+					Let let = (Let) command;
+					cb.op(0x2c, 1); // aload_2
+					cb.pushInt(let.getSlot(machine));
+					tc.loadAtom(let.getVar());
+					cb.op(0xc0, 0); // checkcast
+					cb.writeShort(cb.classRef(VARIABLE));
+					cb.op(0xb6, -2); // invokevirtual
+					cb.writeShort(
+							cb.methodRef(MACHINE, "add", "(IL" + VARIABLE + ";)L" + VARIABLE + ";", false));
+					tc.emit(let.getTerm(), 2);
+					cb.op(0xb6, -3); // invokevirtual
+					cb.writeShort(cb.methodRef(VARIABLE, "setValue", "(D)V", false));
+				} else if (isCompilablePoke(command)) {
+					Poke poke = (Poke) command;
+					tc.loadAtom(poke);
+					cb.op(0xc0, 0); // checkcast
+					cb.writeShort(cb.classRef(POKE));
+					cb.op(0x2c, 1); // aload_2
+					tc.emit(poke.getAddr(), 2);
+					cb.op(0x8e, -1); // d2i
+					tc.emit(poke.getVal(), 2);
+					cb.op(0x8e, -1); // d2i
+					cb.op(0xb6, -4); // invokevirtual
+					cb.writeShort(cb.methodRef(POKE, "poke", "(L" + MACHINE + ";II)V", false));
+				} else {
+					emitCall(cb, tc, command, i, dispatch, labels[i + 1]);
+				}
+			}
+
+			cb.mark(exit);
+			cb.op(0xb1, 0); // return
+			cb.endMethod(0x0004, "run", "(" + CONFIG_DESC + TermCompiler.MACHINE_DESC + "I)V", 5);
+
+			Lookup lookup = cb.define();
+			CompiledLine compiled = (CompiledLine) lookup
+					.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+			compiled.init(region, atoms.toArray(new Atom[atoms.size()]));
+			return compiled;
+		} catch (Throwable e) {
+			throw new RuntimeException("Failed to compile line: " + region.get(0), e);
+		}
+	}
+
+	private static void emitCall(ClassBuilder cb, TermCompiler tc, Command command, int index, Label dispatch,
+			Label next) throws IOException {
+		String setDesc = "(L" + COMMAND + ";)V";
+
+		cb.op(0x2c, 1); // aload_2
+		tc.loadAtom(command);
+		cb.op(0xc0, 0); // checkcast
+		cb.writeShort(cb.classRef(COMMAND));
+		cb.op(0xb6, -2); // invokevirtual
+		cb.writeShort(cb.methodRef(MACHINE, "setCurrentCommand", setDesc, false));
+
+		tc.loadAtom(command);
+		cb.op(0xc0, 0); // checkcast
+		cb.writeShort(cb.classRef(COMMAND));
+		cb.op(0x2b, 1); // aload_1
+		cb.op(0x2c, 1); // aload_2
+		cb.op(0xb9, -2); // invokeinterface
+		cb.writeShort(
+				cb.methodRef(COMMAND, "execute", "(" + CONFIG_DESC + TermCompiler.MACHINE_DESC + ")" + PC_DESC, true));
+		cb.writeByte(3);
+		cb.writeByte(0);
+		cb.op(0x3a, -1); // astore
+		cb.writeByte(4);
+
+		cb.op(0x2c, 1); // aload_2
+		cb.op(0x01, 1); // aconst_null
+		cb.op(0xb6, -2); // invokevirtual
+		cb.writeShort(cb.methodRef(MACHINE, "setCurrentCommand", setDesc, false));
+
+		cb.op(0x19, 1); // aload
+		cb.writeByte(4);
+		cb.jump(0xc6, -1, next); // ifnull
+
+		cb.op(0x2a, 1); // aload_0
+		cb.op(0x19, 1); // aload
+		cb.writeByte(4);
+		cb.pushInt(index);
+		cb.op(0xb6, -2); // invokevirtual
+		cb.writeShort(cb.methodRef(BASE, "resolve", "(" + PC_DESC + "I)I", false));
+		cb.op(0x3e, -1); // istore_3
+		cb.jump(0xa7, 0, dispatch); // goto
+	}
+
+	private static boolean isCompilableLet(Command command) {
+		if (command.getClass() != Let.class) {
+			return false;
+		}
+		Let let = (Let) command;
+		Term term = let.getTerm();
+		return let.getIndexTerm() == null && let.getVar().getType() != Type.STRING && term != null
+				&& term.isCalculation() && TermCompiler.isCompilable(term);
+	}
+
+	private static boolean isCompilablePoke(Command command) {
+		if (command.getClass() != Poke.class) {
+			return false;
+		}
+		Poke poke = (Poke) command;
+		return poke.getAddr() != null && poke.getVal() != null && poke.getAddr().getType() != Type.STRING
+				&& poke.getVal().getType() != Type.STRING;
+	}
+}
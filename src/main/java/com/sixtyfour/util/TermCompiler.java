@@ -0,0 +1,253 @@
+package com.sixtyfour.util;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sixtyfour.elements.Constant;
+import com.sixtyfour.elements.Type;
+import com.sixtyfour.parser.Atom;
+import com.sixtyfour.parser.Operator;
+import com.sixtyfour.parser.Term;
+import com.sixtyfour.system.Machine;
+
+/**
+ * Compiles numerical Terms directly into Java bytecode. The result is a class
+ * that implements CompiledTerm, which will be defined as a hidden class in the
+ * running VM. No Java compiler and no file system access is needed for this, so
+ * this works on a JRE as well.<br/>
+ * All nested Terms will be inlined into one method that does its calculations
+ * with doubles in the same way as the interpreter does. Constants will become
+ * constants in the bytecode. All other atoms (variables, functions...) will be
+ * called via Atom.evalNumber().
+ *
+ * @author EgonOlsen
+ *
+ */
+public class TermCompiler {
+
+	static final String ATOM = "com/sixtyfour/parser/Atom";
+	static final String ATOMS_DESC = "[L" + ATOM + ";";
+	static final String MACHINE_DESC = "Lcom/sixtyfour/system/Machine;";
+
+	private ClassBuilder cb;
+	private List<Atom> atoms;
+	private int atomsField;
+	private Machine machine;
+
+	/**
+	 * Creates a new term compiler that writes its code into the current method of
+	 * a class builder. The method has to have "this" in local 0 and the machine
+	 * in local 1 or 2.
+	 *
+	 * @param cb         the class builder
+	 * @param machine    the current machine
+	 * @param atoms      the list of atoms that compiled code calls at runtime
+	 * @param atomsField the reference to the field that contains these atoms
+	 */
+	TermCompiler(ClassBuilder cb, Machine machine, List<Atom> atoms, int atomsField) {
+		this.cb = cb;
+		this.machine = machine;
+		this.atoms = atoms;
+		this.atomsField = atomsField;
+	}
+
+	/**
+	 * Compiles a term into bytecode. Only terms that return a number can be
+	 * compiled.
+	 *
+	 * @param term    the term
+	 * @param machine the current machine
+	 * @return the compiled term or null, if the term can't be compiled
+	 */
+	public static CompiledTerm compile(Term term, Machine machine) {
+		if (!isCompilable(term)) {
+			return null;
+		}
+		try {
+			ClassBuilder cb = new ClassBuilder("CompiledTermImpl", "java/lang/Object",
+					"com/sixtyfour/util/CompiledTerm");
+			int atomsField = cb.fieldRef(cb.getName(), "atoms", ATOMS_DESC);
+			cb.addField(0x0012, "atoms", ATOMS_DESC); // private final
+
+			// The constructor
+			cb.beginMethod();
+			cb.op(0x2a, 1); // aload_0
+			cb.op(0xb7, -1); // invokespecial
+			cb.writeShort(cb.methodRef("java/lang/Object", "<init>", "()V", false));
+			cb.op(0x2a, 1); // aload_0
+			cb.op(0x2b, 1); // aload_1
+			cb.op(0xb5, -2); // putfield
+			cb.writeShort(atomsField);
+			cb.op(0xb1, 0); // return
+			cb.endMethod(0x0001, "<init>", "(" + ATOMS_DESC + ")V", 2);
+
+			// The actual method
+			List<Atom> atoms = new ArrayList<>();
+			cb.beginMethod();
+			new TermCompiler(cb, machine, atoms, atomsField).emit(term, 1);
+			cb.op(0xaf, -2); // dreturn
+			cb.endMethod(0x0001, "evalNumber", "(" + MACHINE_DESC + ")D", 2);
+
+			Lookup lookup = cb.define();
+			return (CompiledTerm) lookup
+					.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, Atom[].class))
+					.invoke(atoms.toArray(new Atom[atoms.size()]));
+		} catch (Throwable e) {
+			throw new RuntimeException("Failed to compile term: " + term, e);
+		}
+	}
+
+	/**
+	 * Performs a division in the same way as the interpreter does. Used by
+	 * compiled code only.
+	 *
+	 * @param n1 the dividend
+	 * @param n2 the divisor
+	 * @return the result
+	 */
+	public static double divide(double n1, double n2) {
+		if (n2 == 0) {
+			throw new RuntimeException("Division by zero error: " + n1 + "/" + n2);
+		}
+		return n1 / n2;
+	}
+
+	/**
+	 * Returns true, if the atom is a term that can be compiled.
+	 *
+	 * @param atom the atom
+	 * @return can it?
+	 */
+	static boolean isCompilable(Atom atom) {
+		if (atom.getClass() != Term.class) {
+			return false;
+		}
+		Term term = (Term) atom;
+		if (term.getOperator().isNop()) {
+			return term.getLeft() != null && isCompilable(term.getLeft());
+		}
+		return term.getType() != Type.STRING;
+	}
+
+	/**
+	 * Writes the code that evaluates an atom and leaves the result as a double on
+	 * the stack.
+	 *
+	 * @param atom         the atom
+	 * @param machineLocal the local that holds the machine
+	 */
+	void emit(Atom atom, int machineLocal) throws IOException {
+		if (atom.getClass() == Term.class && isCompilable(atom)) {
+			Term term = (Term) atom;
+			Operator op = term.getOperator();
+			if (op.isNop()) {
+				emit(term.getLeft(), machineLocal);
+				return;
+			}
+			boolean unary = term.getLeft() == term.getRight();
+			switch (op.getType()) {
+			case 7:
+			case 8:
+				emit(term.getLeft(), machineLocal);
+				cb.op(0x8e, -1); // d2i
+				if (unary) {
+					cb.op(0x59, 1); // dup
+				} else {
+					emit(term.getRight(), machineLocal);
+					cb.op(0x8e, -1); // d2i
+				}
+				cb.op(op.getType() == 7 ? 0x80 : 0x7e, -1); // ior/iand
+				cb.op(0x87, 1); // i2d
+				break;
+			case 9:
+				emit(term.getLeft(), machineLocal);
+				if (!unary) {
+					cb.op(0x58, -2); // pop2
+					emit(term.getRight(), machineLocal);
+				}
+				cb.op(0x8e, -1); // d2i
+				cb.op(0x02, 1); // iconst_m1
+				cb.op(0x82, -1); // ixor
+				cb.op(0x87, 1); // i2d
+				break;
+			default:
+				emit(term.getLeft(), machineLocal);
+				if (unary) {
+					cb.op(0x5c, 2); // dup2
+				} else {
+					emit(term.getRight(), machineLocal);
+				}
+				switch (op.getType()) {
+				case 0:
+					invokeStatic("java/lang/Math", "pow");
+					break;
+				case 1:
+					cb.op(0x6b, -2); // dmul
+					break;
+				case 2:
+					invokeStatic("com/sixtyfour/util/TermCompiler", "divide");
+					break;
+				case 3:
+					cb.op(0x63, -2); // dadd
+					break;
+				case 4:
+					cb.op(0x67, -2); // dsub
+					break;
+				default:
+					cb.op(0x58, -2); // pop2
+					cb.op(0x58, -2); // pop2
+					cb.op(0x0e, 2); // dconst_0
+				}
+			}
+			return;
+		}
+
+		if (atom instanceof Constant && atom.getType() != Type.STRING) {
+			double val = atom.evalNumber(machine);
+			if (val == 0d && Double.doubleToRawLongBits(val) == 0) {
+				cb.op(0x0e, 2); // dconst_0
+			} else if (val == 1d) {
+				cb.op(0x0f, 2); // dconst_1
+			} else {
+				cb.op(0x14, 2); // ldc2_w
+				cb.writeShort(cb.doubleConst(val));
+			}
+			return;
+		}
+
+		loadAtom(atom);
+		cb.op(0x19, 1); // aload
+		cb.writeByte(machineLocal);
+		cb.op(0xb9, 0); // invokeinterface
+		cb.writeShort(cb.methodRef(ATOM, "evalNumber", "(" + MACHINE_DESC + ")D", true));
+		cb.writeByte(2);
+		cb.writeByte(0);
+	}
+
+	/**
+	 * Writes the code that pushes an atom onto the stack.
+	 *
+	 * @param atom the atom
+	 */
+	void loadAtom(Atom atom) throws IOException {
+		int index = atoms.size();
+		if (index > 0 && atoms.get(index - 1) == atom) {
+			index--;
+		} else {
+			atoms.add(atom);
+		}
+		cb.op(0x2a, 1); // aload_0
+		cb.op(0xb4, 0); // getfield
+		cb.writeShort(atomsField);
+		cb.pushInt(index);
+		cb.op(0x32, -1); // aaload
+	}
+
+	private void invokeStatic(String owner, String name) throws IOException {
+		cb.op(0xb8, -2); // invokestatic, (DD)D
+		cb.writeShort(cb.methodRef(owner, name, "(DD)D", false));
+	}
+}
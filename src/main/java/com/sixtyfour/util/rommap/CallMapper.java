@@ -1,13 +1,16 @@
 package com.sixtyfour.util.rommap;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.sixtyfour.Loader;
 import com.sixtyfour.Logger;
@@ -22,14 +25,39 @@ import com.sixtyfour.config.CompilerConfig;
  */
 public class CallMapper {
 
+	// The mappings by symbol table, they only depend on files that don't change
+	// during a compile.
+	private static Map<String, Mapping> mappings = new ConcurrentHashMap<>();
+
 	/**
-	 * Creates a mapping between the C64's ROM calls and the X16's ones.
+	 * Creates a mapping between the C64's ROM calls and the X16's ones. The
+	 * mapping will only be created once per symbol table unless verbose is true.
 	 * 
 	 * @param config  the current compiler's config
 	 * @param verbose if true, the new mapping will be printed on screen
 	 * @return the mapping
 	 */
 	public static Mapping mapCalls(CompilerConfig config, boolean verbose) {
+		if (verbose) {
+			return createMapping(config, true);
+		}
+		String key = "";
+		if (config != null && config.getSymbolTable() != null && !config.getSymbolTable().isEmpty()) {
+			key = config.getSymbolTable() + "@" + new File(config.getSymbolTable()).lastModified();
+		}
+		Mapping mapping = mappings.get(key);
+		if (mapping == null) {
+			mapping = createMapping(config, false);
+			mappings.put(key, mapping);
+		}
+		// The caller may modify the mapping, so it gets its own copy
+		Mapping copy = new Mapping();
+		copy.setMap(new LinkedHashMap<>(mapping.getMap()));
+		copy.setFarCalls(new ArrayList<>(mapping.getFarCalls()));
+		return copy;
+	}
+
+	private static Mapping createMapping(CompilerConfig config, boolean verbose) {
 
 		Map<String, String> mappedCalls = new HashMap<>();
 
@@ -41,7 +69,7 @@ public class CallMapper {
 				x16 = MapLoader.getSymbolMapping(is);
 			} catch (Exception e) {
 				Logger.log("Failed to load symbol table: " + e.getMessage());
-				System.exit(15);
+				throw new RuntimeException("Failed to load symbol table: " + config.getSymbolTable(), e);
 			}
 		} else {
 			x16 = MapLoader.getSymbolMapping(getStream("/rommap/basic-x16.txt"), getStream("/rommap/kernal-x16.txt"));
@@ -27,6 +27,31 @@ public class AssemblerTest {
 		 * testE46(); testFastCopy();
 		 */
 		testCalc();
+		testFastMode();
+	}
+
+	private static void testFastMode() {
+		System.out.println("\ntestFastMode");
+		String[] programs = { "selfmodify.asm", "fastcopy.asm", "math.asm" };
+		for (String program : programs) {
+			String[] code = Loader.loadProgram("src/test/resources/asm/" + program);
+			int[][] rams = new int[2][];
+			long[] ticks = new long[2];
+			for (int i = 0; i < 2; i++) {
+				Assembler asm = new Assembler(code);
+				asm.compile(config);
+				Cpu cpu = asm.getCpu();
+				cpu.setFastMode(i == 0);
+				asm.run(config);
+				rams[i] = Arrays.copyOf(asm.getRam(), asm.getRam().length);
+				ticks[i] = cpu.getClockTicks();
+			}
+			boolean same = Arrays.equals(rams[0], rams[1]) && ticks[0] == ticks[1];
+			System.out.println(program + ": " + ticks[0] + " ticks, same results in both modes: " + same);
+			if (!same) {
+				throw new RuntimeException("Fast mode differs from normal mode: " + program);
+			}
+		}
 	}
 
 	private static void testMul() {
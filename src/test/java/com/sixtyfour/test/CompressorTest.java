@@ -4,6 +4,7 @@ import java.util.Arrays;
 
 import com.sixtyfour.Loader;
 import com.sixtyfour.compression.Compressor;
+import com.sixtyfour.compression.MatchStrategy;
 
 /**
  * @author EgonOlsen
@@ -13,6 +14,7 @@ public class CompressorTest {
 
 	private static final int MAX_WINDOW_SIZE_1 = 32;
 	private static final int MAX_WINDOW_SIZE_2 = 128;
+	private static final int MAX_MATCH_SIZE = 255;
 
 	public static void main(String[] args) throws Exception {
 		byte[] text = Loader.loadBlob("src/test/resources/compressor/test.txt");
@@ -23,6 +25,54 @@ public class CompressorTest {
 
 		byte[] uncomp1 = Compressor.decompress(comp1);
 		System.out.println(Arrays.equals(uncomp1, text));
+
+		testStrategies(text, Math.min(comp1.length, comp2.length));
+		testSearch(Arrays.copyOf(text, 16384));
+	}
+
+	private static void testSearch(byte[] text) {
+		byte[] best = Compressor.compressBest(text, true, 0);
+		if (best == null || !Arrays.equals(Compressor.decompressInMemory(best), text)) {
+			throw new RuntimeException("Failed to decompress the best result!");
+		}
+		for (Object[] candidate : Compressor.getSearchCandidates()) {
+			MatchStrategy strategy = (MatchStrategy) candidate[0];
+			int size = (Integer) candidate[1];
+			byte[] comp = Compressor.compress(text, size, true, strategy);
+			if (comp.length < best.length && Arrays.equals(Compressor.decompressInMemory(comp), text)) {
+				throw new RuntimeException("Not the best result: " + strategy + "/" + size + "/" + comp.length);
+			}
+		}
+
+		// A budget that's too small for all candidates still has to yield a result
+		byte[] quick = Compressor.compressBest(text, true, 1);
+		if (quick == null || !Arrays.equals(Compressor.decompressInMemory(quick), text)) {
+			throw new RuntimeException("Failed to decompress the result within the time budget!");
+		}
+		System.out.println("Best: " + best.length + " / within time budget: " + quick.length);
+	}
+
+	private static void testStrategies(byte[] text, int windowResult) {
+		StringBuilder report = new StringBuilder();
+		for (MatchStrategy strategy : MatchStrategy.values()) {
+			for (int size : new int[] { MAX_WINDOW_SIZE_1, MAX_WINDOW_SIZE_2, MAX_MATCH_SIZE }) {
+				if (strategy == MatchStrategy.WINDOW && size > MAX_WINDOW_SIZE_2) {
+					continue;
+				}
+				long start = System.nanoTime();
+				byte[] comp = Compressor.compress(text, size, true, strategy);
+				long time = (System.nanoTime() - start) / 1000000L;
+				if (!Arrays.equals(Compressor.decompress(comp), text)) {
+					throw new RuntimeException("Failed to decompress: " + strategy + "/" + size);
+				}
+				if (strategy != MatchStrategy.WINDOW && size == MAX_MATCH_SIZE && comp.length >= windowResult) {
+					throw new RuntimeException("No better than the sliding window: " + strategy + "/" + comp.length);
+				}
+				report.append(String.format("%-8s%6d%8d  1:%.2f%8dms%n", strategy, size, comp.length,
+						(float) text.length / comp.length, time));
+			}
+		}
+		System.out.println(report);
 	}
 
 }
@@ -0,0 +1,104 @@
+package com.sixtyfour.test;
+
+import java.util.List;
+
+import com.sixtyfour.Assembler;
+import com.sixtyfour.Basic;
+import com.sixtyfour.Loader;
+import com.sixtyfour.cbmnative.NativeCompiler;
+import com.sixtyfour.cbmnative.mos6502.c64.Platform64;
+import com.sixtyfour.config.CompilerConfig;
+import com.sixtyfour.config.MemoryConfig;
+import com.sixtyfour.system.CycleProfiler;
+import com.sixtyfour.system.CycleProfiler.Entry;
+
+/**
+ * Runs compiled programs on the cpu emulation and checks the results of the
+ * cycle profiler.
+ */
+public class CycleProfilerTest {
+
+	public static void main(String[] args) {
+		testCounts();
+		testProgram("src/test/resources/basic/prime.bas");
+		testOptions();
+	}
+
+	private static void testCounts() {
+		System.out.println("\n\ntestCounts");
+		String[] code = { "10 for i=1 to 100", "20 a=a+sin(i):gosub 100", "30 next", "40 print a;b:end", "100 b=b+1:return" };
+		CycleProfiler profiler = profile(code, new CompilerConfig());
+		checkCount(profiler, "20", 100);
+		checkCount(profiler, "100", 100);
+		checkCount(profiler, "40", 1);
+		Entry sin = null;
+		for (Entry entry : profiler.getRoutineResults()) {
+			if (entry.getName().startsWith("LINE_")) {
+				throw new RuntimeException("GOSUB counted as subroutine: " + entry.getName());
+			}
+			if (entry.getName().equals("FACSIN")) {
+				sin = entry;
+			}
+		}
+		if (sin == null || sin.getCount() != 100 || sin.getTotalCycles() < sin.getCycles()) {
+			throw new RuntimeException("Invalid results for FACSIN: " + (sin == null ? null : sin.getCount()));
+		}
+		long sum = profiler.getStartupCycles();
+		for (Entry entry : profiler.getLineResults()) {
+			sum += entry.getCycles();
+		}
+		if (sum != profiler.getTotalCycles()) {
+			throw new RuntimeException("Cycles don't add up: " + sum + "/" + profiler.getTotalCycles());
+		}
+		System.out.println(profiler.getReport(10));
+	}
+
+	private static void testProgram(String file) {
+		System.out.println("\n\nTesting: " + file);
+		CompilerConfig conf = new CompilerConfig();
+		CycleProfiler profiler = profile(Loader.loadProgram(file), conf);
+		if (profiler.getLineResults().isEmpty() || profiler.isLimitReached()) {
+			throw new RuntimeException("No results for " + file);
+		}
+		System.out.println(profiler.getReport(5));
+	}
+
+	private static void testOptions() {
+		System.out.println("\n\ntestOptions");
+		String[] code = { "10 for i=1 to 200", "20 a%=a%+i*2", "30 next" };
+		CompilerConfig conf = new CompilerConfig();
+		long with = profile(code, conf).getTotalCycles();
+		conf = new CompilerConfig();
+		conf.setNativeLanguageOptimizations(false);
+		long without = profile(code, conf).getTotalCycles();
+		System.out.println("Cycles with native optimizations: " + with + ", without: " + without);
+		if (with >= without) {
+			throw new RuntimeException("Native optimizations didn't save any cycles!");
+		}
+	}
+
+	private static void checkCount(CycleProfiler profiler, String line, long count) {
+		for (Entry entry : profiler.getLineResults()) {
+			if (entry.getName().equals(line)) {
+				if (entry.getCount() != count) {
+					throw new RuntimeException("Wrong count for line " + line + ": " + entry.getCount());
+				}
+				return;
+			}
+		}
+		throw new RuntimeException("No results for line " + line);
+	}
+
+	private static CycleProfiler profile(String[] code, CompilerConfig conf) {
+		Basic basic = new Basic(code);
+		List<String> nCode = new NativeCompiler().compile(conf, basic, new MemoryConfig(), new Platform64());
+		Assembler assy = new Assembler(nCode);
+		assy.compile(conf);
+		assy.getMachine().addRoms();
+		CycleProfiler profiler = new CycleProfiler(assy.getProgram(), nCode);
+		profiler.setMaxCycles(500000000L);
+		assy.getCpu().setCpuTracer(profiler);
+		assy.run(conf);
+		return profiler;
+	}
+}
@@ -0,0 +1,116 @@
+package com.sixtyfour.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sixtyfour.Basic;
+import com.sixtyfour.Loader;
+import com.sixtyfour.cbmnative.NativeCompiler;
+import com.sixtyfour.config.CompilerConfig;
+import com.sixtyfour.plugins.impl.ConsoleOutputChannel;
+
+/**
+ * Compares incrementally compiled programs with programs that have been
+ * compiled from scratch. Both have to create the same output, even if lines
+ * have been added, changed or removed in between.
+ */
+public class IncrementalCompileTest {
+
+	private static CompilerConfig config = new CompilerConfig();
+
+	private static final String[] PROGRAMS = { "prime.bas", "go_to.bas", "onstuff.bas", "beer.bas", "readdata.bas",
+			"array.bas" };
+
+	public static void main(String[] args) {
+		for (String prg : PROGRAMS) {
+			testProgram("src/test/resources/basic/" + prg);
+		}
+	}
+
+	private static void testProgram(String file) {
+		System.out.println("Testing: " + file);
+		String[] code = Loader.loadProgram(file);
+
+		StringBuilder sb = new StringBuilder();
+		Basic incremental = new Basic(code);
+		incremental.setIncrementalCompilation(true);
+		incremental.setOutputChannel(createOutputChannel(sb));
+
+		compare(file, code, incremental, sb);
+		compare(file, code, incremental, sb);
+
+		// Labels are numbered globally, so they have to be ignored
+		String pCode = NativeCompiler.getCompiler().compileToPseudoCode(config, compile(code)).toString();
+		incremental.compile(config);
+		String incrementalPCode = NativeCompiler.getCompiler().compileToPseudoCode(config, incremental).toString();
+		if (!removeLabelNumbers(pCode).equals(removeLabelNumbers(incrementalPCode))) {
+			throw new RuntimeException("Intermediate code differs: " + file);
+		}
+
+		// Insert a line, so that all others move
+		List<String> changed = new ArrayList<>(Arrays.asList(code));
+		changed.add(0, "1 print \"start\"");
+		compare(file, changed.toArray(new String[changed.size()]), incremental, sb);
+
+		// Change a line and append another one
+		changed.set(0, "1 a=42:print \"changed\";a");
+		changed.add("63999 print \"unreachable?\"");
+		compare(file, changed.toArray(new String[changed.size()]), incremental, sb);
+
+		compare(file, code, incremental, sb);
+	}
+
+	private static void compare(String file, String[] code, Basic incremental, StringBuilder sb) {
+		sb.setLength(0);
+		incremental.setCode(code);
+		incremental.run(config);
+		String out = sb.toString();
+		String freshOut = run(code);
+		if (!out.equals(freshOut)) {
+			throw new RuntimeException("Output differs in incremental mode: " + file + "\n" + out + "\n" + freshOut);
+		}
+	}
+
+	private static String removeLabelNumbers(String code) {
+		return code.replaceAll("(?<=[A-Z_])\\d+", "");
+	}
+
+	private static Basic compile(String[] code) {
+		Basic basic = new Basic(code);
+		basic.compile(config);
+		return basic;
+	}
+
+	private static String run(String[] code) {
+		StringBuilder sb = new StringBuilder();
+		Basic basic = new Basic(code);
+		basic.setOutputChannel(createOutputChannel(sb));
+		basic.run(config);
+		return sb.toString();
+	}
+
+	private static ConsoleOutputChannel createOutputChannel(final StringBuilder sb) {
+		return new ConsoleOutputChannel() {
+			@Override
+			public void print(int id, String txt) {
+				sb.append(txt);
+			}
+
+			@Override
+			public void println(int id, String txt) {
+				sb.append(txt).append("\n");
+			}
+
+			@Override
+			public void systemPrint(int id, String txt) {
+				//
+			}
+
+			@Override
+			public void systemPrintln(int id, String txt) {
+				//
+			}
+		};
+	}
+}
@@ -40,6 +40,51 @@ public class InterpreterTest {
 		testIfNot();
 		testAndString();
 		testIfComplex();
+		testStack();
+		testVariableTypes();
+		testSlots();
+	}
+
+	private static void testSlots() {
+		System.out.println("testSlots");
+		String code = "10 def fnq(x)=x*x+t:t=1:dim a(5):for i=0 to 5:a(i)=fnq(i):next\n20 print a(5);ti>=0:read b:data 7";
+		Basic inter = new Basic(code);
+		inter.run(config);
+		Machine machine = inter.getMachine();
+		int slot = machine.getSlot("A[]");
+		int slotCount = machine.getSlotCount();
+		inter.run(config);
+		if (slot != machine.getSlot("A[]") || machine.getVariable(slot) != machine.getVariable("a[]")
+				|| ((Number) machine.getVariable(slot).getValue(5)).floatValue() != 26f
+				|| slotCount != machine.getSlotCount()
+				|| machine.getVariable(machine.getSlot("B")) != machine.getVariable("b")
+				|| ((Number) machine.getVariable("b").getValue()).floatValue() != 7f) {
+			throw new RuntimeException("Slot test failed!");
+		}
+	}
+
+	private static void testVariableTypes() {
+		System.out.println("testVariableTypes");
+		String code = "10 a=1/4:b%=7.9:c$=\"x\":dim d(2),e%(2),f$(2):d(1)=a*3:e%(2)=b%/2:f$(2)=c$+c$\n"
+				+ "20 print a;b%;c$;d(1);e%(2);f$(2):g=b%:g%=d(1)*2";
+		Basic inter = new Basic(code);
+		inter.run(config);
+		if (inter.getFloatVariable("a") != 0.25f || inter.getIntegerVariable("b%") != 7
+				|| !"x".equals(inter.getStringVariable("c$")) || inter.getFloatVariable("g") != 7f
+				|| inter.getIntegerVariable("g%") != 1) {
+			throw new RuntimeException("Variable test failed!");
+		}
+	}
+
+	private static void testStack() {
+		System.out.println("testStack");
+		String code = "10 fori=1to3:forj=1to2:gosub100:nextj,i:printa\n20 fori=1to5:fori=1to2:a=a+1:next:printa\n"
+				+ "30 end\n100 fork=1to3:a=a+1:ifk=2thenreturn\n110 next:return";
+		Basic inter = new Basic(code);
+		inter.run(config);
+		if (inter.getFloatVariable("a") != 14f) {
+			throw new RuntimeException("Stack test failed: " + inter.getFloatVariable("a"));
+		}
 	}
 
 	 
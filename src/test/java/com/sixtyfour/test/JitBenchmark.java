@@ -0,0 +1,81 @@
+package com.sixtyfour.test;
+
+import com.sixtyfour.config.CompilerConfig;
+import com.sixtyfour.elements.Variable;
+import com.sixtyfour.parser.Parser;
+import com.sixtyfour.parser.Term;
+import com.sixtyfour.system.Machine;
+import com.sixtyfour.util.CompiledTerm;
+import com.sixtyfour.util.TermCompiler;
+
+/**
+ * Measures the compile latency of the JIT compiler and the throughput of
+ * compiled terms compared to interpreted ones.
+ *
+ * @author EgonOlsen
+ *
+ */
+public class JitBenchmark {
+	private static CompilerConfig config = new CompilerConfig();
+
+	private static double sink = 0;
+
+	private static final String[] TERMS = { "a+b*2", "a * b * (-c*f+(t*r+-f*(g-z)-f*g/z^4)) + (-(d*u))*(p+(o*i*z))*z+u",
+			"sin(a/100)*cos(b/100)+sqr(abs(d-f))-int(u/3)", "(a and 15) or (b and 7) + not g" };
+
+	public static void main(String[] args) {
+		Machine machine = new Machine();
+		String[] names = { "A", "B", "C", "D", "F", "G", "Z", "T", "R", "P", "U", "O", "I" };
+		for (int i = 0; i < names.length; i++) {
+			machine.add(new Variable(names[i], 3 + i * 7));
+		}
+
+		for (String txt : TERMS) {
+			System.out.println("Term: " + txt);
+			Term term = Parser.getTerm(config, txt, machine, false, true);
+			testLatency(term, machine);
+			testThroughput(term, machine);
+		}
+	}
+
+	private static void testLatency(Term term, Machine machine) {
+		int runs = 2000;
+		for (int i = 0; i < runs; i++) {
+			TermCompiler.compile(term, machine);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < runs; i++) {
+			TermCompiler.compile(term, machine);
+		}
+		long time = System.nanoTime() - start;
+		System.out.println("Compile latency: " + (time / runs / 1000f) + " us");
+	}
+
+	private static void testThroughput(Term term, Machine machine) {
+		CompiledTerm compiled = TermCompiler.compile(term, machine);
+		if (compiled.evalNumber(machine) != term.evalNumber(machine)) {
+			throw new RuntimeException("Results differ: " + compiled.evalNumber(machine) + "/" + term.evalNumber(machine));
+		}
+		int runs = 10000000;
+		double sum = 0;
+		for (int p = 0; p < 2; p++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < runs; i++) {
+				sum += term.evalNumber(machine);
+			}
+			long timeInt = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < runs; i++) {
+				sum += compiled.evalNumber(machine);
+			}
+			long timeComp = System.nanoTime() - start;
+			if (p == 1) {
+				sink += sum;
+				System.out.println("Interpreted: " + (long) (runs / (timeInt / 1000000000d)) + " evals/sec / Compiled: "
+						+ (long) (runs / (timeComp / 1000000000d)) + " evals/sec");
+			}
+		}
+		System.out.println("Check sum: " + (sink != 0));
+	}
+}
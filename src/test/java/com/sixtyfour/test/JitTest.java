@@ -1,7 +1,11 @@
 package com.sixtyfour.test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
 import com.sixtyfour.Basic;
 import com.sixtyfour.Loader;
+import com.sixtyfour.Logger;
 import com.sixtyfour.config.CompilerConfig;
 import com.sixtyfour.elements.Variable;
 import com.sixtyfour.extensions.graphics.GraphicsBasic;
@@ -25,6 +29,58 @@ public class JitTest {
 		testComplexCalculation();
 		testFractal();
 		testMp2();
+		testCompiledLines();
+		testNestedLoops();
+	}
+
+	private static void testNestedLoops() {
+		System.out.println("testNestedLoops");
+		String[] prg = Loader.loadProgram("src/test/resources/basic/jitloops.bas");
+		Basic inty = new Basic(prg);
+		inty.run(config);
+		Basic jitted = new Basic(prg);
+		jitted.enableJit();
+		jitted.getMachine().getJit().setLineThreshold(10);
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		Logger.setPrintStream(new PrintStream(log, true));
+		try {
+			jitted.run(config);
+		} finally {
+			Logger.setPrintStream(System.out);
+		}
+		for (String var : new String[] { "S", "C", "Q", "P", "X" }) {
+			if (!inty.getFloatVariable(var).equals(jitted.getFloatVariable(var))) {
+				throw new RuntimeException("Results differ for " + var + ": " + inty.getFloatVariable(var) + "/"
+						+ jitted.getFloatVariable(var));
+			}
+		}
+		// The regions have to end at the NEXT that closes the outer loop, not at
+		// the first NEXT after the FOR.
+		String out = log.toString();
+		for (String region : new String[] { "6 line(s) compiled starting at line 20!",
+				"2 line(s) compiled starting at line 80!", "1 line(s) compiled starting at line 100!" }) {
+			if (!out.contains(region)) {
+				throw new RuntimeException("Region not found: " + region + "\n" + out);
+			}
+		}
+	}
+
+	private static void testCompiledLines() {
+		System.out.println("testCompiledLines");
+		String[] prg = Loader.loadProgram("src/test/resources/basic/jitlines.bas");
+		Basic inty = new Basic(prg);
+		inty.run(config);
+		Basic jitted = new Basic(prg);
+		jitted.enableJit();
+		jitted.getMachine().getJit().setLineThreshold(10);
+		jitted.run(config);
+		for (String var : new String[] { "S", "C", "P", "Q", "X", "Z" }) {
+			if (!inty.getFloatVariable(var).equals(jitted.getFloatVariable(var))) {
+				throw new RuntimeException("Results differ for " + var + ": " + inty.getFloatVariable(var) + "/"
+						+ jitted.getFloatVariable(var));
+			}
+		}
+		System.out.println("Compiled regions: " + jitted.getMachine().getJit().getCompiledLinesCount());
 	}
 
 	private static void testMp2() {
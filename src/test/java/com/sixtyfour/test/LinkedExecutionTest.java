@@ -0,0 +1,86 @@
+package com.sixtyfour.test;
+
+import com.sixtyfour.Basic;
+import com.sixtyfour.Loader;
+import com.sixtyfour.config.CompilerConfig;
+import com.sixtyfour.plugins.impl.ConsoleOutputChannel;
+
+/**
+ * Compares the linked execution mode of the interpreter with the default one.
+ * Both modes have to create the same output. The runtimes of both modes will be
+ * printed out as a rough indication. InterpreterBenchmark (in the jmh profile)
+ * measures both modes properly.
+ */
+public class LinkedExecutionTest {
+
+	private static CompilerConfig config = new CompilerConfig();
+
+	private static final String[] PROGRAMS = { "prime.bas", "prime2.bas", "go_to.bas", "onstuff.bas", "beer.bas",
+			"array.bas" };
+
+	public static void main(String[] args) {
+		for (String prg : PROGRAMS) {
+			testProgram("src/test/resources/basic/" + prg, 20);
+		}
+	}
+
+	private static void testProgram(String file, int runs) {
+		System.out.println("Testing: " + file);
+		String[] code = Loader.loadProgram(file);
+
+		String out = run(code, false);
+		String linkedOut = run(code, true);
+		if (!out.equals(linkedOut)) {
+			throw new RuntimeException("Output differs in linked mode: " + file);
+		}
+
+		// Prewarm
+		for (int i = 0; i < runs; i++) {
+			run(code, false);
+			run(code, true);
+		}
+
+		long time = System.nanoTime();
+		for (int i = 0; i < runs; i++) {
+			run(code, false);
+		}
+		long timeDefault = System.nanoTime() - time;
+
+		time = System.nanoTime();
+		for (int i = 0; i < runs; i++) {
+			run(code, true);
+		}
+		long timeLinked = System.nanoTime() - time;
+
+		System.out.println("Default: " + timeDefault / 1000000L + "ms / Linked: " + timeLinked / 1000000L + "ms");
+	}
+
+	private static String run(String[] code, boolean linked) {
+		final StringBuilder sb = new StringBuilder();
+		Basic basic = new Basic(code);
+		basic.setLinked(linked);
+		basic.setOutputChannel(new ConsoleOutputChannel() {
+			@Override
+			public void print(int id, String txt) {
+				sb.append(txt);
+			}
+
+			@Override
+			public void println(int id, String txt) {
+				sb.append(txt).append("\n");
+			}
+
+			@Override
+			public void systemPrint(int id, String txt) {
+				//
+			}
+
+			@Override
+			public void systemPrintln(int id, String txt) {
+				//
+			}
+		});
+		basic.run(config);
+		return sb.toString();
+	}
+}
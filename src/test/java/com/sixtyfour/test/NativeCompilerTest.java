@@ -9,16 +9,26 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 
+import com.sixtyfour.Assembler;
 import com.sixtyfour.Basic;
 import com.sixtyfour.Loader;
+import com.sixtyfour.cbmnative.CompilerMetrics;
+import com.sixtyfour.cbmnative.CompilerMetrics.PatternStats;
+import com.sixtyfour.cbmnative.CompilerMetrics.Stage;
 import com.sixtyfour.cbmnative.NativeCompiler;
 import com.sixtyfour.cbmnative.PseudoCpu;
 import com.sixtyfour.cbmnative.TermHelper;
+import com.sixtyfour.cbmnative.mos6502.c64.Platform64;
 import com.sixtyfour.config.CompilerConfig;
+import com.sixtyfour.config.MemoryConfig;
 import com.sixtyfour.elements.Variable;
 import com.sixtyfour.elements.functions.Spc;
 import com.sixtyfour.elements.functions.Tab;
@@ -30,6 +40,7 @@ import com.sixtyfour.parser.TermEnhancer;
 import com.sixtyfour.plugins.impl.RamSystemCallListener;
 import com.sixtyfour.system.Graphics;
 import com.sixtyfour.system.Machine;
+import com.sixtyfour.system.ProgramPart;
 
 public class NativeCompilerTest {
 
@@ -109,6 +120,95 @@ public class NativeCompilerTest {
 		// testFrog();
 		// test10Line();
 		testMidStrAnd();
+		testConcurrentCompiles();
+		testMetrics();
+	}
+
+	private static void testMetrics() {
+		System.out.println("\n\ntestMetrics");
+		String[] code = Loader.loadProgram("src/test/resources/basic/prime.bas");
+		List<String> ref = new NativeCompiler().compile(new CompilerConfig(), new Basic(code), new MemoryConfig(),
+				new Platform64());
+		CompilerConfig conf = new CompilerConfig();
+		CompilerMetrics metrics = new CompilerMetrics();
+		conf.setMetrics(metrics);
+		List<String> nCode = new NativeCompiler().compile(conf, new Basic(code), new MemoryConfig(),
+				new Platform64());
+		if (!removeLabelNumbers(ref).equals(removeLabelNumbers(nCode))) {
+			throw new RuntimeException("Collecting metrics changed the code!");
+		}
+		for (String name : new String[] { "parse", "intermediate code", "transform", "native optimization" }) {
+			Stage stage = metrics.getStage(name);
+			if (stage == null || stage.getWallTime() <= 0 || stage.getLinesOut() <= 0) {
+				throw new RuntimeException("Stage missing or incomplete: " + name);
+			}
+		}
+		if (metrics.getStage("native optimization").getLinesIn() != metrics.getStage("transform").getLinesOut()) {
+			throw new RuntimeException("Lines between stages don't match!");
+		}
+		long hits = 0;
+		for (PatternStats stats : metrics.getPatternStats()) {
+			hits += stats.getHits();
+			if (stats.getHits() > stats.getChecks()) {
+				throw new RuntimeException("More hits than checks: " + stats.getName());
+			}
+		}
+		if (hits == 0) {
+			throw new RuntimeException("No pattern hits recorded!");
+		}
+		System.out.println(metrics.toJson());
+	}
+
+	private static List<String> removeLabelNumbers(List<String> code) {
+		List<String> res = new ArrayList<>();
+		for (String line : code) {
+			res.add(line.replaceAll("[a-z]+\\d+_\\d+", "").replaceAll("(?<=[A-Z_])\\d+", ""));
+		}
+		return res;
+	}
+
+	private static void testConcurrentCompiles() throws Exception {
+		System.out.println("\n\ntestConcurrentCompiles");
+		String[] files = { "beer.bas", "prime.bas", "onstuff.bas", "readdata.bas", "fractal.bas", "maze.bas", "kalender.bas" };
+		List<Callable<List<int[]>>> jobs = new ArrayList<>();
+		for (String file : files) {
+			jobs.add(() -> compileToBinary("src/test/resources/basic/" + file));
+		}
+		List<List<int[]>> refs = new ArrayList<>();
+		for (Callable<List<int[]>> job : jobs) {
+			refs.add(job.call());
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int i = 0; i < 3; i++) {
+				List<Future<List<int[]>>> results = executor.invokeAll(jobs);
+				for (int p = 0; p < files.length; p++) {
+					List<int[]> ref = refs.get(p);
+					List<int[]> res = results.get(p).get();
+					for (int pp = 0; pp < Math.max(ref.size(), res.size()); pp++) {
+						if (pp >= ref.size() || pp >= res.size() || !Arrays.equals(ref.get(pp), res.get(pp))) {
+							throw new RuntimeException("Concurrent compile differs: " + files[p]);
+						}
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		System.out.println("Concurrent compiles ok!");
+	}
+
+	private static List<int[]> compileToBinary(String file) {
+		CompilerConfig conf = new CompilerConfig();
+		Basic basic = new Basic(Loader.loadProgram(file));
+		List<String> nCode = new NativeCompiler().compile(conf, basic, new MemoryConfig(), new Platform64());
+		Assembler assy = new Assembler(nCode);
+		assy.compile(conf);
+		List<int[]> bins = new ArrayList<>();
+		for (ProgramPart part : assy.getProgram().getParts()) {
+			bins.add(part.getBytes());
+		}
+		return bins;
 	}
 
 	private static void testMidStrAnd() {
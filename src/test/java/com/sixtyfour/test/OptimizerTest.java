@@ -1,9 +1,23 @@
 package com.sixtyfour.test;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.sixtyfour.Basic;
+import com.sixtyfour.Loader;
+import com.sixtyfour.Logger;
+import com.sixtyfour.cbmnative.NativeCompiler;
+import com.sixtyfour.cbmnative.PlatformProvider;
+import com.sixtyfour.cbmnative.Transformer;
+import com.sixtyfour.cbmnative.mos6502.Optimizer6502;
+import com.sixtyfour.cbmnative.mos6502.c64.Platform64;
 import com.sixtyfour.config.CompilerConfig;
+import com.sixtyfour.config.MemoryConfig;
 import com.sixtyfour.elements.commands.Command;
 import com.sixtyfour.parser.Atom;
 import com.sixtyfour.parser.Parser;
@@ -20,6 +34,123 @@ public class OptimizerTest {
 	public static void main(String[] args) {
 		testFolding1();
 		testFolding2();
+		testIncremental();
+		testThreads();
+		testCache();
+	}
+
+	private static void testCache() {
+		File file = new File("src/test/resources/transform/haushalt.bas");
+		Logger.setPrintStream(new PrintStream(OutputStream.nullOutputStream()));
+		File dir = null;
+		try {
+			dir = Files.createTempDirectory("mospeedcache").toFile();
+			CompilerConfig conf = new CompilerConfig();
+			PlatformProvider platform = new Platform64();
+			List<String> code = transform(file, conf, platform);
+			List<String> ref = new Optimizer6502().optimize(conf, platform, new ArrayList<>(code), null);
+			conf.setCacheDirectory(dir.getPath());
+			for (int i = 0; i < 2; i++) {
+				long s = System.currentTimeMillis();
+				List<String> res = new Optimizer6502().optimize(conf, platform, new ArrayList<>(code), null);
+				System.out.println(file.getName() + ": " + res.size() + " lines with "
+						+ (i == 0 ? "empty" : "filled") + " cache in " + (System.currentTimeMillis() - s) + "ms");
+				if (!ref.equals(res)) {
+					throw new RuntimeException("Optimizer's output with cache differs for " + file.getName());
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			Logger.setPrintStream(System.out);
+			delete(dir);
+		}
+	}
+
+	private static void delete(File file) {
+		if (file != null) {
+			File[] files = file.listFiles();
+			if (files != null) {
+				for (File child : files) {
+					delete(child);
+				}
+			}
+			file.delete();
+		}
+	}
+
+	private static void testThreads() {
+		String[] files = { "haushalt.bas", "irrgarten.bas", "wayout.bas", "neural.bas" };
+		Logger.setPrintStream(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			for (String file : files) {
+				CompilerConfig conf = new CompilerConfig();
+				PlatformProvider platform = new Platform64();
+				List<String> code = transform(new File("src/test/resources/transform/" + file), conf, platform);
+				List<String> ref = null;
+				for (int threads = 1; threads <= 4; threads++) {
+					conf.setThreads(threads);
+					long s = System.currentTimeMillis();
+					List<String> res = new Optimizer6502().optimize(conf, platform, new ArrayList<>(code), null);
+					System.out.println(file + ": " + res.size() + " lines with " + threads + " thread(s) in "
+							+ (System.currentTimeMillis() - s) + "ms");
+					if (ref == null) {
+						ref = res;
+					} else if (!ref.equals(res)) {
+						throw new RuntimeException("Optimizer's output for " + file + " depends on the number of threads!");
+					}
+				}
+			}
+		} finally {
+			Logger.setPrintStream(System.out);
+		}
+	}
+
+	private static List<String> transform(File file, CompilerConfig conf, PlatformProvider platform) {
+		platform.overrideConfig(conf);
+		Basic basic = new Basic(Loader.loadProgram(file.getPath()));
+		basic.compile(conf);
+		List<String> pseudo = NativeCompiler.getCompiler().compileToPseudoCode(conf, basic);
+		MemoryConfig memConfig = new MemoryConfig();
+		Transformer transformer = platform.getTransformer();
+		transformer.setVariableStart(memConfig.getVariableStart());
+		return transformer.transform(conf, memConfig, basic.getMachine(), platform, pseudo);
+	}
+
+	private static void testIncremental() {
+		File[] files = new File("src/test/resources/transform").listFiles((dir, name) -> name.endsWith(".bas"));
+		Logger.setPrintStream(new PrintStream(OutputStream.nullOutputStream()));
+		int cnt = 0;
+		try {
+			for (File file : files) {
+				List<String> code = null;
+				CompilerConfig conf = new CompilerConfig();
+				PlatformProvider platform = new Platform64();
+				try {
+					code = transform(file, conf, platform);
+				} catch (Exception e) {
+					System.out.println(file.getName() + ": skipped (" + e.getMessage() + ")");
+					continue;
+				}
+				Optimizer6502 opt = new Optimizer6502();
+				long s = System.currentTimeMillis();
+				List<String> res = opt.optimize(conf, platform, new ArrayList<>(code), null);
+				long t1 = System.currentTimeMillis() - s;
+				opt.setIncremental(false);
+				s = System.currentTimeMillis();
+				List<String> ref = opt.optimize(conf, platform, new ArrayList<>(code), null);
+				long t2 = System.currentTimeMillis() - s;
+				if (!res.equals(ref)) {
+					throw new RuntimeException("Incremental optimizer's output differs for " + file.getName());
+				}
+				System.out.println(file.getName() + ": " + code.size() + " -> " + res.size() + " lines, " + t1
+						+ "ms vs. " + t2 + "ms");
+				cnt++;
+			}
+		} finally {
+			Logger.setPrintStream(System.out);
+		}
+		System.out.println(cnt + " programs optimized, results are identical!");
 	}
 
 	private static void testFolding1() {
@@ -0,0 +1,103 @@
+package com.sixtyfour.test;
+
+import java.io.StringWriter;
+import java.util.List;
+
+import com.sixtyfour.Basic;
+import com.sixtyfour.Loader;
+import com.sixtyfour.Profiler;
+import com.sixtyfour.Profiler.Entry;
+import com.sixtyfour.config.CompilerConfig;
+
+/**
+ * Checks the results of the profiler for some programs.
+ */
+public class ProfilerTest {
+
+	private static CompilerConfig config = new CompilerConfig();
+
+	public static void main(String[] args) throws Exception {
+		testCounts();
+		testGosubChains();
+		testProgram("src/test/resources/basic/prime.bas");
+		testProgram("src/test/resources/basic/onstuff.bas");
+	}
+
+	private static void testCounts() {
+		System.out.println("\n\ntestCounts");
+		String[] code = { "10 for i=1 to 100", "20 a=a+i:b=a*2", "30 next", "40 print a" };
+		Profiler profiler = run(code, 16);
+		Entry line = find(profiler.getLineResults(), 20, -1);
+		if (line.getCount() != 100) {
+			throw new RuntimeException("Wrong count for line 20: " + line.getCount());
+		}
+		Entry cmd = find(profiler.getCommandResults(), 20, 1);
+		if (cmd.getCount() != 100) {
+			throw new RuntimeException("Wrong count for command 20/1: " + cmd.getCount());
+		}
+		if (find(profiler.getLineResults(), 40, -1).getCount() != 1) {
+			throw new RuntimeException("Wrong count for line 40!");
+		}
+		System.out.println(profiler.getReport(10));
+
+		profiler.reset();
+		if (!profiler.getLineResults().isEmpty() || !profiler.getCommandResults().isEmpty()) {
+			throw new RuntimeException("Results not cleared!");
+		}
+	}
+
+	private static void testGosubChains() throws Exception {
+		System.out.println("\n\ntestGosubChains");
+		String[] code = { "10 for i=1 to 10:gosub 100:next", "20 on 2 gosub 100,200", "30 end", "100 a=a+1",
+				"110 gosub 200:return", "200 b=b+1:return" };
+		// Every command has to be timed to get all stacks in this short program
+		Profiler profiler = run(code, 1);
+		if (find(profiler.getLineResults(), 200, -1).getCount() != 11) {
+			throw new RuntimeException("Wrong count for line 200!");
+		}
+		StringWriter sw = new StringWriter();
+		profiler.writeCollapsedStacks(sw);
+		String stacks = sw.toString();
+		System.out.println(stacks);
+		for (String stack : new String[] { "main;10 ", "main;GOSUB 100;110 ", "main;GOSUB 100;GOSUB 200;200 ",
+				"main;GOSUB 200;200 " }) {
+			if (!stacks.contains(stack)) {
+				throw new RuntimeException("Stack missing: " + stack);
+			}
+		}
+		if (stacks.contains("main;200 ")) {
+			throw new RuntimeException("Subroutine not detected!");
+		}
+	}
+
+	private static void testProgram(String file) throws Exception {
+		System.out.println("\n\nTesting: " + file);
+		Profiler profiler = run(Loader.loadProgram(file), 16);
+		StringWriter sw = new StringWriter();
+		profiler.writeCollapsedStacks(sw);
+		for (String line : sw.toString().split("\n")) {
+			if (!line.isEmpty() && !line.matches("main(;GOSUB \\d+)*;\\d+ \\d+")) {
+				throw new RuntimeException("Invalid stack: " + line);
+			}
+		}
+		System.out.println(profiler.getReport(5));
+	}
+
+	private static Profiler run(String[] code, int sampleInterval) {
+		Basic basic = new Basic(code);
+		Profiler profiler = new Profiler();
+		profiler.setSampleInterval(sampleInterval);
+		basic.setTracer(profiler);
+		basic.run(config);
+		return profiler;
+	}
+
+	private static Entry find(List<Entry> entries, int lineNumber, int position) {
+		for (Entry entry : entries) {
+			if (entry.getLineNumber() == lineNumber && entry.getPosition() == position) {
+				return entry;
+			}
+		}
+		throw new RuntimeException("No entry for " + lineNumber + "/" + position);
+	}
+}
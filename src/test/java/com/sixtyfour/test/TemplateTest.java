@@ -1,13 +1,22 @@
 package com.sixtyfour.test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import com.sixtyfour.config.CompilerConfig;
+import com.sixtyfour.templating.CompiledTemplate;
 import com.sixtyfour.templating.Template;
+import com.sixtyfour.templating.TemplateFactory;
 import com.sixtyfour.templating.TemplateManager;
+import com.sixtyfour.templating.TemplatePool;
 
 /**
  * A basic template example/test.
@@ -19,6 +28,184 @@ public class TemplateTest {
 		testTemplate();
 		testTemplateInclude();
 		testLabeledTemplate();
+		testPool("src/test/resources/templates/html.cbm");
+		testPool("src/test/resources/mixed/mixedhtml.cbm");
+		testStreaming();
+		testFlush();
+		testReload();
+		testEviction();
+	}
+
+	private static void testReload() throws Exception {
+		System.out.println("Testing reload");
+		TemplateManager tm = TemplateManager.getInstance();
+		tm.setCheckInterval(0);
+		File file = File.createTempFile("reload", ".cbm");
+		file.deleteOnExit();
+		try {
+			Files.writeString(file.toPath(), "<b><?cbm 10 PRINT \"old\"; ?></b>");
+			String path = file.getPath();
+			if (!tm.getTemplate(path).process().trim().equals("<b>old</b>")) {
+				throw new RuntimeException("Wrong output: " + tm.getTemplate(path).process());
+			}
+			TemplatePool pool = tm.getPool(path);
+
+			Files.writeString(file.toPath(), "<i><?cbm 10 PRINT \"new\"; ?></i>");
+			file.setLastModified(file.lastModified() + 10000);
+			if (!tm.getTemplate(path).process().trim().equals("<b>old</b>")) {
+				throw new RuntimeException("Template reloaded too early!");
+			}
+			tm.checkForChanges();
+			if (!tm.getTemplate(path).process().trim().equals("<i>new</i>")) {
+				throw new RuntimeException("Template not reloaded: " + tm.getTemplate(path).process());
+			}
+			if (tm.getPool(path) == pool || !tm.getPool(path).render(new HashMap<String, Object>()).trim().equals("<i>new</i>")) {
+				throw new RuntimeException("Pool not reloaded!");
+			}
+
+			// A broken template has to keep the last working version
+			Files.writeString(file.toPath(), "<i><?cbm 10 PRINT \"broken\"; </i>");
+			file.setLastModified(file.lastModified() + 20000);
+			tm.checkForChanges();
+			if (!tm.getTemplate(path).process().trim().equals("<i>new</i>")) {
+				throw new RuntimeException("Working version not kept: " + tm.getTemplate(path).process());
+			}
+		} finally {
+			tm.setCheckInterval(TemplateManager.DEFAULT_CHECK_INTERVAL);
+			file.delete();
+		}
+	}
+
+	private static void testEviction() throws Exception {
+		System.out.println("Testing eviction");
+		TemplateManager tm = TemplateManager.getInstance();
+		List<File> files = new ArrayList<File>();
+		try {
+			for (int i = 0; i < 4; i++) {
+				File file = File.createTempFile("evict", ".cbm");
+				file.deleteOnExit();
+				Files.writeString(file.toPath(), "<?cbm 10 PRINT " + i + "; ?>");
+				files.add(file);
+				tm.getTemplate(file.getPath()).process();
+			}
+			tm.setMaxTemplates(3);
+			if (tm.getTemplateCount() != 3) {
+				throw new RuntimeException("Wrong number of templates: " + tm.getTemplateCount());
+			}
+			// The last two templates have to survive another one being added
+			TemplatePool pool = tm.getPool(files.get(3).getPath());
+			tm.getTemplate(files.get(0).getPath()).process();
+			if (tm.getTemplateCount() != 3 || tm.getPool(files.get(3).getPath()) != pool) {
+				throw new RuntimeException("Wrong template removed!");
+			}
+		} finally {
+			tm.setMaxTemplates(TemplateManager.DEFAULT_MAX_TEMPLATES);
+			for (File file : files) {
+				file.delete();
+			}
+		}
+	}
+
+	private static void testStreaming() throws Exception {
+		System.out.println("Testing streaming");
+		String[] files = { "src/test/resources/templates/html.cbm", "src/test/resources/templates/includer.cbm",
+				"src/test/resources/mixed/mixedhtml.cbm" };
+		for (String file : files) {
+			Template templ = TemplateFactory.getTemplate(config, new FileInputStream(file), null);
+			templ.setPath(file);
+			Map<String, Object> vars = getPoolVariables(1);
+			vars.put("M$", "Gr\u00fc\u00dfe");
+			vars.put("EN%", 4);
+			vars.put("ST%", 2);
+			templ.setVariables(vars);
+			String expected = templ.process();
+
+			for (int size : new int[] { 1, 16, 100000 }) {
+				templ.setBufferSize(size);
+				StringWriter writer = new StringWriter();
+				templ.process(writer);
+				if (!writer.toString().equals(expected)) {
+					throw new RuntimeException("Streamed output differs (" + size + "): " + writer);
+				}
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				templ.process(bos);
+				if (!new String(bos.toByteArray(), StandardCharsets.UTF_8).equals(expected)) {
+					throw new RuntimeException("Streamed output differs (" + size + "): " + bos);
+				}
+			}
+		}
+	}
+
+	private static void testFlush() {
+		System.out.println("Testing flush");
+		final StringBuilder flushed = new StringBuilder();
+		final StringWriter writer = new StringWriter() {
+			@Override
+			public void flush() {
+				flushed.append("[" + getBuffer().length() + "]");
+			}
+		};
+		Template templ = new Template(config,
+				"<head>\u00e4</head><?cbm 10 SYS1001 ?><body><?cbm 20 FORI=1TO3:PRINTI;:NEXT ?></body>", null);
+		templ.process(writer);
+		if (!writer.toString().equals(templ.process())) {
+			throw new RuntimeException("Streamed output differs: " + writer);
+		}
+		if (!flushed.toString().equals("[14][36]")) {
+			throw new RuntimeException("Unexpected flushes: " + flushed);
+		}
+	}
+
+	private static void testPool(String file) throws Exception {
+		System.out.println("Testing pool: " + file);
+		CompiledTemplate compiled = TemplateFactory.getCompiledTemplate(config, new FileInputStream(file), file);
+		final TemplatePool pool = new TemplatePool(compiled, 2);
+
+		final List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 4; i++) {
+			Template templ = TemplateFactory.getTemplate(config, new FileInputStream(file), getPoolVariables(i));
+			expected.add(templ.process());
+		}
+
+		final List<String> errors = new ArrayList<String>();
+		List<Thread> ts = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			Thread tr = new Thread() {
+				@Override
+				public void run() {
+					for (int p = 0; p < 20; p++) {
+						int v = p % expected.size();
+						String res = pool.render(getPoolVariables(v));
+						if (!res.equals(expected.get(v))) {
+							synchronized (errors) {
+								errors.add(res);
+							}
+						}
+					}
+				}
+			};
+			tr.start();
+			ts.add(tr);
+		}
+
+		for (Thread t : ts) {
+			t.join();
+		}
+		if (!errors.isEmpty()) {
+			throw new RuntimeException("Pooled output differs: " + errors.get(0));
+		}
+		if (pool.getIdleCount() == 0 || pool.getIdleCount() > 2) {
+			throw new RuntimeException("Invalid number of idle instances: " + pool.getIdleCount());
+		}
+		System.out.println(pool.render(getPoolVariables(0)));
+	}
+
+	private static Map<String, Object> getPoolVariables(int variant) {
+		Map<String, Object> vars = new HashMap<String, Object>();
+		vars.put("CN", 3 + variant * 2);
+		vars.put("NA$", "Test " + variant);
+		vars.put("TT$", "Variant " + variant);
+		return vars;
 	}
 
 	private static void testTemplateInclude() {
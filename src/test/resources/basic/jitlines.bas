@@ -0,0 +1,13 @@
+10 s=0:c=0:p=0
+20 fori=1to500:a=i*3.7-(i/7)^2:s=s+a:pokei+1024,iand255:ifi>250thenc=c+1
+30 ifiand1thenp=p+peek(1024+i)
+40 next
+50 forj=1to200:fork=1to5:q=q+j*k:next:ifj=150thengosub200
+60 next
+70 n=0
+80 n=n+1:x=x+sqr(n):ifn<300goto80
+90 z=0:forj=1to3000:z=z+j:ifz>100000thenj=3000
+100 next
+110 printint(s);c;p;q;int(x*1000);z;j
+120 end
+200 print "gosub";j;k:return
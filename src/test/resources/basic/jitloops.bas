@@ -0,0 +1,13 @@
+10 s=0:c=0:q=0:p=0:x=0
+15 forr=1to20
+20 fori=1to3
+30 forj=1to5
+40 s=s+j*i
+50 nextj
+60 c=c+i
+70 nexti
+80 fork=1to4:forl=1to3:q=q+l:next:p=p+k
+90 nextk
+100 form=1to2:forn=1to2:x=x+n*m:nextn,m
+110 nextr
+120 prints;c;q;p;x